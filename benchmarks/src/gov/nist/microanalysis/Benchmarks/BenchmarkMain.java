@@ -0,0 +1,46 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * <p>
+ * The entry point for benchmarks.jar. Accepts the standard JMH command line
+ * but, unless told otherwise, writes the results as JSON to jmh-results.json
+ * so that each run leaves a machine-readable record that can be compared with
+ * the results from earlier releases. Specify "-rf text" (or csv, scsv, latex)
+ * and/or "-rff &lt;file&gt;" to override the default.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BenchmarkMain {
+
+   public static final String DEFAULT_RESULT_FORMAT = "json";
+   public static final String DEFAULT_RESULT_FILE = "jmh-results.json";
+
+   public static void main(String[] args) throws RunnerException, IOException {
+      final List<String> argList = new ArrayList<String>(Arrays.asList(args));
+      if (!(argList.contains("-rf") || argList.contains("-h") || argList.contains("-l"))) {
+         argList.add("-rf");
+         argList.add(DEFAULT_RESULT_FORMAT);
+         if (!argList.contains("-rff")) {
+            argList.add("-rff");
+            argList.add(DEFAULT_RESULT_FILE);
+         }
+      }
+      org.openjdk.jmh.Main.main(argList.toArray(new String[argList.size()]));
+   }
+}
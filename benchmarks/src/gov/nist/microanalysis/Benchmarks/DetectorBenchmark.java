@@ -0,0 +1,70 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+
+/**
+ * <p>
+ * Benchmarks EDSDetector.convolve() by recording a batch of x-ray events
+ * (uniformly distributed from 0.1 keV to 20 keV) and then requesting the
+ * spectrum. Reports the time per batch.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectorBenchmark {
+
+   @Param({"100", "10000"})
+   public int events;
+
+   private EDSDetector mDetector;
+   private double[] mEnergies;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      mDetector = Fixtures.detector();
+      final Random r = new Random(Fixtures.SEED);
+      mEnergies = new double[events];
+      for (int i = 0; i < events; ++i)
+         mEnergies[i] = ToSI.keV(0.1 + (19.9 * r.nextDouble()));
+   }
+
+   @Benchmark
+   public ISpectrumData convolve() {
+      mDetector.reset();
+      for (final double e : mEnergies)
+         mDetector.addEvent(e, 1.0);
+      return mDetector.getSpectrum(1.0);
+   }
+}
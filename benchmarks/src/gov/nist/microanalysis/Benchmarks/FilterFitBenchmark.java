@@ -0,0 +1,84 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EditableSpectrum;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.FilterFit;
+import gov.nist.microanalysis.EPQLibrary.FilterFitBatch;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+
+/**
+ * <p>
+ * Benchmarks FilterFit.getKRatios(...) (which calls perform()) on a simulated
+ * K412 spectrum against simulated references for O (MgO), Mg, Al, Si, Ca and
+ * Fe. Reports the time per fit. The batch benchmark fits the same spectrum
+ * using FilterFitBatch as it would for each pixel in a spectrum image.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterFitBenchmark {
+
+   private FilterFit mFit;
+   private ISpectrumData mUnknown;
+   private FilterFitBatch mBatch;
+   private double[] mCounts;
+   private double[] mKRatios;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException {
+      final EDSDetector det = Fixtures.detector();
+      mUnknown = new EditableSpectrum(Fixtures.simulate(Fixtures.k412(), det));
+      mFit = new FilterFit(det, ToSI.keV(Fixtures.BEAM_ENERGY_KEV), false);
+      mFit.addReference(Element.O, new EditableSpectrum(Fixtures.simulate(MaterialFactory.createMaterial(MaterialFactory.MagnesiumOxide), det)));
+      for (final Element elm : Fixtures.K412_MEASURED)
+         mFit.addReference(elm, new EditableSpectrum(Fixtures.simulate(MaterialFactory.createPureElement(elm), det)));
+      mBatch = new FilterFitBatch(mFit, mUnknown, mUnknown.getProperties());
+      mCounts = SpectrumUtils.toDoubleArray(mUnknown);
+      mKRatios = new double[mBatch.getReferenceCount()];
+   }
+
+   @Benchmark
+   public KRatioSet k412() throws EPQException {
+      return mFit.getKRatios(mUnknown);
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public double[] k412Batch() throws EPQException {
+      return mBatch.fit(mCounts, mKRatios);
+   }
+}
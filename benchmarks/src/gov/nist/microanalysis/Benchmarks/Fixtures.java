@@ -0,0 +1,240 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumSimulator;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.MultiPlaneShape;
+
+/**
+ * <p>
+ * The standard fixtures shared by the benchmarks. Each fixture is constructed
+ * deterministically from built-in materials and simulated spectra so that the
+ * benchmarks don't depend upon data files and the results are comparable
+ * between releases.
+ * </p>
+ * <ul>
+ * <li>A 20 keV beam on a bulk, flat Cu or Fe sample</li>
+ * <li>K412 glass (Mg, Al, Si, Ca and Fe measured against pure element
+ * standards, O by stoichiometry) at 20 keV and 40&deg; take-off</li>
+ * <li>A 256x256 pixel k-ratio map of K412 with 1% pixel-to-pixel scatter</li>
+ * <li>A 2048 channel, 10 eV/channel, 130 eV SDD</li>
+ * </ul>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class Fixtures {
+
+   public static final double BEAM_ENERGY_KEV = 20.0;
+   public static final double TAKE_OFF_DEG = 40.0;
+   public static final int CHANNEL_COUNT = 2048;
+   public static final double CHANNEL_WIDTH = 10.0;
+   public static final double FWHM = 130.0;
+   public static final int MAP_SIZE = 256;
+   public static final long SEED = 0x4B343132L;
+
+   /**
+    * The elements in K412 which are measured directly.
+    */
+   public static final Element[] K412_MEASURED = {
+      Element.Mg,
+      Element.Al,
+      Element.Si,
+      Element.Ca,
+      Element.Fe
+   };
+
+   private Fixtures() {
+   }
+
+   /**
+    * A MonteCarloSS configured with a 20 keV beam incident on a bulk, flat
+    * sample of the specified element.
+    *
+    * @param elm
+    * @return MonteCarloSS
+    * @throws EPQException
+    */
+   public static MonteCarloSS bulk(final Element elm) throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      mcss.setBeamEnergy(ToSI.keV(BEAM_ENERGY_KEV));
+      final Material mat = MaterialFactory.createPureElement(elm);
+      mcss.addSubRegion(mcss.getChamber(), mat, MultiPlaneShape.createSubstrate(new double[] {
+         0.0,
+         0.0,
+         -1.0
+      }, new double[] {
+         0.0,
+         0.0,
+         0.0
+      }));
+      return mcss;
+   }
+
+   public static Composition k412() throws EPQException {
+      return MaterialFactory.createMaterial(MaterialFactory.K412);
+   }
+
+   public static EDSDetector detector() {
+      return EDSDetector.createSDDDetector(CHANNEL_COUNT, CHANNEL_WIDTH, FWHM);
+   }
+
+   /**
+    * The SpectrumProperties for the standards and unknowns.
+    *
+    * @return SpectrumProperties
+    */
+   public static SpectrumProperties properties() {
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, BEAM_ENERGY_KEV);
+      props.setNumericProperty(SpectrumProperties.TakeOffAngle, TAKE_OFF_DEG);
+      return props;
+   }
+
+   /**
+    * Simulates a noise-free spectrum of the specified material as collected on
+    * the specified detector.
+    *
+    * @param comp
+    * @param det
+    * @return ISpectrumData
+    * @throws EPQException
+    */
+   public static ISpectrumData simulate(final Composition comp, final EDSDetector det) throws EPQException {
+      final SpectrumProperties props = new SpectrumProperties();
+      props.setDetector(det);
+      props.setNumericProperty(SpectrumProperties.BeamEnergy, BEAM_ENERGY_KEV);
+      props.setNumericProperty(SpectrumProperties.LiveTime, 60.0);
+      props.setNumericProperty(SpectrumProperties.ProbeCurrent, 1.0);
+      return SpectrumSimulator.Basic.generateSpectrum(comp, props, true);
+   }
+
+   /**
+    * The x-ray transition sets used to quantify K412.
+    *
+    * @return XRayTransitionSet[] in the order of K412_MEASURED
+    */
+   public static XRayTransitionSet[] k412Transitions() {
+      final XRayTransitionSet[] res = new XRayTransitionSet[K412_MEASURED.length];
+      for (int i = 0; i < res.length; ++i)
+         res[i] = new XRayTransitionSet(K412_MEASURED[i], XRayTransitionSet.K_FAMILY);
+      return res;
+   }
+
+   /**
+    * A CompositionFromKRatios configured to quantify K412 against pure element
+    * standards for the specified transitions with O by stoichiometry.
+    *
+    * @param xrtss
+    * @return CompositionFromKRatios
+    * @throws EPQException
+    */
+   public static CompositionFromKRatios k412Quant(final XRayTransitionSet[] xrtss) throws EPQException {
+      final CompositionFromKRatios cfk = new CompositionFromKRatios();
+      final SpectrumProperties props = properties();
+      for (final XRayTransitionSet xrts : xrtss)
+         cfk.addStandard(xrts, MaterialFactory.createPureElement(xrts.getElement()), props);
+      cfk.addUnmeasuredElementRule(new CompositionFromKRatios.OxygenByStoichiometry(Arrays.asList(K412_MEASURED)));
+      return cfk;
+   }
+
+   /**
+    * The k-ratios of K412 relative to pure element standards for the
+    * specified transitions.
+    *
+    * @param cfk
+    *           A CompositionFromKRatios configured via k412Quant(xrtss)
+    * @param xrtss
+    * @return KRatioSet
+    * @throws EPQException
+    */
+   public static KRatioSet k412KRatios(final CompositionFromKRatios cfk, final XRayTransitionSet[] xrtss) throws EPQException {
+      final Composition k412 = k412();
+      final SpectrumProperties props = properties();
+      final KRatioSet krs = new KRatioSet();
+      for (final XRayTransitionSet xrts : xrtss)
+         krs.addKRatio(xrts, k412.weightFraction(xrts.getElement(), true) * cfk.compute(xrts, k412, props), 0.0);
+      return krs;
+   }
+
+   /**
+    * The regions of interest (one per measured element in K412) for a k-ratio
+    * map collected on the standard detector.
+    *
+    * @return RegionOfInterest[]
+    */
+   public static RegionOfInterest[] k412Regions() {
+      final EDSDetector det = detector();
+      final List<RegionOfInterest> res = new ArrayList<RegionOfInterest>();
+      for (final Element elm : K412_MEASURED) {
+         final RegionOfInterestSet rois = new RegionOfInterestSet(det.getDetectorLineshapeModel(), 0.001);
+         rois.add(new XRayTransitionSet(elm, XRayTransitionSet.K_FAMILY));
+         res.add(rois.iterator().next());
+      }
+      return res.toArray(new RegionOfInterest[res.size()]);
+   }
+
+   /**
+    * The x-ray transition sets MapImage.quantify(...) uses for the specified
+    * regions of interest.
+    *
+    * @param rois
+    * @return XRayTransitionSet[]
+    */
+   public static XRayTransitionSet[] mapTransitions(final RegionOfInterest[] rois) {
+      final XRayTransitionSet[] res = new XRayTransitionSet[rois.length];
+      for (int i = 0; i < rois.length; ++i)
+         res[i] = new XRayTransitionSet(rois[i].getXRayTransitionSet(rois[i].getElementSet().first()).getWeighiestTransition());
+      return res;
+   }
+
+   /**
+    * A size x size map of K412 k-ratios with 1% (one sigma) pixel-to-pixel
+    * scatter.
+    *
+    * @param size
+    * @param rois
+    *           From k412Regions()
+    * @param cfk
+    *           From k412Quant(mapTransitions(rois))
+    * @return MapImage
+    * @throws EPQException
+    */
+   public static MapImage k412Map(final int size, final RegionOfInterest[] rois, final CompositionFromKRatios cfk) throws EPQException {
+      final XRayTransitionSet[] xrtss = mapTransitions(rois);
+      final KRatioSet krs = k412KRatios(cfk, xrtss);
+      final MapImage res = new MapImage(size, size, rois, "K412", MapImage.DataType.K_RATIOS);
+      final Random r = new Random(SEED);
+      for (int y = 0; y < size; ++y)
+         for (int x = 0; x < size; ++x)
+            for (int i = 0; i < xrtss.length; ++i)
+               res.set(x, y, i, krs.getKRatio(xrtss[i]) * (1.0 + (0.01 * r.nextGaussian())));
+      return res;
+   }
+}
@@ -0,0 +1,68 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+
+/**
+ * <p>
+ * Benchmarks MapImage.quantify(...) on a K412 k-ratio map (256x256 pixels by
+ * default). Each invocation quantifies the whole map so this runs in
+ * single-shot mode and reports the time per map.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MapQuantificationBenchmark {
+
+   @Param({"256"})
+   public int size;
+
+   private CompositionFromKRatios mQuant;
+   private MapImage mMap;
+   private SpectrumProperties mProps;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException {
+      final RegionOfInterest[] rois = Fixtures.k412Regions();
+      mQuant = Fixtures.k412Quant(Fixtures.mapTransitions(rois));
+      mMap = Fixtures.k412Map(size, rois, mQuant);
+      mProps = Fixtures.properties();
+   }
+
+   @Benchmark
+   public MapImage quantify() {
+      return mMap.quantify(mQuant, mProps, false);
+   }
+}
@@ -0,0 +1,94 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.MACCache;
+import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+
+/**
+ * <p>
+ * Benchmarks MassAbsorptionCoefficient.compute(...) for K412 over a sweep of
+ * 256 energies between 0.2 keV and 20 keV, both directly and through the exact
+ * and interpolated MACCache paths. Reports the time per sweep.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MassAbsorptionBenchmark {
+
+   private static final int ENERGIES = 256;
+
+   private final MassAbsorptionCoefficient mMac = MassAbsorptionCoefficient.Chantler2005;
+   private Composition mK412;
+   private Material mK412Mat;
+   private double[] mEnergies;
+   private MACCache mCache;
+   private MACCache mInterpolated;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException {
+      mK412 = Fixtures.k412();
+      mK412Mat = new Material(mK412, 2.6e3);
+      mEnergies = new double[ENERGIES];
+      for (int i = 0; i < ENERGIES; ++i)
+         mEnergies[i] = ToSI.keV(0.2 * Math.pow(100.0, (double) i / (ENERGIES - 1)));
+      final double maxE = ToSI.keV(Fixtures.BEAM_ENERGY_KEV);
+      mCache = new MACCache(maxE, mMac);
+      mInterpolated = new MACCache(maxE, mMac);
+      mInterpolated.setInterpolationEnabled(true);
+   }
+
+   @Benchmark
+   public double compute() {
+      double sum = 0.0;
+      for (final double e : mEnergies)
+         sum += mMac.compute(mK412, e);
+      return sum;
+   }
+
+   @Benchmark
+   public double cached() {
+      double sum = 0.0;
+      for (final double e : mEnergies)
+         sum += mCache.getMAC(mK412Mat, e);
+      return sum;
+   }
+
+   @Benchmark
+   public double interpolated() {
+      double sum = 0.0;
+      for (final double e : mEnergies)
+         sum += mInterpolated.getInterpolatedMAC(mK412Mat, e);
+      return sum;
+   }
+}
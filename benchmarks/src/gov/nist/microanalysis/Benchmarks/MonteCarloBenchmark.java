@@ -0,0 +1,92 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.NISTMonte.BackscatterStats;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.Gen3.BremsstrahlungXRayGeneration3;
+import gov.nist.microanalysis.NISTMonte.Gen3.CharacteristicXRayGeneration3;
+import gov.nist.microanalysis.NISTMonte.Gen3.XRayTransport3;
+
+/**
+ * <p>
+ * Benchmarks MonteCarloSS electron transport (takeStep(...) via
+ * runMultipleTrajectories(...)) for a 20 keV beam on bulk Cu and Fe. The
+ * "xrays" parameter adds characteristic and bremsstrahlung generation and
+ * transport to a detector at 40&deg;. The "compiled" parameter replaces the
+ * material models with CompiledMaterialModel. Trajectories are run in batches of TRAJECTORIES but the
+ * result is reported as the time per trajectory.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MonteCarloBenchmark {
+
+   public static final int TRAJECTORIES = 100;
+
+   @Param({"Cu", "Fe"})
+   public String element;
+
+   @Param({"false", "true"})
+   public boolean xrays;
+
+   @Param({"false", "true"})
+   public boolean compiled;
+
+   private MonteCarloSS mMonte;
+   private BackscatterStats mStats;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException {
+      mMonte = Fixtures.bulk(Element.byName(element));
+      mMonte.setRandomSeed(Fixtures.SEED);
+      if (compiled)
+         mMonte.compileScatterModels();
+      mStats = new BackscatterStats(mMonte);
+      mMonte.addActionListener(mStats);
+      if (xrays) {
+         final double[] det = mMonte.computeDetectorPosition(Math.toRadians(Fixtures.TAKE_OFF_DEG), 0.0);
+         final CharacteristicXRayGeneration3 cxg = CharacteristicXRayGeneration3.create(mMonte);
+         XRayTransport3.create(mMonte, det, cxg);
+         final BremsstrahlungXRayGeneration3 bxg = BremsstrahlungXRayGeneration3.create(mMonte);
+         XRayTransport3.create(mMonte, det, bxg);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(TRAJECTORIES)
+   public double trajectory() {
+      mMonte.runMultipleTrajectories(TRAJECTORIES);
+      return mStats.backscatterFraction();
+   }
+}
@@ -0,0 +1,65 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+
+/**
+ * <p>
+ * Benchmarks CompositionFromKRatios.compute(...) for K412 glass measured
+ * against pure element standards with O by stoichiometry. Reports the time per
+ * quantification.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantificationBenchmark {
+
+   private CompositionFromKRatios mQuant;
+   private KRatioSet mKRatios;
+   private SpectrumProperties mProps;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException {
+      final XRayTransitionSet[] xrtss = Fixtures.k412Transitions();
+      mQuant = Fixtures.k412Quant(xrtss);
+      mKRatios = Fixtures.k412KRatios(mQuant, xrtss);
+      mProps = Fixtures.properties();
+   }
+
+   @Benchmark
+   public Composition k412() throws EPQException {
+      return mQuant.compute(mKRatios, mProps);
+   }
+}
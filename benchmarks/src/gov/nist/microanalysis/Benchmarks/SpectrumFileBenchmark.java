@@ -0,0 +1,83 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import gov.nist.microanalysis.EPQTools.SpectrumFile;
+import gov.nist.microanalysis.EPQTools.WriteSpectrumAsEMSA1_0;
+
+/**
+ * <p>
+ * Benchmarks the spectrum file readers on a simulated 2048 channel K412
+ * spectrum written in EMSA format. "emsa" parses the file from memory while
+ * "open" goes through SpectrumFile.open(...) (format detection and parsing)
+ * from a temporary file. Reports the time per spectrum.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumFileBenchmark {
+
+   private byte[] mEMSA;
+   private File mFile;
+
+   @Setup(Level.Trial)
+   public void setup() throws EPQException, IOException {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      WriteSpectrumAsEMSA1_0.write(Fixtures.simulate(Fixtures.k412(), Fixtures.detector()), bos, WriteSpectrumAsEMSA1_0.Mode.COMPATIBLE);
+      mEMSA = bos.toByteArray();
+      mFile = File.createTempFile("K412", ".msa");
+      try (final FileOutputStream fos = new FileOutputStream(mFile)) {
+         fos.write(mEMSA);
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      mFile.delete();
+   }
+
+   @Benchmark
+   public ISpectrumData emsa() throws IOException {
+      return new EMSAFile(new ByteArrayInputStream(mEMSA));
+   }
+
+   @Benchmark
+   public ISpectrumData[] open() throws EPQException {
+      return SpectrumFile.open(mFile);
+   }
+}
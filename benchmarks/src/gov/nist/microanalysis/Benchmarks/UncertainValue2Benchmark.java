@@ -0,0 +1,84 @@
+package gov.nist.microanalysis.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nist.microanalysis.Utility.UncertainValue2;
+
+/**
+ * <p>
+ * Benchmarks the UncertainValue2 arithmetic operations. The workload mimics a
+ * matrix correction step - a handful of k-ratios, each carrying several named
+ * and anonymous components, which are combined by multiplying, dividing,
+ * adding and exponentiating (11 operations per element). Reports the time per
+ * pass over the elements. Run with -prof gc to see the allocation rate.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UncertainValue2Benchmark {
+
+   @Param({"6"})
+   public int elements;
+
+   private UncertainValue2[] mKRatios;
+   private UncertainValue2[] mStandards;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      mKRatios = new UncertainValue2[elements];
+      mStandards = new UncertainValue2[elements];
+      for (int i = 0; i < elements; ++i) {
+         final UncertainValue2 k = new UncertainValue2(0.1 + (0.05 * i), "I[" + i + ",unk]", 0.002);
+         k.assignComponent("I[" + i + ",std]", 0.001);
+         k.assignComponent("dose", 0.0005);
+         mKRatios[i] = k;
+         final UncertainValue2 std = new UncertainValue2(0.2 + (0.1 * i), 0.001);
+         std.assignComponent("C[" + i + ",std]", 0.003);
+         mStandards[i] = std;
+      }
+   }
+
+   @Benchmark
+   public double correction() {
+      double res = 0.0;
+      UncertainValue2 sum = UncertainValue2.ZERO;
+      for (int i = 0; i < mKRatios.length; ++i) {
+         final UncertainValue2 k = mKRatios[i], std = mStandards[i];
+         final UncertainValue2 zaf = UncertainValue2.exp(UncertainValue2.multiply(-0.1, k));
+         final UncertainValue2 c = UncertainValue2.divide(UncertainValue2.multiply(k, std), zaf);
+         final UncertainValue2 f = UncertainValue2.add(1.0, c, -0.5, k);
+         final UncertainValue2 g = UncertainValue2.multiply(f, UncertainValue2.invert(std));
+         final UncertainValue2 h = UncertainValue2.subtract(g, UncertainValue2.log(zaf));
+         sum = UncertainValue2.add(sum, UncertainValue2.multiply(h, h));
+         res += sum.uncertainty();
+      }
+      return res;
+   }
+}
@@ -28,6 +28,8 @@ import java.awt.event.MouseEvent;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.prefs.Preferences;
@@ -505,32 +507,48 @@ public class ImportDialog extends JDialog {
                mImported = new HTMLList();
                mImported.setHeader("Importing spectra into database</i>");
                int errs = 0;
+               final ArrayList<ISpectrumData> specs = new ArrayList<ISpectrumData>();
                for (int i = 0; i < lm.getSize(); ++i) {
                   final ISpectrumData spec = SpectrumUtils.applyEDSDetector(detector, lm.getElementAt(i));
+                  final SpectrumProperties props = spec.getProperties();
+                  props.setTextProperty(SpectrumProperties.InstrumentOperator, operator);
+                  props.setObjectProperty(SpectrumProperties.ProjectName, project);
+                  specs.add(spec);
+               }
+               pm.setNote("Importing " + Integer.toString(specs.size()) + " spectra");
+               List<Session.ImportResult> results = Collections.emptyList();
+               try {
+                  results = mSession.addSpectra(specs, false, Runtime.getRuntime().availableProcessors(), new ActionListener() {
+                     @Override
+                     public void actionPerformed(ActionEvent e) {
+                        pm.setNote("Imported " + Integer.toString(e.getID()) + " of " + Integer.toString(specs.size()));
+                        pm.setProgress(e.getID());
+                     }
+                  });
+               } catch (final Exception e) {
+                  errs = specs.size();
+                  sb.append("Error importing spectra\n");
+                  sb.append(e.getMessage());
+                  sb.append("\n");
+               }
+               for (final Session.ImportResult ir : results) {
+                  final ISpectrumData spec = ir.getSpectrum();
                   final String name = spec.getProperties().getTextWithDefault(SpectrumProperties.SourceFile, spec.toString());
-                  pm.setNote("Importing " + name);
-                  pm.setProgress(i);
-                  try {
-                     final SpectrumProperties props = spec.getProperties();
-                     props.setTextProperty(SpectrumProperties.InstrumentOperator, operator);
-                     props.setObjectProperty(SpectrumProperties.ProjectName, project);
-                     mSession.addSpectrum(spec, false);
+                  if (ir.isImported()) {
                      final Composition stdComp = spec.getProperties().getCompositionWithDefault(SpectrumProperties.StandardComposition, null);
                      if (stdComp == null)
                         mImported.add(name + " imported.");
                      else
                         mImported.add(name + " imported as " + stdComp.toString() + ".");
-                  } catch (final Exception e) {
+                  } else {
                      ++errs;
                      mImported.addError(name + " was not imported into " + mSession.toString());
                      sb.append("Error importing: <i>");
                      sb.append(name);
                      sb.append("</i>\n");
-                     sb.append(e.getMessage());
+                     sb.append(ir.getError().getMessage());
                      sb.append("\n");
                   }
-                  if (pm.isCanceled())
-                     break;
                }
                if (errs > 0) {
                   final StringBuffer msg = new StringBuffer();
@@ -0,0 +1,651 @@
+package gov.nist.microanalysis.EPQDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ParticleSignature;
+
+/**
+ * <p>
+ * An index over the ParticleSignature objects associated with spectra in the
+ * database. Each signature is identified by an integer (usually the ID of the
+ * SPECTRUM record). The index answers the tolerance queries performed by
+ * <code>Session.find(ParticleSignature, double, int)</code> and
+ * k-nearest-neighbour queries based on the Euclidean distance between the
+ * element fractions without touching the database.
+ * </p>
+ * <p>
+ * The signatures are stored sparsely (typically a handful of elements per
+ * particle) along with, for each element, a list of the signatures containing
+ * the element sorted by fraction. A tolerance query binary searches the most
+ * selective of these lists and then checks the remaining elements of each
+ * candidate. Nearest neighbour queries scan the compact sparse representation.
+ * Space partitioning trees were not used as they degrade to a linear scan in
+ * ~100 dimensions.
+ * </p>
+ * <p>
+ * The index may be written to a file. The file is memory mapped when read so
+ * large indices open quickly and are shared via the operating system's page
+ * cache. Signatures added after the index was built are held in a small
+ * secondary index which is merged into the primary index as it grows or when
+ * the index is written. The methods are synchronized so an index may be shared
+ * between threads.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class ParticleSignatureIndex {
+
+   private static final int MAGIC = 0x50534958; // "PSIX"
+   private static final int VERSION = 1;
+   // MAGIC, VERSION, size, non-zero count, max ID
+   private static final int HEADER_SIZE = 5 * Integer.BYTES;
+   private static final int N_ELEMENTS = Element.elmEndOfElements;
+   private static final int MIN_MERGE_SIZE = 4096;
+
+   /**
+    * The sparse signatures in compressed row format along with one list per
+    * element of the signatures containing the element sorted by fraction. The
+    * buffers are either heap buffers or slices of a memory mapped file.
+    */
+   private static final class Segment {
+      private final int mSize;
+      private final int mNonZero;
+      private final IntBuffer mIds;
+      private final IntBuffer mOffsets;
+      private final ByteBuffer mZ;
+      private final FloatBuffer mFraction;
+      private final FloatBuffer mNorm2;
+      private final IntBuffer mListOffsets;
+      private final IntBuffer mListEntries;
+      private final FloatBuffer mListFractions;
+
+      private Segment(int size, int nonZero, IntBuffer ids, IntBuffer offsets, ByteBuffer z, FloatBuffer fraction, FloatBuffer norm2,
+            IntBuffer listOffsets, IntBuffer listEntries, FloatBuffer listFractions) {
+         mSize = size;
+         mNonZero = nonZero;
+         mIds = ids;
+         mOffsets = offsets;
+         mZ = z;
+         mFraction = fraction;
+         mNorm2 = norm2;
+         mListOffsets = listOffsets;
+         mListEntries = listEntries;
+         mListFractions = listFractions;
+      }
+
+      /**
+       * Maps float bits onto ints which sort in the same order as the floats.
+       */
+      private static int sortable(float f) {
+         final int bits = Float.floatToIntBits(f);
+         return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+      }
+
+      private static Segment build(int size, int[] ids, int[] offsets, byte[] z, float[] fraction) {
+         final int nonZero = offsets[size];
+         final float[] norm2 = new float[size];
+         final int[] listOffsets = new int[N_ELEMENTS + 1];
+         for (int i = 0; i < size; ++i) {
+            double n2 = 0.0;
+            for (int j = offsets[i]; j < offsets[i + 1]; ++j) {
+               n2 += (double) fraction[j] * fraction[j];
+               ++listOffsets[(z[j] & 0xFF) + 1];
+            }
+            norm2[i] = (float) n2;
+         }
+         for (int zz = 0; zz < N_ELEMENTS; ++zz)
+            listOffsets[zz + 1] += listOffsets[zz];
+         // Sort each element's list by fraction using (fraction, entry) keys
+         final long[] keys = new long[nonZero];
+         final int[] next = Arrays.copyOf(listOffsets, N_ELEMENTS);
+         for (int i = 0; i < size; ++i)
+            for (int j = offsets[i]; j < offsets[i + 1]; ++j)
+               keys[next[z[j] & 0xFF]++] = ((long) sortable(fraction[j]) << 32) | i;
+         final int[] listEntries = new int[nonZero];
+         final float[] listFractions = new float[nonZero];
+         for (int zz = 0; zz < N_ELEMENTS; ++zz) {
+            Arrays.sort(keys, listOffsets[zz], listOffsets[zz + 1]);
+            for (int k = listOffsets[zz]; k < listOffsets[zz + 1]; ++k) {
+               final int entry = (int) keys[k];
+               listEntries[k] = entry;
+               listFractions[k] = fractionOf(offsets, z, fraction, entry, zz);
+            }
+         }
+         return new Segment(size, nonZero, IntBuffer.wrap(Arrays.copyOf(ids, size)), IntBuffer.wrap(Arrays.copyOf(offsets, size + 1)),
+               ByteBuffer.wrap(Arrays.copyOf(z, nonZero)), FloatBuffer.wrap(Arrays.copyOf(fraction, nonZero)), FloatBuffer.wrap(norm2),
+               IntBuffer.wrap(listOffsets), IntBuffer.wrap(listEntries), FloatBuffer.wrap(listFractions));
+      }
+
+      private static float fractionOf(int[] offsets, byte[] z, float[] fraction, int entry, int zz) {
+         for (int j = offsets[entry]; j < offsets[entry + 1]; ++j)
+            if ((z[j] & 0xFF) == zz)
+               return fraction[j];
+         return 0.0f;
+      }
+
+      private static int padded(int nBytes) {
+         return (nBytes + 3) & ~3;
+      }
+
+      private static int sizeOf(int size, int nonZero) {
+         return HEADER_SIZE + Integer.BYTES * (2 * size + 1) + padded(nonZero) + Float.BYTES * (nonZero + size)
+               + Integer.BYTES * (N_ELEMENTS + 1 + nonZero) + Float.BYTES * nonZero;
+      }
+
+      /**
+       * Creates a Segment backed by the buffer <code>bb</code> which contains
+       * a validated header.
+       */
+      private static Segment map(ByteBuffer bb, int size, int nonZero) {
+         int pos = HEADER_SIZE;
+         final IntBuffer ids = bb.slice(pos, Integer.BYTES * size).order(bb.order()).asIntBuffer();
+         pos += Integer.BYTES * size;
+         final IntBuffer offsets = bb.slice(pos, Integer.BYTES * (size + 1)).order(bb.order()).asIntBuffer();
+         pos += Integer.BYTES * (size + 1);
+         final ByteBuffer z = bb.slice(pos, nonZero);
+         pos += padded(nonZero);
+         final FloatBuffer fraction = bb.slice(pos, Float.BYTES * nonZero).order(bb.order()).asFloatBuffer();
+         pos += Float.BYTES * nonZero;
+         final FloatBuffer norm2 = bb.slice(pos, Float.BYTES * size).order(bb.order()).asFloatBuffer();
+         pos += Float.BYTES * size;
+         final IntBuffer listOffsets = bb.slice(pos, Integer.BYTES * (N_ELEMENTS + 1)).order(bb.order()).asIntBuffer();
+         pos += Integer.BYTES * (N_ELEMENTS + 1);
+         final IntBuffer listEntries = bb.slice(pos, Integer.BYTES * nonZero).order(bb.order()).asIntBuffer();
+         pos += Integer.BYTES * nonZero;
+         final FloatBuffer listFractions = bb.slice(pos, Float.BYTES * nonZero).order(bb.order()).asFloatBuffer();
+         return new Segment(size, nonZero, ids, offsets, z, fraction, norm2, listOffsets, listEntries, listFractions);
+      }
+
+      private void write(ByteBuffer bb) {
+         for (int i = 0; i < mSize; ++i)
+            bb.putInt(mIds.get(i));
+         for (int i = 0; i <= mSize; ++i)
+            bb.putInt(mOffsets.get(i));
+         for (int j = 0; j < mNonZero; ++j)
+            bb.put(mZ.get(j));
+         for (int j = mNonZero; j < padded(mNonZero); ++j)
+            bb.put((byte) 0);
+         for (int j = 0; j < mNonZero; ++j)
+            bb.putFloat(mFraction.get(j));
+         for (int i = 0; i < mSize; ++i)
+            bb.putFloat(mNorm2.get(i));
+         for (int zz = 0; zz <= N_ELEMENTS; ++zz)
+            bb.putInt(mListOffsets.get(zz));
+         for (int j = 0; j < mNonZero; ++j)
+            bb.putInt(mListEntries.get(j));
+         for (int j = 0; j < mNonZero; ++j)
+            bb.putFloat(mListFractions.get(j));
+      }
+
+      private float fraction(int entry, int zz) {
+         for (int j = mOffsets.get(entry), end = mOffsets.get(entry + 1); j < end; ++j)
+            if ((mZ.get(j) & 0xFF) == zz)
+               return mFraction.get(j);
+         return 0.0f;
+      }
+
+      /**
+       * The first index in the list for element zz with a fraction greater
+       * than or equal to (or strictly greater than if <code>upper</code>)
+       * <code>f</code>.
+       */
+      private int search(int zz, float f, boolean upper) {
+         int lo = mListOffsets.get(zz), hi = mListOffsets.get(zz + 1);
+         while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final float v = mListFractions.get(mid);
+            if (upper ? v <= f : v < f)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+         return lo;
+      }
+
+      private boolean matches(Query q, int entry) {
+         for (int k = 0; k < q.mZ.length; ++k) {
+            final float f = fraction(entry, q.mZ[k]);
+            if ((f < q.mMin[k]) || (f > q.mMax[k]))
+               return false;
+         }
+         return true;
+      }
+
+      private double distance2(Query q, int entry) {
+         double dot = 0.0;
+         for (int k = 0; k < q.mZ.length; ++k)
+            dot += q.mValue[k] * fraction(entry, q.mZ[k]);
+         return Math.max(0.0, q.mNorm2 + mNorm2.get(entry) - 2.0 * dot);
+      }
+
+      private void findWithinTolerance(Query q, PriorityQueue<Match> best, int maxResults) {
+         // Drive the search from the element with the shortest candidate list
+         int begin = 0, end = mSize;
+         boolean useList = false;
+         for (int k = 0; k < q.mZ.length; ++k)
+            if (q.mMin[k] > 0.0f) {
+               final int b = search(q.mZ[k], q.mMin[k], false), e = search(q.mZ[k], q.mMax[k], true);
+               if ((!useList) || ((e - b) < (end - begin))) {
+                  begin = b;
+                  end = e;
+                  useList = true;
+               }
+            }
+         for (int k = begin; k < end; ++k) {
+            final int entry = useList ? mListEntries.get(k) : k;
+            if (matches(q, entry))
+               offer(best, new Match(mIds.get(entry), distance2(q, entry)), maxResults);
+         }
+      }
+
+      private void findNearest(Query q, PriorityQueue<Match> best, int k) {
+         for (int entry = 0; entry < mSize; ++entry) {
+            final double d2 = distance2(q, entry);
+            if ((best.size() < k) || (d2 < best.peek().mDistance2))
+               offer(best, new Match(mIds.get(entry), d2), k);
+         }
+      }
+   }
+
+   /**
+    * A query signature in sparse form along with the tolerance limits.
+    */
+   private static final class Query {
+      private final int[] mZ;
+      private final double[] mValue;
+      private final float[] mMin;
+      private final float[] mMax;
+      private final double mNorm2;
+
+      private Query(ParticleSignature sig, double tol) {
+         final Set<Element> elms = sig.getUnstrippedElementSet();
+         mZ = new int[elms.size()];
+         mValue = new double[elms.size()];
+         mMin = new float[elms.size()];
+         mMax = new float[elms.size()];
+         double n2 = 0.0;
+         int k = 0;
+         for (final Element elm : elms) {
+            final double v = (float) sig.get(elm);
+            // Same limits as Session.find(ParticleSignature, double, int)
+            final double delta = Math.max(sig.get(elm), 0.1) * tol;
+            mZ[k] = elm.getAtomicNumber();
+            mValue[k] = v;
+            mMin[k] = (float) Math.max(0.0, sig.get(elm) - delta);
+            mMax[k] = (float) Math.min(1.0, sig.get(elm) + delta);
+            n2 += v * v;
+            ++k;
+         }
+         mNorm2 = n2;
+      }
+   }
+
+   private static final class Match {
+      private final int mId;
+      private final double mDistance2;
+
+      private Match(int id, double distance2) {
+         mId = id;
+         mDistance2 = distance2;
+      }
+   }
+
+   private static void offer(PriorityQueue<Match> best, Match m, int max) {
+      best.add(m);
+      if (best.size() > max)
+         best.poll();
+   }
+
+   private static int[] toIds(PriorityQueue<Match> best) {
+      final int[] res = new int[best.size()];
+      for (int i = res.length - 1; i >= 0; --i)
+         res[i] = best.poll().mId;
+      return res;
+   }
+
+   private static PriorityQueue<Match> createQueue() {
+      // Worst match at the head, ties broken in favor of the lower ID
+      return new PriorityQueue<Match>((a, b) -> a.mDistance2 != b.mDistance2 ? Double.compare(b.mDistance2, a.mDistance2) : Integer.compare(b.mId, a.mId));
+   }
+
+   private Segment mPrimary;
+   private Segment mSecondary;
+   // The signatures added since mPrimary was built in compressed row format
+   private int mAddedSize;
+   private int[] mAddedIds = new int[16];
+   private int[] mAddedOffsets = new int[17];
+   private byte[] mAddedZ = new byte[64];
+   private float[] mAddedFraction = new float[64];
+   private int mMaxId;
+   // The file backing mPrimary, if it has not been modified since it was read
+   private File mMapped;
+
+   /**
+    * Constructs an empty ParticleSignatureIndex
+    */
+   public ParticleSignatureIndex() {
+      mPrimary = Segment.build(0, new int[0], new int[1], new byte[0], new float[0]);
+      mMaxId = -1;
+   }
+
+   private ParticleSignatureIndex(Segment primary, int maxId, File mapped) {
+      mPrimary = primary;
+      mMaxId = maxId;
+      mMapped = mapped;
+   }
+
+   /**
+    * Reads an index previously written using <code>write(File)</code>. The
+    * most recent version of the file is read (see <code>latest(File)</code>).
+    * The file is memory mapped and must not be modified while the index is in
+    * use.
+    *
+    * @param file
+    * @return ParticleSignatureIndex
+    * @throws IOException
+    *            If the file is not a valid index
+    */
+   public static ParticleSignatureIndex read(File file) throws IOException {
+      final File latest = latest(file);
+      try (final RandomAccessFile raf = new RandomAccessFile(latest, "r"); final FileChannel fc = raf.getChannel()) {
+         if (fc.size() < HEADER_SIZE)
+            throw new IOException(latest.getName() + " is not a particle signature index.");
+         final ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+         if (bb.getInt(0) != MAGIC)
+            throw new IOException(latest.getName() + " is not a particle signature index.");
+         if (bb.getInt(4) != VERSION)
+            throw new IOException("Unsupported particle signature index version " + bb.getInt(4) + " in " + latest.getName());
+         final int size = bb.getInt(8), nonZero = bb.getInt(12), maxId = bb.getInt(16);
+         if ((size < 0) || (nonZero < 0) || (fc.size() != Segment.sizeOf(size, nonZero)))
+            throw new IOException(latest.getName() + " is truncated or corrupt.");
+         return new ParticleSignatureIndex(Segment.map(bb, size, nonZero), maxId, latest);
+      }
+   }
+
+   /**
+    * Returns the most recent version of the specified index file. This is the
+    * versioned file "file.n" with the largest n or, if there are none, the
+    * file itself.
+    *
+    * @param file
+    * @return File
+    */
+   public static File latest(File file) {
+      final File[] versions = versions(file);
+      return versions.length > 0 ? versions[versions.length - 1] : file.getAbsoluteFile();
+   }
+
+   private static long versionOf(File file, String prefix) {
+      final String name = file.getName();
+      if ((name.length() > prefix.length()) && (name.length() - prefix.length() < 19) && name.startsWith(prefix)) {
+         for (int i = prefix.length(); i < name.length(); ++i)
+            if (!Character.isDigit(name.charAt(i)))
+               return -1;
+         return Long.parseLong(name.substring(prefix.length()));
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the versioned files "file.n" in increasing order of n.
+    */
+   private static File[] versions(File file) {
+      final File abs = file.getAbsoluteFile();
+      final String prefix = abs.getName() + ".";
+      final File[] res = abs.getParentFile().listFiles(f -> versionOf(f, prefix) > 0);
+      if (res == null)
+         return new File[0];
+      Arrays.sort(res, (f1, f2) -> Long.compare(versionOf(f1, prefix), versionOf(f2, prefix)));
+      return res;
+   }
+
+   /**
+    * Writes this index to the specified file. The file is first written to a
+    * temporary file in the same directory and then moved into place.
+    * <p>
+    * On Windows a file can not be replaced or deleted while it is memory
+    * mapped and a mapping is only released when the buffer is garbage
+    * collected. So if the file can not be replaced (or once any versions
+    * exist) the index is written to the next versioned file "file.n" instead.
+    * <code>read(file)</code> reads the most recent version. The superseded
+    * files are then deleted where possible.
+    * </p>
+    *
+    * @param file
+    * @return The file actually written
+    * @throws IOException
+    */
+   public synchronized File write(File file) throws IOException {
+      final File abs = file.getAbsoluteFile();
+      final File current = latest(abs);
+      if ((mAddedSize == 0) && current.equals(mMapped))
+         return current;
+      merge();
+      final ByteBuffer bb = ByteBuffer.allocate(Segment.sizeOf(mPrimary.mSize, mPrimary.mNonZero)).order(ByteOrder.LITTLE_ENDIAN);
+      bb.putInt(MAGIC);
+      bb.putInt(VERSION);
+      bb.putInt(mPrimary.mSize);
+      bb.putInt(mPrimary.mNonZero);
+      bb.putInt(mMaxId);
+      mPrimary.write(bb);
+      bb.flip();
+      final File[] versions = versions(abs);
+      long next = versions.length > 0 ? versionOf(current, abs.getName() + ".") + 1 : 0;
+      File dest = next > 0 ? new File(abs.getParentFile(), abs.getName() + "." + next) : abs;
+      final File tmp = File.createTempFile("psi", ".tmp", abs.getParentFile());
+      try {
+         try (final RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); final FileChannel fc = raf.getChannel()) {
+            while (bb.hasRemaining())
+               fc.write(bb);
+            fc.force(true);
+         }
+         try {
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         } catch (final IOException e) {
+            if (next > 0)
+               throw e;
+            // Probably still mapped so write the first version instead
+            next = 1;
+            dest = new File(abs.getParentFile(), abs.getName() + "." + next);
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         if (tmp.exists() && (!tmp.delete()))
+            System.err.println("Unable to delete " + tmp.getPath());
+      }
+      if (next > 0) {
+         // Remove the superseded files (these may also still be mapped)
+         if (abs.exists() && (!abs.delete()))
+            System.err.println("Unable to delete the superseded index " + abs.getPath());
+         for (final File old : versions)
+            if ((!old.equals(dest)) && (!old.delete()))
+               System.err.println("Unable to delete the superseded index " + old.getPath());
+      }
+      return dest;
+   }
+
+   /**
+    * Adds the signature associated with the specified ID. The fractions are
+    * stored as single precision values as they are in the ELEMENT_DATA table.
+    *
+    * @param id
+    * @param sig
+    */
+   public void add(int id, ParticleSignature sig) {
+      final Set<Element> elms = sig.getUnstrippedElementSet();
+      final int[] zs = new int[elms.size()];
+      final float[] fracs = new float[elms.size()];
+      int k = 0;
+      for (final Element elm : elms) {
+         zs[k] = elm.getAtomicNumber();
+         fracs[k] = (float) sig.get(elm);
+         ++k;
+      }
+      add(id, zs, fracs);
+   }
+
+   /**
+    * Adds a signature specified as a list of atomic numbers and the
+    * associated fractions. Zero fractions are equivalent to an absent element
+    * and are not stored.
+    *
+    * @param id
+    * @param atomicNumbers
+    * @param fractions
+    */
+   public synchronized void add(int id, int[] atomicNumbers, float[] fractions) {
+      if (atomicNumbers.length != fractions.length)
+         throw new IllegalArgumentException("The number of atomic numbers and fractions must be equal.");
+      if (mAddedSize + 1 >= mAddedIds.length) {
+         mAddedIds = Arrays.copyOf(mAddedIds, 2 * mAddedIds.length);
+         mAddedOffsets = Arrays.copyOf(mAddedOffsets, 2 * mAddedOffsets.length);
+      }
+      int pos = mAddedOffsets[mAddedSize];
+      if (pos + atomicNumbers.length > mAddedZ.length) {
+         final int len = Math.max(2 * mAddedZ.length, pos + atomicNumbers.length);
+         mAddedZ = Arrays.copyOf(mAddedZ, len);
+         mAddedFraction = Arrays.copyOf(mAddedFraction, len);
+      }
+      for (int k = 0; k < atomicNumbers.length; ++k) {
+         if ((atomicNumbers[k] < Element.elmH) || (atomicNumbers[k] >= N_ELEMENTS))
+            throw new IllegalArgumentException("Invalid atomic number " + atomicNumbers[k]);
+         if (fractions[k] != 0.0f) {
+            mAddedZ[pos] = (byte) atomicNumbers[k];
+            mAddedFraction[pos] = fractions[k];
+            ++pos;
+         }
+      }
+      mAddedIds[mAddedSize] = id;
+      ++mAddedSize;
+      mAddedOffsets[mAddedSize] = pos;
+      mMaxId = Math.max(mMaxId, id);
+      mSecondary = null;
+      mMapped = null;
+      if (mAddedSize >= Math.max(MIN_MERGE_SIZE, mPrimary.mSize / 8))
+         merge();
+   }
+
+   /**
+    * Merges the recently added signatures into the primary index.
+    */
+   private void merge() {
+      if (mAddedSize > 0) {
+         final Segment p = mPrimary;
+         final int size = p.mSize + mAddedSize;
+         final int nonZero = p.mNonZero + mAddedOffsets[mAddedSize];
+         final int[] ids = new int[size];
+         final int[] offsets = new int[size + 1];
+         final byte[] z = new byte[nonZero];
+         final float[] fraction = new float[nonZero];
+         for (int i = 0; i < p.mSize; ++i) {
+            ids[i] = p.mIds.get(i);
+            offsets[i] = p.mOffsets.get(i);
+         }
+         for (int j = 0; j < p.mNonZero; ++j) {
+            z[j] = p.mZ.get(j);
+            fraction[j] = p.mFraction.get(j);
+         }
+         System.arraycopy(mAddedIds, 0, ids, p.mSize, mAddedSize);
+         for (int i = 0; i <= mAddedSize; ++i)
+            offsets[p.mSize + i] = p.mNonZero + mAddedOffsets[i];
+         System.arraycopy(mAddedZ, 0, z, p.mNonZero, mAddedOffsets[mAddedSize]);
+         System.arraycopy(mAddedFraction, 0, fraction, p.mNonZero, mAddedOffsets[mAddedSize]);
+         mPrimary = Segment.build(size, ids, offsets, z, fraction);
+         mAddedSize = 0;
+         mSecondary = null;
+      }
+   }
+
+   private Segment secondary() {
+      if ((mSecondary == null) && (mAddedSize > 0))
+         mSecondary = Segment.build(mAddedSize, mAddedIds, mAddedOffsets, mAddedZ, mAddedFraction);
+      return mSecondary;
+   }
+
+   /**
+    * The number of signatures in the index.
+    *
+    * @return int
+    */
+   public synchronized int size() {
+      return mPrimary.mSize + mAddedSize;
+   }
+
+   /**
+    * The largest ID added to the index or -1 if the index is empty. Used to
+    * bring a persisted index up to date with the database.
+    *
+    * @return int
+    */
+   public synchronized int getMaxId() {
+      return mMaxId;
+   }
+
+   /**
+    * Finds the signatures for which the fraction of each element in
+    * <code>sig</code> is within the tolerance. The element fractions must be
+    * within <code>max(sig.get(elm), 0.1) * tol</code> of the value in
+    * <code>sig</code>. Elements not in <code>sig</code> are not restricted. If
+    * more than <code>maxResults</code> signatures match, the closest are
+    * returned.
+    *
+    * @param sig
+    * @param tol
+    * @param maxResults
+    * @return The IDs of the matching signatures ordered by increasing distance
+    *         from <code>sig</code>
+    */
+   public synchronized int[] findWithinTolerance(ParticleSignature sig, double tol, int maxResults) {
+      final Query q = new Query(sig, tol);
+      final PriorityQueue<Match> best = createQueue();
+      if (maxResults > 0) {
+         mPrimary.findWithinTolerance(q, best, maxResults);
+         final Segment sec = secondary();
+         if (sec != null)
+            sec.findWithinTolerance(q, best, maxResults);
+      }
+      return toIds(best);
+   }
+
+   /**
+    * Finds the <code>k</code> signatures nearest to <code>sig</code> in terms
+    * of the Euclidean distance between the element fractions.
+    *
+    * @param sig
+    * @param k
+    * @return The IDs of up to <code>k</code> signatures ordered by increasing
+    *         distance from <code>sig</code>
+    */
+   public synchronized int[] findNearest(ParticleSignature sig, int k) {
+      final Query q = new Query(sig, 0.0);
+      final PriorityQueue<Match> best = createQueue();
+      if (k > 0) {
+         mPrimary.findNearest(q, best, k);
+         final Segment sec = secondary();
+         if (sec != null)
+            sec.findNearest(q, best, k);
+      }
+      return toIds(best);
+   }
+}
@@ -1,6 +1,9 @@
 package gov.nist.microanalysis.EPQDatabase;
 
+import java.awt.event.ActionListener;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -13,6 +16,8 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -27,17 +32,27 @@ import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.SwingWorker;
 
@@ -61,11 +76,13 @@ import gov.nist.microanalysis.EPQLibrary.Detector.EDSCalibration;
 import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
 import gov.nist.microanalysis.EPQLibrary.Detector.ElectronProbe;
 import gov.nist.microanalysis.EPQLibrary.Detector.IXRayDetector;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
 import gov.nist.microanalysis.EPQTools.EPQXStream;
 import gov.nist.microanalysis.EPQTools.SpectrumFile;
 import gov.nist.microanalysis.EPQTools.WriteSpectrumAsEMSA1_0;
 import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 import gov.nist.microanalysis.Utility.HalfUpFormat;
+import gov.nist.microanalysis.Utility.ProgressEvent;
 import gov.nist.microanalysis.Utility.UncertainValue2;
 
 public class Session {
@@ -143,6 +160,21 @@ public class Session {
       }
    }
 
+   /**
+    * A row in the STANDARD table. The composition is loaded when first
+    * required.
+    */
+   private static class StandardRecord {
+      private final int mElmData;
+      private final double mDensity;
+      private Composition mComposition;
+
+      private StandardRecord(int elmData, double density) {
+         mElmData = elmData;
+         mDensity = density;
+      }
+   }
+
    public enum ElementDataTypes {
       STANDARD_COMPOSITION, MEASURED_COMPOSITION, UNCERTAINTY_MEASURE, PARTICLE_SIGNATURE
    }
@@ -161,8 +193,37 @@ public class Session {
    private HashMap<DetectorProperties, Integer> mDetectors;
    private HashMap<DetectorProperties, Integer> mActiveDetectors;
    private final HashMap<DetectorProperties, HashMap<DetectorCalibration, Integer>> mCalibrations;
+   // Read-through cache of the STANDARD table by NAME (null until loaded)
+   private TreeMap<String, StandardRecord> mStandards;
+   // PROJECT.CLIENT by project NAME (loaded with mProjects)
+   private TreeMap<String, Integer> mProjectClients;
+   // ELEMENT_DATA IDs of standard compositions which have been found
+   private final HashMap<String, Integer> mStandardData;
+   // Prepared statements by SQL in least recently used order
+   private final LinkedHashMap<String, PreparedStatement> mStatements;
+   // The number of queries and updates issued by each method
+   private final TreeMap<String, Long> mQueryCounts;
+   private long mStatementsPrepared;
+   private long mStatementsReused;
+   // Similarity index over the particle signatures (null until opened)
+   private ParticleSignatureIndex mSignatureIndex;
+   private File mSignatureIndexFile;
    static private final boolean ENABLE_LW = false;
 
+   /**
+    * The number of spectra written per transaction by addSpectra(...)
+    */
+   static public final int IMPORT_BATCH_SIZE = 256;
+
+   /**
+    * The maximum number of prepared statements retained by the statement cache
+    */
+   static public final int STATEMENT_CACHE_SIZE = 64;
+
+   static private final String INSERT_SPECTRUM = "INSERT INTO SPECTRUM (ID, DIGEST, STD_COMP, MICRO_COMP, SIGNATURE, BEAM_ENERGY, OPERATOR, "
+         + "DETECTOR, CALIBRATION, PROJECT, ACQUIRED, FILENAME, DISPLAY_NAME, EXTRA_PROPERTIES, SPECTRUM ) "
+         + "VALUES ( DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ? )";
+
    private boolean mIsNew;
 
    static public void loadMe() {
@@ -178,6 +239,9 @@ public class Session {
       super();
       mDbName = dbName;
       mCalibrations = new HashMap<DetectorProperties, HashMap<DetectorCalibration, Integer>>();
+      mStandardData = new HashMap<String, Integer>();
+      mStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+      mQueryCounts = new TreeMap<String, Long>();
       NetworkServerControl nsc = null;
       boolean startServer = false;
       boolean client = true;
@@ -450,7 +514,7 @@ public class Session {
       }
    }
 
-   private int addElementalDatum(Composition comp, Session.ElementDataTypes type, int uncertainty) throws SQLException {
+   private synchronized int addElementalDatum(Composition comp, Session.ElementDataTypes type, int uncertainty) throws SQLException {
       final Set<Element> elms = comp.getElementSet();
       final StringBuffer sql = new StringBuffer();
       final StringBuffer vals = new StringBuffer();
@@ -468,7 +532,7 @@ public class Session {
       }
       vals.append(" )");
       sql.append(vals);
-      final PreparedStatement ps = mConnection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+      final PreparedStatement ps = prepare(sql.toString(), Statement.RETURN_GENERATED_KEYS);
       ps.setInt(1, type.ordinal());
       ps.setBytes(2, computePresent(elms));
       ps.setInt(3, findPerson(System.getProperty("user.name")));
@@ -480,6 +544,7 @@ public class Session {
          ps.setFloat(pos, (float) comp.weightFraction(elm, false));
          ++pos;
       }
+      count("addElementalDatum");
       ps.executeUpdate();
       try (final ResultSet rs = ps.getGeneratedKeys()) {
          return rs.next() ? rs.getInt(1) : -1;
@@ -507,7 +572,7 @@ public class Session {
     * @return The index of the ELEMENT_DATA record in the database
     * @throws SQLException
     */
-   public int addParticleSignature(ParticleSignature sig) throws SQLException {
+   public synchronized int addParticleSignature(ParticleSignature sig) throws SQLException {
       final Set<Element> elms = sig.getUnstrippedElementSet();
       final StringBuffer sql = new StringBuffer();
       final StringBuffer vals = new StringBuffer();
@@ -525,7 +590,7 @@ public class Session {
       }
       vals.append(" )");
       sql.append(vals);
-      final PreparedStatement ps = mConnection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+      final PreparedStatement ps = prepare(sql.toString(), Statement.RETURN_GENERATED_KEYS);
       ps.setInt(1, ElementDataTypes.PARTICLE_SIGNATURE.ordinal());
       ps.setBytes(2, computePresent(elms));
       ps.setInt(3, findPerson(System.getProperty("user.name")));
@@ -537,6 +602,7 @@ public class Session {
          ps.setFloat(pos, (float) sig.get(elm));
          ++pos;
       }
+      count("addParticleSignature");
       ps.executeUpdate();
       try (final ResultSet rs = ps.getGeneratedKeys()) {
          return rs.next() ? rs.getInt(1) : -1;
@@ -600,7 +666,9 @@ public class Session {
             ps.setBlob(11, is, specFile.length()); // SPECTRUM_BLOB
             ps.executeUpdate();
             try (final ResultSet rs = ps.getGeneratedKeys()) {
-               return rs.next() ? rs.getInt(1) : -1;
+               final int id = rs.next() ? rs.getInt(1) : -1;
+               indexSignature(id, signature);
+               return id;
             }
          }
       } catch (final AlreadyInDatabaseException aide) {
@@ -616,14 +684,14 @@ public class Session {
     * @param name
     * @param comment
     */
-   public void addPerson(String name, String comment) {
+   public synchronized void addPerson(String name, String comment) {
       final Map<String, Integer> people = getPeople();
       try {
          if (!people.containsKey(name)) {
-            final PreparedStatement ps = mConnection.prepareStatement("INSERT INTO PERSON (ID, NAME, COMMENT) VALUES (DEFAULT, ?, ?)",
-                  Statement.RETURN_GENERATED_KEYS);
+            final PreparedStatement ps = prepare("INSERT INTO PERSON (ID, NAME, COMMENT) VALUES (DEFAULT, ?, ?)", Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, name);
             ps.setString(2, comment);
+            count("addPerson");
             ps.executeUpdate();
             try (final ResultSet rs = ps.getGeneratedKeys()) {
                if (rs.next()) {
@@ -646,21 +714,23 @@ public class Session {
     * @param client
     * @param comment
     */
-   public void addProject(String name, int client, String comment) {
+   public synchronized void addProject(String name, int client, String comment) {
       final Map<String, Integer> projects = getProjects();
       if (!projects.containsKey(name))
          try {
-            final PreparedStatement ps = mConnection.prepareStatement("INSERT INTO PROJECT (ID, NAME, CLIENT, COMMENT) VALUES (DEFAULT, ?, ?, ?)",
+            final PreparedStatement ps = prepare("INSERT INTO PROJECT (ID, NAME, CLIENT, COMMENT) VALUES (DEFAULT, ?, ?, ?)",
                   Statement.RETURN_GENERATED_KEYS);
             ps.setString(1, name);
             ps.setInt(2, client);
             ps.setString(3, comment);
+            count("addProject");
             ps.executeUpdate();
             try (final ResultSet rs = ps.getGeneratedKeys()) {
                if (rs.next()) {
                   final Integer id = Integer.valueOf(rs.getInt(1));
                   mProjects.put(name, id);
                   mInvProjects.put(id, name);
+                  mProjectClients.put(name, Integer.valueOf(client));
                }
             }
          } catch (final SQLException e) {
@@ -683,135 +753,483 @@ public class Session {
     * @throws EPQException
     * @throws SQLException
     */
-   public int addSpectrum(ISpectrumData spec, boolean force)
+   public synchronized int addSpectrum(ISpectrumData spec, boolean force)
          throws FileNotFoundException, IOException, EPQException, SQLException, AlreadyInDatabaseException {
+      final PreparedSpectrum prep = prepareSpectrum(spec);
+      if (!force) { // Search for replicas
+         final String mdSel = "SELECT ID, DISPLAY_NAME FROM SPECTRUM WHERE DIGEST = ?";
+         final PreparedStatement ps = prepare(mdSel);
+         ps.setBytes(1, prep.mDigest);
+         count("addSpectrum");
+         try (final ResultSet rs = ps.executeQuery()) {
+            if (rs.next())
+               throw new AlreadyInDatabaseException(spec.toString());
+         }
+      }
+      final PreparedStatement ps = prepare(INSERT_SPECTRUM, Statement.RETURN_GENERATED_KEYS);
+      bindSpectrum(ps, spec, prep);
+      count("addSpectrum");
+      ps.executeUpdate();
+      try (final ResultSet rs = ps.getGeneratedKeys()) {
+         final int id = rs.next() ? rs.getInt(1) : -1;
+         indexSignature(id, spec.getProperties().getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null));
+         return id;
+      }
+   }
+
+   /**
+    * <p>
+    * The outcome of adding one spectrum to the database using
+    * <code>addSpectra(...)</code>.
+    * </p>
+    * <p>
+    * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+    * software is not subject to copyright protection and is in the public
+    * domain
+    * </p>
+    * <p>
+    * Institution: National Institute of Standards and Technology
+    * </p>
+    * 
+    * @author agent
+    * @version 1.0
+    */
+   public static class ImportResult {
+      private final ISpectrumData mSpectrum;
+      private int mId;
+      private boolean mDuplicate;
+      private Exception mError;
+
+      private ImportResult(ISpectrumData spec) {
+         mSpectrum = spec;
+         mId = -1;
+      }
+
+      public ISpectrumData getSpectrum() {
+         return mSpectrum;
+      }
+
+      /**
+       * The SPECTRUM table ID of the new record or -1 if the spectrum was not
+       * imported.
+       * 
+       * @return int
+       */
+      public int getId() {
+         return mId;
+      }
+
+      public boolean isImported() {
+         return (mError == null) && (!mDuplicate);
+      }
+
+      /**
+       * Was the spectrum skipped because the digest matched a spectrum already
+       * in the database (or earlier in the same import)?
+       * 
+       * @return boolean
+       */
+      public boolean isDuplicate() {
+         return mDuplicate;
+      }
+
+      /**
+       * The reason the spectrum was not imported or null if it was imported.
+       * Duplicates are reported as AlreadyInDatabaseException.
+       * 
+       * @return Exception
+       */
+      public Exception getError() {
+         return mError;
+      }
+
+      @Override
+      public String toString() {
+         return mSpectrum.toString() + (isImported() ? " imported" : " not imported");
+      }
+   }
+
+   /**
+    * The data to be written to the database for a single spectrum. These are
+    * computed off the database thread by <code>prepareSpectrum(...)</code>.
+    */
+   private static class PreparedSpectrum {
+      private final String mFilename;
+      private final byte[] mData;
+      private final String mExtraProperties;
+      private final byte[] mDigest;
+
+      private PreparedSpectrum(String filename, byte[] data, String extraProps) {
+         mFilename = filename;
+         mData = data;
+         mExtraProperties = extraProps;
+         mDigest = computeDigest(data);
+      }
+   }
+
+   private static byte[] computeDigest(byte[] data) {
+      try {
+         final MessageDigest md = MessageDigest.getInstance("SHA");
+         final byte[] digest = md.digest(data);
+         assert md.getDigestLength() == 20 : "Message digest length is not 20 bytes!";
+         return digest;
+      } catch (final NoSuchAlgorithmException e) {
+         e.printStackTrace();
+         return new byte[0];
+      }
+   }
+
+   /**
+    * Computes the file contents, the property difference relative to the
+    * contents and the digest for spec. If the source file is available it is
+    * read once and parsed from memory otherwise the spectrum is written as EMSA
+    * into memory. This method does not touch the database and is safe to call
+    * on worker threads.
+    * 
+    * @param spec
+    * @return PreparedSpectrum
+    * @throws EPQException
+    * @throws IOException
+    */
+   private static PreparedSpectrum prepareSpectrum(ISpectrumData spec) throws EPQException, IOException {
       final SpectrumProperties sp = spec.getProperties();
       if (sp.isDefined(SpectrumProperties.SpectrumDB))
          throw new EPQException("This spectrum is already in the database.");
-      File file = null;
+      final String fn = sp.getTextWithDefault(SpectrumProperties.SourceFile, null);
+      final File file = fn != null ? new File(fn) : null;
+      final String filename;
+      final byte[] data;
+      final ISpectrumData onDisk;
+      if ((file != null) && file.canRead()) {
+         filename = file.getName();
+         data = Files.readAllBytes(file.toPath());
+         onDisk = SpectrumFile.open(file, data)[0];
+      } else {
+         filename = "spectrum.emsa";
+         final ByteArrayOutputStream os = new ByteArrayOutputStream();
+         WriteSpectrumAsEMSA1_0.write(spec, os, WriteSpectrumAsEMSA1_0.Mode.COMPATIBLE);
+         data = os.toByteArray();
+         onDisk = new EMSAFile(new ByteArrayInputStream(data));
+      }
+      final SpectrumProperties diff = SpectrumProperties.difference(spec.getProperties(), onDisk.getProperties());
+      diff.setDetector(null);
+      return new PreparedSpectrum(filename, data, EPQXStream.getInstance().toXML(diff));
+   }
+
+   /**
+    * Sets the parameters of an INSERT_SPECTRUM statement. Adds any missing
+    * standard, measurement, particle signature, person and calibration records
+    * as required.
+    */
+   private void bindSpectrum(PreparedStatement ps, ISpectrumData spec, PreparedSpectrum prep) throws SQLException, EPQException {
+      final SpectrumProperties sp = spec.getProperties();
+      ps.setBytes(1, prep.mDigest); // DIGEST
       {
-         final String fn = sp.getTextWithDefault(SpectrumProperties.SourceFile, null);
-         if (fn != null)
-            file = new File(fn);
-         if ((file == null) || (!file.canRead())) {
-            file = File.createTempFile("spectrum", ".emsa");
-            file.deleteOnExit();
-            try (final FileOutputStream os = new FileOutputStream(file)) {
-               WriteSpectrumAsEMSA1_0.write(spec, os, WriteSpectrumAsEMSA1_0.Mode.COMPATIBLE);
-            }
+         final Composition std = sp.getCompositionWithDefault(SpectrumProperties.StandardComposition, null);
+         int i = -1;
+         if (std != null) {
+            i = find(std, ElementDataTypes.STANDARD_COMPOSITION);
+            if (i == -1)
+               i = this.addStandard(std);
          }
+         ps.setInt(2, i);
       }
-      StringReader diffReader = null;
       {
-         final ISpectrumData onDisk = SpectrumFile.open(file)[0];
-         final SpectrumProperties diff = SpectrumProperties.difference(spec.getProperties(), onDisk.getProperties());
-         diff.setDetector(null);
-         diffReader = new StringReader(EPQXStream.getInstance().toXML(diff));
+         final Composition comp = sp.getCompositionWithDefault(SpectrumProperties.MicroanalyticalComposition, null);
+         int i = -1;
+         if (comp != null) {
+            i = find(comp, ElementDataTypes.MEASURED_COMPOSITION);
+            if (i == -1)
+               i = this.addMeasurement(comp);
+         }
+         ps.setInt(3, i);
       }
-      byte[] digest;
       {
-         try {
-            final MessageDigest md = MessageDigest.getInstance("SHA");
-            try (final BufferedInputStream is = new BufferedInputStream(new FileInputStream(file))) {
-               try (final DigestInputStream dis = new DigestInputStream(is, md)) {
-                  final byte[] buffer = new byte[1024];
-                  while (dis.read(buffer) != -1);
-                  digest = md.digest();
-                  assert md.getDigestLength() == 20 : "Message digest length is not 20 bytes!";
-               }
+         final ParticleSignature sig = sp.getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null);
+         int i = -1;
+         if (sig != null) {
+            i = find(sig);
+            if (i == -1)
+               i = this.addParticleSignature(sig);
+         }
+         ps.setInt(4, i);
+      }
+      // Beam energy
+      ps.setFloat(5, (float) sp.getNumericWithDefault(SpectrumProperties.BeamEnergy, 0.0));
+      // Operator
+      ps.setInt(6, findPerson(sp.getTextWithDefault(SpectrumProperties.InstrumentOperator, "Unknown")));
+      // Detector & Calibration
+      {
+
+         final IXRayDetector det = sp.getDetector();
+         if (det != null) {
+            final int detIdx = findDetector(det.getDetectorProperties());
+            ps.setInt(7, detIdx);
+            // Calibration
+            final DetectorCalibration calib = det.getCalibration();
+            int calIdx = findCalibration(det.getDetectorProperties(), calib);
+            if (calIdx == -1) {
+               addCalibration(det.getDetectorProperties(), calib);
+               calIdx = findCalibration(det.getDetectorProperties(), calib);
             }
-         } catch (final NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            digest = new byte[0];
-         }
-      }
-      if (!force) { // Search for replicas
-         final String mdSel = "SELECT ID, DISPLAY_NAME FROM SPECTRUM WHERE DIGEST = ?";
-         final PreparedStatement ps = mConnection.prepareStatement(mdSel);
-         ps.setBytes(1, digest);
-         try (final ResultSet rs = ps.executeQuery()) {
-            if (rs.next())
-               throw new AlreadyInDatabaseException(spec.toString());
+            ps.setInt(8, calIdx);
+         } else {
+            ps.setInt(7, -1);
+            ps.setInt(8, -1);
          }
       }
+      // Project
       {
-         final String sql = "INSERT INTO SPECTRUM (ID, DIGEST, STD_COMP, MICRO_COMP, SIGNATURE, BEAM_ENERGY, OPERATOR, "
-               + "DETECTOR, CALIBRATION, PROJECT, ACQUIRED, FILENAME, DISPLAY_NAME, EXTRA_PROPERTIES, SPECTRUM ) "
-               + "VALUES ( DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ? )";
-         final PreparedStatement ps = mConnection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-         ps.setBytes(1, digest); // DIGEST
-         {
-            final Composition std = sp.getCompositionWithDefault(SpectrumProperties.StandardComposition, null);
-            int i = -1;
-            if (std != null) {
-               i = find(std, ElementDataTypes.STANDARD_COMPOSITION);
-               if (i == -1)
-                  i = this.addStandard(std);
-            }
-            ps.setInt(2, i);
+         final String project = sp.getTextWithDefault(SpectrumProperties.ProjectName, null);
+         final Integer pjIdx = project != null ? getProjects().get(project) : null;
+         ps.setInt(9, pjIdx != null ? pjIdx.intValue() : findProject("None"));
+      }
+      // Acquired
+      final java.util.Date acquired = sp.getTimestampWithDefault(SpectrumProperties.AcquisitionTime, new java.util.Date(System.currentTimeMillis()));
+      ps.setDate(10, new java.sql.Date(acquired.getTime())); // Acquired
+      ps.setString(11, prep.mFilename); // Filename
+      ps.setString(12, spec.toString()); // DISPLAY_NAME
+      ps.setClob(13, new StringReader(prep.mExtraProperties));
+      ps.setBlob(14, new ByteArrayInputStream(prep.mData), prep.mData.length); // SPECTRUM_BLOB
+   }
+
+   /**
+    * <p>
+    * Add many spectra to the database. This is equivalent to calling
+    * <code>addSpectrum(spec, force)</code> on each spectrum but much faster for
+    * large numbers of spectra.
+    * </p>
+    * <ul>
+    * <li>Reading, parsing and hashing the spectrum files is performed on
+    * nThreads worker threads and overlaps with writing the previous batch to
+    * the database.</li>
+    * <li>The spectra are written in batches of IMPORT_BATCH_SIZE. Each batch
+    * is checked for replicas with a single query and written with a single
+    * JDBC batch in one transaction.</li>
+    * <li>Neither the spectra nor the source files are copied to temporary
+    * files.</li>
+    * </ul>
+    * <p>
+    * Problems with individual spectra are reported in the associated
+    * ImportResult rather than thrown. If a batch fails to write, the batch is
+    * rolled back and each spectrum in it reports the SQLException.
+    * </p>
+    * <p>
+    * The Session is locked for the duration of the import, since the import's
+    * transactions use the Session's connection. Other threads using the
+    * Session wait until the import is complete rather than writing into (and
+    * possibly having rolled back) the import's transaction.
+    * </p>
+    * 
+    * @param specs
+    * @param force
+    *           true -&gt; Add the spectra regardless of whether the digest
+    *           says they are already in the database
+    * @param nThreads
+    *           The number of threads on which to prepare the spectra
+    * @return List&lt;ImportResult&gt; in the same order as specs
+    * @throws EPQException
+    *            If the import is interrupted or the connection fails
+    */
+   public List<ImportResult> addSpectra(List<? extends ISpectrumData> specs, boolean force, int nThreads) throws EPQException {
+      return addSpectra(specs, force, nThreads, null);
+   }
+
+   /**
+    * As addSpectra(specs, force, nThreads) but reports a ProgressEvent to
+    * <code>progress</code> as each batch is committed. The event ID is the
+    * number of spectra processed so far. <code>progress</code> is called on
+    * the calling thread while the Session is locked so it must not wait on
+    * another thread that uses this Session.
+    * 
+    * @param specs
+    * @param force
+    * @param nThreads
+    * @param progress
+    *           May be null
+    * @return List&lt;ImportResult&gt; in the same order as specs
+    * @throws EPQException
+    */
+   public List<ImportResult> addSpectra(List<? extends ISpectrumData> specs, boolean force, int nThreads, ActionListener progress)
+         throws EPQException {
+      if (nThreads < 1)
+         throw new EPQException("The number of threads must be one or more.");
+      final List<ImportResult> res = new ArrayList<ImportResult>();
+      for (final ISpectrumData spec : specs)
+         res.add(new ImportResult(spec));
+      if (specs.isEmpty())
+         return res;
+      // Ensure the shared instance is constructed before the workers use it
+      EPQXStream.getInstance();
+      final ExecutorService exec = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+         private final AtomicInteger mIndex = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable r) {
+            final Thread th = new Thread(r, "Session-" + Integer.toString(mIndex.incrementAndGet()));
+            th.setDaemon(true);
+            return th;
          }
-         {
-            final Composition comp = sp.getCompositionWithDefault(SpectrumProperties.MicroanalyticalComposition, null);
-            int i = -1;
-            if (comp != null) {
-               i = find(comp, ElementDataTypes.MEASURED_COMPOSITION);
-               if (i == -1)
-                  i = this.addMeasurement(comp);
+      });
+      try {
+         // Hold the lock so that no other write joins the import's transactions
+         synchronized (this) {
+            boolean autoCommit = true;
+            try {
+               autoCommit = mConnection.getAutoCommit();
+               mConnection.setAutoCommit(false);
+               // Held outside the statement cache since bindSpectrum(...) uses the cache
+               try (final PreparedStatement insert = mConnection.prepareStatement(INSERT_SPECTRUM);
+                     final PreparedStatement select = mConnection.prepareStatement(selectDigests(IMPORT_BATCH_SIZE))) {
+                  List<Future<PreparedSpectrum>> next = submitBatch(exec, specs, 0);
+                  for (int start = 0; start < specs.size(); start += IMPORT_BATCH_SIZE) {
+                     final List<Future<PreparedSpectrum>> curr = next;
+                     final int end = Math.min(start + IMPORT_BATCH_SIZE, specs.size());
+                     // Prepare the next batch while this one is written
+                     next = end < specs.size() ? submitBatch(exec, specs, end) : null;
+                     final PreparedSpectrum[] preps = new PreparedSpectrum[end - start];
+                     for (int i = 0; i < preps.length; ++i)
+                        try {
+                           preps[i] = curr.get(i).get();
+                        } catch (final ExecutionException e) {
+                           final Throwable cause = e.getCause();
+                           res.get(start + i).mError = cause instanceof Exception ? (Exception) cause : new EPQException(cause);
+                        }
+                     if (!force)
+                        markReplicas(select, preps, res.subList(start, end));
+                     writeBatch(insert, preps, res.subList(start, end));
+                     if (progress != null)
+                        progress.actionPerformed(new ProgressEvent(this, end, (100 * end) / specs.size()));
+                  }
+               }
+            } finally {
+               try {
+                  mConnection.setAutoCommit(autoCommit);
+               } catch (final SQLException e) {
+                  e.printStackTrace();
+               }
             }
-            ps.setInt(3, i);
          }
-         {
-            final ParticleSignature sig = sp.getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null);
-            int i = -1;
-            if (sig != null) {
-               i = find(sig);
-               if (i == -1)
-                  i = this.addParticleSignature(sig);
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new EPQException("The spectrum import was interrupted.", e);
+      } catch (final SQLException e) {
+         throw new EPQException(e);
+      } finally {
+         exec.shutdownNow();
+      }
+      return res;
+   }
+
+   private static List<Future<PreparedSpectrum>> submitBatch(ExecutorService exec, List<? extends ISpectrumData> specs, int start) {
+      final List<Future<PreparedSpectrum>> res = new ArrayList<Future<PreparedSpectrum>>();
+      for (final ISpectrumData spec : specs.subList(start, Math.min(start + IMPORT_BATCH_SIZE, specs.size())))
+         res.add(exec.submit(new Callable<PreparedSpectrum>() {
+            @Override
+            public PreparedSpectrum call() throws Exception {
+               return prepareSpectrum(spec);
             }
-            ps.setInt(4, i);
-         }
-         // Beam energy
-         ps.setFloat(5, (float) sp.getNumericWithDefault(SpectrumProperties.BeamEnergy, 0.0));
-         // Operator
-         ps.setInt(6, findPerson(sp.getTextWithDefault(SpectrumProperties.InstrumentOperator, "Unknown")));
-         // Detector & Calibration
-         {
+         }));
+      return res;
+   }
 
-            final IXRayDetector det = sp.getDetector();
-            if (det != null) {
-               final int detIdx = findDetector(det.getDetectorProperties());
-               ps.setInt(7, detIdx);
-               // Calibration
-               final DetectorCalibration calib = det.getCalibration();
-               final int calIdx = findCalibration(det.getDetectorProperties(), calib);
-               if (calIdx == -1)
-                  addCalibration(det.getDetectorProperties(), calib);
-               ps.setInt(8, calIdx);
-            } else {
-               ps.setInt(7, -1);
-               ps.setInt(8, -1);
+   private static String selectDigests(int n) {
+      final StringBuffer sb = new StringBuffer("SELECT DIGEST FROM SPECTRUM WHERE DIGEST IN (?");
+      for (int i = 1; i < n; ++i)
+         sb.append(", ?");
+      sb.append(")");
+      return sb.toString();
+   }
+
+   /**
+    * Uses a single query to find the spectra in preps which are already in the
+    * database. Also marks spectra which replicate an earlier spectrum in preps.
+    * Replicas are removed from preps.
+    */
+   private synchronized void markReplicas(PreparedStatement select, PreparedSpectrum[] preps, List<ImportResult> res) throws SQLException {
+      final Set<ByteBuffer> found = new HashSet<ByteBuffer>();
+      int first = -1;
+      for (int i = 0; (i < preps.length) && (first == -1); ++i)
+         if (preps[i] != null)
+            first = i;
+      if (first == -1)
+         return;
+      // Unused parameters repeat the first digest so the statement can be reused
+      for (int i = 0; i < IMPORT_BATCH_SIZE; ++i)
+         select.setBytes(i + 1, (i < preps.length) && (preps[i] != null) ? preps[i].mDigest : preps[first].mDigest);
+      count("addSpectra");
+      try (final ResultSet rs = select.executeQuery()) {
+         while (rs.next())
+            found.add(ByteBuffer.wrap(rs.getBytes(1)));
+      }
+      for (int i = 0; i < preps.length; ++i)
+         if (preps[i] != null) {
+            final ImportResult ir = res.get(i);
+            if (!found.add(ByteBuffer.wrap(preps[i].mDigest))) {
+               ir.mDuplicate = true;
+               ir.mError = new AlreadyInDatabaseException(ir.mSpectrum.toString());
+               preps[i] = null;
             }
          }
-         // Project
-         {
-            final String project = sp.getTextWithDefault(SpectrumProperties.ProjectName, null);
-            final Integer pjIdx = project != null ? getProjects().get(project) : null;
-            ps.setInt(9, pjIdx != null ? pjIdx.intValue() : findProject("None"));
-         }
-         // Acquired
-         final java.util.Date acquired = sp.getTimestampWithDefault(SpectrumProperties.AcquisitionTime,
-               new java.util.Date(System.currentTimeMillis()));
-         ps.setDate(10, new java.sql.Date(acquired.getTime())); // Acquired
-         ps.setString(11, file.getName()); // Filename
-         ps.setString(12, spec.toString()); // DISPLAY_NAME
-         ps.setClob(13, diffReader);
-         try (final BufferedInputStream is = new BufferedInputStream(new FileInputStream(file))) {
-            ps.setBlob(14, is, file.length()); // SPECTRUM_BLOB
-            ps.executeUpdate();
-            try (final ResultSet rs = ps.getGeneratedKeys()) {
-               return rs.next() ? rs.getInt(1) : -1;
+   }
+
+   /**
+    * Writes the non-null items in preps in a single JDBC batch and transaction
+    * and then determines the ID assigned to each new record.
+    */
+   private synchronized void writeBatch(PreparedStatement insert, PreparedSpectrum[] preps, List<ImportResult> res) throws SQLException {
+      int prevId = 0;
+      count("addSpectra");
+      try (final Statement st = mConnection.createStatement()) {
+         try (final ResultSet rs = st.executeQuery("SELECT MAX(ID) FROM SPECTRUM")) {
+            if (rs.next())
+               prevId = rs.getInt(1);
+         }
+      }
+      final List<Integer> written = new ArrayList<Integer>();
+      try {
+         for (int i = 0; i < preps.length; ++i)
+            if (preps[i] != null)
+               try {
+                  bindSpectrum(insert, res.get(i).mSpectrum, preps[i]);
+                  insert.addBatch();
+                  written.add(Integer.valueOf(i));
+               } catch (final EPQException e) {
+                  res.get(i).mError = e;
+                  insert.clearParameters();
+               }
+         if (written.size() > 0) {
+            count("addSpectra");
+            insert.executeBatch();
+            // Generated keys are not available from batches so match the new
+            // records (in ID order) against the order in which they were added.
+            final PreparedStatement ps = prepare("SELECT ID, DIGEST FROM SPECTRUM WHERE ID > ? ORDER BY ID");
+            ps.setInt(1, prevId);
+            count("addSpectra");
+            int next = 0;
+            try (final ResultSet rs = ps.executeQuery()) {
+               while (rs.next() && (next < written.size())) {
+                  final int i = written.get(next).intValue();
+                  if (Arrays.equals(rs.getBytes(2), preps[i].mDigest)) {
+                     res.get(i).mId = rs.getInt(1);
+                     ++next;
+                  }
+               }
             }
          }
+         mConnection.commit();
+         for (final Integer i : written) {
+            final ImportResult ir = res.get(i.intValue());
+            indexSignature(ir.mId, ir.mSpectrum.getProperties().getParticleSignatureWithDefault(SpectrumProperties.ParticleSignature, null));
+         }
+      } catch (final SQLException e) {
+         insert.clearBatch();
+         mConnection.rollback();
+         discardTransactionCaches();
+         for (final Integer i : written) {
+            res.get(i.intValue()).mError = e;
+            res.get(i.intValue()).mId = -1;
+         }
       }
    }
 
@@ -822,47 +1240,47 @@ public class Session {
     * @return The index of the (ELEMENT_DATA) standard in the database.
     * @throws SQLException
     */
-   public int addStandard(Composition comp) throws SQLException {
+   public synchronized int addStandard(Composition comp) throws SQLException {
       int res = -1;
+      final double NO_DENSITY = -1.0;
+      final double density = (comp instanceof Material ? ((Material) comp).getDensity() : NO_DENSITY);
       // Does it already exist in the database?
-      final PreparedStatement st = mConnection.prepareStatement("SELECT ELM_DATA, DENSITY FROM STANDARD WHERE NAME = ?");
-      st.setMaxRows(1);
-      st.setString(1, comp.getName());
-      try (final ResultSet rs = st.executeQuery()) {
-         final double NO_DENSITY = -1.0;
-         final double density = (comp instanceof Material ? ((Material) comp).getDensity() : NO_DENSITY);
-         if (rs.next()) {
-            // A material of this name exists in database (update it??)
-            res = rs.getInt(1);
-            final Composition dbComp = (Composition) getElementalDatum(res);
-            boolean update = (Math.abs(density - rs.getDouble(2)) > 0.001);
-            if (!dbComp.almostEquals(comp, 1.0e-5)) {
-               // Compositions are essentially not equal!
-               int u = -1;
-               if (comp.isUncertain())
-                  u = addElementalDatum(comp, ElementDataTypes.UNCERTAINTY_MEASURE, -1);
-               res = addElementalDatum(comp, ElementDataTypes.STANDARD_COMPOSITION, u);
-               update = true;
-            }
-            if (update) {
-               // Composition or density is different!
-               final PreparedStatement us = mConnection.prepareStatement("UPDATE STANDARD SET ELM_DATA=?, DENSITY=? WHERE NAME=?");
-               us.setInt(1, res);
-               us.setDouble(2, density);
-               us.setString(3, comp.getName());
-               us.executeUpdate();
-            }
-         } else {
+      final StandardRecord sr = getStandardRecords().get(comp.getName());
+      if (sr != null) {
+         // A material of this name exists in database (update it??)
+         res = sr.mElmData;
+         final Composition dbComp = getStandardComposition(sr);
+         boolean update = (Math.abs(density - sr.mDensity) > 0.001);
+         if (!dbComp.almostEquals(comp, 1.0e-5)) {
+            // Compositions are essentially not equal!
             int u = -1;
             if (comp.isUncertain())
                u = addElementalDatum(comp, ElementDataTypes.UNCERTAINTY_MEASURE, -1);
             res = addElementalDatum(comp, ElementDataTypes.STANDARD_COMPOSITION, u);
-            final PreparedStatement ps = mConnection.prepareStatement("INSERT INTO STANDARD (NAME, ELM_DATA, DENSITY) VALUES (?, ?, ?)");
-            ps.setString(1, comp.toString());
-            ps.setInt(2, res);
-            ps.setDouble(3, density);
-            ps.executeUpdate();
-         }
+            update = true;
+         }
+         if (update) {
+            // Composition or density is different!
+            final PreparedStatement us = prepare("UPDATE STANDARD SET ELM_DATA=?, DENSITY=? WHERE NAME=?");
+            us.setInt(1, res);
+            us.setDouble(2, density);
+            us.setString(3, comp.getName());
+            count("addStandard");
+            us.executeUpdate();
+            mStandards.put(comp.getName(), new StandardRecord(res, density));
+         }
+      } else {
+         int u = -1;
+         if (comp.isUncertain())
+            u = addElementalDatum(comp, ElementDataTypes.UNCERTAINTY_MEASURE, -1);
+         res = addElementalDatum(comp, ElementDataTypes.STANDARD_COMPOSITION, u);
+         final PreparedStatement ps = prepare("INSERT INTO STANDARD (NAME, ELM_DATA, DENSITY) VALUES (?, ?, ?)");
+         ps.setString(1, comp.toString());
+         ps.setInt(2, res);
+         ps.setDouble(3, density);
+         count("addStandard");
+         ps.executeUpdate();
+         mStandards.put(comp.toString(), new StandardRecord(res, density));
       }
       return res;
    }
@@ -969,16 +1387,27 @@ public class Session {
       }
    }
 
-   public int find(Composition comp, ElementDataTypes edt) {
+   public synchronized int find(Composition comp, ElementDataTypes edt) {
       final StringBuffer sql = new StringBuffer("SELECT ID FROM ELEMENT_DATA WHERE COMP_TYPE = ? AND PRESENT = ?");
+      final StringBuffer key = new StringBuffer();
       final Set<Element> elms = comp.getElementSet();
       for (final Element elm : elms) {
          sql.append(" AND ELM_");
          sql.append(elm.toAbbrev().toUpperCase());
          sql.append(" = ?");
+         key.append(elm.toAbbrev());
+         key.append(Float.toString((float) comp.weightFraction(elm, false)));
+      }
+      // ELEMENT_DATA records are never modified so found standards may be
+      // cached. There are few standards but many measured compositions.
+      final boolean isStd = (edt == ElementDataTypes.STANDARD_COMPOSITION);
+      if (isStd) {
+         final Integer res = mStandardData.get(key.toString());
+         if (res != null)
+            return res.intValue();
       }
       try {
-         final PreparedStatement ps = mConnection.prepareStatement(sql.toString());
+         final PreparedStatement ps = prepare(sql.toString());
          ps.setInt(1, edt.ordinal());
          ps.setBytes(2, computePresent(elms));
          int pos = 3;
@@ -986,8 +1415,15 @@ public class Session {
             ps.setFloat(pos, (float) comp.weightFraction(elm, false));
             ++pos;
          }
+         count("find(Composition)");
          try (final ResultSet rs = ps.executeQuery()) {
-            return rs.next() ? rs.getInt(1) : -1;
+            if (rs.next()) {
+               final int res = rs.getInt(1);
+               if (isStd)
+                  mStandardData.put(key.toString(), Integer.valueOf(res));
+               return res;
+            }
+            return -1;
          }
       } catch (final SQLException e) {
          e.printStackTrace();
@@ -1001,7 +1437,7 @@ public class Session {
     * @param sig
     * @return The index of the ELEMENT_DATA record in the database
     */
-   public int find(ParticleSignature sig) {
+   public synchronized int find(ParticleSignature sig) {
       final StringBuffer sql = new StringBuffer("SELECT ID FROM ELEMENT_DATA WHERE COMP_TYPE = ? AND PRESENT = ?");
       final Set<Element> elms = sig.getUnstrippedElementSet();
       for (final Element elm : elms) {
@@ -1010,7 +1446,7 @@ public class Session {
          sql.append(" = ?");
       }
       try {
-         final PreparedStatement ps = mConnection.prepareStatement(sql.toString());
+         final PreparedStatement ps = prepare(sql.toString());
          ps.setInt(1, ElementDataTypes.PARTICLE_SIGNATURE.ordinal());
          ps.setBytes(2, computePresent(elms));
          int pos = 3;
@@ -1018,6 +1454,7 @@ public class Session {
             ps.setFloat(pos, (float) sig.get(elm));
             ++pos;
          }
+         count("find(ParticleSignature)");
          try (final ResultSet rs = ps.executeQuery()) {
             return rs.next() ? rs.getInt(1) : -1;
          }
@@ -1039,8 +1476,19 @@ public class Session {
     *           - Maximum number of spectra to return
     * @return TreeSet&lt;SpectrumSummary&gt;
     */
-   public TreeSet<SpectrumSummary> find(ParticleSignature sig, double tol, int maxSpec) {
+   public synchronized TreeSet<SpectrumSummary> find(ParticleSignature sig, double tol, int maxSpec) {
       final TreeSet<SpectrumSummary> res = new TreeSet<SpectrumSummary>();
+      final ParticleSignatureIndex idx = mSignatureIndex;
+      if (idx != null) {
+         // When more than maxSpec match, the index returns the closest.
+         try {
+            count("find(ParticleSignature, double, int)");
+            res.addAll(readSpectra(idx.findWithinTolerance(sig, tol, maxSpec)));
+         } catch (final SQLException e) {
+            e.printStackTrace();
+         }
+         return res;
+      }
       final Set<Element> elms = sig.getUnstrippedElementSet();
       final boolean comp = true, present = false;
       final StringBuffer sql = new StringBuffer("SELECT ID, DISPLAY_NAME, ACQUIRED FROM SPECTRUM WHERE SPECTRUM.SIGNATURE IN (SELECT ID");
@@ -1058,7 +1506,7 @@ public class Session {
          }
       sql.append(")");
       try {
-         final PreparedStatement ps = mConnection.prepareStatement(sql.toString());
+         final PreparedStatement ps = prepare(sql.toString());
          ps.setMaxRows(maxSpec);
          int pos = 1;
          if (present)
@@ -1071,6 +1519,7 @@ public class Session {
                ps.setFloat(pos++, (float) min);
                ps.setFloat(pos++, (float) max);
             }
+         count("find(ParticleSignature, double, int)");
          try (final ResultSet rs = ps.executeQuery()) {
             for (int i = 0; (i < maxSpec) && rs.next();)
                try {
@@ -1086,6 +1535,147 @@ public class Session {
       return res;
    }
 
+   /**
+    * Find the spectra whose particle signatures are closest to the specified
+    * ParticleSignature in terms of the Euclidean distance between the element
+    * fractions. Uses the signature index opened with
+    * <code>openSignatureIndex(...)</code> or an in-memory index built on
+    * first use.
+    * 
+    * @param sig
+    *           - A ParticleSignature
+    * @param k
+    *           - Maximum number of spectra to return
+    * @return List&lt;SpectrumSummary&gt; in order of increasing distance
+    * @throws EPQException
+    */
+   public synchronized List<SpectrumSummary> findNearest(ParticleSignature sig, int k) throws EPQException {
+      final int[] ids = getSignatureIndex().findNearest(sig, k);
+      try {
+         count("findNearest");
+         final HashMap<Integer, SpectrumSummary> byId = new HashMap<Integer, SpectrumSummary>();
+         for (final SpectrumSummary ss : readSpectra(ids))
+            byId.put(Integer.valueOf(ss.mID), ss);
+         final List<SpectrumSummary> res = new ArrayList<SpectrumSummary>();
+         for (final int id : ids) {
+            final SpectrumSummary ss = byId.get(Integer.valueOf(id));
+            if (ss != null)
+               res.add(ss);
+         }
+         return res;
+      } catch (final SQLException e) {
+         throw new EPQException(e);
+      }
+   }
+
+   /**
+    * Opens the particle signature index stored in the specified file and
+    * brings it up to date with the spectra added to the database since it was
+    * written. If the file does not exist or is not a valid index for this
+    * database, the index is rebuilt from the database. Once open, the index is
+    * used by <code>find(ParticleSignature, double, int)</code> and
+    * <code>findNearest(...)</code> and is updated as spectra are added through
+    * this Session. Use <code>saveSignatureIndex()</code> to write it back to
+    * the file. Versioned files written by
+    * <code>ParticleSignatureIndex.write(...)</code> are honored.
+    * 
+    * @param file
+    * @return The ParticleSignatureIndex
+    * @throws EPQException
+    */
+   public synchronized ParticleSignatureIndex openSignatureIndex(File file) throws EPQException {
+      ParticleSignatureIndex idx = null;
+      try {
+         if (ParticleSignatureIndex.latest(file).isFile())
+            try {
+               idx = ParticleSignatureIndex.read(file);
+               // An index from another database (or a recreated one)
+               try (final Statement st = mConnection.createStatement()) {
+                  try (final ResultSet rs = st.executeQuery("SELECT MAX(ID) FROM SPECTRUM")) {
+                     if (rs.next() && (idx.getMaxId() > rs.getInt(1)))
+                        idx = null;
+                  }
+               }
+            } catch (final IOException e) {
+               e.printStackTrace();
+            }
+         if (idx == null)
+            idx = new ParticleSignatureIndex();
+         updateSignatureIndex(idx);
+      } catch (final SQLException e) {
+         throw new EPQException(e);
+      }
+      mSignatureIndex = idx;
+      mSignatureIndexFile = file;
+      return idx;
+   }
+
+   /**
+    * Writes the particle signature index to the file from which it was opened.
+    * 
+    * @throws IOException
+    */
+   public synchronized void saveSignatureIndex() throws IOException {
+      if ((mSignatureIndex != null) && (mSignatureIndexFile != null))
+         mSignatureIndex.write(mSignatureIndexFile);
+   }
+
+   /**
+    * Returns the particle signature index. If no index has been opened, an
+    * in-memory index is built from the database.
+    * 
+    * @return ParticleSignatureIndex
+    * @throws EPQException
+    */
+   public synchronized ParticleSignatureIndex getSignatureIndex() throws EPQException {
+      if (mSignatureIndex == null) {
+         final ParticleSignatureIndex idx = new ParticleSignatureIndex();
+         try {
+            updateSignatureIndex(idx);
+         } catch (final SQLException e) {
+            throw new EPQException(e);
+         }
+         mSignatureIndex = idx;
+      }
+      return mSignatureIndex;
+   }
+
+   /**
+    * Adds the signatures of the spectra with IDs larger than
+    * <code>idx.getMaxId()</code> to the index.
+    */
+   private synchronized void updateSignatureIndex(ParticleSignatureIndex idx) throws SQLException {
+      final PreparedStatement ps = prepare("SELECT S.ID, E.* FROM SPECTRUM S, ELEMENT_DATA E WHERE S.SIGNATURE = E.ID AND E.COMP_TYPE = "
+            + ElementDataTypes.PARTICLE_SIGNATURE.ordinal() + " AND S.ID > ? ORDER BY S.ID");
+      ps.setInt(1, idx.getMaxId());
+      count("updateSignatureIndex");
+      try (final ResultSet rs = ps.executeQuery()) {
+         final int[] cols = new int[Element.elmCf + 1];
+         for (int z = Element.elmH; z <= Element.elmCf; ++z)
+            cols[z] = rs.findColumn("ELM_" + Element.toAbbrev(z).toUpperCase());
+         final int[] zs = new int[Element.elmCf];
+         final float[] fracs = new float[Element.elmCf];
+         while (rs.next()) {
+            int n = 0;
+            for (int z = Element.elmH; z <= Element.elmCf; ++z) {
+               final float v = rs.getFloat(cols[z]);
+               if (v != 0.0f) {
+                  zs[n] = z;
+                  fracs[n] = v;
+                  ++n;
+               }
+            }
+            idx.add(rs.getInt(1), Arrays.copyOf(zs, n), Arrays.copyOf(fracs, n));
+         }
+      }
+   }
+
+   private void indexSignature(int id, ParticleSignature sig) {
+      final ParticleSignatureIndex idx = mSignatureIndex;
+      if ((idx != null) && (id >= 0) && (sig != null))
+         idx.add(id, sig);
+   }
+
    /**
     * Finds the database record index associated with the specified person. If a
     * record doesn't exist one is created and the resulting record index
@@ -1408,24 +1998,129 @@ public class Session {
    }
 
    public String findClient(String project) {
-      String res = null;
-      try {
-         final PreparedStatement ps = mConnection.prepareStatement("SELECT CLIENT FROM PROJECT WHERE NAME = ?");
-         ps.setString(1, project);
-         try (final ResultSet rs = ps.executeQuery()) {
-            if (rs.next())
-               res = getInvPeople().get(Integer.valueOf(rs.getInt(1)));
-         }
-      } catch (final SQLException e) {
-         e.printStackTrace();
-      }
-      return res;
+      getProjects();
+      final Integer client = mProjectClients.get(project.trim());
+      return client != null ? getInvPeople().get(client) : null;
    }
 
    public Connection getConnection() {
       return mConnection;
    }
 
+   /**
+    * Returns a PreparedStatement for the specified SQL from the statement
+    * cache. The statement is created if required and the parameters of reused
+    * statements are cleared. The least recently used statement is closed when
+    * the cache holds more than STATEMENT_CACHE_SIZE statements. Since the
+    * statement is shared, a ResultSet from it must be consumed before the same
+    * SQL is used again. The caller must hold the lock on this Session from the
+    * call to prepare(...) until it is finished with the statement since the
+    * statements are shared between threads (for example, initiateLoad(...)
+    * reads on a SwingWorker while the event thread queries).
+    * 
+    * @param sql
+    * @return PreparedStatement
+    * @throws SQLException
+    */
+   private PreparedStatement prepare(String sql) throws SQLException {
+      return prepare(sql, Statement.NO_GENERATED_KEYS);
+   }
+
+   private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+      assert Thread.holdsLock(this) : "prepare(...) requires the Session lock.";
+      final String key = (autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" : "N:") + sql;
+      PreparedStatement ps = mStatements.get(key);
+      if ((ps == null) || ps.isClosed()) {
+         ps = mConnection.prepareStatement(sql, autoGeneratedKeys);
+         mStatements.put(key, ps);
+         ++mStatementsPrepared;
+         if (mStatements.size() > STATEMENT_CACHE_SIZE) {
+            final Iterator<PreparedStatement> i = mStatements.values().iterator();
+            final PreparedStatement eldest = i.next();
+            i.remove();
+            eldest.close();
+         }
+      } else {
+         ps.clearParameters();
+         ++mStatementsReused;
+      }
+      return ps;
+   }
+
+   /**
+    * Records a query or update issued by the specified method.
+    * 
+    * @param method
+    */
+   private synchronized void count(String method) {
+      final Long n = mQueryCounts.get(method);
+      mQueryCounts.put(method, Long.valueOf(n != null ? n.longValue() + 1 : 1));
+   }
+
+   /**
+    * Returns the number of queries and updates issued to the database by each
+    * of the instrumented methods since the Session was created or
+    * resetQueryCounts() was called.
+    * 
+    * @return Map&lt;String, Long&gt; method name to count
+    */
+   public synchronized Map<String, Long> getQueryCounts() {
+      return Collections.unmodifiableMap(new TreeMap<String, Long>(mQueryCounts));
+   }
+
+   /**
+    * The number of statements created by the statement cache.
+    * 
+    * @return long
+    */
+   public synchronized long getStatementsPrepared() {
+      return mStatementsPrepared;
+   }
+
+   /**
+    * The number of times the statement cache returned an existing statement.
+    * 
+    * @return long
+    */
+   public synchronized long getStatementsReused() {
+      return mStatementsReused;
+   }
+
+   public synchronized void resetQueryCounts() {
+      mQueryCounts.clear();
+      mStatementsPrepared = 0;
+      mStatementsReused = 0;
+   }
+
+   /**
+    * Discards the cached contents of the PERSON, PROJECT, STANDARD,
+    * ELECTRONPROBE, DETECTOR and CALIBRATION tables. The caches are kept up to
+    * date with writes made through this Session. Call this method when another
+    * connection may have modified these tables or after a transaction is
+    * rolled back.
+    */
+   public synchronized void invalidateCaches() {
+      discardTransactionCaches();
+      mElectronProbes = null;
+   }
+
+   /**
+    * Discards the cached rows which may be written while adding a spectrum.
+    * The ELECTRONPROBE and DETECTOR rows are always committed as they are
+    * written and are retained since the DetectorProperties used as keys are
+    * those held by the caller.
+    */
+   private synchronized void discardTransactionCaches() {
+      mPeople = null;
+      mInvPeople = null;
+      mProjects = null;
+      mInvProjects = null;
+      mProjectClients = null;
+      mStandards = null;
+      mStandardData.clear();
+      mCalibrations.clear();
+   }
+
    public String getDatabaseName() {
       return mDbName;
    }
@@ -1605,11 +2300,12 @@ public class Session {
     * @param idx
     * @return A Composition or ParticleSignature object
     */
-   private Object getElementalDatum(int idx) {
+   private synchronized Object getElementalDatum(int idx) {
       final String sql = "SELECT * FROM ELEMENT_DATA WHERE ID=?";
       try {
-         final PreparedStatement ps = mConnection.prepareStatement(sql);
+         final PreparedStatement ps = prepare(sql);
          ps.setInt(1, idx);
+         count("getElementalDatum");
          try (final ResultSet rs = ps.executeQuery()) {
             if (rs.next()) {
                final int type = rs.getInt("COMP_TYPE");
@@ -1644,12 +2340,13 @@ public class Session {
     * 
     * @return Map&lt;String, Integer&gt;
     */
-   public Map<String, Integer> getPeople() {
+   public synchronized Map<String, Integer> getPeople() {
       if (mPeople == null) {
          mPeople = new TreeMap<String, Integer>();
          mInvPeople = new TreeMap<Integer, String>();
          try {
             final Statement st = mConnection.createStatement();
+            count("getPeople");
             try (final ResultSet rs = st.executeQuery("SELECT ID, NAME FROM PERSON")) {
                while (rs.next()) {
                   final int id = rs.getInt("ID");
@@ -1677,19 +2374,22 @@ public class Session {
     * 
     * @return TreeMap&lt;String,Integer&gt;
     */
-   public Map<String, Integer> getProjects() {
+   public synchronized Map<String, Integer> getProjects() {
       if (mProjects == null) {
          mProjects = new TreeMap<String, Integer>();
          mInvProjects = new TreeMap<Integer, String>();
+         mProjectClients = new TreeMap<String, Integer>();
          try {
             final Statement st = mConnection.createStatement();
-            try (final ResultSet rs = st.executeQuery("SELECT ID, NAME FROM PROJECT")) {
+            count("getProjects");
+            try (final ResultSet rs = st.executeQuery("SELECT ID, NAME, CLIENT FROM PROJECT")) {
                while (rs.next()) {
                   final int id = rs.getInt("ID");
                   final String name = rs.getString("NAME").trim();
                   final Integer iv = Integer.valueOf(id);
                   mProjects.put(name, iv);
                   mInvProjects.put(iv, name);
+                  mProjectClients.put(name, Integer.valueOf(rs.getInt("CLIENT")));
                }
             }
          } catch (final SQLException e) {
@@ -1774,40 +2474,17 @@ public class Session {
     */
    public Composition findStandard(String name) throws SQLException {
       if (name.compareToIgnoreCase("unknown") != 0) {
-         final PreparedStatement st = mConnection.prepareStatement("SELECT ELM_DATA, DENSITY FROM STANDARD WHERE NAME = ?");
-         st.setMaxRows(1);
-         st.setString(1, name);
-         try (final ResultSet rs = st.executeQuery()) {
-            if (rs.next()) {
-               final Object res = getElementalDatum(rs.getInt(1));
-               assert res instanceof Composition;
-               Composition comp = (Composition) res;
-               comp.setName(name);
-               final double density = rs.getDouble(2);
-               if (density > 0.0)
-                  comp = new Material(comp, density);
-               return comp;
-            }
-         }
+         final StandardRecord sr = getStandardRecords().get(name);
+         if (sr != null)
+            return toStandard(name, sr);
       }
       return null;
    }
 
    public TreeSet<Composition> findAllStandards() throws SQLException {
       final TreeSet<Composition> resSet = new TreeSet<Composition>();
-      final PreparedStatement st = mConnection.prepareStatement("SELECT NAME, ELM_DATA, DENSITY FROM STANDARD");
-      try (final ResultSet rs = st.executeQuery()) {
-         while (rs.next()) {
-            final Object res = getElementalDatum(rs.getInt(2));
-            assert res instanceof Composition;
-            Composition comp = (Composition) res;
-            comp.setName(rs.getString(1));
-            final double density = rs.getDouble(3);
-            if (density > 0.0)
-               comp = new Material(comp, density);
-            resSet.add(comp);
-         }
-      }
+      for (final Map.Entry<String, StandardRecord> me : getStandardRecords().entrySet())
+         resSet.add(toStandard(me.getKey(), me.getValue()));
       return resSet;
    }
 
@@ -1819,15 +2496,53 @@ public class Session {
     */
    public TreeMap<String, Integer> getStandards() throws SQLException {
       final TreeMap<String, Integer> res = new TreeMap<String, Integer>();
-      final Statement st = mConnection.createStatement();
-      st.setMaxRows(0);
-      try (final ResultSet rs = st.executeQuery("SELECT NAME, ELM_DATA FROM STANDARD")) {
-         while (rs.next())
-            res.put(rs.getString(1), Integer.valueOf(rs.getInt(2)));
-      }
+      for (final Map.Entry<String, StandardRecord> me : getStandardRecords().entrySet())
+         res.put(me.getKey(), Integer.valueOf(me.getValue().mElmData));
       return res;
    }
 
+   /**
+    * Returns the cached contents of the STANDARD table, loading it if
+    * required.
+    * 
+    * @return TreeMap&lt;String, StandardRecord&gt;
+    * @throws SQLException
+    */
+   private synchronized TreeMap<String, StandardRecord> getStandardRecords() throws SQLException {
+      if (mStandards == null) {
+         final TreeMap<String, StandardRecord> res = new TreeMap<String, StandardRecord>();
+         final Statement st = mConnection.createStatement();
+         count("getStandardRecords");
+         try (final ResultSet rs = st.executeQuery("SELECT NAME, ELM_DATA, DENSITY FROM STANDARD")) {
+            while (rs.next())
+               res.put(rs.getString(1), new StandardRecord(rs.getInt(2), rs.getDouble(3)));
+         }
+         mStandards = res;
+      }
+      return mStandards;
+   }
+
+   private Composition getStandardComposition(StandardRecord sr) {
+      if (sr.mComposition == null) {
+         final Object res = getElementalDatum(sr.mElmData);
+         assert res instanceof Composition;
+         sr.mComposition = (Composition) res;
+      }
+      return sr.mComposition;
+   }
+
+   /**
+    * Returns a copy of the standard so that the cached composition is not
+    * modified by the caller.
+    */
+   private Composition toStandard(String name, StandardRecord sr) {
+      Composition comp = getStandardComposition(sr).clone();
+      comp.setName(name);
+      if (sr.mDensity > 0.0)
+         comp = new Material(comp, sr.mDensity);
+      return comp;
+   }
+
    public boolean isNew() {
       return mIsNew;
    }
@@ -1932,7 +2647,7 @@ public class Session {
     * @throws IOException
     * @throws EPQException
     */
-   public ISpectrumData readSpectrum(int id) throws SQLException, IOException, EPQException {
+   public synchronized ISpectrumData readSpectrum(int id) throws SQLException, IOException, EPQException {
       ISpectrumData res = null;
       final PreparedStatement ps = mConnection.prepareStatement("SELECT * FROM SPECTRUM WHERE ID = ?");
       ps.setInt(1, id);
@@ -1953,6 +2668,8 @@ public class Session {
     */
    public TreeSet<SpectrumSummary> readSpectra(int[] ids) throws SQLException {
       final TreeSet<SpectrumSummary> res = new TreeSet<SpectrumSummary>();
+      if (ids.length == 0)
+         return res;
       final Statement st = mConnection.createStatement();
       st.setMaxRows(ids.length);
       final StringBuffer sb = new StringBuffer();
@@ -2148,7 +2865,7 @@ public class Session {
     * 
     * @param id
     */
-   public void deleteDetector(int id) {
+   public synchronized void deleteDetector(int id) {
       try {
          int instrument = Integer.MIN_VALUE;
          {
@@ -2193,6 +2910,17 @@ public class Session {
       }
       mElectronProbes = null;
       getElectronProbes();
+      if (mSignatureIndex != null)
+         // The index does not support removal so rebuild it. The file is
+         // superseded rather than deleted since it may still be mapped.
+         try {
+            final ParticleSignatureIndex idx = new ParticleSignatureIndex();
+            updateSignatureIndex(idx);
+            mSignatureIndex = idx;
+            saveSignatureIndex();
+         } catch (final SQLException | IOException e) {
+            e.printStackTrace();
+         }
    }
 
    static final TreeMap<Integer, QCProject> mQCProjects = new TreeMap<Integer, QCProject>();
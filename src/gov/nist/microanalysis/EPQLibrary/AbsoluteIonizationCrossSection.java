@@ -87,7 +87,7 @@ abstract public class AbsoluteIonizationCrossSection extends IonizationCrossSect
    static class BoteSalvatCrossSection extends AbsoluteIonizationCrossSection {
       final static double FPIAB2 = 4.0 * Math.PI * Math2.sqr(FromSI.cm(PhysicalConstants.BohrRadius));
       final static double REV = FromSI.eV(PhysicalConstants.ElectronRestMass);
-      static double[][][] mA; // nominally [100][9][5]
+      static volatile double[][][] mA; // nominally [100][9][5]
       static double[][] mBe; // nominally [100][9]
       static double[][] mAnlj; // nominally [100][9]
       static double[][][] mG; // nominally [100][9][4]
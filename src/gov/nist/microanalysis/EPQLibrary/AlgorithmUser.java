@@ -33,11 +33,19 @@ abstract public class AlgorithmUser {
     * InitializeDefaultStrategy abstract method using setDefaultAlgorithm.
     */
    private Strategy mLocalOverride = null;
+   /**
+    * Incremented each time mLocalOverride is changed.
+    */
+   private volatile int mLocalOverrideGeneration = 0;
    /**
     * While algorithms are specified on a AlgorithmUser by user basis, overrides
     * are done on a global basis.
     */
    static private Strategy mGlobalOverride = null;
+   /**
+    * Incremented each time the global override is applied or cleared.
+    */
+   static private volatile int sGlobalOverrideGeneration = 0;
 
    private static EdgeEnergy sDefaultEdgeEnergy = null;
    private static TransitionEnergy sDefaultTransitionEnergy = null;
@@ -207,6 +215,7 @@ abstract public class AlgorithmUser {
          sDefaultBetheEnergyLoss = (BetheElectronEnergyLoss) strat.getAlgorithm(BetheElectronEnergyLoss.class);
          sDefaultAngularDistribution = (BremsstrahlungAngularDistribution) strat.getAlgorithm(BremsstrahlungAngularDistribution.class);
          sDefaultCorrectionAlgorithm = (CorrectionAlgorithm) strat.getAlgorithm(CorrectionAlgorithm.class);
+         ++sGlobalOverrideGeneration;
       } else
          clearGlobalOverride();
    }
@@ -244,6 +253,18 @@ abstract public class AlgorithmUser {
       sDefaultFluorescenceYieldMean = null;
       sDefaultBetheEnergyLoss = null;
       sDefaultAngularDistribution = null;
+      ++sGlobalOverrideGeneration;
+   }
+
+   /**
+    * Returns a number which changes each time the global override is applied
+    * or cleared. Use this to discard cached results which depend upon the
+    * global override.
+    * 
+    * @return int
+    */
+   static public int getGlobalOverrideGeneration() {
+      return sGlobalOverrideGeneration;
    }
 
    /**
@@ -258,6 +279,31 @@ abstract public class AlgorithmUser {
       if (mLocalOverride == null)
          mLocalOverride = new Strategy();
       mLocalOverride.addAlgorithm(cls, ac);
+      ++mLocalOverrideGeneration;
+   }
+
+   /**
+    * copyDefaultAlgorithms - Replace the default algorithms for this
+    * AlgorithmUser with a copy of those specified for <code>src</code>. Used
+    * when copying an AlgorithmUser.
+    *
+    * @param src
+    */
+   protected void copyDefaultAlgorithms(AlgorithmUser src) {
+      mLocalOverride = src.mLocalOverride != null ? (Strategy) src.mLocalOverride.clone() : null;
+      ++mLocalOverrideGeneration;
+   }
+
+   /**
+    * Returns a number which changes each time the default algorithms for this
+    * AlgorithmUser are changed using addDefaultAlgorithm(...) or
+    * copyDefaultAlgorithms(...). Use this to discard cached results which
+    * depend upon them.
+    * 
+    * @return int
+    */
+   protected final int getLocalOverrideGeneration() {
+      return mLocalOverrideGeneration;
    }
 
    /**
@@ -118,7 +118,7 @@ final public class AtomicShell implements Comparable<AtomicShell>, Cloneable {
          // N =7
    };
 
-   private static int[][] mOccupancy; // mOccupancy[Z-1][shell]
+   private static volatile int[][] mOccupancy; // mOccupancy[Z-1][shell]
 
    /**
     * getGroundStateOccupancy - Returns the number of electrons the atomic shell
@@ -129,11 +129,11 @@ final public class AtomicShell implements Comparable<AtomicShell>, Cloneable {
     */
    public int getGroundStateOccupancy() {
       if (mOccupancy == null) {
-         synchronized (this) {
+         synchronized (AtomicShell.class) {
             if (mOccupancy == null) {
                final CSVReader cr = new CSVReader.ResourceReader("ElectronConfig.csv", true);
                final double[][] res = cr.getResource(AtomicShell.class);
-               mOccupancy = new int[res.length][];
+               final int[][] occupancy = new int[res.length][];
                for (final double[] zOcc : res) {
                   final int z = (int) Math.round(zOcc[0]);
                   final int[] occ = new int[zOcc.length - 1];
@@ -143,8 +143,9 @@ final public class AtomicShell implements Comparable<AtomicShell>, Cloneable {
                      sum += occ[j];
                   }
                   assert sum == z;
-                  mOccupancy[z - 1] = occ;
+                  occupancy[z - 1] = occ;
                }
+               mOccupancy = occupancy;
             }
          }
       }
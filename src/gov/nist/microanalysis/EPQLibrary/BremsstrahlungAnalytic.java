@@ -504,9 +504,9 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
             private ISpectrumData getSpec(double a, double b) throws EPQException {
                mA = a;
                mB = b;
-               det.reset();
-               toDetector(det, 1.0);
-               return det.getSpectrum(1.0);
+               final EDSDetector session = det.createSession();
+               toDetector(session, 1.0);
+               return session.getSpectrum(1.0);
             }
 
             @Override
@@ -525,9 +525,9 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
          final UncertainValue2[] res = llsq.getResults();
          mA = res[0].doubleValue();
          mB = res[1].doubleValue();
-         det.reset();
-         toDetector(det, 1.0);
-         final ISpectrumData out = det.getSpectrum(1.0);
+         final EDSDetector session = det.createSession();
+         toDetector(session, 1.0);
+         final ISpectrumData out = session.getSpectrum(1.0);
          SpectrumUtils.rename(out,
                "Background[" + spec.toString() + "," + this.getName() + ",A=" + Double.toString(mA) + ",B=" + Double.toString(mB) + "]");
          // System.out.println(spec.toString() + "\t" + Double.toString(mA) +
@@ -570,9 +570,9 @@ abstract public class BremsstrahlungAnalytic extends AlgorithmClass {
     */
    public ISpectrumData fitBackground(EDSDetector det, ISpectrumData spec, Collection<?> rois) throws EPQException {
       spec = SpectrumUtils.applyZeroPeakDiscriminator(spec);
-      det.reset();
-      toDetector(det, 1.0);
-      final ISpectrumData brem = det.getSpectrum(1.0);
+      final EDSDetector session = det.createSession();
+      toDetector(session, 1.0);
+      final ISpectrumData brem = session.getSpectrum(1.0);
       double sS = 0.0, sB = 0.0;
       for (final Object roi : rois) {
          final int minCh = roi instanceof int[] ? ((int[]) roi)[0] : ((Interval) roi).min();
@@ -3,6 +3,7 @@ package gov.nist.microanalysis.EPQLibrary;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -339,6 +340,8 @@ public class CompositionFromKRatios extends AlgorithmClass {
    private final Map<Element, XRayTransitionSet> mUserSelectedTransitions = new HashMap<Element, XRayTransitionSet>();
    // Correction algorithm
    private CorrectionAlgorithm mCorrectionAlgorithm = null;
+   // Iteration algorithm (null to use the strategy's)
+   private IterationAlgorithm mIterationAlgorithm = null;
    // Optional coating on unknown sample
    private ConductiveCoating mCoating = null;
    private String mWarningMessage = null;
@@ -537,7 +540,7 @@ public class CompositionFromKRatios extends AlgorithmClass {
 
    public Composition iterate(final KRatioSet krs, final SpectrumProperties unkProps, final Composition initialGuess) throws EPQException {
       Composition prev = initialGuess;
-      IterationAlgorithm ia = (IterationAlgorithm) getAlgorithm(IterationAlgorithm.class);
+      IterationAlgorithm ia = mIterationAlgorithm != null ? mIterationAlgorithm : (IterationAlgorithm) getAlgorithm(IterationAlgorithm.class);
       FileWriter lfs = null;
       mWarningMessage = null;
       if (LOG_ITERATION)
@@ -831,6 +834,57 @@ public class CompositionFromKRatios extends AlgorithmClass {
       return false;
    }
 
+   /**
+    * Creates an independent instance of the same class as <code>alg</code>
+    * using the class's no-argument constructor.
+    */
+   @SuppressWarnings("unchecked")
+   private static <T extends AlgorithmClass> T newInstance(final T alg) throws EPQException {
+      try {
+         final Constructor<? extends AlgorithmClass> cons = alg.getClass().getDeclaredConstructor();
+         cons.setAccessible(true);
+         return (T) cons.newInstance();
+      } catch (final ReflectiveOperationException | RuntimeException e) {
+         throw new EPQException("Unable to create an independent instance of " + alg.getName() + ".", e);
+      }
+   }
+
+   /**
+    * Creates a copy of this CompositionFromKRatios with the same standards,
+    * unmeasured element rules, user selected transitions, coating and
+    * convergence settings. The CorrectionAlgorithm and IterationAlgorithm
+    * instances retain state between <code>initialize(...)</code> and the
+    * subsequent calculation so the copy is given its own instances of each.
+    * The copy may then be used on one thread while this object (or other
+    * copies) are used on other threads. The standard ZAF factors already
+    * computed by this object are copied rather than recomputed as are any
+    * algorithms specified for this instance.
+    *
+    * @return CompositionFromKRatios
+    * @throws EPQException
+    *            If the correction or iteration algorithm can not be
+    *            instantiated (e.g. a diagnostic wrapper)
+    */
+   public CompositionFromKRatios copy() throws EPQException {
+      final CompositionFromKRatios res = new CompositionFromKRatios();
+      res.copyDefaultAlgorithms(this);
+      res.mEpsilon = mEpsilon;
+      res.mMinWeight = mMinWeight;
+      res.mMaxIterations = mMaxIterations;
+      res.mUnmeasuredElementRule.addAll(mUnmeasuredElementRule);
+      for (final Map.Entry<XRayTransitionSet, TransitionData> me : mStandardData.entrySet()) {
+         final TransitionData src = me.getValue();
+         final TransitionData td = res.new TransitionData(src.mComposition, src.mProperties, src.mValidate);
+         td.mZAFFactors.putAll(src.mZAFFactors);
+         res.mStandardData.put(me.getKey(), td);
+      }
+      res.mUserSelectedTransitions.putAll(mUserSelectedTransitions);
+      res.mCoating = mCoating;
+      res.mCorrectionAlgorithm = newInstance(getCorrectionAlgorithm());
+      res.mIterationAlgorithm = newInstance(mIterationAlgorithm != null ? mIterationAlgorithm : (IterationAlgorithm) getAlgorithm(IterationAlgorithm.class));
+      return res;
+   }
+
    public CorrectionAlgorithm getCorrectionAlgorithm() {
       if (mCorrectionAlgorithm == null)
          mCorrectionAlgorithm = AlgorithmUser.getDefaultCorrectionAlgorithm();
@@ -926,8 +980,7 @@ public class CompositionFromKRatios extends AlgorithmClass {
             final double w = xrt.getWeight(XRayTransition.NormalizeFamily);
             if ((w / norm) >= mMinWeight)
                try {
-                  sum = UncertainValue2.add(sum,
-                        UncertainValue2.multiply(w, CorrectionAlgorithm.XPP.kratio(stdData.mComposition, unkComp, xrt, unkProps)));
+                  sum = UncertainValue2.add(1.0, sum, w, CorrectionAlgorithm.XPP.kratio(stdData.mComposition, unkComp, xrt, unkProps));
                   sumW += w;
                } catch (final EPQException e) {
                   e.printStackTrace();
@@ -3,7 +3,10 @@ package gov.nist.microanalysis.EPQLibrary;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import gov.nist.microanalysis.EPQLibrary.AbsorptionCorrection.PhilibertHeinrichAbsorption;
 import gov.nist.microanalysis.Utility.Math2;
@@ -38,7 +41,7 @@ import gov.nist.microanalysis.Utility.UncertainValue2;
  * @author Nicholas W. M. Ritchie
  * @version 1.0
  */
-abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comparable<AlgorithmClass> {
+abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comparable<AlgorithmClass>, Cloneable {
 
    /**
     * @author nicholas
@@ -92,6 +95,33 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     */
    protected SpectrumProperties mProperties;
 
+   /**
+    * The maximum number of Context objects retained by getContext(...)
+    */
+   public static final int CONTEXT_CACHE_CAPACITY = 4096;
+
+   /**
+    * The Context objects created by getContext(...) in least recently used
+    * order. Guarded by synchronizing on mContexts.
+    */
+   private LinkedHashMap<ContextKey, Context> mContexts = newContextCache();
+   private int mContextGeneration = AlgorithmUser.getGlobalOverrideGeneration();
+   // Set from getLocalOverrideGeneration() when the cache is first used
+   private int mContextLocalGeneration = -1;
+   private long mContextHits;
+   private long mContextMisses;
+
+   private static LinkedHashMap<ContextKey, Context> newContextCache() {
+      return new LinkedHashMap<ContextKey, Context>(64, 0.75F, true) {
+         private static final long serialVersionUID = -1460398525815093415L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<ContextKey, Context> eldest) {
+            return size() > CONTEXT_CACHE_CAPACITY;
+         }
+      };
+   }
+
    public CorrectionAlgorithm(String name, String ref) {
       super("Matrix Correction", name, ref);
    }
@@ -166,6 +196,148 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
       return res;
    }
 
+   /**
+    * Returns a new uninitialized instance of this algorithm for use by a
+    * Context or null if this algorithm doesn't support Context objects. An
+    * algorithm may support Context objects if initialize(...) depends only on
+    * the composition, the shell, the beam energy, the take-off angle, the exit
+    * angle and the sample tilt and if computeZACorrection(...) and generated(...) only read
+    * the state computed by initialize(...). The default implementation returns
+    * null.
+    * 
+    * @return CorrectionAlgorithm or null
+    */
+   protected CorrectionAlgorithm newContextInstance() {
+      return null;
+   }
+
+   /**
+    * A helper for implementing newContextInstance(). Returns a shallow copy of
+    * this algorithm with the initialized state cleared. The copy has its own
+    * copy of the Strategy and an empty Context cache so later changes to this
+    * algorithm's Strategy don't alter Context objects already created.
+    * 
+    * @return CorrectionAlgorithm
+    */
+   protected final CorrectionAlgorithm uninitializedCopy() {
+      try {
+         final CorrectionAlgorithm res = (CorrectionAlgorithm) super.clone();
+         res.mComposition = null;
+         res.mShell = null;
+         res.mProperties = null;
+         res.copyDefaultAlgorithms(this);
+         res.mContexts = newContextCache();
+         res.mContextHits = 0;
+         res.mContextMisses = 0;
+         return res;
+      } catch (final CloneNotSupportedException e) {
+         throw new EPQFatalException(e);
+      }
+   }
+
+   /**
+    * Creates a Context initialized for the specified composition, shell and
+    * measurement conditions. Returns null if this algorithm doesn't support
+    * Context objects. Unlike initialize(...), createContext(...) doesn't modify
+    * this algorithm.
+    * 
+    * @param comp
+    *           The material's Composition (as best known)
+    * @param shell
+    *           The AtomicShell for which to compute the correction
+    * @param props
+    *           A SpectrumProperties object containing at least
+    *           SpectrumProperties.BeamEnergy and
+    *           SpectrumProperties.TakeOffAngle
+    * @return Context or null
+    * @throws EPQException
+    */
+   public Context createContext(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
+      final CorrectionAlgorithm alg = newContextInstance();
+      return alg != null ? new Context(alg, comp, shell, props) : null;
+   }
+
+   /**
+    * Returns a Context initialized for the specified composition, shell and
+    * measurement conditions. The most recently used Context objects are cached
+    * by mass fractions, shell, beam energy, take-off angle, exit angle and
+    * sample tilt so
+    * repeated requests for the same conditions are cheap. The mass fractions
+    * are not normalized since the fluorescence correction in relativeZAF(...)
+    * is computed on the composition as provided. The cache is cleared whenever
+    * the global override Strategy is applied or cleared and whenever this
+    * algorithm's own Strategy is changed. Returns null if this algorithm
+    * doesn't support Context objects.
+    * 
+    * @param comp
+    *           The material's Composition (as best known)
+    * @param shell
+    *           The AtomicShell for which to compute the correction
+    * @param props
+    *           A SpectrumProperties object containing at least
+    *           SpectrumProperties.BeamEnergy and
+    *           SpectrumProperties.TakeOffAngle
+    * @return Context or null
+    * @throws EPQException
+    */
+   public Context getContext(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
+      final ContextKey key = new ContextKey(comp, shell, props);
+      final int gen = AlgorithmUser.getGlobalOverrideGeneration();
+      final int localGen = getLocalOverrideGeneration();
+      synchronized (mContexts) {
+         if ((gen != mContextGeneration) || (localGen != mContextLocalGeneration)) {
+            mContexts.clear();
+            mContextGeneration = gen;
+            mContextLocalGeneration = localGen;
+         }
+         final Context res = mContexts.get(key);
+         if (res != null) {
+            ++mContextHits;
+            return res;
+         }
+      }
+      final Context res = createContext(comp, shell, props);
+      if (res != null)
+         synchronized (mContexts) {
+            ++mContextMisses;
+            if ((gen == mContextGeneration) && (localGen == mContextLocalGeneration))
+               mContexts.put(key, res);
+         }
+      return res;
+   }
+
+   /**
+    * Removes all the Context objects from the cache used by getContext(...).
+    * The hit and miss statistics are not reset.
+    */
+   public void clearContextCache() {
+      synchronized (mContexts) {
+         mContexts.clear();
+      }
+   }
+
+   /**
+    * The number of calls to getContext(...) satisfied from the cache.
+    * 
+    * @return long
+    */
+   public long getContextCacheHits() {
+      synchronized (mContexts) {
+         return mContextHits;
+      }
+   }
+
+   /**
+    * The number of Context objects created by getContext(...).
+    * 
+    * @return long
+    */
+   public long getContextCacheMisses() {
+      synchronized (mContexts) {
+         return mContextMisses;
+      }
+   }
+
    /**
     * computeTilt - Computes the sample tilt relative to the electron beam axis.
     * If the SampleSurfaceNormal property is available it is used otherwise,
@@ -218,22 +390,34 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     */
    public double[] relativeZAF(Composition comp, XRayTransition xrt, SpectrumProperties props, Composition standard) throws EPQException {
       if (comp.containsElement(xrt.getElement())) {
-         final Fluorescence fl = (Fluorescence) getAlgorithm(Fluorescence.class);
-         initialize(comp, xrt.getDestination(), props);
-         final double zComp = generated(xrt);
-         final double zaComp = computeZACorrection(xrt);
-         assert !Double.isNaN(zaComp);
-         final double fComp = (fl != null ? fl.compute(comp, xrt, mBeamEnergy, mExitAngle) : 1.0);
          final SampleShape ss = props.getSampleShapeWithDefault(SpectrumProperties.SampleShape, null);
          SpectrumProperties stdProps = props;
          if ((ss != null) && (!(ss instanceof SampleShape.Bulk))) {
             stdProps = props.clone();
             stdProps.setSampleShape(SpectrumProperties.SampleShape, new SampleShape.Bulk());
          }
-         initialize(standard, xrt.getDestination(), stdProps);
-         final double zStd = generated(xrt);
-         final double zaStd = computeZACorrection(xrt);
-         final double fStd = (fl != null ? fl.compute(standard, xrt, mBeamEnergy, mExitAngle) : 1.0);
+         final double zComp, zaComp, fComp, zStd, zaStd, fStd;
+         final Context unkCtx = getContext(comp, xrt.getDestination(), props);
+         if (unkCtx != null) {
+            final Context stdCtx = getContext(standard, xrt.getDestination(), stdProps);
+            zComp = unkCtx.generated(xrt);
+            zaComp = unkCtx.computeZACorrection(xrt);
+            fComp = unkCtx.inputFluorescence(xrt);
+            zStd = stdCtx.generated(xrt);
+            zaStd = stdCtx.computeZACorrection(xrt);
+            fStd = stdCtx.inputFluorescence(xrt);
+         } else {
+            final Fluorescence fl = (Fluorescence) getAlgorithm(Fluorescence.class);
+            initialize(comp, xrt.getDestination(), props);
+            zComp = generated(xrt);
+            zaComp = computeZACorrection(xrt);
+            fComp = (fl != null ? fl.compute(comp, xrt, mBeamEnergy, mExitAngle) : 1.0);
+            initialize(standard, xrt.getDestination(), stdProps);
+            zStd = generated(xrt);
+            zaStd = computeZACorrection(xrt);
+            fStd = (fl != null ? fl.compute(standard, xrt, mBeamEnergy, mExitAngle) : 1.0);
+         }
+         assert !Double.isNaN(zaComp);
          return new double[]{zComp / zStd, (zaComp * zStd) / (zaStd * zComp), fComp / fStd, (zaComp * fComp) / (zaStd * fStd)};
       } else
          throw new EPQException("The element " + xrt.getElement() + " is not present in " + comp + ".");
@@ -303,6 +487,12 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     * @throws EPQException
     */
    public double relativeA(Composition comp, XRayTransition xrt, SpectrumProperties props, Composition standard) throws EPQException {
+      final Context unkCtx = getContext(comp, xrt.getDestination(), props);
+      if (unkCtx != null) {
+         final Context stdCtx = getContext(standard, xrt.getDestination(), props);
+         final double res = unkCtx.computeZACorrection(xrt) / unkCtx.generated(xrt);
+         return res / (stdCtx.computeZACorrection(xrt) / stdCtx.generated(xrt));
+      }
       initialize(comp, xrt.getDestination(), props);
       final double res = computeZACorrection(xrt) / generated(xrt);
       initialize(standard, xrt.getDestination(), props);
@@ -344,6 +534,9 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     * @throws EPQException
     */
    public double relativeZ(Composition comp, XRayTransition xrt, SpectrumProperties props, Composition standard) throws EPQException {
+      final Context unkCtx = getContext(comp, xrt.getDestination(), props);
+      if (unkCtx != null)
+         return unkCtx.generated(xrt) / getContext(standard, xrt.getDestination(), props).generated(xrt);
       initialize(comp, xrt.getDestination(), props);
       final double res = generated(xrt);
       initialize(standard, xrt.getDestination(), props);
@@ -418,8 +611,6 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
     * @throws EPQException
     */
    public double computeKRatio(Composition unk, Composition std, XRayTransition xrt, SpectrumProperties sp) throws EPQException {
-      initialize(unk, xrt.getDestination(), sp);
-      final double zafUnk = computeZAFCorrection(xrt);
       SpectrumProperties stdSp = sp;
       // K-ratios for shapes are relative to bulk...
       if (sp.isDefined(SpectrumProperties.SampleShape)) {
@@ -427,8 +618,17 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
          stdSp.removeAll(Arrays.asList(new SpectrumProperties.PropertyId[]{SpectrumProperties.SampleShape, SpectrumProperties.SpecimenDensity,
                SpectrumProperties.MassThickness}));
       }
-      initialize(std, xrt.getDestination(), stdSp);
-      final double zafStd = computeZAFCorrection(xrt);
+      final double zafUnk, zafStd;
+      final Context unkCtx = getContext(unk, xrt.getDestination(), sp);
+      if (unkCtx != null) {
+         zafUnk = unkCtx.computeZAFCorrection(xrt);
+         zafStd = getContext(std, xrt.getDestination(), stdSp).computeZAFCorrection(xrt);
+      } else {
+         initialize(unk, xrt.getDestination(), sp);
+         zafUnk = computeZAFCorrection(xrt);
+         initialize(std, xrt.getDestination(), stdSp);
+         zafStd = computeZAFCorrection(xrt);
+      }
       final Element elm = xrt.getElement();
       return (zafUnk * unk.weightFraction(elm, false)) / (zafStd * std.weightFraction(elm, false));
    }
@@ -516,6 +716,219 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
       return UncertainValue2.divide(v, Math.sin(mExitAngle));
    }
 
+   /**
+    * <p>
+    * A CorrectionAlgorithm initialized for a single composition, shell and set
+    * of measurement conditions. A Context wraps a private instance of the
+    * algorithm which is initialized once on construction and only read
+    * thereafter so a Context may be shared between threads. The per-transition
+    * results are computed on demand and memoized. (Two threads may compute the
+    * same result simultaneously but they will compute the same value.)
+    * </p>
+    * <p>
+    * Contexts are created using createContext(...) or getContext(...).
+    * </p>
+    */
+   public static final class Context {
+      private final CorrectionAlgorithm mAlgorithm;
+      private final Composition mInput;
+      private final Map<XRayTransition, Double> mGenerated = new ConcurrentHashMap<XRayTransition, Double>();
+      private final Map<XRayTransition, Double> mZA = new ConcurrentHashMap<XRayTransition, Double>();
+      private final Map<XRayTransition, Double> mFluorescence = new ConcurrentHashMap<XRayTransition, Double>();
+      private final Map<XRayTransition, Double> mInputFluorescence = new ConcurrentHashMap<XRayTransition, Double>();
+
+      private Context(CorrectionAlgorithm alg, Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
+         alg.initialize(comp, shell, props);
+         mAlgorithm = alg;
+         mInput = comp.clone();
+      }
+
+      private void validate(XRayTransition xrt) {
+         if (!xrt.getDestination().equals(mAlgorithm.mShell))
+            throw new EPQFatalException(xrt.toString() + " is not a transition into " + mAlgorithm.mShell.toString() + ".");
+      }
+
+      /**
+       * Returns the normalized composition for which this Context was
+       * initialized.
+       * 
+       * @return Composition
+       */
+      public Composition getComposition() {
+         return mAlgorithm.mComposition.clone();
+      }
+
+      public AtomicShell getShell() {
+         return mAlgorithm.mShell;
+      }
+
+      /**
+       * The beam energy in Joules
+       * 
+       * @return double
+       */
+      public double getBeamEnergy() {
+         return mAlgorithm.mBeamEnergy;
+      }
+
+      /**
+       * The take-off angle in radians
+       * 
+       * @return double
+       */
+      public double getTakeOffAngle() {
+         return mAlgorithm.mTakeOffAngle;
+      }
+
+      /**
+       * The exit angle in radians
+       * 
+       * @return double
+       */
+      public double getExitAngle() {
+         return mAlgorithm.mExitAngle;
+      }
+
+      /**
+       * See CorrectionAlgorithm.generated(...)
+       * 
+       * @param xrt
+       * @return double
+       */
+      public double generated(XRayTransition xrt) {
+         Double res = mGenerated.get(xrt);
+         if (res == null) {
+            validate(xrt);
+            res = Double.valueOf(mAlgorithm.generated(xrt));
+            mGenerated.put(xrt, res);
+         }
+         return res.doubleValue();
+      }
+
+      /**
+       * See CorrectionAlgorithm.computeZACorrection(...)
+       * 
+       * @param xrt
+       * @return double
+       * @throws EPQException
+       */
+      public double computeZACorrection(XRayTransition xrt) throws EPQException {
+         Double res = mZA.get(xrt);
+         if (res == null) {
+            validate(xrt);
+            res = Double.valueOf(mAlgorithm.computeZACorrection(xrt));
+            mZA.put(xrt, res);
+         }
+         return res.doubleValue();
+      }
+
+      /**
+       * Computes the fluorescence correction for the normalized composition.
+       * Returns 1.0 if the algorithm's Strategy doesn't specify a
+       * Fluorescence algorithm.
+       * 
+       * @param xrt
+       * @return double
+       * @throws EPQException
+       */
+      public double computeFluorescence(XRayTransition xrt) throws EPQException {
+         return fluorescence(mFluorescence, mAlgorithm.mComposition, xrt);
+      }
+
+      /**
+       * The fluorescence correction for the composition as provided (not
+       * normalized) as used by relativeZAF(...).
+       */
+      private double inputFluorescence(XRayTransition xrt) throws EPQException {
+         return fluorescence(mInputFluorescence, mInput, xrt);
+      }
+
+      private double fluorescence(Map<XRayTransition, Double> memo, Composition comp, XRayTransition xrt) throws EPQException {
+         Double res = memo.get(xrt);
+         if (res == null) {
+            validate(xrt);
+            final Fluorescence fl = (Fluorescence) mAlgorithm.getAlgorithm(Fluorescence.class);
+            res = Double.valueOf(fl != null ? fl.compute(comp, xrt, mAlgorithm.mBeamEnergy, mAlgorithm.mExitAngle) : 1.0);
+            memo.put(xrt, res);
+         }
+         return res.doubleValue();
+      }
+
+      /**
+       * See CorrectionAlgorithm.computeZAFCorrection(...)
+       * 
+       * @param xrt
+       * @return double
+       * @throws EPQException
+       */
+      public double computeZAFCorrection(XRayTransition xrt) throws EPQException {
+         return computeFluorescence(xrt) * computeZACorrection(xrt);
+      }
+
+      @Override
+      public String toString() {
+         return mAlgorithm.getName() + "[" + mAlgorithm.mShell + " in " + mAlgorithm.mComposition + "]";
+      }
+   }
+
+   /**
+    * The key used to look up Context objects. The composition is represented
+    * by the atomic numbers and the (unnormalized) mass fractions.
+    */
+   private static final class ContextKey {
+      private final int[] mAtomicNumbers;
+      private final double[] mMassFractions;
+      private final AtomicShell mShell;
+      private final double mBeamEnergy;
+      private final double mTakeOffAngle;
+      private final double mExitAngle;
+      private final double mTilt;
+      private final int mHashCode;
+
+      private ContextKey(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
+         final int n = comp.getElementCount();
+         mAtomicNumbers = new int[n];
+         mMassFractions = new double[n];
+         int i = 0;
+         for (final Element elm : comp.getElementSet()) {
+            mAtomicNumbers[i] = elm.getAtomicNumber();
+            mMassFractions[i] = comp.weightFraction(elm, false);
+            ++i;
+         }
+         mShell = shell;
+         mBeamEnergy = ToSI.keV(props.getNumericProperty(SpectrumProperties.BeamEnergy));
+         mTakeOffAngle = SpectrumUtils.getTakeOffAngle(props);
+         mExitAngle = SpectrumUtils.getExitAngle(props);
+         mTilt = getTilt(props);
+         int hash = (31 * Arrays.hashCode(mAtomicNumbers)) + Arrays.hashCode(mMassFractions);
+         hash = (31 * hash) + shell.hashCode();
+         hash = (31 * hash) + Double.hashCode(mBeamEnergy);
+         hash = (31 * hash) + Double.hashCode(mTakeOffAngle);
+         hash = (31 * hash) + Double.hashCode(mExitAngle);
+         mHashCode = (31 * hash) + Double.hashCode(mTilt);
+      }
+
+      @Override
+      public int hashCode() {
+         return mHashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof ContextKey))
+            return false;
+         final ContextKey other = (ContextKey) obj;
+         return (mHashCode == other.mHashCode) && Arrays.equals(mAtomicNumbers, other.mAtomicNumbers)
+               && Arrays.equals(mMassFractions, other.mMassFractions) && mShell.equals(other.mShell)
+               && (Double.doubleToLongBits(mBeamEnergy) == Double.doubleToLongBits(other.mBeamEnergy))
+               && (Double.doubleToLongBits(mTakeOffAngle) == Double.doubleToLongBits(other.mTakeOffAngle))
+               && (Double.doubleToLongBits(mExitAngle) == Double.doubleToLongBits(other.mExitAngle))
+               && (Double.doubleToLongBits(mTilt) == Double.doubleToLongBits(other.mTilt));
+      }
+   }
+
    /**
     * Implements a version of CorrectionAlgorithm for computing ZAF-style
     * corrections. The user can use a Strategy to specify which
@@ -598,6 +1011,11 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
          }
       }
 
+      @Override
+      protected CorrectionAlgorithm newContextInstance() {
+         return getClass() == ZAFCorrectionAlgorithm.class ? uninitializedCopy() : null;
+      }
+
       @Override
       public String caveat(Composition comp, AtomicShell shell, SpectrumProperties props) {
          return CaveatBase.None;
@@ -644,6 +1062,11 @@ abstract public class CorrectionAlgorithm extends AlgorithmClass implements Comp
       public double generated(XRayTransition xrt) {
          return 1.0;
       }
+
+      @Override
+      protected CorrectionAlgorithm newContextInstance() {
+         return getClass() == NullCorrectionAlgorithm.class ? uninitializedCopy() : null;
+      }
    }
 
    static public final CorrectionAlgorithm NullCorrection = new NullCorrectionAlgorithm();
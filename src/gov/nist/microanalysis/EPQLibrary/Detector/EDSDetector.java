@@ -4,14 +4,17 @@ import java.awt.event.ActionEvent;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.EditableSpectrum;
 import gov.nist.microanalysis.EPQLibrary.Element;
 import gov.nist.microanalysis.EPQLibrary.FromSI;
@@ -21,6 +24,7 @@ import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
 import gov.nist.microanalysis.EPQTools.EPQXStream;
+import gov.nist.microanalysis.NISTMonte.IMergeable;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.XRay;
 import gov.nist.microanalysis.Utility.Math2;
@@ -34,6 +38,17 @@ import Jama.SingularValueDecomposition;
  * EDSDetector objects implement the basic XRayDetector interface.
  * </p>
  * <p>
+ * An EDSDetector combines the detector model (the DetectorProperties, the
+ * EDSCalibration and the derived efficiency and detector response) with an
+ * accumulator for x-ray events. The instances returned by
+ * <code>createDetector(...)</code> are cached and so shared. Their accumulator
+ * must not be used from more than one thread. Use <code>createSession()</code>
+ * to obtain an independent accumulator which shares the detector model. Each
+ * thread can accumulate into its own session and the sessions can be combined
+ * using <code>merge(...)</code> without any locking once the threads have
+ * finished.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -44,10 +59,112 @@ import Jama.SingularValueDecomposition;
  * @author Nicholas
  * @version 1.0
  */
-public class EDSDetector implements IXRayDetector {
+public class EDSDetector implements IXRayDetector, IMergeable<EDSDetector> {
 
    static private Map<String, EDSDetector> mCache = new HashMap<String, EDSDetector>();
 
+   /**
+    * The minimum relative intensity of the line shape included in the detector
+    * response.
+    */
+   static private final double MIN_I = 0.0001;
+
+   /**
+    * The maximum number of DetectorResponse objects retained by sResponses
+    */
+   static private final int RESPONSE_CACHE_SIZE = 4;
+
+   /**
+    * The most recently used detector responses (most recent last)
+    */
+   static private final List<DetectorResponse> sResponses = new ArrayList<DetectorResponse>();
+
+   /**
+    * <p>
+    * The response of the detector to a unit intensity in each channel as a
+    * sparse banded matrix. Row i contains the contribution of channel i to the
+    * channels mFirst[i], mFirst[i]+1, ... The response depends only upon the
+    * line shape model and the channel calibration so it is shared between
+    * detectors. The efficiency is applied separately as the window may change.
+    * </p>
+    */
+   static private final class DetectorResponse {
+      private final DetectorLineshapeModel mModel;
+      private final double mChannelWidth;
+      private final double mZeroOffset;
+      private final int mChannelCount;
+      // First channel of each row
+      private final int[] mFirst;
+      // Row i occupies mWeights[mOffsets[i]] to mWeights[mOffsets[i+1]-1]
+      private final int[] mOffsets;
+      private final double[] mWeights;
+
+      private DetectorResponse(final DetectorLineshapeModel dlm, final ISpectrumData es) {
+         mModel = dlm.clone();
+         mChannelWidth = es.getChannelWidth();
+         mZeroOffset = es.getZeroOffset();
+         mChannelCount = es.getChannelCount();
+         mFirst = new int[mChannelCount];
+         mOffsets = new int[mChannelCount + 1];
+         double[] weights = new double[16 * mChannelCount];
+         int pos = 0;
+         for (int i = 0; i < mChannelCount; ++i) {
+            final double e = SpectrumUtils.minEnergyForChannel(es, i);
+            final int highBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e + dlm.rightWidth(e, MIN_I)), 0, mChannelCount);
+            final int lowBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e - dlm.leftWidth(e, MIN_I)), 0, mChannelCount);
+            if (pos + Math.max(0, highBin - lowBin) > weights.length)
+               weights = Arrays.copyOf(weights, Math.max(2 * weights.length, pos + highBin - lowBin));
+            // The line shape integrated over each channel by the trapezoid rule
+            double ee = SpectrumUtils.minEnergyForChannel(es, lowBin);
+            double prev = dlm.compute(ee, e);
+            mFirst[i] = lowBin + 1;
+            for (int ch = lowBin; ch < highBin; ++ch, ee += mChannelWidth) {
+               final double curr = dlm.compute(ee + mChannelWidth, e);
+               weights[pos++] = 0.5 * (prev + curr);
+               prev = curr;
+            }
+            mOffsets[i + 1] = pos;
+         }
+         mWeights = Arrays.copyOf(weights, pos);
+      }
+
+      private boolean matches(final DetectorLineshapeModel dlm, final ISpectrumData es) {
+         return (mChannelWidth == es.getChannelWidth()) && (mZeroOffset == es.getZeroOffset()) && (mChannelCount == es.getChannelCount())
+               && mModel.equals(dlm);
+      }
+
+      /**
+       * Adds <code>scale</code> times row <code>i</code> to
+       * <code>spec</code>.
+       */
+      private void addRow(final int i, final double scale, final double[] spec) {
+         final int end = mOffsets[i + 1];
+         for (int j = mOffsets[i], ch = mFirst[i]; j < end; ++j, ++ch)
+            spec[ch] += scale * mWeights[j];
+      }
+
+      private static DetectorResponse get(final DetectorLineshapeModel dlm, final ISpectrumData es) {
+         synchronized (sResponses) {
+            for (int i = sResponses.size() - 1; i >= 0; --i) {
+               final DetectorResponse dr = sResponses.get(i);
+               if (dr.matches(dlm, es)) {
+                  sResponses.remove(i);
+                  sResponses.add(dr);
+                  return dr;
+               }
+            }
+         }
+         // Build outside the lock as this is relatively expensive
+         final DetectorResponse dr = new DetectorResponse(dlm, es);
+         synchronized (sResponses) {
+            sResponses.add(dr);
+            if (sResponses.size() > RESPONSE_CACHE_SIZE)
+               sResponses.remove(0);
+         }
+         return dr;
+      }
+   }
+
    private final DetectorProperties mDetProperties;
    private final EDSCalibration mCalibration;
    private transient Matrix mPseudoInverse = null;
@@ -62,13 +179,29 @@ public class EDSDetector implements IXRayDetector {
    transient private EditableSpectrum mSpectrum;
    transient private double[] mAccumulator;
 
+   /**
+    * The state as of the last call to convolve() which permits convolve() to
+    * process only the channels which have changed since.
+    */
+   transient private DetectorResponse mResponse;
+   transient private double[] mConvolved;
+   transient private double[] mConvolvedAccumulator;
+   transient private double[] mConvolvedEfficiency;
+   transient private double mConvolvedFactor;
+
+   /**
+    * The detector from which this session was created (null if this detector
+    * is not a session).
+    */
+   transient private EDSDetector mModel;
+
    public EditableSpectrum getSpectrum() {
       if (mSpectrum == null) {
          final double scale = mCalibration.getChannelWidth();
          final double offset = mCalibration.getZeroOffset();
          mSpectrum = new EditableSpectrum(getDetectorProperties().getChannelCount(), scale, offset);
          final SpectrumProperties sp = mSpectrum.getProperties();
-         sp.setDetector(this);
+         sp.setDetector(getModel());
          sp.setBooleanProperty(SpectrumProperties.IsTheoreticallyGenerated, true);
          sp.setTimestampProperty(SpectrumProperties.AcquisitionTime, new Date());
       }
@@ -86,7 +219,7 @@ public class EDSDetector implements IXRayDetector {
       final double offset = mCalibration.getZeroOffset();
       final EditableSpectrum res = new EditableSpectrum(getDetectorProperties().getChannelCount(), eVperBin, offset);
       final SpectrumProperties sp = res.getProperties();
-      sp.setDetector(this);
+      sp.setDetector(getModel());
       sp.setBooleanProperty(SpectrumProperties.IsTheoreticallyGenerated, true);
       sp.setTimestampProperty(SpectrumProperties.AcquisitionTime, new Date());
       System.arraycopy(getAccumulator(), 0, res.getCounts(), 0, res.getChannelCount());
@@ -97,31 +230,40 @@ public class EDSDetector implements IXRayDetector {
    /**
     * Convolve takes the events in the accumulator and convolves them into the
     * existing spectrum. Convolve may be called many times as new events are
-    * recorded by the detector.
+    * recorded by the detector. The detector response is computed once for each
+    * line shape and calibration and only the channels in which the
+    * accumulator has changed since the last call are convolved.
     */
    protected void convolve() {
       final EditableSpectrum es = getSpectrum();
       final double eVperBin = es.getChannelWidth();
       final DetectorLineshapeModel dlm = getDetectorLineshapeModel();
-      final double MIN_I = 0.0001;
-      final double[] eff = getEfficiency();
       final double[] acc = getAccumulator();
-      final double[] fs = Math2.multiply(eVperBin * mCalibration.getFudgeFactor(), Math2.multiply(acc, eff));
-      final double[] spec = es.getCounts();
-      Arrays.fill(spec, 0.0);
-      for (int i = 0; i < fs.length; ++i)
-         if (fs[i] > 0.0) {
-            final double e = SpectrumUtils.minEnergyForChannel(es, i);
-            final int highBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e + dlm.rightWidth(e, MIN_I)), 0, spec.length);
-            final int lowBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e - dlm.leftWidth(e, MIN_I)), 0, spec.length);
-            double ee = SpectrumUtils.minEnergyForChannel(es, lowBin);
-            double prev = dlm.compute(ee, e);
-            for (int ch = lowBin; ch < highBin; ++ch, ee += eVperBin) {
-               final double curr = dlm.compute(ee + eVperBin, e);
-               spec[ch + 1] += 0.5 * fs[i] * (prev + curr);
-               prev = curr;
-            }
+      final double[] eff = getEfficiency();
+      final double k = eVperBin * mCalibration.getFudgeFactor();
+      if ((mResponse == null) || (!mResponse.matches(dlm, es))) {
+         mResponse = DetectorResponse.get(dlm, es);
+         mConvolved = null;
+      }
+      if ((mConvolved == null) || (k != mConvolvedFactor) || (!Arrays.equals(eff, mConvolvedEfficiency))) {
+         // Start from scratch
+         mConvolved = new double[acc.length];
+         mConvolvedAccumulator = new double[acc.length];
+         mConvolvedEfficiency = eff.clone();
+         mConvolvedFactor = k;
+      }
+      final double[] conv = mConvolved;
+      final double[] prevAcc = mConvolvedAccumulator;
+      for (int i = 0; i < acc.length; ++i)
+         if (acc[i] != prevAcc[i]) {
+            // Only positive intensities contribute (NaN does not)
+            final double curr = k * (acc[i] * eff[i]), prev = k * (prevAcc[i] * eff[i]);
+            final double delta = (curr > 0.0 ? curr : 0.0) - (prev > 0.0 ? prev : 0.0);
+            if (delta != 0.0)
+               mResponse.addRow(i, delta, conv);
+            prevAcc[i] = acc[i];
          }
+      System.arraycopy(conv, 0, es.getCounts(), 0, conv.length);
       final SpectrumProperties sp = es.getProperties();
       sp.setTimestampProperty(SpectrumProperties.AcquisitionTime, new Date());
       sp.setBooleanProperty(SpectrumProperties.IsTheoreticallyGenerated, true);
@@ -136,7 +278,44 @@ public class EDSDetector implements IXRayDetector {
       mCalibration = calib;
       mAccumulator = null;
       mSpectrum = null;
-      reset();
+      mConvolved = null;
+      mDirty = true;
+   }
+
+   /**
+    * Constructs a session which shares the detector model with
+    * <code>model</code>. Use <code>createSession()</code> instead.
+    *
+    * @param model
+    */
+   protected EDSDetector(final EDSDetector model) {
+      this(model.mDetProperties, model.mCalibration);
+      mModel = model.getModel();
+   }
+
+   /**
+    * Creates a new EDSDetector which shares the DetectorProperties,
+    * EDSCalibration and detector response with this detector but has its own
+    * accumulator and spectrum. Sessions are not cached so each call returns a
+    * new, empty detector which may be used on a different thread from this
+    * detector and from other sessions. Spectra produced by a session refer to
+    * the detector from which the session was created. The model is shared so
+    * the window should not be changed while sessions are in use.
+    *
+    * @return EDSDetector
+    */
+   public EDSDetector createSession() {
+      return new EDSDetector(this);
+   }
+
+   /**
+    * Returns the detector from which this session was created or this if this
+    * detector is not a session.
+    *
+    * @return EDSDetector
+    */
+   public EDSDetector getModel() {
+      return mModel != null ? mModel : this;
    }
 
    /**
@@ -246,6 +425,26 @@ public class EDSDetector implements IXRayDetector {
       }
    }
 
+   /**
+    * Adds the events accumulated by det into this detector's accumulator. The
+    * detectors must have the same number of channels. The spectrum will be
+    * recomputed the next time it is requested.
+    *
+    * @param det
+    */
+   @Override
+   public void merge(final EDSDetector det) {
+      if (det == this)
+         throw new EPQFatalException("Unable to merge a detector with itself.");
+      final double[] acc = getAccumulator();
+      final double[] src = det.getAccumulator();
+      if (acc.length != src.length)
+         throw new EPQFatalException("Unable to merge detectors with different channel counts.");
+      for (int ch = 0; ch < acc.length; ++ch)
+         acc[ch] += src[ch];
+      mDirty = true;
+   }
+
    /**
     * @see gov.nist.microanalysis.EPQLibrary.Detector.IXRayDetector#reset()
     */
@@ -253,6 +452,7 @@ public class EDSDetector implements IXRayDetector {
    public void reset() {
       mAccumulator = null;
       mSpectrum = null;
+      mConvolved = null;
       mDirty = true;
    }
 
@@ -633,6 +833,15 @@ public class EDSDetector implements IXRayDetector {
             super(new IdealDetectorProperties(nChannels, pos), new IdealCalibration(chWidth));
          }
 
+         IdealDetector(final IdealDetector model) {
+            super(model);
+         }
+
+         @Override
+         public EDSDetector createSession() {
+            return new IdealDetector(this);
+         }
+
          @Override
          protected void convolve() {
             final EditableSpectrum es = getSpectrum();
@@ -86,7 +86,7 @@ abstract public class EdgeEnergy extends AlgorithmClass {
 
    public static class DiracHartreeSlaterIonizationEnergies extends EdgeEnergy {
 
-      static double[][] mUis; // nominally [100][9]
+      static volatile double[][] mUis; // nominally [100][9]
 
       public DiracHartreeSlaterIonizationEnergies() {
          super("Bote-Salvat 2008",
@@ -100,13 +100,15 @@ abstract public class EdgeEnergy extends AlgorithmClass {
       private void initialize() {
          synchronized (DiracHartreeSlaterIonizationEnergies.class) {
             if (mUis == null) {
-               mUis = new double[100][];
+               final double[][] uis = new double[100][];
                final double[][] uisTmp = (new CSVReader.ResourceReader("SalvatXion/xionUis.csv", false)).getResource(EdgeEnergy.class);
                assert uisTmp.length == 99;
                for (int r = 0; r < uisTmp.length; ++r) {
                   assert Math.round(uisTmp[r][0]) == (r + 1);
-                  mUis[r + 1] = Math2.slice(uisTmp[r], 1, uisTmp[r].length - 1);
+                  uis[r + 1] = Math2.slice(uisTmp[r], 1, uisTmp[r].length - 1);
                }
+               // Publish only once fully populated
+               mUis = uis;
             }
          }
       }
@@ -189,7 +191,7 @@ abstract public class EdgeEnergy extends AlgorithmClass {
          super("NIST-Chantler 2005", "http://physics.nist.gov/ffast");
       }
 
-      private double[][] mEnergies;
+      private volatile double[][] mEnergies;
 
       private final int index(int sh) {
          if ((sh < AtomicShell.K) || (sh > AtomicShell.PIII))
@@ -204,12 +206,13 @@ abstract public class EdgeEnergy extends AlgorithmClass {
       private void load() {
          synchronized (this) {
             if (mEnergies == null) {
-               mEnergies = (new CSVReader.ResourceReader("FFastEdgeDB.csv", true)).getResource(EdgeEnergy.class);
+               final double[][] energies = (new CSVReader.ResourceReader("FFastEdgeDB.csv", true)).getResource(EdgeEnergy.class);
                // Convert from eV to Joules
-               for (int r = 0; r < mEnergies.length; ++r)
-                  if (mEnergies[r].length > 0)
-                     for (int c = 0; c < mEnergies[r].length; ++c)
-                        mEnergies[r][c] = ToSI.eV(mEnergies[r][c]);
+               for (int r = 0; r < energies.length; ++r)
+                  if (energies[r].length > 0)
+                     for (int c = 0; c < energies[r].length; ++c)
+                        energies[r][c] = ToSI.eV(energies[r][c]);
+               mEnergies = energies;
             }
          }
       }
@@ -287,8 +287,8 @@ public class Element implements Comparable<Element>, Serializable {
          "Ra", "Ac", "Th", "Pa", "U", "Np", "Pu", "Am", "Cm", "Bk", "Cf", "Es", "Fm", "Md", "No", "Lr", "Rf", "Db", "Sg", "Bh", "Hs", "Mt", "Uun",
          "Uuu", "Uub", "EOE"};
 
-   private static double[] mIonizationEnergy; // Nominal in Joules
-   private static double[] mAtomicWeight; // nominal, in AMU
+   private static volatile double[] mIonizationEnergy; // Nominal in Joules
+   private static volatile double[] mAtomicWeight; // nominal, in AMU
 
    // must be private for the whole scheme to work
    private Element(int atomicNo) {
@@ -308,9 +308,10 @@ public class Element implements Comparable<Element>, Serializable {
          synchronized (Element.class) {
             if (mAtomicWeight == null) {
                final double[][] TempDoubleArray = (new CSVReader.ResourceReader("AtomicWeights.csv", true)).getResource(Element.class);
-               mAtomicWeight = new double[TempDoubleArray.length];
+               final double[] weights = new double[TempDoubleArray.length];
                for (int index = 0; index < TempDoubleArray.length; ++index)
-                  mAtomicWeight[index] = TempDoubleArray[index][0];
+                  weights[index] = TempDoubleArray[index][0];
+               mAtomicWeight = weights;
             }
          }
       } catch (final Exception ex) {
@@ -655,9 +656,10 @@ public class Element implements Comparable<Element>, Serializable {
          synchronized (Element.class) {
             if (mIonizationEnergy == null) {
                final double[][] arr = (new CSVReader.ResourceReader("IonizationEnergies.csv", true)).getResource(Element.class);
-               mIonizationEnergy = new double[arr.length];
+               final double[] ie = new double[arr.length];
                for (int index = 0; index < arr.length; ++index)
-                  mIonizationEnergy[index] = arr[index] != null ? ToSI.eV(arr[index][0]) : -1.0;
+                  ie[index] = arr[index] != null ? ToSI.eV(arr[index][0]) : -1.0;
+               mIonizationEnergy = ie;
             }
          }
       assert mAtomicNumber >= 1 : toString();
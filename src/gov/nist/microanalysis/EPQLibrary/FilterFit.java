@@ -211,14 +211,14 @@ public class FilterFit extends LinearSpectrumFit {
       return res;
    }
 
-   private static double[] checkNotNaN(final double[] data) {
+   static double[] checkNotNaN(final double[] data) {
       for (int i = 0; i < data.length; ++i)
          if (Double.isNaN(data[i]))
             data[i] = i > 0 ? data[i - 1] : 0.0;
       return data;
    }
 
-   private static double[] checkNotNaNZero(final double[] data) {
+   static double[] checkNotNaNZero(final double[] data) {
       for (int i = 0; i < data.length; ++i)
          if (Double.isNaN(data[i]) || (data[i] < 1.0e-100))
             data[i] = i > 0 ? data[i - 1] : Double.MAX_VALUE;
@@ -592,15 +592,64 @@ public class FilterFit extends LinearSpectrumFit {
 
    private void updateUnknown(final ISpectrumData unk) throws EPQException {
       if ((mFilteredUnknown == null) || (unk != mFilteredUnknown.getBaseSpectrum())) {
-         if(mVarFF!=null)
-            mFilteredUnknown = new FilteredSpectrum(unk, mVarFF);
-         else
-            mFilteredUnknown = new FilteredSpectrum(unk, mConstFF);
+         mFilteredUnknown = filterUnknown(unk);
          markDirty();
       }
       perform();
    }
 
+   /**
+    * Filters an unknown spectrum with the same filter as is applied to the
+    * references.
+    *
+    * @param unk
+    * @return FilteredSpectrum
+    * @throws EPQException
+    */
+   FilteredSpectrum filterUnknown(final ISpectrumData unk) throws EPQException {
+      return mVarFF != null ? new FilteredSpectrum(unk, mVarFF) : new FilteredSpectrum(unk, mConstFF);
+   }
+
+   /**
+    * Returns the constant width fitting filter or null if the variable width
+    * filter is in use.
+    *
+    * @return FittingFilter
+    */
+   FittingFilter getConstantFilter() {
+      return mConstFF;
+   }
+
+   /**
+    * Returns the variable width fitting filter or null if the constant width
+    * filter is in use.
+    *
+    * @return VariableWidthFittingFilter
+    */
+   VariableWidthFittingFilter getVariableFilter() {
+      return mVarFF;
+   }
+
+   /**
+    * Returns the elements which have been forced to zero using forceZero(...).
+    *
+    * @return Set&lt;Element&gt;
+    */
+   Set<Element> getForcedZero() {
+      return Collections.unmodifiableSet(mExplicitlyZero);
+   }
+
+   /**
+    * Returns the factor by which the k-ratio associated with the specified
+    * element is scaled in getKRatios(...).
+    *
+    * @param elm
+    * @return 0.95 for O when the O fudge is applied, otherwise 1.0
+    */
+   double getKRatioScale(final Element elm) {
+      return (elm == Element.O) && mOFudge ? 0.95 : 1.0;
+   }
+
    /**
     * Returns the residual computed from the filtered unknown minus the filtered
     * references times the associated k-ratio. It should be relatively easy to
@@ -0,0 +1,490 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQTools.MappedRippleFile;
+import gov.nist.microanalysis.Utility.Interval;
+import gov.nist.microanalysis.Utility.Math2;
+
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+
+/**
+ * <p>
+ * Filter fits many spectra against a fixed set of references, as in a spectrum
+ * image. FilterFit.perform() rebuilds the fit intervals, re-extracts the
+ * reference data and recomputes the singular value decomposition for each
+ * unknown. None of this depends upon the unknown when the channel weights are
+ * held fixed, so FilterFitBatch filters the references once and, for each
+ * subset of active references, computes the weighted pseudo-inverse of the
+ * design matrix. Since the fitting filter is also linear, the filter and the
+ * pseudo-inverse are folded into a single projection matrix which is applied
+ * directly to the raw channel counts. Fitting a pixel is then one
+ * matrix-vector product over the channels spanned by the references.
+ * </p>
+ * <p>
+ * The channel weights are taken from a weighting spectrum, typically the sum
+ * of all the pixels (see sumSpectrum(...)), rather than from each unknown.
+ * When the pixels all have the same shape this produces exactly the same
+ * k-ratios as FilterFit; otherwise the k-ratios remain unbiased but are fit
+ * with slightly less than optimal weights. As in FilterFit.perform(),
+ * references with negative fit coefficients are removed and the fit repeated.
+ * Only the pixels which produce negative coefficients take this slower path
+ * and the projections for the reduced subsets are cached so that they are
+ * computed only once per map. The FilterFit's strip-unlikely pre-test and
+ * CullingStrategy are per-spectrum heuristics and are not applied.
+ * </p>
+ * <p>
+ * The projections are immutable once computed so a single FilterFitBatch may
+ * be used from multiple threads.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final public class FilterFitBatch {
+
+   /**
+    * Singular values smaller than this fraction of the largest are discarded
+    * (as in LinearLeastSquares).
+    */
+   private static final double TOLERANCE = 1.0e-12;
+
+   private final FilteredSpectrum[] mReferences;
+   private final double[] mKRatioScale;
+   private final int mChannelCount;
+   // Channel weights (the errors of the filtered weighting spectrum)
+   private final double[] mErrors;
+   // 1/dose for each pixel
+   private final double mNormalization;
+   private final int mLLD;
+   private final FittingFilter mConstFF;
+   private final VariableWidthFittingFilter mVarFF;
+   private final BitSet mInitial;
+   private final Projection mInitialProjection;
+   private final Map<BitSet, Projection> mProjections = new HashMap<BitSet, Projection>();
+   private final AtomicLong mRefitCount = new AtomicLong();
+
+   /**
+    * The projection from raw channel counts to fit coefficients for one subset
+    * of active references.
+    */
+   private static final class Projection {
+      // Indices of the active references
+      private final int[] mActive;
+      // The runs of channels [mStart[r], mEnd[r]) which contribute to the fit
+      private final int[] mStart;
+      private final int[] mEnd;
+      // The coefficients for the j-th active reference packed run after run
+      private final double[][] mRows;
+
+      private Projection(int[] active, int[] start, int[] end, double[][] rows) {
+         mActive = active;
+         mStart = start;
+         mEnd = end;
+         mRows = rows;
+      }
+
+      /**
+       * Computes the fit coefficients for the active references into res.
+       */
+      private void apply(double[] counts, int nCh, double[] res) {
+         for (int j = 0; j < mActive.length; ++j) {
+            final double[] row = mRows[j];
+            double sum = 0.0;
+            for (int r = 0, i = 0; r < mStart.length; ++r) {
+               final int end = Math.min(mEnd[r], nCh);
+               for (int ch = mStart[r]; ch < end; ++ch, ++i)
+                  sum += row[i] * counts[ch];
+               i += mEnd[r] - Math.max(end, mStart[r]);
+            }
+            res[mActive[j]] = sum;
+         }
+      }
+   }
+
+   /**
+    * Constructs a FilterFitBatch from the references in a FilterFit.
+    *
+    * @param ff
+    *           A FilterFit containing the references. Only the references and
+    *           elements forced to zero are used. Subsequent changes to ff do
+    *           not affect this object.
+    * @param weights
+    *           A spectrum (usually the sum spectrum) from which to compute the
+    *           channel weights. Must have the same energy calibration as the
+    *           pixel spectra.
+    * @param pixelProps
+    *           The properties of a single pixel spectrum. The live time and
+    *           probe current are used to dose correct the k-ratios.
+    * @throws EPQException
+    *            If there are no references or the dose is unavailable
+    */
+   public FilterFitBatch(FilterFit ff, ISpectrumData weights, SpectrumProperties pixelProps) throws EPQException {
+      final int nRefs = ff.fitFunctionCount();
+      if (nRefs == 0)
+         throw new EPQException("The filter fit contains no references.");
+      mReferences = new FilteredSpectrum[nRefs];
+      mKRatioScale = new double[nRefs];
+      mInitial = new BitSet(nRefs);
+      final Set<Element> zero = ff.getForcedZero();
+      for (int i = 0; i < nRefs; ++i) {
+         mReferences[i] = ff.getFilteredSpectrum(i);
+         mKRatioScale[i] = ff.getKRatioScale(mReferences[i].getElement());
+         if (!zero.contains(mReferences[i].getElement()))
+            mInitial.set(i);
+      }
+      mChannelCount = weights.getChannelCount();
+      mErrors = ff.filterUnknown(weights).getErrors().clone();
+      mNormalization = 1.0 / SpectrumUtils.getDose(pixelProps);
+      if (pixelProps.isDefined(SpectrumProperties.ZeroPeakDiscriminator))
+         mLLD = SpectrumUtils.channelForEnergy(weights, pixelProps.getNumericWithDefault(SpectrumProperties.ZeroPeakDiscriminator, 0.0));
+      else
+         mLLD = 0;
+      mConstFF = ff.getConstantFilter();
+      mVarFF = ff.getVariableFilter();
+      mInitialProjection = mInitial.isEmpty() ? null : projection(mInitial);
+   }
+
+   /**
+    * Sums all the pixels in a MappedRippleFile into a spectrum suitable for use
+    * as the weighting spectrum. The live time in pixelProps is scaled by the
+    * number of pixels.
+    *
+    * @param mrf
+    * @param pixelProps
+    *           The properties of a single pixel spectrum. Must define the
+    *           energy scale and offset.
+    * @return ISpectrumData
+    * @throws EPQException
+    */
+   public static ISpectrumData sumSpectrum(MappedRippleFile mrf, SpectrumProperties pixelProps) throws EPQException {
+      final double[] sum = new double[mrf.getDepth()];
+      for (int y = 0; y < mrf.getHeight(); ++y)
+         for (int x = 0; x < mrf.getWidth(); ++x)
+            mrf.addSpectrum(x, y, sum);
+      final ISpectrumData res = SpectrumUtils.toSpectrum(pixelProps.getNumericProperty(SpectrumProperties.EnergyScale), pixelProps.getNumericProperty(SpectrumProperties.EnergyOffset), sum);
+      final SpectrumProperties sp = res.getProperties();
+      sp.addAll(pixelProps);
+      if (sp.isDefined(SpectrumProperties.LiveTime))
+         sp.setNumericProperty(SpectrumProperties.LiveTime, sp.getNumericProperty(SpectrumProperties.LiveTime) * mrf.getWidth() * mrf.getHeight());
+      SpectrumUtils.rename(res, "Sum[" + mrf.toString() + "]");
+      return res;
+   }
+
+   /**
+    * Returns the number of references (the number of k-ratios per pixel).
+    *
+    * @return int
+    */
+   public int getReferenceCount() {
+      return mReferences.length;
+   }
+
+   /**
+    * Returns the RegionOfInterest associated with the i-th reference.
+    *
+    * @param i
+    * @return RegionOfInterest
+    */
+   public RegionOfInterest getRegionOfInterest(int i) {
+      return mReferences[i].getRegionOfInterest();
+   }
+
+   /**
+    * Returns the XRayTransitionSet associated with the i-th reference.
+    *
+    * @param i
+    * @return XRayTransitionSet
+    */
+   public XRayTransitionSet getXRayTransitionSet(int i) {
+      return mReferences[i].getXRayTransitionSet();
+   }
+
+   /**
+    * Returns the number of pixels which were refit with fewer references
+    * because one or more of the k-ratios were negative in the most recent call
+    * to fit(MappedRippleFile).
+    *
+    * @return long
+    */
+   public long getRefitCount() {
+      return mRefitCount.get();
+   }
+
+   /**
+    * Returns the number of distinct subsets of references for which a
+    * projection has been computed.
+    *
+    * @return int
+    */
+   public int getProjectionCount() {
+      synchronized (mProjections) {
+         return mProjections.size();
+      }
+   }
+
+   /**
+    * Appends the raw channels which contribute to the filtered value in
+    * channel ch and the associated weights. Mirrors the filtering in
+    * FilteredSpectrum for a full spectrum including the zero peak
+    * discriminator.
+    *
+    * @return The number of channels
+    */
+   private int filterRow(int ch, int[] chs, double[] ws) {
+      if (mVarFF != null) {
+         final double[] filt = mVarFF.filter(ch);
+         final int offset = mVarFF.offset(ch);
+         for (int i = 0; i < filt.length; ++i) {
+            chs[i] = Math.max(i + offset, mLLD);
+            ws[i] = filt[i];
+         }
+         return filt.length;
+      } else {
+         final double[] filt = mConstFF.getFilter();
+         final int hl = filt.length / 2;
+         for (int fi = 0; fi < filt.length; ++fi) {
+            chs[fi] = Math.max(Math2.bound((ch - hl) + fi, 0, mChannelCount), mLLD);
+            ws[fi] = filt[fi];
+         }
+         return filt.length;
+      }
+   }
+
+   private int maxFilterLength() {
+      if (mVarFF != null) {
+         int res = 0;
+         for (final double[] filt : mVarFF.mFilters)
+            res = Math.max(res, filt != null ? filt.length : 0);
+         return res;
+      } else
+         return mConstFF.getFilter().length;
+   }
+
+   /**
+    * Returns the projection for the specified subset of active references,
+    * computing it if necessary.
+    */
+   private Projection projection(BitSet active) throws EPQException {
+      synchronized (mProjections) {
+         final Projection res = mProjections.get(active);
+         if (res != null)
+            return res;
+      }
+      final Projection res = computeProjection(active);
+      synchronized (mProjections) {
+         final Projection prev = mProjections.get(active);
+         if (prev != null)
+            return prev;
+         mProjections.put((BitSet) active.clone(), res);
+      }
+      return res;
+   }
+
+   /**
+    * Builds the design matrix on the fit intervals exactly as
+    * FilterFit.perform() does and computes the weighted pseudo-inverse using
+    * the singular value decomposition. The pseudo-inverse is then composed
+    * with the filter and the dose normalization.
+    */
+   private Projection computeProjection(BitSet active) throws EPQException {
+      final int nFit = active.cardinality();
+      final int[] activeIdx = new int[nFit];
+      SortedSet<Interval> intervals = new TreeSet<Interval>();
+      for (int i = active.nextSetBit(0), j = 0; i >= 0; i = active.nextSetBit(i + 1), ++j) {
+         activeIdx[j] = i;
+         intervals = Interval.add(intervals, mReferences[i].getNonZeroInterval());
+      }
+      Interval.validate(intervals);
+      final double[] chIdx = new double[mChannelCount];
+      for (int ch = 0; ch < chIdx.length; ++ch)
+         chIdx[ch] = ch;
+      final double[] allChs = Interval.extract(chIdx, intervals);
+      final double[] allErrs = FilterFit.checkNotNaNZero(Interval.extract(mErrors, intervals));
+      final double[][] allRefs = new double[nFit][];
+      for (int j = 0; j < nFit; ++j)
+         allRefs[j] = FilterFit.checkNotNaN(Interval.extract(mReferences[activeIdx[j]].getFilteredData(), intervals));
+      // Drop the channels with unusable errors as in LinearLeastSquares.setData
+      int n = 0;
+      for (final double err : allErrs)
+         if (err < 1.0e300)
+            ++n;
+      if (n < nFit)
+         throw new EPQException("Too few channels to fit the references.");
+      final int[] chs = new int[n];
+      final double[] sigma = new double[n];
+      final Matrix a = new Matrix(n, nFit);
+      for (int i = 0, k = 0; i < allErrs.length; ++i)
+         if (allErrs[i] < 1.0e300) {
+            chs[k] = (int) allChs[i];
+            sigma[k] = Math.max(allErrs[i], 1.0e-20);
+            for (int j = 0; j < nFit; ++j)
+               a.set(k, j, allRefs[j][i] / sigma[k]);
+            ++k;
+         }
+      final SingularValueDecomposition svd = a.svd();
+      final double[][] u = svd.getU().getArray(), v = svd.getV().getArray();
+      final double[] w = svd.getSingularValues();
+      double wMax = 0.0;
+      for (final double wi : w)
+         wMax = Math.max(wMax, wi);
+      final double[] wInv = new double[nFit];
+      for (int s = 0; s < nFit; ++s)
+         wInv[s] = w[s] >= wMax * TOLERANCE ? 1.0 / w[s] : 0.0;
+      // p[j][i] is the contribution of the i-th fit channel to the j-th
+      // coefficient
+      final double[][] p = new double[nFit][n];
+      for (int j = 0; j < nFit; ++j)
+         for (int i = 0; i < n; ++i) {
+            double sum = 0.0;
+            for (int s = 0; s < nFit; ++s)
+               sum += v[j][s] * wInv[s] * u[i][s];
+            p[j][i] = sum / sigma[i];
+         }
+      // Fold in the filter and the dose normalization
+      final int maxLen = maxFilterLength();
+      final int[] rowChs = new int[maxLen];
+      final double[] rowWs = new double[maxLen];
+      final double[][] full = new double[nFit][mChannelCount];
+      for (int i = 0; i < n; ++i) {
+         final int len = filterRow(chs[i], rowChs, rowWs);
+         for (int f = 0; f < len; ++f) {
+            final int rc = rowChs[f];
+            if (rc < mChannelCount) {
+               final double wt = mNormalization * rowWs[f];
+               for (int j = 0; j < nFit; ++j)
+                  full[j][rc] += wt * p[j][i];
+            }
+         }
+      }
+      // Pack the runs of channels with non-zero coefficients
+      final boolean[] used = new boolean[mChannelCount];
+      int nRuns = 0, nUsed = 0;
+      for (int ch = 0; ch < mChannelCount; ++ch) {
+         for (int j = 0; (j < nFit) && (!used[ch]); ++j)
+            used[ch] = full[j][ch] != 0.0;
+         if (used[ch]) {
+            ++nUsed;
+            if ((ch == 0) || (!used[ch - 1]))
+               ++nRuns;
+         }
+      }
+      final int[] start = new int[nRuns], end = new int[nRuns];
+      for (int ch = 0, r = -1; ch < mChannelCount; ++ch)
+         if (used[ch]) {
+            if ((ch == 0) || (!used[ch - 1]))
+               start[++r] = ch;
+            end[r] = ch + 1;
+         }
+      final double[][] rows = new double[nFit][nUsed];
+      for (int j = 0; j < nFit; ++j)
+         for (int r = 0, i = 0; r < nRuns; ++r) {
+            System.arraycopy(full[j], start[r], rows[j], i, end[r] - start[r]);
+            i += end[r] - start[r];
+         }
+      return new Projection(activeIdx, start, end, rows);
+   }
+
+   /**
+    * Fits a single spectrum. The negative k-ratio culling loop is only entered
+    * if the fit against all the references produces a negative k-ratio.
+    *
+    * @param counts
+    *           The raw channel counts for one pixel
+    * @param kratios
+    *           An array of length getReferenceCount() (or null to allocate one)
+    *           to receive the k-ratios
+    * @return kratios
+    * @throws EPQException
+    */
+   public double[] fit(double[] counts, double[] kratios) throws EPQException {
+      final double[] res = kratios != null ? kratios : new double[mReferences.length];
+      compute(counts, res);
+      return res;
+   }
+
+   /**
+    * Computes the k-ratios into res and returns true if the culling loop was
+    * required.
+    */
+   private boolean compute(double[] counts, double[] res) throws EPQException {
+      Arrays.fill(res, 0.0);
+      if (mInitialProjection == null)
+         return false;
+      final int nCh = Math.min(counts.length, mChannelCount);
+      mInitialProjection.apply(counts, nCh, res);
+      final boolean refit = hasNegative(mInitialProjection, res);
+      if (refit) {
+         final BitSet active = (BitSet) mInitial.clone();
+         Projection proj = mInitialProjection;
+         while (true) {
+            for (final int i : proj.mActive)
+               if (res[i] < 0.0) {
+                  active.clear(i);
+                  res[i] = 0.0;
+               }
+            if (active.isEmpty())
+               break;
+            proj = projection(active);
+            proj.apply(counts, nCh, res);
+            if (!hasNegative(proj, res))
+               break;
+         }
+      }
+      for (int i = 0; i < res.length; ++i)
+         res[i] *= mKRatioScale[i];
+      return refit;
+   }
+
+   private static boolean hasNegative(Projection proj, double[] res) {
+      for (final int i : proj.mActive)
+         if (res[i] < 0.0)
+            return true;
+      return false;
+   }
+
+   /**
+    * Fits every pixel in a MappedRippleFile and returns the k-ratios as a
+    * MapImage with one plane per reference.
+    *
+    * @param mrf
+    * @return MapImage of DataType.K_RATIOS
+    * @throws EPQException
+    */
+   public MapImage fit(MappedRippleFile mrf) throws EPQException {
+      final RegionOfInterest[] rois = new RegionOfInterest[mReferences.length];
+      for (int i = 0; i < rois.length; ++i)
+         rois[i] = getRegionOfInterest(i);
+      final int width = mrf.getWidth(), height = mrf.getHeight();
+      final MapImage res = new MapImage(width, height, rois, "FilterFit[" + mrf.toString() + "]", MapImage.DataType.K_RATIOS);
+      final double[] counts = new double[mrf.getDepth()];
+      final double[] kratios = new double[mReferences.length];
+      long refits = 0;
+      for (int y = 0; y < height; ++y)
+         for (int x = 0; x < width; ++x) {
+            mrf.readSpectrum(x, y, counts);
+            if (compute(counts, kratios))
+               ++refits;
+            for (int i = 0; i < kratios.length; ++i)
+               res.set(x, y, i, kratios[i]);
+         }
+      mRefitCount.set(refits);
+      return res;
+   }
+}
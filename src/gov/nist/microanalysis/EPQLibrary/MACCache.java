@@ -1,6 +1,7 @@
 package gov.nist.microanalysis.EPQLibrary;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * <p>
@@ -9,21 +10,52 @@ import java.util.HashMap;
  * NISTMonte, this class offers a substancial performance optimization.
  * </p>
  * <p>
+ * The cache maintains two independent stores. The first maps a Material and an
+ * exact x-ray energy to the MAC. This works well for characteristic x-rays
+ * which recur at a small number of discrete energies. The store is bounded in
+ * size and the least recently used values are evicted first. The second store
+ * is an optional per-Material table of MACs tabulated on a logarithmic energy
+ * grid between a minimum energy and maxE. getInterpolatedMAC(...) interpolates
+ * this table linearly in log(MAC) vs log(E) which is appropriate for continuum
+ * (Bremsstrahlung) x-rays whose energies rarely recur. Grid intervals which
+ * contain an absorption edge or which don't interpolate to within the
+ * specified tolerance are computed exactly.
+ * </p>
+ * <p>
+ * MACCache is not thread safe. Use one instance per thread (XRayTransport3
+ * maintains one per instance).
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
  * <p>
  * Company: National Institute of Standards and Technology
  * </p>
- * 
+ *
  * @author Nicholas W. M. Ritchie
  * @version 1.0
  */
 
 public class MACCache {
 
-   private final MassAbsorptionCoefficient mMac;
-   private HashMap<Material, double[]> mMACs = new HashMap<Material, double[]>(); // Maps
+   /**
+    * The default maximum number of Material/energy pairs in the exact store.
+    */
+   public static final int DEFAULT_CAPACITY = 4096;
+   /**
+    * The default number of grid points per decade of energy.
+    */
+   public static final int DEFAULT_POINTS_PER_DECADE = 250;
+   /**
+    * The default maximum fractional error permitted in an interpolated MAC.
+    */
+   public static final double DEFAULT_TOLERANCE = 1.0e-3;
+   /**
+    * The maximum number of Material grids retained at one time.
+    */
+   private static final int MAX_GRIDS = 64;
+
    /**
     * The value returned by getMAC(...) when the Material/energy combination is
     * not currently stored in the cache. Note: NOT_IN_CACHE = Double.MAX_VALUE
@@ -32,21 +64,270 @@ public class MACCache {
    public static final double NOT_IN_CACHE = Double.MAX_VALUE;
 
    /**
-    * MACCache - Create a new MACCache object.
+    * The key for the exact store. The key is mutable so that a single probe
+    * instance can be reused for lookups without allocation.
+    */
+   private static final class Key {
+      private Material mMaterial;
+      private double mEnergy;
+
+      private Key(Material mat, double energy) {
+         mMaterial = mat;
+         mEnergy = energy;
+      }
+
+      @Override
+      public int hashCode() {
+         final long bits = Double.doubleToLongBits(mEnergy);
+         return (31 * mMaterial.hashCode()) + (int) (bits ^ (bits >>> 32));
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj)
+            return true;
+         if (!(obj instanceof Key))
+            return false;
+         final Key other = (Key) obj;
+         return (Double.doubleToLongBits(mEnergy) == Double.doubleToLongBits(other.mEnergy)) && mMaterial.equals(other.mMaterial);
+      }
+   }
+
+   /**
+    * The log(MAC) values tabulated on the energy grid for a single Material.
+    * mExact[i] is true when the interval from grid point i to i+1 must be
+    * computed exactly.
+    */
+   private static final class Grid {
+      private final double[] mLogMAC;
+      private final boolean[] mExact;
+
+      private Grid(double[] logMac, boolean[] exact) {
+         mLogMAC = logMac;
+         mExact = exact;
+      }
+   }
+
+   private final MassAbsorptionCoefficient mMac;
+   private final int mCapacity;
+   private final LinkedHashMap<Key, Double> mMACs;
+   private final LinkedHashMap<Material, Grid> mGrids;
+   private final Key mProbe = new Key(null, 0.0);
+
+   private boolean mInterpolate = false;
+   private final double mMinE;
+   private final double mMaxE;
+   private double mLogMinE;
+   private double mDeltaLogE;
+   private int mGridPoints;
+   private double mTolerance = DEFAULT_TOLERANCE;
+
+   private long mHits;
+   private long mMisses;
+   private long mEvictions;
+   private long mInterpolated;
+
+   /**
+    * MACCache - Create a new MACCache object with the default capacity.
+    * Interpolation is disabled.
+    *
+    * @param maxE
+    *           The maximum energy for the interpolation grid in Joules
+    *           (typically the beam energy)
+    * @param mac
+    *           The algorithm used to compute the MACs
     */
    public MACCache(double maxE, MassAbsorptionCoefficient mac) {
+      this(maxE, mac, DEFAULT_CAPACITY);
+   }
+
+   /**
+    * MACCache - Create a new MACCache object which will retain at most
+    * <code>capacity</code> exact Material/energy pairs. Interpolation is
+    * disabled.
+    *
+    * @param maxE
+    *           The maximum energy for the interpolation grid in Joules
+    *           (typically the beam energy)
+    * @param mac
+    *           The algorithm used to compute the MACs
+    * @param capacity
+    *           The maximum number of Material/energy pairs
+    */
+   public MACCache(double maxE, MassAbsorptionCoefficient mac, int capacity) {
+      if (capacity < 1)
+         throw new EPQFatalException("The MACCache capacity must be one or more.");
       mMac = mac;
-      mMACs = new HashMap<Material, double[]>();
+      mCapacity = capacity;
+      mMinE = ToSI.eV(50.0);
+      mMaxE = Math.max(maxE, 2.0 * mMinE);
+      mMACs = new LinkedHashMap<Key, Double>(Math.min(capacity, 1024), 0.75F, true) {
+         private static final long serialVersionUID = 4071521532186420178L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+            final boolean res = size() > mCapacity;
+            if (res)
+               ++mEvictions;
+            return res;
+         }
+      };
+      mGrids = new LinkedHashMap<Material, Grid>(16, 0.75F, true) {
+         private static final long serialVersionUID = -5313796338829640735L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Material, Grid> eldest) {
+            return size() > MAX_GRIDS;
+         }
+      };
+      initGrid(DEFAULT_POINTS_PER_DECADE);
+   }
+
+   /**
+    * Enables or disables the interpolation grid used by
+    * getInterpolatedMAC(...). When disabled getInterpolatedMAC(...) is
+    * equivalent to getMAC(...).
+    *
+    * @param interpolate
+    */
+   public void setInterpolationEnabled(boolean interpolate) {
+      mInterpolate = interpolate;
+   }
+
+   /**
+    * Is the interpolation grid enabled?
+    *
+    * @return boolean
+    */
+   public boolean isInterpolationEnabled() {
+      return mInterpolate;
+   }
+
+   /**
+    * Sets the maximum fractional error permitted at the center of a grid
+    * interval. Intervals which exceed this tolerance are computed exactly.
+    * Clears the interpolation grids.
+    *
+    * @param tol
+    *           Nominally DEFAULT_TOLERANCE
+    */
+   public void setTolerance(double tol) {
+      if (!(tol > 0.0))
+         throw new EPQFatalException("The interpolation tolerance must be larger than zero.");
+      mTolerance = tol;
+      mGrids.clear();
+   }
+
+   /**
+    * Returns the maximum fractional error permitted at the center of a grid
+    * interval.
+    *
+    * @return double
+    */
+   public double getTolerance() {
+      return mTolerance;
+   }
+
+   /**
+    * Sets the number of grid points per decade of energy. Clears the
+    * interpolation grids.
+    *
+    * @param pointsPerDecade
+    */
+   public void setGridDensity(int pointsPerDecade) {
+      initGrid(pointsPerDecade);
+      mGrids.clear();
    }
 
+   private void initGrid(int pointsPerDecade) {
+      if (pointsPerDecade < 2)
+         throw new EPQFatalException("The grid density must be two or more points per decade.");
+      mLogMinE = Math.log(mMinE);
+      final double logRange = Math.log(mMaxE) - mLogMinE;
+      mGridPoints = (int) Math.ceil(pointsPerDecade * logRange / Math.log(10.0)) + 1;
+      mDeltaLogE = logRange / (mGridPoints - 1);
+   }
+
+   /**
+    * Clears the cached MACs. The hit and miss statistics are not reset.
+    */
    public void clear() {
       mMACs.clear();
+      mGrids.clear();
+   }
+
+   /**
+    * Resets the hit, miss, eviction and interpolation counters to zero.
+    */
+   public void resetStatistics() {
+      mHits = 0;
+      mMisses = 0;
+      mEvictions = 0;
+      mInterpolated = 0;
+   }
+
+   /**
+    * The number of calls to getMAC(...) that were satisfied from the exact
+    * store.
+    *
+    * @return long
+    */
+   public long getHitCount() {
+      return mHits;
+   }
+
+   /**
+    * The number of calls to getMAC(...) that required a MAC to be computed.
+    *
+    * @return long
+    */
+   public long getMissCount() {
+      return mMisses;
+   }
+
+   /**
+    * The number of Material/energy pairs evicted from the exact store to make
+    * room for new values.
+    *
+    * @return long
+    */
+   public long getEvictionCount() {
+      return mEvictions;
+   }
+
+   /**
+    * The number of calls to getInterpolatedMAC(...) that were satisfied by
+    * interpolation.
+    *
+    * @return long
+    */
+   public long getInterpolatedCount() {
+      return mInterpolated;
+   }
+
+   /**
+    * The number of Material/energy pairs currently in the exact store.
+    *
+    * @return int
+    */
+   public int size() {
+      return mMACs.size();
    }
 
    /**
-    * getMAC - get a MAC from the cache. Returns a number less than zero when
-    * the MAC is not in the cache.
-    * 
+    * The maximum number of Material/energy pairs in the exact store.
+    *
+    * @return int
+    */
+   public int getCapacity() {
+      return mCapacity;
+   }
+
+   /**
+    * Returns the MAC if the Material/energy pair is currently in the exact
+    * store or NOT_IN_CACHE otherwise. Does not compute the MAC or modify the
+    * statistics.
+    *
     * @param mat
     *           Material - The absorber material
     * @param energy
@@ -54,7 +335,110 @@ public class MACCache {
     * @return double - The MAC or a value equal to MACCache.NOT_IN_CACHE when
     *         the MAC is not in the cache.
     */
+   public double peekMAC(Material mat, double energy) {
+      mProbe.mMaterial = mat;
+      mProbe.mEnergy = energy;
+      final Double res = mMACs.get(mProbe);
+      mProbe.mMaterial = null;
+      return res != null ? res.doubleValue() : NOT_IN_CACHE;
+   }
+
+   /**
+    * getMAC - get a MAC from the cache. When the Material/energy pair is not
+    * in the cache, the MAC is computed and added to the cache.
+    *
+    * @param mat
+    *           Material - The absorber material
+    * @param energy
+    *           double - The x-ray energy
+    * @return double - The MAC per unit density
+    */
    public double getMAC(Material mat, double energy) {
+      final double res = peekMAC(mat, energy);
+      if (res != NOT_IN_CACHE) {
+         ++mHits;
+         return res;
+      }
+      ++mMisses;
+      final double mac = mMac.compute(mat, energy);
+      mMACs.put(new Key(mat, energy), Double.valueOf(mac));
+      return mac;
+   }
+
+   /**
+    * Returns the MAC interpolated from a log-log energy grid when
+    * interpolation is enabled and the energy falls in an interval that can be
+    * interpolated to within the tolerance. Otherwise the MAC is computed
+    * exactly. Use this for continuum x-rays whose energies rarely recur.
+    * Values computed exactly by this method are not added to the exact store.
+    *
+    * @param mat
+    *           Material - The absorber material
+    * @param energy
+    *           double - The x-ray energy
+    * @return double - The MAC per unit density
+    */
+   public double getInterpolatedMAC(Material mat, double energy) {
+      if (mInterpolate && (energy >= mMinE) && (energy < mMaxE)) {
+         final double x = (Math.log(energy) - mLogMinE) / mDeltaLogE;
+         final int i = Math.min((int) x, mGridPoints - 2);
+         final Grid grid = getGrid(mat);
+         if (!grid.mExact[i]) {
+            ++mInterpolated;
+            final double f = x - i;
+            return Math.exp(grid.mLogMAC[i] + (f * (grid.mLogMAC[i + 1] - grid.mLogMAC[i])));
+         }
+      }
       return mMac.compute(mat, energy);
    }
+
+   private double gridEnergy(double i) {
+      return Math.exp(mLogMinE + (i * mDeltaLogE));
+   }
+
+   private Grid getGrid(Material mat) {
+      Grid res = mGrids.get(mat);
+      if (res == null) {
+         res = buildGrid(mat);
+         mGrids.put(mat, res);
+      }
+      return res;
+   }
+
+   private Grid buildGrid(Material mat) {
+      final double[] logMac = new double[mGridPoints];
+      final boolean[] exact = new boolean[mGridPoints - 1];
+      for (int i = 0; i < mGridPoints; ++i) {
+         final double mac = mMac.compute(mat, gridEnergy(i));
+         logMac[i] = mac > 0.0 ? Math.log(mac) : Double.NaN;
+      }
+      // Flag the intervals that contain an edge along with their neighbors.
+      for (final Element elm : mat.getElementSet())
+         for (int sh = AtomicShell.K; sh <= AtomicShell.Last; ++sh) {
+            final double ee = AtomicShell.getEdgeEnergy(elm, sh);
+            if ((ee > mMinE) && (ee < mMaxE)) {
+               final int i = (int) ((Math.log(ee) - mLogMinE) / mDeltaLogE);
+               for (int j = Math.max(0, i - 1); j <= Math.min(exact.length - 1, i + 1); ++j)
+                  exact[j] = true;
+            }
+         }
+      // Test the remaining intervals at their midpoint
+      for (int i = 0; i < exact.length; ++i)
+         if (!exact[i]) {
+            if (Double.isNaN(logMac[i]) || Double.isNaN(logMac[i + 1]))
+               exact[i] = true;
+            else {
+               final double mac = mMac.compute(mat, gridEnergy(i + 0.5));
+               final double interp = Math.exp(0.5 * (logMac[i] + logMac[i + 1]));
+               exact[i] = !(Math.abs(interp - mac) <= mTolerance * mac);
+            }
+         }
+      return new Grid(logMac, exact);
+   }
+
+   @Override
+   public String toString() {
+      return "MACCache[" + mMac.getName() + ", size=" + mMACs.size() + ", hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions
+            + ", interpolated=" + mInterpolated + "]";
+   }
 }
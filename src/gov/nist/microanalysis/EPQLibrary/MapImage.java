@@ -95,7 +95,8 @@ public class MapImage {
 
    /**
     * Applies a quantiative correction to this MapImage data set and returns a
-    * new MapImage object containing Compositions.
+    * new MapImage object containing Compositions. The pixels are quantified in
+    * parallel on one thread per available processor (see MapQuantifier).
     *
     * @param ckr
     * @param props
@@ -104,31 +105,65 @@ public class MapImage {
     */
    public MapImage quantify(CompositionFromKRatios ckr, SpectrumProperties props, boolean normalize) {
       if (mType == DataType.K_RATIOS) {
-         final int width = width(), height = height();
-         final MapImage res = new MapImage(width, height, mROIS, "Quantified[" + mDescription + "]", DataType.COMPOSITION);
-         final XRayTransitionSet[] xrtss = new XRayTransitionSet[mROIS.length];
-         for (int i = 0; i < xrtss.length; ++i)
-            xrtss[i] = new XRayTransitionSet(mROIS[i].getXRayTransitionSet(mROIS[i].getElementSet().first()).getWeighiestTransition());
-         for (int y = 0; y < height; ++y)
-            for (int x = 0; x < width; ++x) {
-               final KRatioSet krs = new KRatioSet();
-               for (int i = 0; i < xrtss.length; ++i)
-                  krs.addKRatio(xrtss[i], Math.max(0.0, mData[i][x][y]), 0.0);
-               Composition comp;
-               try {
-                  comp = ckr.compute(krs, props);
-                  for (int i = 0; i < xrtss.length; ++i)
-                     res.mData[i][x][y] = Math.max(0.0, comp.weightFraction(xrtss[i].getElement(), normalize));
-               } catch (final EPQException e) {
-                  for (int i = 0; i < xrtss.length; ++i)
-                     res.mData[i][x][y] = 0.0;
-               }
-            }
-         return res;
+         try {
+            return new MapQuantifier(ckr, props).quantify(this, normalize);
+         } catch (final EPQException e) {
+            // Fall back to quantifying serially with ckr
+            final MapImage res = createQuantified();
+            final XRayTransitionSet[] xrtss = quantifiedTransitions();
+            final int width = width(), height = height();
+            for (int y = 0; y < height; ++y)
+               for (int x = 0; x < width; ++x)
+                  quantifyPixel(ckr, props, normalize, xrtss, res, x, y);
+            return res;
+         }
       } else
          return null;
    }
 
+   boolean isKRatioMap() {
+      return mType == DataType.K_RATIOS;
+   }
+
+   /**
+    * Creates an empty MapImage to hold the quantified version of this
+    * MapImage.
+    */
+   MapImage createQuantified() {
+      return new MapImage(width(), height(), mROIS, "Quantified[" + mDescription + "]", DataType.COMPOSITION);
+   }
+
+   /**
+    * The XRayTransitionSet associated with each layer when quantifying this
+    * MapImage.
+    */
+   XRayTransitionSet[] quantifiedTransitions() {
+      final XRayTransitionSet[] xrtss = new XRayTransitionSet[mROIS.length];
+      for (int i = 0; i < xrtss.length; ++i)
+         xrtss[i] = new XRayTransitionSet(mROIS[i].getXRayTransitionSet(mROIS[i].getElementSet().first()).getWeighiestTransition());
+      return xrtss;
+   }
+
+   /**
+    * Quantifies the pixel at x, y and stores the result in res. Pixels which
+    * fail to quantify are set to zero. Only writes to res's pixel at x, y so
+    * distinct pixels may be quantified concurrently with distinct
+    * CompositionFromKRatios objects.
+    */
+   void quantifyPixel(CompositionFromKRatios ckr, SpectrumProperties props, boolean normalize, XRayTransitionSet[] xrtss, MapImage res, int x, int y) {
+      final KRatioSet krs = new KRatioSet();
+      for (int i = 0; i < xrtss.length; ++i)
+         krs.addKRatio(xrtss[i], Math.max(0.0, mData[i][x][y]), 0.0);
+      try {
+         final Composition comp = ckr.compute(krs, props);
+         for (int i = 0; i < xrtss.length; ++i)
+            res.mData[i][x][y] = Math.max(0.0, comp.weightFraction(xrtss[i].getElement(), normalize));
+      } catch (final EPQException e) {
+         for (int i = 0; i < xrtss.length; ++i)
+            res.mData[i][x][y] = 0.0;
+      }
+   }
+
    private void calculateSumMap() {
       if (mSum == null) {
          final int width = width(), height = height(), depth = depth();
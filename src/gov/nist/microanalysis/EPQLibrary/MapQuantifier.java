@@ -0,0 +1,315 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.nist.microanalysis.Utility.ProgressEvent;
+
+/**
+ * <p>
+ * Quantifies a k-ratio MapImage in parallel. The map is divided into square
+ * tiles which are distributed over the threads in a ForkJoinPool. The
+ * CorrectionAlgorithm and IterationAlgorithm objects are stateful after
+ * <code>initialize(...)</code> so rather than sharing the
+ * CompositionFromKRatios, each worker thread quantifies its pixels using its
+ * own copy (see CompositionFromKRatios.copy()) which never leaves the thread.
+ * Each pixel is quantified independently so the result doesn't depend upon
+ * the number of threads or the tile size.
+ * </p>
+ * <p>
+ * Progress is reported to the progress listeners as a ProgressEvent each time
+ * another percent of the pixels has been quantified. The events are fired on
+ * the worker threads. Calling cancel() from another thread stops the workers
+ * at the next row of their tile and quantify(...) then throws an
+ * EPQException.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final public class MapQuantifier {
+
+   public static final int DEFAULT_TILE_SIZE = 32;
+
+   private final CompositionFromKRatios mQuant;
+   private final SpectrumProperties mProperties;
+   private final int mThreadCount;
+   private int mTileSize = DEFAULT_TILE_SIZE;
+   private final AtomicBoolean mCancelled = new AtomicBoolean(false);
+   private final List<ActionListener> mProgressListeners = new CopyOnWriteArrayList<ActionListener>();
+   private final AtomicInteger mEventIndex = new AtomicInteger();
+
+   /**
+    * Constructs a MapQuantifier which will use one thread per available
+    * processor.
+    *
+    * @param ckr
+    *           A fully configured CompositionFromKRatios. It is copied, not
+    *           modified.
+    * @param props
+    *           The properties of the unknown
+    */
+   public MapQuantifier(CompositionFromKRatios ckr, SpectrumProperties props) {
+      this(ckr, props, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Constructs a MapQuantifier which will use the specified number of
+    * threads.
+    *
+    * @param ckr
+    *           A fully configured CompositionFromKRatios. It is copied, not
+    *           modified.
+    * @param props
+    *           The properties of the unknown
+    * @param nThreads
+    */
+   public MapQuantifier(CompositionFromKRatios ckr, SpectrumProperties props, int nThreads) {
+      if (ckr == null)
+         throw new NullPointerException("ckr == null");
+      if (nThreads < 1)
+         throw new EPQFatalException("The number of threads must be one or more.");
+      mQuant = ckr;
+      mProperties = props;
+      mThreadCount = nThreads;
+   }
+
+   /**
+    * Returns the number of worker threads.
+    *
+    * @return int
+    */
+   public int getThreadCount() {
+      return mThreadCount;
+   }
+
+   /**
+    * Returns the width and height of the tiles (in pixels).
+    *
+    * @return int
+    */
+   public int getTileSize() {
+      return mTileSize;
+   }
+
+   /**
+    * Sets the width and height of the tiles (in pixels). Smaller tiles improve
+    * the load balance and the responsiveness to cancel() at the cost of more
+    * task overhead.
+    *
+    * @param tileSize
+    */
+   public void setTileSize(int tileSize) {
+      if (tileSize < 1)
+         throw new EPQFatalException("The tile size must be one or more.");
+      mTileSize = tileSize;
+   }
+
+   public void addProgressListener(ActionListener al) {
+      mProgressListeners.add(al);
+   }
+
+   public void removeProgressListener(ActionListener al) {
+      mProgressListeners.remove(al);
+   }
+
+   /**
+    * Requests that the quantification in progress stop as soon as possible.
+    */
+   public void cancel() {
+      mCancelled.set(true);
+   }
+
+   /**
+    * Has cancel() been called since the last quantification started?
+    *
+    * @return boolean
+    */
+   public boolean isCancelled() {
+      return mCancelled.get();
+   }
+
+   private void fireProgress(int percent) {
+      if (!mProgressListeners.isEmpty()) {
+         final ProgressEvent pe = new ProgressEvent(this, mEventIndex.incrementAndGet(), percent);
+         for (final ActionListener al : mProgressListeners)
+            al.actionPerformed(pe);
+      }
+   }
+
+   /**
+    * The state shared by the tasks quantifying a single map.
+    */
+   private final class Job {
+      private final MapImage mSource;
+      private final MapImage mResult;
+      private final XRayTransitionSet[] mTransitions;
+      private final boolean mNormalize;
+      private final int mTile;
+      private final int mTilesX;
+      private final long mPixelCount;
+      private final AtomicLong mDone = new AtomicLong();
+      private final AtomicInteger mPercent = new AtomicInteger();
+      private final ThreadLocal<CompositionFromKRatios> mWorkerQuant = new ThreadLocal<CompositionFromKRatios>();
+      private final ThreadLocal<SpectrumProperties> mWorkerProps = new ThreadLocal<SpectrumProperties>();
+
+      private Job(MapImage src, boolean normalize) {
+         mSource = src;
+         mResult = src.createQuantified();
+         mTransitions = src.quantifiedTransitions();
+         mNormalize = normalize;
+         mTile = mTileSize;
+         mTilesX = (src.width() + mTile - 1) / mTile;
+         mPixelCount = (long) src.width() * src.height();
+      }
+
+      private int tileCount() {
+         return mTilesX * ((mSource.height() + mTile - 1) / mTile);
+      }
+
+      /**
+       * Returns this thread's copy of the CompositionFromKRatios. The copies
+       * are made one at a time since copying reads the prototype's caches.
+       */
+      private CompositionFromKRatios workerQuant() throws EPQException {
+         CompositionFromKRatios res = mWorkerQuant.get();
+         if (res == null) {
+            synchronized (this) {
+               res = mQuant.copy();
+               mWorkerProps.set(mProperties != null ? mProperties.clone() : null);
+            }
+            mWorkerQuant.set(res);
+         }
+         return res;
+      }
+
+      private void quantifyTile(int tile) throws EPQException {
+         final CompositionFromKRatios ckr = workerQuant();
+         final SpectrumProperties props = mWorkerProps.get();
+         final int x0 = (tile % mTilesX) * mTile, y0 = (tile / mTilesX) * mTile;
+         final int x1 = Math.min(x0 + mTile, mSource.width()), y1 = Math.min(y0 + mTile, mSource.height());
+         for (int y = y0; y < y1; ++y) {
+            if (mCancelled.get())
+               return;
+            for (int x = x0; x < x1; ++x)
+               mSource.quantifyPixel(ckr, props, mNormalize, mTransitions, mResult, x, y);
+            reportProgress(x1 - x0);
+         }
+      }
+
+      private void reportProgress(int pixels) {
+         final int percent = (int) ((100L * mDone.addAndGet(pixels)) / mPixelCount);
+         int prev = mPercent.get();
+         while (percent > prev) {
+            if (mPercent.compareAndSet(prev, percent)) {
+               fireProgress(percent);
+               break;
+            }
+            prev = mPercent.get();
+         }
+      }
+
+      /**
+       * Drops the copies held by the calling thread.
+       */
+      private void release() {
+         mWorkerQuant.remove();
+         mWorkerProps.remove();
+      }
+   }
+
+   /**
+    * Recursively splits the range of tiles [mFirst, mLast) in half.
+    */
+   private static final class TileTask extends RecursiveAction {
+      private static final long serialVersionUID = 2874930751802346715L;
+
+      private final transient Job mJob;
+      private final int mFirst;
+      private final int mLast;
+
+      private TileTask(Job job, int first, int last) {
+         mJob = job;
+         mFirst = first;
+         mLast = last;
+      }
+
+      @Override
+      protected void compute() {
+         if (mLast - mFirst > 1) {
+            final int mid = (mFirst + mLast) >>> 1;
+            invokeAll(new TileTask(mJob, mFirst, mid), new TileTask(mJob, mid, mLast));
+         } else
+            try {
+               mJob.quantifyTile(mFirst);
+            } catch (final EPQException e) {
+               throw new EPQFatalException(e);
+            }
+      }
+   }
+
+   /**
+    * Quantifies each pixel in the k-ratio map and returns a new MapImage
+    * containing the mass fractions. Pixels which fail to quantify are set to
+    * zero as in MapImage.quantify(...).
+    *
+    * @param kratios
+    *           A MapImage of DataType.K_RATIOS
+    * @param normalize
+    *           Report normalized mass fractions?
+    * @return MapImage of DataType.COMPOSITION
+    * @throws EPQException
+    *            If the map does not contain k-ratios, the
+    *            CompositionFromKRatios can't be copied or the quantification
+    *            was cancelled.
+    */
+   public MapImage quantify(MapImage kratios, boolean normalize) throws EPQException {
+      if (!kratios.isKRatioMap())
+         throw new EPQException("Only k-ratio maps can be quantified.");
+      mCancelled.set(false);
+      final Job job = new Job(kratios, normalize);
+      final int nTiles = job.tileCount();
+      // Check that the algorithms can be copied before starting the threads
+      // and load any lazily initialized physical data on this thread.
+      if (nTiles > 0) {
+         kratios.quantifyPixel(job.workerQuant(), job.mWorkerProps.get(), normalize, job.mTransitions, job.mResult, 0, 0);
+         job.release();
+         final ForkJoinPool pool = new ForkJoinPool(Math.min(mThreadCount, nTiles), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger mIndex = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool fjp) {
+               final ForkJoinWorkerThread th = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(fjp);
+               th.setName("MapQuantifier-" + mIndex.incrementAndGet());
+               th.setDaemon(true);
+               return th;
+            }
+         }, null, false);
+         try {
+            pool.invoke(new TileTask(job, 0, nTiles));
+         } catch (final EPQFatalException e) {
+            throw e.getCause() instanceof EPQException ? (EPQException) e.getCause() : new EPQException("The map quantification failed.", e);
+         } finally {
+            pool.shutdownNow();
+            job.release();
+         }
+      }
+      if (mCancelled.get())
+         throw new EPQException("The map quantification was cancelled.");
+      return job.mResult;
+   }
+}
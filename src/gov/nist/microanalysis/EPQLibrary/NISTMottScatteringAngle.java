@@ -1,5 +1,6 @@
 package gov.nist.microanalysis.EPQLibrary;
 
+import gov.nist.microanalysis.Utility.CSVDataPack;
 import gov.nist.microanalysis.Utility.Math2;
 
 import java.io.BufferedReader;
@@ -94,6 +95,15 @@ public class NISTMottScatteringAngle extends RandomizedScatter {
          final String name = elm.getAtomicNumber() < 10
                ? "NistXSec/E0" + Integer.toString(elm.getAtomicNumber()) + ".D64"
                : "NistXSec/E" + Integer.toString(elm.getAtomicNumber()) + ".D64";
+         final double[] packed = CSVDataPack.getColumn(NISTMottScatteringAngle.class, name);
+         if ((packed != null) && (packed.length == (SPWEM_LEN * (1 + X1_LEN)))) {
+            for (int j = 0, k = 0; j < SPWEM_LEN; ++j) {
+               mSpwem[j] = packed[k++];
+               for (int i = 0; i < X1_LEN; ++i)
+                  mX1[j][i] = packed[k++];
+            }
+            return;
+         }
          final InputStream is = gov.nist.microanalysis.EPQLibrary.NISTMottScatteringAngle.class.getResourceAsStream(name);
          final InputStreamReader isr = new InputStreamReader(is, "US-ASCII");
          final BufferedReader br = new BufferedReader(isr);
@@ -129,6 +129,11 @@ public class PAP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm {
       return CaveatBase.format(this, res);
    }
 
+   @Override
+   protected CorrectionAlgorithm newContextInstance() {
+      return getClass() == PAP1991.class ? uninitializedCopy() : null;
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
       comp = comp.normalize();
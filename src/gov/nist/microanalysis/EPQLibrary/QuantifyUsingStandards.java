@@ -493,10 +493,23 @@ public class QuantifyUsingStandards extends QuantificationOutline {
     * @throws EPQException
     */
    public Result compute(final ISpectrumData unk) throws EPQException {
-      final ISpectrumData spec = preProcessSpectrum(unk);
-      final Result res = new Result(unk);
-      // Fit the unknown using the reference spectra
       final Map<RegionOfInterestSet.RegionOfInterest, ISpectrumData> refs = getReferenceSpectra();
+      return compute(unk, createFilterFit(refs, mCullingStrategy), refs, null, mCfKR);
+   }
+
+   /**
+    * Builds a FilterFit containing the references required to fit the
+    * unknowns. Since the references are filtered once here, the FilterFit may
+    * be reused to fit a series of unknowns (on a single thread).
+    *
+    * @param refs
+    *           As returned by <code>getReferenceSpectra()</code>
+    * @param cs
+    *           The culling strategy
+    * @return FilterFit
+    * @throws EPQException
+    */
+   FilterFit createFilterFit(final Map<RegionOfInterestSet.RegionOfInterest, ISpectrumData> refs, final CullingStrategy cs) throws EPQException {
       final FilterFit ff = new FilterFit(getDetector(), getBeamEnergy(), mVariableFF, mOFudge);
       FilterFit.setNaiveBackground(false);
       final Set<Element> measured = getMeasuredElements();
@@ -506,7 +519,7 @@ public class QuantifyUsingStandards extends QuantificationOutline {
          if (measured.contains(elm) || isUnmeasuredElementRule(elm) || isStripped(elm))
             ff.addReference(roi, me.getValue());
       }
-      CullingStrategy strat = mCullingStrategy;
+      CullingStrategy strat = cs;
       // Don't cull elements for which there is an explicit perferred transition
       final Set<XRayTransitionSet> user = new HashSet<XRayTransitionSet>();
       for (final StandardPacket sp : getStandards().values()) {
@@ -518,6 +531,68 @@ public class QuantifyUsingStandards extends QuantificationOutline {
          strat = new FilterFit.DontCull(strat, user);
       ff.setCullingStrategy(strat);
       ff.setStripUnlikely(false);
+      return ff;
+   }
+
+   /**
+    * Calibrates each of the references which <code>compute(...)</code> will
+    * use relative to the associated standard. References which can't be
+    * calibrated are reported and omitted just as <code>compute(...)</code>
+    * would skip them.
+    *
+    * @param refs
+    *           As returned by <code>getReferenceSpectra()</code>
+    * @return Map&lt;RegionOfInterest, UncertainValue2&gt;
+    */
+   Map<RegionOfInterest, UncertainValue2> getReferenceCalibrations(final Map<RegionOfInterestSet.RegionOfInterest, ISpectrumData> refs) {
+      final Map<RegionOfInterest, UncertainValue2> res = new HashMap<RegionOfInterest, UncertainValue2>();
+      for (final Element elm : getMeasuredElements())
+         for (final RegionOfInterestSet.RegionOfInterest roi : getStandardROIS(elm))
+            if (refs.containsKey(roi))
+               try {
+                  res.put(roi, getReferenceCalibration(roi));
+               } catch (final Exception e) {
+                  System.out.println(e.getMessage());
+                  e.printStackTrace();
+               }
+      return res;
+   }
+
+   /**
+    * Returns a copy of the CompositionFromKRatios used to compute the
+    * composition from the k-ratios.
+    *
+    * @return CompositionFromKRatios
+    * @throws EPQException
+    */
+   CompositionFromKRatios copyCompositionFromKRatios() throws EPQException {
+      return mCfKR.copy();
+   }
+
+   /**
+    * Implements <code>compute(unk)</code> using the specified FilterFit and
+    * CompositionFromKRatios. If <code>calibs</code> is null, the reference
+    * calibrations are computed (and cached) as required; otherwise they are
+    * taken from <code>calibs</code> and this object is only read.
+    *
+    * @param unk
+    * @param ff
+    *           As returned by <code>createFilterFit(refs, ...)</code>
+    * @param refs
+    *           As returned by <code>getReferenceSpectra()</code>
+    * @param calibs
+    *           As returned by <code>getReferenceCalibrations(refs)</code> or
+    *           null
+    * @param cfkr
+    * @return Result
+    * @throws EPQException
+    */
+   Result compute(final ISpectrumData unk, final FilterFit ff, final Map<RegionOfInterestSet.RegionOfInterest, ISpectrumData> refs,
+         final Map<RegionOfInterest, UncertainValue2> calibs, final CompositionFromKRatios cfkr) throws EPQException {
+      final ISpectrumData spec = preProcessSpectrum(unk);
+      final Result res = new Result(unk);
+      // Fit the unknown using the reference spectra
+      final Set<Element> measured = getMeasuredElements();
       final KRatioSet krsAgainstRefs = ff.getKRatios(spec);
       // Compute the k-ratios wrt the standards from the k-ratios wrt
       // references
@@ -530,7 +605,7 @@ public class QuantifyUsingStandards extends QuantificationOutline {
             assert roi.getElementSet().first().equals(elm);
             if (refs.containsKey(roi))
                try {
-                  final UncertainValue2 sc = getReferenceCalibration(roi);
+                  final UncertainValue2 sc = calibs != null ? calibs.get(roi) : getReferenceCalibration(roi);
                   if ((sc != null) && (sc.doubleValue() > 0.0)) {
                      final XRayTransitionSet xrts = roi.getXRayTransitionSet(elm);
                      final UncertainValue2 kr = krsAgainstRefs.getRawKRatio(xrts);
@@ -564,35 +639,35 @@ public class QuantifyUsingStandards extends QuantificationOutline {
             if (mExtraKRatios.containsKey(elm)) {
                final ExtraKRatio xtra = mExtraKRatios.get(elm);
                withExtra.addKRatio(xtra.mXRTS, xtra.mKRatio);
-               mCfKR.addExtraStandard(xtra.mXRTS, xtra.mComposition, xtra.mProperties);
+               cfkr.addExtraStandard(xtra.mXRTS, xtra.mComposition, xtra.mProperties);
             } else
                for (final XRayTransitionSet xrts2 : krs.getTransitions(elm)) {
                   withExtra.addKRatio(xrts2, krs.getKRatioU(xrts2));
                   final SpectrumProperties rsProps = mStdSpectra.get(elm).getProperties();
-                  mCfKR.addStandard(xrts2, rsProps.getCompositionProperty(SpectrumProperties.StandardComposition), rsProps);
+                  cfkr.addStandard(xrts2, rsProps.getCompositionProperty(SpectrumProperties.StandardComposition), rsProps);
                }
          final ConductiveCoating ccu = (ConductiveCoating) unk.getProperties().getObjectWithDefault(SpectrumProperties.ConductiveCoating, null);
-         mCfKR.setUnknownCoating(ccu);
+         cfkr.setUnknownCoating(ccu);
          // Specify unmeasured element rules
-         mCfKR.clearUnmeasuredElementRules();
+         cfkr.clearUnmeasuredElementRules();
          for (final UnmeasuredElementRule uer : getUnmeasuredElementRules())
-            mCfKR.addUnmeasuredElementRule(uer);
+            cfkr.addUnmeasuredElementRule(uer);
          // Specify user selected transitions
          for (final Map.Entry<Element, StandardPacket> me : getStandards().entrySet()) {
             final Element elm = me.getKey();
             final StandardPacket sp = me.getValue();
             final RegionOfInterest roi = sp.getPreferredROI();
             if ((roi != null) && (!mExtraKRatios.containsKey(elm)))
-               mCfKR.addUserSelectedTransition(elm, roi.getXRayTransitionSet(elm));
+               cfkr.addUserSelectedTransition(elm, roi.getXRayTransitionSet(elm));
          }
          // Initialize element-by-difference and element-by-stoiciometry
          final SpectrumProperties unkProps = unk.getProperties();
-         final Composition result = mCfKR.compute(withExtra, unkProps);
-         final KRatioSet optKrs = mCfKR.getQuantifiedKRatios();
+         final Composition result = cfkr.compute(withExtra, unkProps);
+         final KRatioSet optKrs = cfkr.getQuantifiedKRatios();
          unkProps.setKRatioProperty(SpectrumProperties.OptimalKRatios, optKrs);
          result.setName(unk.toString());
          res.mComposition = result;
-         res.mWarning = mCfKR.getWarningMessage();
+         res.mWarning = cfkr.getWarningMessage();
          unkProps.setCompositionProperty(SpectrumProperties.MicroanalyticalComposition, result);
       } else
          res.mComposition = Material.Null;
@@ -702,6 +777,8 @@ public class QuantifyUsingStandards extends QuantificationOutline {
       res.mStdsAsRef.putAll(mStdsAsRef);
       res.mStdSpectra.putAll(mStdSpectra);
       res.mCullingStrategy = mCullingStrategy;
+      res.mExtraKRatios.putAll(mExtraKRatios);
+      res.mOFudge = mOFudge;
       return res;
    }
 
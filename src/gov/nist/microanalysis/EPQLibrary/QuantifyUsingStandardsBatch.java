@@ -0,0 +1,411 @@
+package gov.nist.microanalysis.EPQLibrary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import gov.nist.microanalysis.EPQLibrary.FilterFit.CullingStrategy;
+import gov.nist.microanalysis.EPQLibrary.QuantifyUsingStandards.Result;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.Utility.UncertainValue2;
+
+/**
+ * <p>
+ * Quantifies a stream of unknown spectra against the standards and references
+ * in a QuantifyUsingStandards using a pool of worker threads.
+ * QuantifyUsingStandards.compute(...) rebuilds the FilterFit (filtering every
+ * reference) for each unknown and caches state as it goes so it can't be
+ * shared between threads. Instead, the QuantifyUsingStandards is copied and
+ * the reference spectra and reference calibrations are computed once on the
+ * constructing thread. This prepared state is only read thereafter. Each
+ * worker thread builds its own FilterFit and CompositionFromKRatios once and
+ * reuses them for each unknown it quantifies.
+ * </p>
+ * <p>
+ * Unknowns are submitted using <code>submit(...)</code> and the results are
+ * retrieved in the order in which they complete using <code>take()</code>.
+ * Both queues are bounded so <code>submit(...)</code> blocks when the workers
+ * fall behind and the workers block when the results aren't being taken.
+ * Call <code>close()</code> after the last unknown has been submitted.
+ * <code>take()</code> then returns null once all the results have been
+ * taken. Alternatively, <code>quantify(...)</code> does all this for a
+ * collection of unknowns. Each unknown is quantified independently so a
+ * failure is reported in the associated Item and doesn't affect the others.
+ * A QuantifyUsingStandardsBatch quantifies a single stream of unknowns.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final public class QuantifyUsingStandardsBatch {
+
+   /**
+    * The result of quantifying a single unknown. Either getResult() or
+    * getException() returns null.
+    */
+   public static final class Item {
+      private final long mIndex;
+      private final ISpectrumData mUnknown;
+      private Result mResult;
+      private Throwable mException;
+
+      private Item(long index, ISpectrumData unk) {
+         mIndex = index;
+         mUnknown = unk;
+      }
+
+      /**
+       * The zero-based order in which the unknown was submitted.
+       *
+       * @return long
+       */
+      public long getIndex() {
+         return mIndex;
+      }
+
+      public ISpectrumData getUnknown() {
+         return mUnknown;
+      }
+
+      /**
+       * Was the unknown quantified successfully?
+       *
+       * @return boolean
+       */
+      public boolean isSuccess() {
+         return mException == null;
+      }
+
+      /**
+       * The result as returned by QuantifyUsingStandards.compute(...) or null
+       * on failure.
+       *
+       * @return Result
+       */
+      public Result getResult() {
+         return mResult;
+      }
+
+      /**
+       * The reason the unknown couldn't be quantified or null on success.
+       *
+       * @return Throwable
+       */
+      public Throwable getException() {
+         return mException;
+      }
+
+      @Override
+      public String toString() {
+         return "Item[" + mIndex + "," + mUnknown + "]";
+      }
+   }
+
+   private static final Item END = new Item(-1, null);
+
+   private final QuantifyUsingStandards mQuant;
+   private final Map<RegionOfInterestSet.RegionOfInterest, ISpectrumData> mReferences;
+   private final Map<RegionOfInterest, UncertainValue2> mCalibrations;
+   private final BlockingQueue<Item> mInput;
+   private final BlockingQueue<Item> mOutput;
+   private final Thread[] mThreads;
+   private final AtomicInteger mRunning;
+   /**
+    * Held while an Item (or END) is put into mInput so that no Item can be
+    * queued behind END where the workers would never see it.
+    */
+   private final Object mSubmitLock = new Object();
+   // Guarded by mSubmitLock
+   private long mSubmitted = 0;
+   private volatile boolean mClosed = false;
+   private volatile boolean mCancelled = false;
+   private volatile boolean mFinished = false;
+
+   /**
+    * Constructs a QuantifyUsingStandardsBatch which will use one thread per
+    * available processor.
+    *
+    * @param qus
+    *           A fully configured QuantifyUsingStandards. It is copied, not
+    *           modified.
+    * @throws EPQException
+    */
+   public QuantifyUsingStandardsBatch(QuantifyUsingStandards qus) throws EPQException {
+      this(qus, Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Constructs a QuantifyUsingStandardsBatch which will use the specified
+    * number of threads.
+    *
+    * @param qus
+    *           A fully configured QuantifyUsingStandards. It is copied, not
+    *           modified.
+    * @param nThreads
+    *           The number of worker threads
+    * @param capacity
+    *           The number of unknowns which may be waiting to be quantified
+    *           (and the number of results which may be waiting to be taken)
+    * @throws EPQException
+    *            If the references can't be prepared
+    */
+   public QuantifyUsingStandardsBatch(QuantifyUsingStandards qus, int nThreads, int capacity) throws EPQException {
+      if (nThreads < 1)
+         throw new EPQFatalException("The number of threads must be one or more.");
+      if (capacity < 1)
+         throw new EPQFatalException("The queue capacity must be one or more.");
+      mQuant = qus.clone();
+      mReferences = Collections.unmodifiableMap(mQuant.getReferenceSpectra());
+      mCalibrations = Collections.unmodifiableMap(mQuant.getReferenceCalibrations(mReferences));
+      // BaseSpectrum.toString() caches the display name in the properties
+      for (final ISpectrumData ref : mReferences.values())
+         ref.toString();
+      mInput = new ArrayBlockingQueue<Item>(capacity);
+      mOutput = new ArrayBlockingQueue<Item>(capacity);
+      // Check that the worker state can be built before starting the threads
+      final Worker first = new Worker();
+      mThreads = new Thread[nThreads];
+      mRunning = new AtomicInteger(nThreads);
+      for (int i = 0; i < nThreads; ++i) {
+         final Worker w = (i == 0 ? first : null);
+         mThreads[i] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               process(w);
+            }
+         }, "QuantifyUsingStandardsBatch-" + (i + 1));
+         mThreads[i].setDaemon(true);
+         mThreads[i].start();
+      }
+   }
+
+   /**
+    * The state owned by a single worker thread.
+    */
+   private final class Worker {
+      private final FilterFit mFilterFit;
+      private final CompositionFromKRatios mCfKR;
+
+      private Worker() throws EPQException {
+         final CullingStrategy cs = mQuant.getCullingStrategy();
+         mFilterFit = mQuant.createFilterFit(mReferences, cs != null ? cs.clone() : null);
+         // Copying reads the prototype's caches
+         synchronized (mQuant) {
+            mCfKR = mQuant.copyCompositionFromKRatios();
+         }
+      }
+
+      private void quantify(Item item) throws EPQException {
+         item.mResult = mQuant.compute(item.mUnknown, mFilterFit, mReferences, mCalibrations, mCfKR);
+      }
+   }
+
+   private void process(Worker w) {
+      try {
+         Throwable failed = null;
+         if (w == null)
+            try {
+               w = new Worker();
+            } catch (final Throwable th) {
+               // Report the failure against each item this thread takes
+               failed = th;
+            }
+         while (!mCancelled) {
+            final Item item = mInput.take();
+            if (item == END) {
+               mInput.put(END);
+               break;
+            }
+            if (failed == null)
+               try {
+                  w.quantify(item);
+               } catch (final Throwable th) {
+                  item.mResult = null;
+                  item.mException = th;
+               }
+            else
+               item.mException = failed;
+            mOutput.put(item);
+         }
+      } catch (final InterruptedException e) {
+         // Cancelled
+      } finally {
+         if (mRunning.decrementAndGet() == 0) {
+            if (mCancelled) {
+               mOutput.clear();
+               mOutput.offer(END);
+            } else
+               try {
+                  // Wait for the remaining results to be taken
+                  mOutput.put(END);
+               } catch (final InterruptedException e) {
+                  mOutput.clear();
+                  mOutput.offer(END);
+               }
+         }
+      }
+   }
+
+   /**
+    * Returns the number of worker threads.
+    *
+    * @return int
+    */
+   public int getThreadCount() {
+      return mThreads.length;
+   }
+
+   /**
+    * Queues an unknown for quantification. Blocks while the input queue is
+    * full. The unknown is modified as described in
+    * QuantifyUsingStandards.compute(...) so it should not be accessed until the
+    * associated Item has been taken. An unknown is either queued before the
+    * batch is closed or rejected.
+    *
+    * @param unk
+    * @return long The index of the associated Item
+    * @throws InterruptedException
+    */
+   public long submit(ISpectrumData unk) throws InterruptedException {
+      if (unk == null)
+         throw new NullPointerException("unk == null");
+      synchronized (mSubmitLock) {
+         if (mClosed || mCancelled)
+            throw new EPQFatalException("No more unknowns may be submitted to this batch.");
+         final Item item = new Item(mSubmitted, unk);
+         mInput.put(item);
+         ++mSubmitted;
+         return item.mIndex;
+      }
+   }
+
+   /**
+    * Indicates that no more unknowns will be submitted. The worker threads
+    * exit once the queued unknowns have been quantified. Waits for any
+    * <code>submit(...)</code> in progress on another thread to complete.
+    */
+   public void close() {
+      synchronized (mSubmitLock) {
+         if (!mClosed) {
+            mClosed = true;
+            try {
+               mInput.put(END);
+            } catch (final InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the next Item to be completed, blocking until one is available.
+    * Returns null once the batch has been closed (or cancelled) and all the
+    * results have been taken.
+    *
+    * @return Item
+    * @throws InterruptedException
+    */
+   public Item take() throws InterruptedException {
+      if (mFinished)
+         return null;
+      final Item res = mOutput.take();
+      if (res == END) {
+         mFinished = true;
+         // Release any other threads waiting in take()
+         mOutput.offer(END);
+         return null;
+      }
+      return res;
+   }
+
+   /**
+    * Stops the worker threads as soon as possible. The unknowns still queued
+    * and the results which haven't been taken are discarded.
+    */
+   public void cancel() {
+      mCancelled = true;
+      mClosed = true;
+      mInput.clear();
+      for (final Thread th : mThreads)
+         th.interrupt();
+   }
+
+   public boolean isCancelled() {
+      return mCancelled;
+   }
+
+   /**
+    * Quantifies each of the unknowns and closes the batch. The unknowns are
+    * submitted from a separate thread while the results are collected on the
+    * calling thread. If iterating over unks or submitting an unknown fails
+    * (for example, because an unknown is null), the unknowns already
+    * submitted are quantified and then the failure is thrown from this
+    * method.
+    *
+    * @param unks
+    * @return List&lt;Item&gt; In the order in which the unknowns were provided
+    * @throws EPQException
+    *            If interrupted
+    * @throws RuntimeException
+    *            The exception thrown by unks or by submit(...)
+    */
+   public List<Item> quantify(final Iterable<? extends ISpectrumData> unks) throws EPQException {
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final Thread feeder = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               for (final ISpectrumData unk : unks)
+                  submit(unk);
+            } catch (final InterruptedException e) {
+               // Cancelled
+            } catch (final Throwable th) {
+               failure.set(th);
+            } finally {
+               close();
+            }
+         }
+      }, "QuantifyUsingStandardsBatch-Feeder");
+      feeder.setDaemon(true);
+      feeder.start();
+      final List<Item> res = new ArrayList<Item>();
+      try {
+         for (Item item = take(); item != null; item = take())
+            res.add(item);
+      } catch (final InterruptedException e) {
+         cancel();
+         feeder.interrupt();
+         throw new EPQException("The batch quantification was interrupted.", e);
+      }
+      if (mCancelled)
+         throw new EPQException("The batch quantification was cancelled.");
+      // close() happens after failure.set(...) so the failure is visible here
+      final Throwable th = failure.get();
+      if (th instanceof RuntimeException)
+         throw (RuntimeException) th;
+      if (th instanceof Error)
+         throw (Error) th;
+      if (th != null)
+         throw new EPQException(th);
+      Collections.sort(res, new Comparator<Item>() {
+         @Override
+         public int compare(Item o1, Item o2) {
+            return Long.compare(o1.mIndex, o2.mIndex);
+         }
+      });
+      return res;
+   }
+}
@@ -22,6 +22,8 @@ import gov.nist.microanalysis.EPQLibrary.Detector.DetectorLineshapeModel;
 import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
 import gov.nist.microanalysis.Utility.Constraint;
 import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized;
+import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.CompilableFunction;
+import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.CompiledFunction;
 import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.Function;
 import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.FunctionImpl;
 import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.InvertableFunction;
@@ -79,6 +81,34 @@ public class SpectrumFitter8 {
    private static final String[] POLYNOMIAL_NAMES = new String[]{"Constant", "Linear", "Quadratic", "Cubic", "Quartic", "Quintic", "Sextic", "Septic",
          "Octic", "Nonic", "Decic"};
 
+   /**
+    * The line shapes are truncated at 12 widths (x<sup>2</sup> = 144) where
+    * exp(-0.5*x<sup>2</sup>) is less than 10<sup>-31</sup>. The truncation is
+    * applied to both the Map and the compiled forms of compute(...) and
+    * derivative(...) so that the two agree.
+    */
+   private static final double MAX_X2 = 144.0;
+
+   /**
+    * Returns the slots of the fit parameters (those slots which are not -1) in
+    * order.
+    * 
+    * @param slots
+    * @return int[]
+    */
+   private static int[] fitSlots(int[] slots) {
+      int n = 0;
+      for (final int slot : slots)
+         if (slot >= 0)
+            ++n;
+      final int[] res = new int[n];
+      n = 0;
+      for (final int slot : slots)
+         if (slot >= 0)
+            res[n++] = slot;
+      return res;
+   }
+
    /**
     * <p>
     * Used to model the resolution of the detector using a standard fano
@@ -97,7 +127,7 @@ public class SpectrumFitter8 {
     * @author Nicholas
     * @version 1.0
     */
-   static public class FanoNoiseWidth extends FunctionImpl {
+   static public class FanoNoiseWidth extends FunctionImpl implements CompilableFunction {
 
       private static final double ENERGY_PER_EH_PAIR = 3.64; // Modified from
       // 3.76
@@ -143,6 +173,44 @@ public class SpectrumFitter8 {
          return 0.0;
       }
 
+      @Override
+      public CompiledFunction compile(Map<Parameter, Integer> slots) {
+         final int fanoSlot = mFano.getSlot(slots);
+         final int noiseSlot = mNoise.getSlot(slots);
+         final int[] fit = fitSlots(new int[]{fanoSlot, noiseSlot});
+         return new CompiledFunction() {
+
+            private double mFanoValue;
+            private double mNoiseValue;
+
+            @Override
+            public int[] getSlots() {
+               return fit;
+            }
+
+            @Override
+            public void update(double[] param) {
+               mFanoValue = mFano.getValue(param, fanoSlot);
+               mNoiseValue = mNoise.getValue(param, noiseSlot);
+            }
+
+            @Override
+            public double compute(double eV) {
+               return ENERGY_PER_EH_PAIR * Math.sqrt((mNoiseValue * mNoiseValue) + ((eV * mFanoValue) / ENERGY_PER_EH_PAIR));
+            }
+
+            @Override
+            public void partials(double eV, double[] dfdp) {
+               final double rs = 1.0 / Math.sqrt((mNoiseValue * mNoiseValue) + ((eV * mFanoValue) / ENERGY_PER_EH_PAIR));
+               int i = 0;
+               if (fanoSlot >= 0)
+                  dfdp[i++] = 0.5 * eV * rs;
+               if (noiseSlot >= 0)
+                  dfdp[i++] = (mNoiseValue * ENERGY_PER_EH_PAIR) * rs;
+            }
+         };
+      }
+
       @Override
       public UncertainValue2 computeU(double eV, Map<Parameter, UncertainValue2> param) {
          final UncertainValue2 noise = mNoise.getUncertainValue(param);
@@ -165,7 +233,7 @@ public class SpectrumFitter8 {
       }
    }
 
-   static public class EnergyScaleFunction extends FunctionImpl implements InvertableFunction {
+   static public class EnergyScaleFunction extends FunctionImpl implements InvertableFunction, CompilableFunction {
 
       private final Parameter[] mCoeff;
 
@@ -218,6 +286,45 @@ public class SpectrumFitter8 {
          return 0.0;
       }
 
+      @Override
+      public CompiledFunction compile(Map<Parameter, Integer> slots) {
+         final int[] coeffSlots = new int[mCoeff.length];
+         for (int i = 0; i < mCoeff.length; ++i)
+            coeffSlots[i] = mCoeff[i].getSlot(slots);
+         final int[] fit = fitSlots(coeffSlots);
+         return new CompiledFunction() {
+
+            private final double[] mValues = new double[mCoeff.length];
+
+            @Override
+            public int[] getSlots() {
+               return fit;
+            }
+
+            @Override
+            public void update(double[] param) {
+               for (int i = 0; i < mCoeff.length; ++i)
+                  mValues[i] = mCoeff[i].getValue(param, coeffSlots[i]);
+            }
+
+            @Override
+            public double compute(double ch) {
+               double res = 0.0;
+               for (int i = mValues.length - 1; i >= 0; --i)
+                  res = (res * ch) + mValues[i];
+               return res;
+            }
+
+            @Override
+            public void partials(double ch, double[] dfdp) {
+               double pow = 1.0;
+               for (int i = 0, j = 0; i < coeffSlots.length; ++i, pow *= ch)
+                  if (coeffSlots[i] >= 0)
+                     dfdp[j++] = pow;
+            }
+         };
+      }
+
       @Override
       public UncertainValue2 computeU(double ch, Map<Parameter, UncertainValue2> param) {
          UncertainValue2 res = UncertainValue2.ZERO;
@@ -274,7 +381,7 @@ public class SpectrumFitter8 {
       }
    };
 
-   static public class AltEnergyScaleFunction extends FunctionImpl implements InvertableFunction {
+   static public class AltEnergyScaleFunction extends FunctionImpl implements InvertableFunction, CompilableFunction {
 
       private final Parameter[] mCoeff;
 
@@ -319,6 +426,45 @@ public class SpectrumFitter8 {
          return 0.0;
       }
 
+      @Override
+      public CompiledFunction compile(Map<Parameter, Integer> slots) {
+         final int[] coeffSlots = new int[mCoeff.length];
+         for (int i = 0; i < mCoeff.length; ++i)
+            coeffSlots[i] = mCoeff[i].getSlot(slots);
+         final int[] fit = fitSlots(coeffSlots);
+         return new CompiledFunction() {
+
+            private final double[] mValues = new double[mCoeff.length];
+
+            @Override
+            public int[] getSlots() {
+               return fit;
+            }
+
+            @Override
+            public void update(double[] param) {
+               for (int i = 0; i < mCoeff.length; ++i)
+                  mValues[i] = mCoeff[i].getValue(param, coeffSlots[i]);
+            }
+
+            @Override
+            public double compute(double ch) {
+               return mValues[0] + (ch * mValues[1]) + (mValues[2] * Math.sqrt(ch));
+            }
+
+            @Override
+            public void partials(double ch, double[] dfdp) {
+               int j = 0;
+               if (coeffSlots[0] >= 0)
+                  dfdp[j++] = 1.0;
+               if (coeffSlots[1] >= 0)
+                  dfdp[j++] = ch;
+               if (coeffSlots[2] >= 0)
+                  dfdp[j++] = Math.sqrt(ch);
+            }
+         };
+      }
+
       @Override
       public UncertainValue2 computeU(double ch, Map<Parameter, UncertainValue2> param) {
          return UncertainValue2.add(
@@ -408,10 +554,13 @@ public class SpectrumFitter8 {
 
          final double compute(double eV, Map<Parameter, Double> param) {
             final double x = (eV - mEnergy) / mResolution.compute(mEnergy, param);
+            final double x2 = Math2.sqr(x);
+            if (x2 >= MAX_X2)
+               return 0.0;
             assert (mIncomplete.getValue(param) >= 0) && (mIncomplete.getValue(param) <= MAX_INCOMPLETE)
                   : Double.toString(mIncomplete.getValue(param));
             return (mFitIncompleteCharge && (x < 0.0) ? 1.0 - (mIncomplete.getValue(param) * x) : 1.0) * mAmplitude.getValue(param) * mWeight
-                  * Math.exp(-0.5 * Math2.sqr(x));
+                  * Math.exp(-0.5 * x2);
          }
 
          final UncertainValue2 computeU(double eV, Map<Parameter, UncertainValue2> param) {
@@ -437,6 +586,121 @@ public class SpectrumFitter8 {
          }
       }
 
+      /**
+       * The compiled form of this Lineset. It is evaluated as a function of
+       * energy so that the energy scale is evaluated once per channel for all
+       * the Lineset objects in a MultiLineset. The Gaussian for each line is
+       * evaluated once per channel and shared by the partial derivatives with
+       * respect to all the parameters.
+       */
+      private final class CompiledLineset {
+         private final CompiledFunction mResolutionFn;
+         private final int mAmplitudeSlot;
+         private final int mIncompleteSlot;
+         private final int[] mScaleSlots;
+         private final int[] mResolutionSlots;
+         private final double[] mEnergy;
+         private final double[] mWeight;
+         private final double[] mWidth;
+         private final double[][] mWidthPartials;
+         private final double[] mResolutionTerms;
+         private double mAmplitudeValue;
+         private double mIncompleteValue;
+         private boolean mIncompleteCharge;
+
+         private CompiledLineset(Map<Parameter, Integer> slots, CompiledFunction scale, CompiledFunction resolution) {
+            mResolutionFn = resolution;
+            mAmplitudeSlot = mAmplitude.getSlot(slots);
+            mIncompleteSlot = mIncomplete.getSlot(slots);
+            mScaleSlots = scale.getSlots();
+            mResolutionSlots = resolution.getSlots();
+            final int nLines = mLines.size();
+            mEnergy = new double[nLines];
+            mWeight = new double[nLines];
+            for (int i = 0; i < nLines; ++i) {
+               mEnergy[i] = mLines.get(i).mEnergy;
+               mWeight[i] = mLines.get(i).mWeight;
+            }
+            mWidth = new double[nLines];
+            mWidthPartials = new double[nLines][mResolutionSlots.length];
+            mResolutionTerms = new double[mResolutionSlots.length];
+         }
+
+         /**
+          * Evaluates the resolution at each line. The resolution function must
+          * have been updated.
+          * 
+          * @param param
+          */
+         private void update(double[] param) {
+            mAmplitudeValue = mAmplitude.getValue(param, mAmplitudeSlot);
+            mIncompleteValue = mIncomplete.getValue(param, mIncompleteSlot);
+            mIncompleteCharge = mFitIncompleteCharge;
+            for (int i = 0; i < mEnergy.length; ++i) {
+               mWidth[i] = mResolutionFn.compute(mEnergy[i]);
+               mResolutionFn.partials(mEnergy[i], mWidthPartials[i]);
+            }
+         }
+
+         private double compute(double eV) {
+            final double k = mIncompleteValue;
+            double res = 0.0;
+            for (int i = 0; i < mEnergy.length; ++i) {
+               final double x = (eV - mEnergy[i]) / mWidth[i];
+               final double x2 = x * x;
+               if (x2 < MAX_X2)
+                  res += (mIncompleteCharge && (x < 0.0) ? 1.0 - (k * x) : 1.0) * mWeight[i] * Math.exp(-0.5 * x2);
+            }
+            return mAmplitudeValue * res;
+         }
+
+         /**
+          * Adds the partial derivatives of this Lineset into <code>row</code>
+          * which is indexed by slot.
+          * 
+          * @param eV The energy of the channel
+          * @param dEdp The partial derivatives of the energy scale
+          * @param row
+          */
+         private void partials(double eV, double[] dEdp, double[] row) {
+            final double k = mIncompleteValue;
+            double amp = 0.0, scale = 0.0, incomplete = 0.0;
+            Arrays.fill(mResolutionTerms, 0.0);
+            for (int i = 0; i < mEnergy.length; ++i) {
+               final double r = mWidth[i];
+               final double c = mEnergy[i];
+               final double x = (c - eV) / r;
+               final double xx2 = x * x;
+               if (xx2 >= MAX_X2)
+                  continue;
+               final double f = mWeight[i] * Math.exp(-0.5 * xx2);
+               final double dr;
+               if (mIncompleteCharge && (eV < c)) {
+                  final double den = (k * (c - eV)) + r;
+                  amp += (1.0 + (k * x)) * f;
+                  scale += ((x / r) - (k / den)) * f;
+                  dr = (((xx2 / r) - (1.0 / r)) + (1.0 / den)) * f;
+                  incomplete += ((c - eV) / den) * f;
+               } else {
+                  amp += f;
+                  scale += (x * f) / r;
+                  dr = (f * xx2) / r;
+               }
+               final double[] dw = mWidthPartials[i];
+               for (int j = 0; j < dw.length; ++j)
+                  mResolutionTerms[j] += dr * dw[j];
+            }
+            if (mAmplitudeSlot >= 0)
+               row[mAmplitudeSlot] += amp;
+            for (int j = 0; j < mScaleSlots.length; ++j)
+               row[mScaleSlots[j]] += mAmplitudeValue * scale * dEdp[j];
+            for (int j = 0; j < mResolutionSlots.length; ++j)
+               row[mResolutionSlots[j]] += mAmplitudeValue * mResolutionTerms[j];
+            if (mIncompleteCharge && (mIncompleteSlot >= 0))
+               row[mIncompleteSlot] += mAmplitudeValue * incomplete;
+         }
+      }
+
       private final ArrayList<LineData> mLines = new ArrayList<LineData>();
 
       private Lineset(XRayTransitionSet xrts, double scale, Constraint con) throws EPQException {
@@ -497,7 +761,10 @@ public class SpectrumFitter8 {
                      final double r = mResolution.compute(ld.mEnergy, param);
                      final double c = ld.mEnergy;
                      final double x = (c - eV) / r;
-                     final double f = ld.mWeight * Math.exp(-0.5 * Math2.sqr(x));
+                     final double xx2 = Math2.sqr(x);
+                     if (xx2 >= MAX_X2)
+                        continue;
+                     final double f = ld.mWeight * Math.exp(-0.5 * xx2);
                      if (mFitIncompleteCharge && (eV < c))
                         res += ((x / r) - (k / ((k * (c - eV)) + r))) * f;
                      else
@@ -513,6 +780,8 @@ public class SpectrumFitter8 {
                      final double r = mResolution.compute(ld.mEnergy, param);
                      final double c = ld.mEnergy;
                      final double xx2 = Math2.sqr((eV - c) / r);
+                     if (xx2 >= MAX_X2)
+                        continue;
                      final double f = ld.mWeight * Math.exp(-0.5 * xx2);
                      if (mFitIncompleteCharge && (eV < c))
                         res += (((xx2 / r) - (1.0 / r)) + (1.0 / ((k * (c - eV)) + r))) * f * mResolution.derivative(ld.mEnergy, param, idx);
@@ -529,6 +798,8 @@ public class SpectrumFitter8 {
                      final double r = mResolution.compute(ld.mEnergy, param);
                      final double c = ld.mEnergy;
                      final double xx2 = Math2.sqr((eV - c) / r);
+                     if (xx2 >= MAX_X2)
+                        continue;
                      final double f = ld.mWeight * Math.exp(-0.5 * xx2);
                      if (mFitIncompleteCharge && (eV < c))
                         res += ((c - eV) / ((k * (c - eV)) + r)) * f;
@@ -683,7 +954,7 @@ public class SpectrumFitter8 {
       return res;
    }
 
-   public class MultiLineset extends FunctionImpl implements Iterable<Lineset> {
+   public class MultiLineset extends FunctionImpl implements Iterable<Lineset>, CompilableFunction {
 
       final private ArrayList<Lineset> mLines = new ArrayList<Lineset>();
 
@@ -727,6 +998,72 @@ public class SpectrumFitter8 {
          return res;
       }
 
+      /**
+       * Compiles this MultiLineset when both the energy scale and the
+       * resolution functions are CompilableFunction objects.
+       * 
+       * @see gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.CompilableFunction#compile(java.util.Map)
+       */
+      @Override
+      public CompiledFunction compile(Map<Parameter, Integer> slots) {
+         if (!((mScale instanceof CompilableFunction) && (mResolution instanceof CompilableFunction)))
+            return null;
+         final CompiledFunction scale = ((CompilableFunction) mScale).compile(slots);
+         final CompiledFunction resolution = ((CompilableFunction) mResolution).compile(slots);
+         if ((scale == null) || (resolution == null))
+            return null;
+         final Lineset.CompiledLineset[] lines = new Lineset.CompiledLineset[mLines.size()];
+         for (int i = 0; i < lines.length; ++i)
+            lines[i] = mLines.get(i).new CompiledLineset(slots, scale, resolution);
+         final TreeSet<Integer> fit = new TreeSet<Integer>();
+         for (final Parameter p : getParameters(false))
+            if (p.getSlot(slots) >= 0)
+               fit.add(Integer.valueOf(p.getSlot(slots)));
+         final int[] fitSlots = new int[fit.size()];
+         int i = 0;
+         for (final Integer slot : fit)
+            fitSlots[i++] = slot.intValue();
+         final int width = fitSlots.length > 0 ? fitSlots[fitSlots.length - 1] + 1 : 0;
+         return new CompiledFunction() {
+
+            private final double[] mScalePartials = new double[scale.getSlots().length];
+            private final double[] mRow = new double[width];
+
+            @Override
+            public int[] getSlots() {
+               return fitSlots;
+            }
+
+            @Override
+            public void update(double[] param) {
+               scale.update(param);
+               resolution.update(param);
+               for (final Lineset.CompiledLineset cl : lines)
+                  cl.update(param);
+            }
+
+            @Override
+            public double compute(double ch) {
+               final double eV = scale.compute(ch);
+               double res = 0.0;
+               for (final Lineset.CompiledLineset cl : lines)
+                  res += cl.compute(eV);
+               return res;
+            }
+
+            @Override
+            public void partials(double ch, double[] dfdp) {
+               final double eV = scale.compute(ch);
+               scale.partials(ch, mScalePartials);
+               Arrays.fill(mRow, 0.0);
+               for (final Lineset.CompiledLineset cl : lines)
+                  cl.partials(eV, mScalePartials, mRow);
+               for (int j = 0; j < fitSlots.length; ++j)
+                  dfdp[j] = mRow[fitSlots[j]];
+            }
+         };
+      }
+
       @Override
       public UncertainValue2 computeU(double ch, Map<Parameter, UncertainValue2> param) {
          UncertainValue2 res = UncertainValue2.ZERO;
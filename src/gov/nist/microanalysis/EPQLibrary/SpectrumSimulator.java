@@ -201,10 +201,10 @@ abstract public class SpectrumSimulator extends AlgorithmClass {
     */
    public ISpectrumData generateSpectrum(final Composition comp, final SpectrumProperties props, final Set<AtomicShell> shells,
          boolean withBremsstrahlung) throws EPQException {
-      final EDSDetector detector = (EDSDetector) props.getDetector();
-      detector.reset();
+      // Accumulate into a session so that simulations may run concurrently
+      final EDSDetector detector = ((EDSDetector) props.getDetector()).createSession();
       final SpectrumProperties inProps = new SpectrumProperties();
-      inProps.setDetector(detector);
+      inProps.setDetector(detector.getModel());
       inProps.addAll(props);
       assert inProps.isDefined(SpectrumProperties.LiveTime);
       assert !Double.isNaN(SpectrumUtils.getAverageFaradayCurrent(inProps, Double.NaN));
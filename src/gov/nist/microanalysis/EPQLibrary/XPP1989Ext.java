@@ -87,6 +87,11 @@ public class XPP1989Ext extends XPP1991 {
       super("XPP - Pouchou & Pichoir Simplified (Non-normal)", PAP_IXCOM12);
    }
 
+   @Override
+   protected CorrectionAlgorithm newContextInstance() {
+      return getClass() == XPP1989Ext.class ? uninitializedCopy() : null;
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
       comp = comp.normalize();
@@ -101,9 +106,13 @@ public class XPP1989Ext extends XPP1991 {
             final double cosBeta = Math.cos(beta);
             final double u0 = mBeamEnergy / shell.getEdgeEnergy();
             // mF = (R/S)*(1/Qj(E0))
-            TiltedBackscatterFactor.setTilt(beta);
-            mF = (cosBeta * TiltedBackscatterFactor.compute(mComposition, mShell, mBeamEnergy)
-                  * StoppingPower.invToGramPerkeVcmSqr(sp.computeInv(mComposition, mShell, mBeamEnergy))) / icx.computeFamily(mShell, mBeamEnergy);
+            final double r;
+            // TiltedBackscatterFactor is shared
+            synchronized (TiltedBackscatterFactor) {
+               TiltedBackscatterFactor.setTilt(beta);
+               r = TiltedBackscatterFactor.compute(mComposition, mShell, mBeamEnergy);
+            }
+            mF = (cosBeta * r * StoppingPower.invToGramPerkeVcmSqr(sp.computeInv(mComposition, mShell, mBeamEnergy))) / icx.computeFamily(mShell, mBeamEnergy);
             assert mF > 0.0 : "The integral must be larger than zero.";
             final double zBar = mComposition.weightAvgAtomicNumber();
             { // Modify the mPhi0 computed in super.initialize(...)
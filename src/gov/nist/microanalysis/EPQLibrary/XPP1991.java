@@ -71,6 +71,12 @@ public class XPP1991 extends CorrectionAlgorithm.PhiRhoZAlgorithm implements Cor
       addDefaultAlgorithm(ProportionalIonizationCrossSection.class, ProportionalIonizationCrossSection.Pouchou86);
    }
 
+   @Override
+   protected CorrectionAlgorithm newContextInstance() {
+      // Derived classes may depend on additional properties
+      return getClass() == XPP1991.class ? uninitializedCopy() : null;
+   }
+
    @Override
    public boolean initialize(Composition comp, AtomicShell shell, SpectrumProperties props) throws EPQException {
       comp = comp.normalize();
@@ -171,7 +171,7 @@ final public class XRayTransition implements Comparable<XRayTransition>, Cloneab
          AtomicShell.NIV, AtomicShell.NV
          // N5N6 (also NVII)
    };
-   private static double[][] mWeight;
+   private static volatile double[][] mWeight;
    private static double[][] mDestNormalization; // [Element][K,LI,LII,...,NI]
    private static double[][] mFamNormalization; // [Element][KFamily,...,MFamily]
    private static double[][] mKLMNormalization; // [Element][KFamily,...,MFamily]
@@ -250,10 +250,11 @@ final public class XRayTransition implements Comparable<XRayTransition>, Cloneab
                      // by zero error
                   }
                }
-               mWeight = wgt;
                mDestNormalization = destNorm;
                mFamNormalization = famNorm;
                mKLMNormalization = klmNorm;
+               // Publish mWeight last since it guards the others
+               mWeight = wgt;
             }
          }
       } catch (final Exception ex) {
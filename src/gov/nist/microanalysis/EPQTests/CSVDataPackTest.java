@@ -0,0 +1,173 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.Utility.CSVDataPack;
+import gov.nist.microanalysis.Utility.CSVReader;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the CSVDataPack class against CSVReader.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class CSVDataPackTest extends TestCase {
+
+   private static final String PATH = "gov/nist/microanalysis/EPQLibrary/";
+   private static final String[] CSVS = {"LineWeights.csv", "relax.csv", "EdgeEnergies.csv"};
+   private static final String D64 = "NistXSec/E06.D64";
+
+   private File mDir;
+   private File mPack;
+
+   public CSVDataPackTest(String test) {
+      super(test);
+   }
+
+   private void copy(String name) throws IOException {
+      final File dest = new File(mDir, PATH + name);
+      dest.getParentFile().mkdirs();
+      try (final InputStream is = Element.class.getResourceAsStream(name)) {
+         Files.copy(is, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   @Override
+   protected void setUp() throws IOException {
+      mDir = File.createTempFile("CSVDataPack", "");
+      mDir.delete();
+      mDir.mkdirs();
+      for (final String csv : CSVS)
+         copy(csv);
+      copy(D64);
+      mPack = new File(mDir, "pack.bin");
+      assertEquals(CSVS.length + 1, CSVDataPack.write(mDir, mPack));
+   }
+
+   private static void delete(File f) {
+      final File[] files = f.listFiles();
+      if (files != null)
+         for (final File child : files)
+            delete(child);
+      f.delete();
+   }
+
+   @Override
+   protected void tearDown() {
+      delete(mDir);
+   }
+
+   private CSVDataPack open() throws IOException {
+      return new CSVDataPack(ByteBuffer.wrap(Files.readAllBytes(mPack.toPath())));
+   }
+
+   private File source(String name) {
+      return new File(mDir, PATH + name);
+   }
+
+   private double[][] table(CSVDataPack pack, String name, boolean trim) throws IOException {
+      return pack.getTable(PATH + name, trim, source(name).toURI().toURL());
+   }
+
+   public void testTables() throws IOException {
+      final CSVDataPack pack = open();
+      assertEquals(CSVS.length + 1, pack.getNames().size());
+      for (final String csv : CSVS)
+         for (final boolean trim : new boolean[] {true, false}) {
+            final double[][] expected = new CSVReader.FileReader(source(csv), trim).getResource();
+            final double[][] packed = table(pack, csv, trim);
+            assertNotNull(csv, packed);
+            assertTrue(csv, Arrays.deepEquals(expected, packed));
+            // Each call returns a new copy
+            assertNotSame(packed, table(pack, csv, trim));
+         }
+   }
+
+   public void testColumn() throws IOException {
+      final CSVDataPack pack = open();
+      final double[] vals = pack.getColumn(PATH + D64, source(D64).toURI().toURL());
+      assertNotNull(vals);
+      assertEquals(61 * 202, vals.length);
+      assertEquals(16.76205, vals[0], 0.0);
+      assertEquals(0.0, vals[1], 0.0);
+      assertEquals(2.30935e-2, vals[2], 0.0);
+      // The kinds are not interchangeable
+      assertNull(table(pack, D64, false));
+   }
+
+   public void testStale() throws IOException {
+      try (final FileOutputStream fos = new FileOutputStream(source(CSVS[1]), true)) {
+         fos.write("1.0, 2.0\n".getBytes("US-ASCII"));
+      }
+      final CSVDataPack pack = open();
+      assertNull(table(pack, CSVS[1], true));
+      assertNotNull(table(pack, CSVS[0], true));
+      assertNull(pack.getTable(PATH + "Missing.csv", true, source(CSVS[0]).toURI().toURL()));
+      // A change to a resource after it has been checked is detected
+      try (final FileOutputStream fos = new FileOutputStream(source(CSVS[0]), true)) {
+         fos.write("1.0, 2.0\n".getBytes("US-ASCII"));
+      }
+      assertNull(table(pack, CSVS[0], true));
+   }
+
+   public void testRewrite() throws IOException {
+      // The pack may be replaced while a copy of it is open
+      final CSVDataPack pack = open();
+      assertEquals(CSVS.length + 1, CSVDataPack.write(mDir, mPack));
+      assertNotNull(table(pack, CSVS[0], false));
+      assertEquals(pack.getNames(), open().getNames());
+   }
+
+   public void testUsage() throws IOException {
+      try {
+         CSVDataPack.main(new String[0]);
+         fail();
+      } catch (final IllegalArgumentException e) {
+         // Expected
+      }
+   }
+
+   public void testCorrupt() throws IOException {
+      // The last byte belongs to the last table in the pack
+      try (final RandomAccessFile raf = new RandomAccessFile(mPack, "rw")) {
+         raf.seek(raf.length() - 1);
+         final int b = raf.read();
+         raf.seek(raf.length() - 1);
+         raf.write(b ^ 0x5A);
+      }
+      final CSVDataPack pack = open();
+      final List<String> names = pack.getNames();
+      final String last = names.get(names.size() - 1).substring(PATH.length());
+      assertNull(table(pack, last, false));
+      assertNotNull(pack.getColumn(PATH + D64, source(D64).toURI().toURL()));
+   }
+
+   public void testNotAPack() throws IOException {
+      try {
+         new CSVDataPack(ByteBuffer.wrap(Files.readAllBytes(source(CSVS[0]).toPath())));
+         fail("Accepted a CSV file as a data pack");
+      } catch (final IOException e) {
+         // Expected
+      }
+   }
+}
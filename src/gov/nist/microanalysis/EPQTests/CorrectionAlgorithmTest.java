@@ -1,10 +1,12 @@
 package gov.nist.microanalysis.EPQTests;
 
+import gov.nist.microanalysis.EPQLibrary.AlgorithmClass;
 import gov.nist.microanalysis.EPQLibrary.AlgorithmUser;
 import gov.nist.microanalysis.EPQLibrary.Composition;
 import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
 import gov.nist.microanalysis.EPQLibrary.CorrectionAlgorithm;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.Fluorescence;
 import gov.nist.microanalysis.EPQLibrary.FromSI;
 import gov.nist.microanalysis.EPQLibrary.IterationAlgorithm;
@@ -13,12 +15,17 @@ import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
 import gov.nist.microanalysis.EPQLibrary.Material;
 import gov.nist.microanalysis.EPQLibrary.PandPDatabase;
 import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.StoppingPower;
 import gov.nist.microanalysis.EPQLibrary.Strategy;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
 import gov.nist.microanalysis.Utility.DescriptiveStatistics;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -57,6 +64,18 @@ public class CorrectionAlgorithmTest extends TestCase {
       return mPapd;
    }
 
+   /**
+    * The tests apply a global override Strategy. Remove it (and the Context
+    * objects computed using it) so that it doesn't leak into other tests.
+    */
+   @Override
+   protected void tearDown() {
+      AlgorithmUser.clearGlobalOverride();
+      for (final CorrectionAlgorithm ca : new CorrectionAlgorithm[]{CorrectionAlgorithm.XPP, CorrectionAlgorithm.XPPExtended,
+            CorrectionAlgorithm.PouchouAndPichoir, CorrectionAlgorithm.ZAFCorrection})
+         ca.clearContextCache();
+   }
+
    private DescriptiveStatistics helper(CorrectionAlgorithm ca, MassAbsorptionCoefficient mac) throws IOException {
       final Strategy strat = new Strategy();
       strat.addAlgorithm(IterationAlgorithm.class, IterationAlgorithm.WegsteinIteration);
@@ -248,4 +267,195 @@ public class CorrectionAlgorithmTest extends TestCase {
       // assertEquals(ds.average(), 0.9944, 0.0001);
       // assertEquals(ds.standardDeviation(), 0.0688, 0.0001);
    }
+
+   /**
+    * A ZAF algorithm whose own Strategy may be changed.
+    */
+   private static class ConfigurableZAF extends CorrectionAlgorithm.ZAFCorrectionAlgorithm {
+      private void use(Class<?> cls, AlgorithmClass ac) {
+         addDefaultAlgorithm(cls, ac);
+      }
+
+      @Override
+      protected CorrectionAlgorithm newContextInstance() {
+         return uninitializedCopy();
+      }
+   }
+
+   /**
+    * Changing an algorithm's own Strategy discards the cached Context objects
+    * but doesn't change those already created.
+    */
+   public void testContextLocalStrategy() throws Exception {
+      final ConfigurableZAF ca = new ConfigurableZAF();
+      final PandPDatabase papd = getDatabase();
+      final Material mat = papd.createMaterial(0);
+      final XRayTransition xrt = papd.transition(0);
+      final SpectrumProperties props = properties(papd, 0);
+      final CorrectionAlgorithm.Context ctx = ca.getContext(mat, xrt.getDestination(), props);
+      assertSame(ctx, ca.getContext(mat, xrt.getDestination(), props));
+      final double za = ctx.computeZACorrection(xrt);
+      ca.use(StoppingPower.class, StoppingPower.Reed1975);
+      final CorrectionAlgorithm.Context ctx2 = ca.getContext(mat, xrt.getDestination(), props);
+      assertNotSame(ctx, ctx2);
+      assertEquals(za, ctx.computeZACorrection(xrt), 0.0);
+      ca.initialize(mat, xrt.getDestination(), props);
+      assertEquals(ca.computeZACorrection(xrt), ctx2.computeZACorrection(xrt), 0.0);
+      assertTrue(za != ctx2.computeZACorrection(xrt));
+      assertSame(ctx2, ca.getContext(mat, xrt.getDestination(), props));
+   }
+
+   private static void applyStrategy(CorrectionAlgorithm ca, MassAbsorptionCoefficient mac) {
+      final Strategy strat = new Strategy();
+      strat.addAlgorithm(MassAbsorptionCoefficient.class, mac);
+      strat.addAlgorithm(CorrectionAlgorithm.class, ca);
+      strat.addAlgorithm(Fluorescence.class, Fluorescence.Reed);
+      AlgorithmUser.applyGlobalOverride(strat);
+   }
+
+   private static SpectrumProperties properties(PandPDatabase papd, int ii) {
+      final SpectrumProperties res = new SpectrumProperties();
+      res.setNumericProperty(SpectrumProperties.BeamEnergy, FromSI.keV(papd.beamEnergy(ii)));
+      res.setNumericProperty(SpectrumProperties.TakeOffAngle, Math.toDegrees(papd.takeOffAngle(ii)));
+      return res;
+   }
+
+   /**
+    * relativeZAF(...) as implemented using initialize(...)
+    */
+   private static double[] initializeZAF(CorrectionAlgorithm ca, Composition comp, XRayTransition xrt, SpectrumProperties props, Composition std)
+         throws EPQException {
+      final Fluorescence fl = (Fluorescence) ca.getAlgorithm(Fluorescence.class);
+      final double e0 = ToSI.keV(props.getNumericProperty(SpectrumProperties.BeamEnergy));
+      final double exitAngle = SpectrumUtils.getExitAngle(props);
+      ca.initialize(comp, xrt.getDestination(), props);
+      final double zComp = ca.generated(xrt);
+      final double zaComp = ca.computeZACorrection(xrt);
+      final double fComp = fl.compute(comp, xrt, e0, exitAngle);
+      final double zafComp = ca.computeZAFCorrection(xrt);
+      ca.initialize(std, xrt.getDestination(), props);
+      final double zStd = ca.generated(xrt);
+      final double zaStd = ca.computeZACorrection(xrt);
+      final double fStd = fl.compute(std, xrt, e0, exitAngle);
+      final double zafStd = ca.computeZAFCorrection(xrt);
+      return new double[]{zComp / zStd, (zaComp * zStd) / (zaStd * zComp), fComp / fStd, (zaComp * fComp) / (zaStd * fStd),
+            (zafComp * comp.weightFraction(xrt.getElement(), false)) / (zafStd * std.weightFraction(xrt.getElement(), false))};
+   }
+
+   /**
+    * Checks that the results computed using Context objects are identical to
+    * those computed using initialize(...)
+    */
+   public void testContext() throws Exception {
+      final PandPDatabase papd = getDatabase();
+      final CorrectionAlgorithm[] cas = {CorrectionAlgorithm.XPP, CorrectionAlgorithm.XPPExtended, CorrectionAlgorithm.PouchouAndPichoir,
+            CorrectionAlgorithm.ZAFCorrection};
+      for (final CorrectionAlgorithm ca : cas) {
+         applyStrategy(ca, MassAbsorptionCoefficient.Pouchou1991);
+         int n = 0;
+         for (int ii = 0; ii < papd.getSize(); ii += 3) {
+            final Material mat = papd.createMaterial(ii);
+            final Material std = papd.createStandard(ii);
+            final XRayTransition xrt = papd.transition(ii);
+            final SpectrumProperties props = properties(papd, ii);
+            final double[] expected;
+            try {
+               expected = initializeZAF(ca, mat, xrt, props, std);
+            } catch (final EPQException e) {
+               continue;
+            }
+            final double[] zaf = ca.relativeZAF(mat, xrt, props, std);
+            assertTrue(ca.getName(), Arrays.equals(Arrays.copyOf(expected, 4), zaf));
+            assertEquals(expected[4], ca.computeKRatio(mat, std, xrt, props), 0.0);
+            // Again from the cache
+            assertTrue(Arrays.equals(zaf, ca.relativeZAF(mat, xrt, props, std)));
+            ++n;
+         }
+         assertTrue(n > 200);
+      }
+   }
+
+   public void testContextCache() throws Exception {
+      final CorrectionAlgorithm ca = CorrectionAlgorithm.XPP;
+      applyStrategy(ca, MassAbsorptionCoefficient.Pouchou1991);
+      final PandPDatabase papd = getDatabase();
+      final Material mat = papd.createMaterial(0);
+      final XRayTransition xrt = papd.transition(0);
+      final SpectrumProperties props = properties(papd, 0);
+      final CorrectionAlgorithm.Context ctx = ca.getContext(mat, xrt.getDestination(), props);
+      final long hits = ca.getContextCacheHits();
+      assertSame(ctx, ca.getContext(mat.clone(), xrt.getDestination(), props.clone()));
+      assertEquals(hits + 1, ca.getContextCacheHits());
+      assertEquals(papd.beamEnergy(0), ctx.getBeamEnergy(), 1.0e-6 * papd.beamEnergy(0));
+      assertEquals(mat.weightFraction(xrt.getElement(), true), ctx.getComposition().weightFraction(xrt.getElement(), false), 1.0e-12);
+      // A different beam energy
+      final SpectrumProperties props2 = props.clone();
+      props2.setNumericProperty(SpectrumProperties.BeamEnergy, FromSI.keV(papd.beamEnergy(0)) + 5.0);
+      assertNotSame(ctx, ca.getContext(mat, xrt.getDestination(), props2));
+      // A new global override discards the cached contexts
+      final double za = ctx.computeZACorrection(xrt);
+      applyStrategy(ca, MassAbsorptionCoefficient.Chantler2005);
+      final CorrectionAlgorithm.Context ctx2 = ca.getContext(mat, xrt.getDestination(), props);
+      assertNotSame(ctx, ctx2);
+      assertEquals(za, ctx.computeZACorrection(xrt), 0.0);
+      ca.initialize(mat, xrt.getDestination(), props);
+      assertEquals(ca.computeZACorrection(xrt), ctx2.computeZACorrection(xrt), 0.0);
+      assertTrue(za != ctx2.computeZACorrection(xrt));
+      // Transitions into other shells
+      try {
+         ctx.generated(new XRayTransition(xrt.getElement(), XRayTransition.KA1 == xrt.getTransitionIndex() ? XRayTransition.LA1 : XRayTransition.KA1));
+         fail();
+      } catch (final EPQFatalException e) {
+         // Expected
+      }
+      // Not supported
+      assertNull(CorrectionAlgorithm.Armstrong1982.createContext(mat, xrt.getDestination(), props));
+      ca.clearContextCache();
+      assertNotSame(ctx2, ca.getContext(mat, xrt.getDestination(), props));
+   }
+
+   /**
+    * Checks that relativeZAF(...) can be called from multiple threads
+    */
+   public void testContextThreads() throws Exception {
+      final CorrectionAlgorithm ca = CorrectionAlgorithm.XPP;
+      applyStrategy(ca, MassAbsorptionCoefficient.Pouchou1991);
+      ca.clearContextCache();
+      final PandPDatabase papd = getDatabase();
+      final int n = papd.getSize();
+      final double[][] expected = new double[n][];
+      for (int ii = 0; ii < n; ++ii)
+         try {
+            expected[ii] = initializeZAF(ca, papd.createMaterial(ii), papd.transition(ii), properties(papd, ii), papd.createStandard(ii));
+         } catch (final EPQException e) {
+            // Skip it
+         }
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; ++t) {
+         final int offset = t;
+         threads[t] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  for (int ii = 0; ii < n; ++ii) {
+                     final int idx = (ii + ((offset * n) / threads.length)) % n;
+                     if (expected[idx] != null) {
+                        final double[] zaf = ca.relativeZAF(papd.createMaterial(idx), papd.transition(idx), properties(papd, idx), papd.createStandard(idx));
+                        if (!Arrays.equals(Arrays.copyOf(expected[idx], 4), zaf))
+                           throw new AssertionError("Mismatch at " + idx);
+                     }
+                  }
+               } catch (final Throwable th) {
+                  failure.compareAndSet(null, th);
+               }
+            }
+         });
+         threads[t].start();
+      }
+      for (final Thread th : threads)
+         th.join();
+      if (failure.get() != null)
+         throw new Exception(failure.get());
+   }
 }
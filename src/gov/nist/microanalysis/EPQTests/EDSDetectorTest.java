@@ -0,0 +1,188 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.DetectorLineshapeModel;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.Utility.Math2;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the convolution of the accumulated events into the detected spectrum
+ * in EDSDetector.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class EDSDetectorTest extends TestCase {
+
+   private final Random mRandom = new Random(0xED5);
+
+   public EDSDetectorTest(String test) {
+      super(test);
+   }
+
+   /**
+    * Convolves each channel of the accumulated events with the line shape as
+    * EDSDetector did before the detector response was cached.
+    */
+   private static double[] reference(EDSDetector det, double[] acc) {
+      final ISpectrumData es = det.getSpectrum();
+      final double eVperBin = det.getChannelWidth();
+      final DetectorLineshapeModel dlm = det.getDetectorLineshapeModel();
+      final double[] eff = det.getEfficiency();
+      final double[] spec = new double[acc.length];
+      for (int i = 0; i < acc.length; ++i) {
+         final double fs = eVperBin * det.getCalibration().getFudgeFactor() * (acc[i] * eff[i]);
+         if (fs > 0.0) {
+            final double e = SpectrumUtils.minEnergyForChannel(es, i);
+            final int highBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e + dlm.rightWidth(e, 0.0001)), 0, spec.length);
+            final int lowBin = Math2.bound(SpectrumUtils.channelForEnergy(es, e - dlm.leftWidth(e, 0.0001)), 0, spec.length);
+            double ee = SpectrumUtils.minEnergyForChannel(es, lowBin);
+            double prev = dlm.compute(ee, e);
+            for (int ch = lowBin; ch < highBin; ++ch, ee += eVperBin) {
+               final double curr = dlm.compute(ee + eVperBin, e);
+               spec[ch + 1] += 0.5 * fs * (prev + curr);
+               prev = curr;
+            }
+         }
+      }
+      return spec;
+   }
+
+   private void addEvents(EDSDetector det, double[] acc, int n, double maxE) {
+      for (int i = 0; i < n; ++i) {
+         final double e = 100.0 + (maxE - 100.0) * mRandom.nextDouble();
+         final double w = mRandom.nextDouble();
+         det.addEvent(ToSI.eV(e), w);
+         final int ch = SpectrumUtils.channelForEnergy(det.getSpectrum(), e);
+         if ((ch >= 0) && (ch < acc.length))
+            acc[ch] += w;
+      }
+   }
+
+   private static void assertSpectrum(double[] expected, ISpectrumData spec) {
+      double max = 0.0;
+      for (final double v : expected)
+         max = Math.max(max, v);
+      assertEquals(expected.length, spec.getChannelCount());
+      for (int ch = 0; ch < expected.length; ++ch)
+         assertEquals(expected[ch], spec.getCounts(ch), 1.0e-9 * max);
+   }
+
+   public void testConvolve() {
+      final EDSDetector det = EDSDetector.createSDDDetector(2048, 10.0, 130.0);
+      det.reset();
+      final double[] acc = new double[det.getChannelCount()];
+      addEvents(det, acc, 2000, 15000.0);
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      // Only the new events are convolved
+      addEvents(det, acc, 100, 15000.0);
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      // Events at the top of the spectrum
+      addEvents(det, acc, 20, 2048 * 10.0);
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      // Unchanged
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      // Channels with undefined intensities are ignored
+      det.addEvent(ToSI.eV(5005.0), Double.NaN);
+      acc[SpectrumUtils.channelForEnergy(det.getSpectrum(), 5005.0)] = Double.NaN;
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      addEvents(det, acc, 100, 15000.0);
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      det.reset();
+      final double[] none = new double[acc.length];
+      assertSpectrum(none, det.getSpectrum(1.0));
+      addEvents(det, none, 50, 10000.0);
+      assertSpectrum(reference(det, none), det.getSpectrum(1.0));
+   }
+
+   public void testMerge() {
+      final EDSDetector det = EDSDetector.createSDDDetector(2048, 10.0, 150.0);
+      final EDSDetector other = EDSDetector.createSDDDetector(2048, 10.0, 150.0);
+      assertSame(det, other);
+      det.reset();
+      final EDSDetector det2 = EDSDetector.createSiLiDetector(2048, 10.0, 150.0);
+      det2.reset();
+      final double[] acc = new double[det.getChannelCount()];
+      addEvents(det, acc, 500, 12000.0);
+      det.getSpectrum(1.0);
+      addEvents(det2, acc, 500, 12000.0);
+      det.merge(det2);
+      // The line shapes differ but the response depends only upon det
+      assertSpectrum(reference(det, acc), det.getSpectrum(1.0));
+      assertEquals(2.0 * det.getSpectrum(1.0).getCounts(500), det.getSpectrum(2.0).getCounts(500), 1.0e-12);
+   }
+
+   public void testSessions() throws Exception {
+      final EDSDetector det = EDSDetector.createSDDDetector(2048, 10.0, 135.0);
+      det.reset();
+      final int nSessions = 4;
+      final ExecutorService exec = Executors.newFixedThreadPool(nSessions);
+      final List<Future<EDSDetector>> futures = new ArrayList<Future<EDSDetector>>();
+      try {
+         for (int s = 0; s < nSessions; ++s) {
+            final long seed = s;
+            futures.add(exec.submit(new Callable<EDSDetector>() {
+               @Override
+               public EDSDetector call() {
+                  final EDSDetector session = det.createSession();
+                  final Random r = new Random(seed);
+                  for (int i = 0; i < 20000; ++i)
+                     session.addEvent(ToSI.eV(100.0 + 15000.0 * r.nextDouble()), 1.0);
+                  session.getSpectrum(1.0);
+                  return session;
+               }
+            }));
+         }
+         final EDSDetector sum = det.createSession();
+         for (final Future<EDSDetector> fut : futures)
+            sum.merge(fut.get());
+         // The same events accumulated serially
+         final EDSDetector serial = det.createSession();
+         for (int s = 0; s < nSessions; ++s) {
+            final Random r = new Random(s);
+            for (int i = 0; i < 20000; ++i)
+               serial.addEvent(ToSI.eV(100.0 + 15000.0 * r.nextDouble()), 1.0);
+         }
+         final ISpectrumData merged = sum.getSpectrum(1.0);
+         final ISpectrumData expected = serial.getSpectrum(1.0);
+         for (int ch = 0; ch < expected.getChannelCount(); ++ch)
+            assertEquals(expected.getCounts(ch), merged.getCounts(ch), 1.0e-9 * Math.max(1.0, expected.getCounts(ch)));
+         assertTrue(SpectrumUtils.totalCounts(merged, true) > 0.0);
+         // The shared detector is unaffected and is referenced by the spectra
+         assertEquals(0.0, SpectrumUtils.totalCounts(det.getSpectrum(1.0), true), 0.0);
+         assertSame(det, merged.getProperties().getDetector());
+         assertSame(det, sum.getModel());
+         assertSame(det, sum.createSession().getModel());
+      } finally {
+         exec.shutdownNow();
+      }
+   }
+
+   public void testPerfectDetectorSession() throws Exception {
+      final EDSDetector det = EDSDetector.createPerfectDetector(1024, 10.0, new double[]{0.0, 0.0, 0.0});
+      final EDSDetector session = det.createSession();
+      assertSame(det.getClass(), session.getClass());
+      session.addEvent(ToSI.eV(5005.0), 3.0);
+      assertEquals(3.0, session.getSpectrum(1.0).getCounts(500), 1.0e-12);
+   }
+}
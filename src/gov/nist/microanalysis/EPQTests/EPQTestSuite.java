@@ -48,8 +48,11 @@ public class EPQTestSuite extends TestSuite {
       addTest(new TestSuite(ElectronRangeTest.class));
       addTest(new TestSuite(ElementTest.class));
       addTest(new TestSuite(FilterFitTest.class));
+      addTest(new TestSuite(FilterFitBatchTest.class));
       addTest(new TestSuite(FluorescenceTest.class));
       addTest(new TestSuite(IonizationCrossSectionTest.class));
+      addTest(new TestSuite(MACCacheTest.class));
+      addTest(new TestSuite(MapQuantifierTest.class));
       addTest(new TestSuite(MassAbsorptionCoefficientTest.class));
       addTest(new TestSuite(MaterialTest.class));
       addTest(new TestSuite(MaterialFactoryTest.class));
@@ -63,10 +66,19 @@ public class EPQTestSuite extends TestSuite {
       // gov.nist.microanalysis.NISTMonte
       addTest(new TestSuite(CylindricalShapeTest.class));
       addTest(new TestSuite(MonteCarloSSTest.class));
+      addTest(new TestSuite(ParallelMonteCarloTest.class));
       addTest(new TestSuite(SphereTest.class));
       addTest(new TestSuite(SumShapeTest.class));
       // gov.nist.microanalysis.EPQTools
+      addTest(new TestSuite(MappedRippleFileTest.class));
       addTest(new TestSuite(SerializableSpectrumTest.class));
+      addTest(new TestSuite(SpectrumFileTest.class));
+      addTest(new TestSuite(SessionTest.class));
+      addTest(new TestSuite(ParticleSignatureIndexTest.class));
+      addTest(new TestSuite(EDSDetectorTest.class));
+      addTest(new TestSuite(SpectrumFitter8Test.class));
+      addTest(new TestSuite(QuantifyUsingStandardsBatchTest.class));
+      addTest(new TestSuite(CSVDataPackTest.class));
    }
 
    public void testOne() {
@@ -0,0 +1,250 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.FilterFit;
+import gov.nist.microanalysis.EPQLibrary.FilterFitBatch;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.SpectrumMath;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQTools.ASPEXSpectrum;
+import gov.nist.microanalysis.EPQTools.MappedRippleFile;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the FilterFitBatch class against FilterFit.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class FilterFitBatchTest extends TestCase {
+
+   private static final int WIDTH = 5;
+   private static final int HEIGHT = 3;
+   private static final int THREADS = 4;
+
+   private ISpectrumData mAuSpec;
+   private ISpectrumData mAgSpec;
+   private File mDir;
+
+   public FilterFitBatchTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void setUp() throws EPQException, URISyntaxException, IOException {
+      mAuSpec = new ASPEXSpectrum(new File(FilterFitTest.class.getResource("TestData/Gold.tif").toURI()));
+      mAgSpec = new ASPEXSpectrum(new File(FilterFitTest.class.getResource("TestData/Silver.tif").toURI()));
+      mDir = File.createTempFile("FilterFitBatch", "");
+      mDir.delete();
+      mDir.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() {
+      final File[] files = mDir.listFiles();
+      if (files != null)
+         for (final File f : files)
+            f.delete();
+      mDir.delete();
+   }
+
+   private FilterFit createFilterFit(ISpectrumData unk, boolean variableWidth) throws EPQException {
+      final EDSDetector det = EDSDetector.createSDDDetector(unk.getChannelCount(), unk.getChannelWidth(), SpectrumUtils.getFWHMAtMnKA(unk, 135.0));
+      final FilterFit ff = new FilterFit(det, ToSI.eV(SpectrumUtils.getBeamEnergy(unk)), variableWidth);
+      ff.setStripUnlikely(false);
+      ff.addReference(Element.Au, mAuSpec);
+      ff.addReference(Element.Ag, mAgSpec);
+      return ff;
+   }
+
+   private static ISpectrumData toSpectrum(ISpectrumData template, double[] counts) {
+      final ISpectrumData res = SpectrumUtils.toSpectrum(template.getChannelWidth(), template.getZeroOffset(), counts);
+      res.getProperties().addAll(template.getProperties());
+      return res;
+   }
+
+   private static void assertSameKRatios(FilterFitBatch ffb, KRatioSet expected, double[] actual) {
+      assertEquals(ffb.getReferenceCount(), actual.length);
+      for (int i = 0; i < actual.length; ++i) {
+         final double exp = expected.getKRatio(ffb.getXRayTransitionSet(i));
+         assertEquals(exp, actual[i], 1.0e-9 * Math.max(1.0, Math.abs(exp)));
+      }
+   }
+
+   /**
+    * When the weighting spectrum is the unknown the batch fit is identical to
+    * FilterFit for both the constant and variable width filters.
+    */
+   public void testSingleSpectrum() throws EPQException {
+      for (final boolean variableWidth : new boolean[] {
+         false,
+         true
+      }) {
+         final SpectrumMath unk = new SpectrumMath(mAuSpec);
+         unk.add(mAgSpec, 0.5);
+         final FilterFit ff = createFilterFit(unk, variableWidth);
+         final FilterFitBatch ffb = new FilterFitBatch(ff, unk, unk.getProperties());
+         final double[] k = ffb.fit(SpectrumUtils.toDoubleArray(unk), null);
+         assertSameKRatios(ffb, ff.getKRatios(unk), k);
+      }
+   }
+
+   /**
+    * Force the negative k-ratio culling loop by subtracting some silver.
+    */
+   public void testCulling() throws EPQException {
+      final SpectrumMath tmp = new SpectrumMath(mAuSpec);
+      tmp.subtract(mAgSpec, 0.05);
+      final double[] counts = SpectrumUtils.toDoubleArray(tmp);
+      for (int ch = 0; ch < counts.length; ++ch)
+         counts[ch] = Math.max(0.0, counts[ch]);
+      final ISpectrumData unk = toSpectrum(mAuSpec, counts);
+      final FilterFit ff = createFilterFit(unk, false);
+      final FilterFitBatch ffb = new FilterFitBatch(ff, unk, unk.getProperties());
+      assertEquals(1, ffb.getProjectionCount());
+      final double[] k = ffb.fit(counts, null);
+      assertTrue(ffb.getProjectionCount() > 1);
+      final KRatioSet krs = ff.getKRatios(unk);
+      assertSameKRatios(ffb, krs, k);
+      for (int i = 0; i < k.length; ++i) {
+         assertTrue(k[i] >= 0.0);
+         if (ffb.getXRayTransitionSet(i).getElement() == Element.Ag)
+            assertEquals(0.0, k[i], 0.0);
+      }
+      // The reduced projections are reused
+      final int n = ffb.getProjectionCount();
+      ffb.fit(counts, k);
+      assertEquals(n, ffb.getProjectionCount());
+   }
+
+   /**
+    * A map in which each pixel is a scaled copy of the same spectrum fits
+    * exactly as FilterFit fits the individual pixels.
+    */
+   public void testMap() throws Exception {
+      final SpectrumMath unk = new SpectrumMath(mAuSpec);
+      unk.add(mAgSpec, 1.0);
+      final String rpl = writeMap(SpectrumUtils.toDoubleArray(unk));
+      final SpectrumProperties pixelProps = unk.getProperties().clone();
+      pixelProps.setNumericProperty(SpectrumProperties.EnergyScale, unk.getChannelWidth());
+      pixelProps.setNumericProperty(SpectrumProperties.EnergyOffset, unk.getZeroOffset());
+      try (final MappedRippleFile mrf = new MappedRippleFile(rpl)) {
+         final ISpectrumData sum = FilterFitBatch.sumSpectrum(mrf, pixelProps);
+         final FilterFit ff = createFilterFit(unk, false);
+         final FilterFitBatch ffb = new FilterFitBatch(ff, sum, pixelProps);
+         final MapImage mi = ffb.fit(mrf);
+         assertEquals(ffb.getReferenceCount(), mi.depth());
+         assertEquals(WIDTH, mi.width());
+         assertEquals(HEIGHT, mi.height());
+         final double[] k = new double[ffb.getReferenceCount()];
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+               final KRatioSet krs = ff.getKRatios(toSpectrum(unk, mrf.readSpectrum(x, y, null)));
+               for (int i = 0; i < k.length; ++i)
+                  k[i] = mi.get(x, y, i);
+               assertSameKRatios(ffb, krs, k);
+            }
+         assertEquals(0.5 * scale(2, 1), mi.get(2, 1, indexOf(ffb, Element.Au)), 0.01 * scale(2, 1));
+         assertEquals(0, ffb.getRefitCount());
+      }
+   }
+
+   /**
+    * A single FilterFitBatch fits the same map on several threads at once.
+    * Every pixel takes the culling path.
+    */
+   public void testThreads() throws Exception {
+      final SpectrumMath tmp = new SpectrumMath(mAuSpec);
+      tmp.subtract(mAgSpec, 0.05);
+      final double[] counts = SpectrumUtils.toDoubleArray(tmp);
+      for (int ch = 0; ch < counts.length; ++ch)
+         counts[ch] = Math.max(0.0, counts[ch]);
+      final ISpectrumData unk = toSpectrum(mAuSpec, counts);
+      final String rpl = writeMap(counts);
+      try (final MappedRippleFile mrf = new MappedRippleFile(rpl)) {
+         final FilterFitBatch ffb = new FilterFitBatch(createFilterFit(unk, false), unk, unk.getProperties());
+         final ExecutorService es = Executors.newFixedThreadPool(THREADS);
+         try {
+            final List<Future<MapImage>> res = new ArrayList<Future<MapImage>>();
+            for (int t = 0; t < THREADS; ++t)
+               res.add(es.submit(new Callable<MapImage>() {
+                  @Override
+                  public MapImage call() throws Exception {
+                     try (final MappedRippleFile thMrf = new MappedRippleFile(rpl)) {
+                        return ffb.fit(thMrf);
+                     }
+                  }
+               }));
+            final MapImage expected = new FilterFitBatch(createFilterFit(unk, false), unk, unk.getProperties()).fit(mrf);
+            for (final Future<MapImage> fut : res) {
+               final MapImage mi = fut.get();
+               for (int i = 0; i < mi.depth(); ++i)
+                  for (int y = 0; y < HEIGHT; ++y)
+                     for (int x = 0; x < WIDTH; ++x)
+                        assertEquals(expected.get(x, y, i), mi.get(x, y, i), 0.0);
+            }
+         } finally {
+            es.shutdown();
+         }
+         assertEquals(WIDTH * HEIGHT, ffb.getRefitCount());
+      }
+   }
+
+   /**
+    * Writes a map in which each pixel is counts scaled by scale(x,y) and
+    * returns the path of the .rpl file.
+    */
+   private String writeMap(double[] counts) throws IOException {
+      final int depth = counts.length;
+      final String rpl = new File(mDir, "map.rpl").getPath();
+      try (final RippleFile rf = new RippleFile(WIDTH, HEIGHT, depth, RippleFile.FLOAT, 8, RippleFile.LITTLE_ENDIAN, rpl, new File(mDir, "map.raw").getPath())) {
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+               rf.seek(y, x);
+               final double[] pixel = new double[depth];
+               for (int ch = 0; ch < depth; ++ch)
+                  pixel[ch] = scale(x, y) * counts[ch];
+               rf.write(pixel);
+            }
+      }
+      return rpl;
+   }
+
+   private static double scale(int x, int y) {
+      return 0.5 + (0.25 * x) + (0.1 * y);
+   }
+
+   private static int indexOf(FilterFitBatch ffb, Element elm) {
+      int best = -1;
+      for (int i = 0; i < ffb.getReferenceCount(); ++i)
+         if ((ffb.getXRayTransitionSet(i).getElement() == elm) && ((best == -1) || (ffb.getRegionOfInterest(i).lowEnergy() > ffb.getRegionOfInterest(best).lowEnergy())))
+            best = i;
+      return best;
+   }
+}
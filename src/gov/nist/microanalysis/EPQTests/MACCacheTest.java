@@ -0,0 +1,82 @@
+package gov.nist.microanalysis.EPQTests;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.MACCache;
+import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the MACCache class.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class MACCacheTest extends TestCase {
+
+   private static final MassAbsorptionCoefficient MAC = MassAbsorptionCoefficient.Chantler2005;
+
+   public MACCacheTest(String test) {
+      super(test);
+   }
+
+   public void testExact() throws EPQException {
+      final Material mat = MaterialFactory.createCompound("Fe2O3", ToSI.gPerCC(5.24));
+      final MACCache cache = new MACCache(ToSI.keV(20.0), MAC, 3);
+      final double e = ToSI.keV(1.740);
+      assertEquals(MACCache.NOT_IN_CACHE, cache.peekMAC(mat, e), 0.0);
+      assertEquals(MAC.compute(mat, e), cache.getMAC(mat, e), 0.0);
+      assertEquals(MAC.compute(mat, e), cache.getMAC(mat, e), 0.0);
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      // An equivalent but distinct Material instance should hit
+      final Material mat2 = MaterialFactory.createCompound("Fe2O3", ToSI.gPerCC(5.24));
+      cache.getMAC(mat2, e);
+      assertEquals(2, cache.getHitCount());
+      // Fill the cache past capacity and check that the LRU entry goes
+      cache.getMAC(mat, ToSI.keV(6.4));
+      cache.getMAC(mat, ToSI.keV(7.06));
+      cache.getMAC(mat, e);
+      cache.getMAC(mat, ToSI.keV(0.525));
+      assertEquals(3, cache.size());
+      assertEquals(1, cache.getEvictionCount());
+      assertEquals(MACCache.NOT_IN_CACHE, cache.peekMAC(mat, ToSI.keV(6.4)), 0.0);
+      assertTrue(cache.peekMAC(mat, e) != MACCache.NOT_IN_CACHE);
+   }
+
+   public void testInterpolated() throws EPQException {
+      final Material mat = MaterialFactory.createCompound("Fe2O3", ToSI.gPerCC(5.24));
+      final MACCache cache = new MACCache(ToSI.keV(20.0), MAC);
+      // Disabled interpolation is exact
+      assertEquals(MAC.compute(mat, ToSI.keV(3.3)), cache.getInterpolatedMAC(mat, ToSI.keV(3.3)), 0.0);
+      assertEquals(0, cache.getInterpolatedCount());
+      cache.setInterpolationEnabled(true);
+      for (double e = 0.2; e < 20.0; e += 0.0137) {
+         final double exact = MAC.compute(mat, ToSI.keV(e));
+         assertEquals(exact, cache.getInterpolatedMAC(mat, ToSI.keV(e)), 2.0 * MACCache.DEFAULT_TOLERANCE * exact);
+      }
+      // Straddling the Fe K edge
+      final double feK = ToSI.keV(7.112);
+      for (double de = -0.01; de <= 0.01; de += 0.0005) {
+         final double exact = MAC.compute(mat, feK + ToSI.keV(de));
+         assertEquals(exact, cache.getInterpolatedMAC(mat, feK + ToSI.keV(de)), 2.0 * MACCache.DEFAULT_TOLERANCE * exact);
+      }
+      assertTrue(cache.getInterpolatedCount() > 1000);
+      // Pure element
+      final Material cu = MaterialFactory.createPureElement(Element.Cu);
+      final double exact = MAC.compute(cu, ToSI.keV(5.5));
+      assertEquals(exact, cache.getInterpolatedMAC(cu, ToSI.keV(5.5)), 2.0 * MACCache.DEFAULT_TOLERANCE * exact);
+   }
+}
@@ -0,0 +1,225 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.CompositionFromKRatios;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.IterationAlgorithm;
+import gov.nist.microanalysis.EPQLibrary.KRatioSet;
+import gov.nist.microanalysis.EPQLibrary.MapImage;
+import gov.nist.microanalysis.EPQLibrary.MapQuantifier;
+import gov.nist.microanalysis.EPQLibrary.MassAbsorptionCoefficient;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet;
+import gov.nist.microanalysis.EPQLibrary.RegionOfInterestSet.RegionOfInterest;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.Utility.ProgressEvent;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the MapQuantifier class and CompositionFromKRatios.copy().
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class MapQuantifierTest extends TestCase {
+
+   private static final Element[] ELEMENTS = {
+      Element.Mg,
+      Element.Si,
+      Element.Ca,
+      Element.Fe
+   };
+
+   private static final int WIDTH = 19;
+   private static final int HEIGHT = 13;
+
+   private RegionOfInterest[] mROIs;
+   private XRayTransitionSet[] mTransitions;
+   private CompositionFromKRatios mQuant;
+   private SpectrumProperties mProps;
+   private MapImage mKRatios;
+
+   public MapQuantifierTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void setUp() throws EPQException {
+      final EDSDetector det = EDSDetector.createSDDDetector(2048, 10.0, 130.0);
+      mROIs = new RegionOfInterest[ELEMENTS.length];
+      mTransitions = new XRayTransitionSet[ELEMENTS.length];
+      for (int i = 0; i < ELEMENTS.length; ++i) {
+         final RegionOfInterestSet rois = new RegionOfInterestSet(det.getDetectorLineshapeModel(), 0.001);
+         rois.add(new XRayTransitionSet(ELEMENTS[i], XRayTransitionSet.K_FAMILY));
+         mROIs[i] = rois.iterator().next();
+         mTransitions[i] = new XRayTransitionSet(mROIs[i].getXRayTransitionSet(ELEMENTS[i]).getWeighiestTransition());
+      }
+      mProps = new SpectrumProperties();
+      mProps.setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      mProps.setNumericProperty(SpectrumProperties.TakeOffAngle, 40.0);
+      mQuant = new CompositionFromKRatios();
+      for (final XRayTransitionSet xrts : mTransitions)
+         mQuant.addStandard(xrts, MaterialFactory.createPureElement(xrts.getElement()), mProps);
+      mQuant.addUnmeasuredElementRule(new CompositionFromKRatios.OxygenByStoichiometry(Arrays.asList(ELEMENTS)));
+      final Composition k412 = MaterialFactory.createMaterial(MaterialFactory.K412);
+      final double[] k = new double[ELEMENTS.length];
+      for (int i = 0; i < k.length; ++i)
+         k[i] = k412.weightFraction(ELEMENTS[i], true) * mQuant.compute(mTransitions[i], k412, mProps);
+      mKRatios = new MapImage(WIDTH, HEIGHT, mROIs, "K412", MapImage.DataType.K_RATIOS);
+      final Random r = new Random(0x4B343132L);
+      for (int y = 0; y < HEIGHT; ++y)
+         for (int x = 0; x < WIDTH; ++x)
+            for (int i = 0; i < k.length; ++i)
+               mKRatios.set(x, y, i, k[i] * (1.0 + (0.05 * r.nextGaussian())));
+   }
+
+   private MapImage serial(CompositionFromKRatios ckr, boolean normalize) {
+      final MapImage res = new MapImage(WIDTH, HEIGHT, mROIs, "Serial", MapImage.DataType.COMPOSITION);
+      for (int y = 0; y < HEIGHT; ++y)
+         for (int x = 0; x < WIDTH; ++x) {
+            final KRatioSet krs = new KRatioSet();
+            for (int i = 0; i < mTransitions.length; ++i)
+               krs.addKRatio(mTransitions[i], Math.max(0.0, mKRatios.get(x, y, i)), 0.0);
+            try {
+               final Composition comp = ckr.compute(krs, mProps);
+               for (int i = 0; i < mTransitions.length; ++i)
+                  res.set(x, y, i, Math.max(0.0, comp.weightFraction(mTransitions[i].getElement(), normalize)));
+            } catch (final EPQException e) {
+               // Leave zero
+            }
+         }
+      return res;
+   }
+
+   private static void assertSameMap(MapImage expected, MapImage actual) {
+      assertEquals(expected.depth(), actual.depth());
+      assertEquals(expected.width(), actual.width());
+      assertEquals(expected.height(), actual.height());
+      for (int i = 0; i < expected.depth(); ++i)
+         for (int y = 0; y < expected.height(); ++y)
+            for (int x = 0; x < expected.width(); ++x)
+               assertEquals(expected.get(x, y, i), actual.get(x, y, i), 1.0e-12);
+   }
+
+   /**
+    * The copy gets its own correction algorithm and computes the same
+    * compositions as the original.
+    */
+   public void testCopy() throws EPQException {
+      final CompositionFromKRatios copy = mQuant.copy();
+      assertNotSame(mQuant.getCorrectionAlgorithm(), copy.getCorrectionAlgorithm());
+      assertEquals(mQuant.getCorrectionAlgorithm().getClass(), copy.getCorrectionAlgorithm().getClass());
+      assertEquals(mQuant.getUnmeasuredElementRuleCount(), copy.getUnmeasuredElementRuleCount());
+      assertSameMap(serial(mQuant, false), serial(copy, false));
+   }
+
+   /**
+    * Algorithms specified for the instance are carried over to the copy.
+    */
+   public void testCopyStrategy() throws EPQException {
+      final CompositionFromKRatios cfk = new CompositionFromKRatios() {
+         {
+            addDefaultAlgorithm(MassAbsorptionCoefficient.class, MassAbsorptionCoefficient.Chantler2005);
+         }
+      };
+      final CompositionFromKRatios copy = cfk.copy();
+      assertSame(cfk.getAlgorithm(MassAbsorptionCoefficient.class), copy.getAlgorithm(MassAbsorptionCoefficient.class));
+      assertNotNull(copy.getActiveStrategy().getAlgorithm(MassAbsorptionCoefficient.class));
+      assertSame(cfk.getAlgorithm(IterationAlgorithm.class), copy.getAlgorithm(IterationAlgorithm.class));
+      // Not there by default
+      assertNull(new CompositionFromKRatios().getActiveStrategy().getAlgorithm(MassAbsorptionCoefficient.class));
+   }
+
+   /**
+    * The parallel result is independent of the thread count and tile size and
+    * matches a serial quantification pixel-for-pixel.
+    */
+   public void testMatchesSerial() throws EPQException {
+      final MapImage expected = serial(mQuant.copy(), true);
+      for (final int nThreads : new int[] {
+         1,
+         4
+      })
+         for (final int tile : new int[] {
+            1,
+            4,
+            64
+         }) {
+            final MapQuantifier mq = new MapQuantifier(mQuant, mProps, nThreads);
+            mq.setTileSize(tile);
+            assertSameMap(expected, mq.quantify(mKRatios, true));
+         }
+      assertSameMap(serial(mQuant.copy(), false), mKRatios.quantify(mQuant, mProps, false));
+      // Sanity check the quantified Si in K412
+      assertEquals(0.2115, mKRatios.quantify(mQuant, mProps, false).get(WIDTH / 2, HEIGHT / 2, 1), 0.03);
+   }
+
+   public void testProgress() throws EPQException {
+      final MapQuantifier mq = new MapQuantifier(mQuant, mProps, 4);
+      mq.setTileSize(3);
+      final List<Integer> progress = Collections.synchronizedList(new ArrayList<Integer>());
+      mq.addProgressListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            progress.add(Integer.valueOf(((ProgressEvent) e).getProgress()));
+         }
+      });
+      mq.quantify(mKRatios, false);
+      assertFalse(progress.isEmpty());
+      final List<Integer> sorted = new ArrayList<Integer>(progress);
+      Collections.sort(sorted);
+      assertEquals(100, sorted.get(sorted.size() - 1).intValue());
+      // Each percentage is reported at most once
+      for (int i = 1; i < sorted.size(); ++i)
+         assertTrue(sorted.get(i) > sorted.get(i - 1));
+   }
+
+   public void testCancel() throws EPQException {
+      final MapQuantifier mq = new MapQuantifier(mQuant, mProps, 2);
+      mq.setTileSize(2);
+      mq.addProgressListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            if (((ProgressEvent) e).getProgress() >= 10)
+               mq.cancel();
+         }
+      });
+      try {
+         mq.quantify(mKRatios, false);
+         fail("The quantification should have been cancelled.");
+      } catch (final EPQException e) {
+         assertTrue(mq.isCancelled());
+      }
+   }
+
+   public void testWrongType() {
+      final MapImage comp = new MapImage(WIDTH, HEIGHT, mROIs, "Comp", MapImage.DataType.COMPOSITION);
+      assertNull(comp.quantify(mQuant, mProps, false));
+      try {
+         new MapQuantifier(mQuant, mProps).quantify(comp, false);
+         fail("Only k-ratio maps can be quantified.");
+      } catch (final EPQException e) {
+         // Expected
+      }
+   }
+}
@@ -0,0 +1,207 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQTools.MappedRippleFile;
+import gov.nist.microanalysis.EPQTools.RippleFile;
+import gov.nist.microanalysis.EPQTools.RippleSpectrum;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the MappedRippleFile class against RippleFile.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class MappedRippleFileTest extends TestCase {
+
+   private static final int WIDTH = 7;
+   private static final int HEIGHT = 5;
+   private static final int DEPTH = 33;
+
+   private File mDir;
+
+   public MappedRippleFileTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void setUp() throws IOException {
+      mDir = File.createTempFile("MappedRipple", "");
+      mDir.delete();
+      mDir.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() {
+      final File[] files = mDir.listFiles();
+      if (files != null)
+         for (final File f : files)
+            f.delete();
+      mDir.delete();
+   }
+
+   private static int value(int x, int y, int ch) {
+      return ((((y * WIDTH) + x) * 37) + (ch * 11)) % 251 - 60;
+   }
+
+   private String writeVector(String name, String type, int byteDepth, String order) throws IOException {
+      final String rpl = new File(mDir, name + ".rpl").getPath();
+      try (final RippleFile rf = new RippleFile(WIDTH, HEIGHT, DEPTH, type, byteDepth, order, rpl, new File(mDir, name + ".raw").getPath())) {
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x) {
+               rf.seek(y, x);
+               if (type == RippleFile.FLOAT) {
+                  final double[] vals = new double[DEPTH];
+                  for (int ch = 0; ch < DEPTH; ++ch)
+                     vals[ch] = 0.25 * value(x, y, ch);
+                  rf.write(vals);
+               } else {
+                  final int[] vals = new int[DEPTH];
+                  for (int ch = 0; ch < DEPTH; ++ch)
+                     vals[ch] = type == RippleFile.UNSIGNED ? Math.abs(value(x, y, ch)) : value(x, y, ch);
+                  rf.write(vals);
+               }
+            }
+      }
+      return rpl;
+   }
+
+   private void checkAgainstRippleFile(String rpl, int maxSegment) throws Exception {
+      try (final RippleFile rf = new RippleFile(rpl, true)) {
+         try (final MappedRippleFile mrf = new MappedRippleFile(rpl, new File(rpl.replace(".rpl", ".raw")).getPath(), maxSegment)) {
+            assertEquals(rf.getWidth(), mrf.getWidth());
+            assertEquals(rf.getHeight(), mrf.getHeight());
+            assertEquals(rf.getDepth(), mrf.getDepth());
+            assertEquals(rf.getDatumSize(), mrf.getDatumSize());
+            final double[] spec = new double[DEPTH];
+            for (int y = 0; y < HEIGHT; ++y)
+               for (int x = 0; x < WIDTH; ++x) {
+                  rf.seek(y, x);
+                  final double[] expected = rf.getDataType() == RippleFile.UNSIGNED ? null : rf.readDouble(DEPTH);
+                  if (expected == null)
+                     continue;
+                  mrf.readSpectrum(x, y, spec);
+                  for (int ch = 0; ch < DEPTH; ++ch) {
+                     assertEquals(expected[ch], spec[ch], 0.0);
+                     assertEquals(expected[ch], mrf.get(x, y, ch), 0.0);
+                  }
+               }
+            final double[] plane = mrf.readPlane(5, null);
+            for (int y = 0; y < HEIGHT; ++y)
+               for (int x = 0; x < WIDTH; ++x)
+                  assertEquals(mrf.get(x, y, 5), plane[(y * WIDTH) + x], 0.0);
+         }
+      }
+   }
+
+   public void testTypes() throws Exception {
+      checkAgainstRippleFile(writeVector("s8", RippleFile.SIGNED, 1, RippleFile.DONT_CARE_ENDIAN), Integer.MAX_VALUE);
+      checkAgainstRippleFile(writeVector("s16be", RippleFile.SIGNED, 2, RippleFile.BIG_ENDIAN), Integer.MAX_VALUE);
+      checkAgainstRippleFile(writeVector("s16le", RippleFile.SIGNED, 2, RippleFile.LITTLE_ENDIAN), Integer.MAX_VALUE);
+      checkAgainstRippleFile(writeVector("s32le", RippleFile.SIGNED, 4, RippleFile.LITTLE_ENDIAN), Integer.MAX_VALUE);
+      checkAgainstRippleFile(writeVector("f32be", RippleFile.FLOAT, 4, RippleFile.BIG_ENDIAN), Integer.MAX_VALUE);
+      checkAgainstRippleFile(writeVector("f64le", RippleFile.FLOAT, 8, RippleFile.LITTLE_ENDIAN), Integer.MAX_VALUE);
+   }
+
+   public void testUnsigned() throws Exception {
+      final String rpl = writeVector("u16le", RippleFile.UNSIGNED, 2, RippleFile.LITTLE_ENDIAN);
+      try (final MappedRippleFile mrf = new MappedRippleFile(rpl)) {
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+               for (int ch = 0; ch < DEPTH; ++ch)
+                  assertEquals(Math.abs(value(x, y, ch)), mrf.get(x, y, ch), 0.0);
+      }
+   }
+
+   /**
+    * Force the file to be split into many small mappings.
+    */
+   public void testSegments() throws Exception {
+      final String rpl = writeVector("seg", RippleFile.FLOAT, 4, RippleFile.LITTLE_ENDIAN);
+      try (final MappedRippleFile mrf = new MappedRippleFile(rpl, new File(mDir, "seg.raw").getPath(), 3 * DEPTH * 4 + 5)) {
+         assertEquals((WIDTH * HEIGHT + 2) / 3, mrf.getSegmentCount());
+      }
+      checkAgainstRippleFile(rpl, 3 * DEPTH * 4 + 5);
+      checkAgainstRippleFile(rpl, DEPTH * 4);
+      try {
+         new MappedRippleFile(rpl, new File(mDir, "seg.raw").getPath(), DEPTH * 4 - 1).close();
+         fail("A spectrum can not be split across segments.");
+      } catch (final Exception e) {
+         // Expected
+      }
+   }
+
+   public void testImageOrder() throws Exception {
+      final File rpl = new File(mDir, "image.rpl");
+      try (final PrintWriter pw = new PrintWriter(new FileOutputStream(rpl))) {
+         pw.println("key\tvalue");
+         pw.println("width\t" + WIDTH);
+         pw.println("height\t" + HEIGHT);
+         pw.println("depth\t" + DEPTH);
+         pw.println("offset\t3");
+         pw.println("data-length\t2");
+         pw.println("data-type\tsigned");
+         pw.println("byte-order\tbig-endian");
+         pw.println("record-by\timage");
+      }
+      try (final DataOutputStream dos = new DataOutputStream(new FileOutputStream(new File(mDir, "image.raw")))) {
+         dos.write(new byte[3]);
+         for (int ch = 0; ch < DEPTH; ++ch)
+            for (int y = 0; y < HEIGHT; ++y)
+               for (int x = 0; x < WIDTH; ++x)
+                  dos.writeShort(value(x, y, ch));
+      }
+      try {
+         new RippleFile(rpl.getPath(), true).close();
+         fail("RippleFile doesn't support image ordered files.");
+      } catch (final Exception e) {
+         // Expected
+      }
+      try (final MappedRippleFile mrf = new MappedRippleFile(rpl.getPath(), new File(mDir, "image.raw").getPath(), 2 * WIDTH * 4)) {
+         assertEquals(RippleFile.IMAGE_ORDER, mrf.getRecordBy());
+         final double[] spec = mrf.readSpectrum(3, 2, null);
+         for (int ch = 0; ch < DEPTH; ++ch)
+            assertEquals(value(3, 2, ch), spec[ch], 0.0);
+         final double[] plane = mrf.readPlane(17, null);
+         for (int y = 0; y < HEIGHT; ++y)
+            for (int x = 0; x < WIDTH; ++x)
+               assertEquals(value(x, y, 17), plane[(y * WIDTH) + x], 0.0);
+      }
+   }
+
+   public void testRippleSpectrum() throws Exception {
+      final String rpl = writeVector("spec", RippleFile.SIGNED, 4, RippleFile.BIG_ENDIAN);
+      final SpectrumProperties sp = new SpectrumProperties();
+      sp.setNumericProperty(SpectrumProperties.EnergyOffset, 0.0);
+      sp.setNumericProperty(SpectrumProperties.EnergyScale, 10.0);
+      final RippleSpectrum rs = new RippleSpectrum(rpl, sp);
+      rs.setPosition(4, 3);
+      for (int ch = 0; ch < DEPTH; ++ch)
+         assertEquals(value(4, 3, ch), rs.getCounts(ch), 0.0);
+      rs.setSpan(2, 3);
+      for (int ch = 0; ch < DEPTH; ++ch) {
+         double sum = 0.0;
+         for (int y = 3; y < 5; ++y)
+            for (int x = 4; x < 7; ++x)
+               sum += value(x, y, ch);
+         assertEquals(sum, rs.getCounts(ch), 0.0);
+      }
+      rs.setSpan(1, 1);
+      assertEquals(value(4, 3, 7), rs.getCounts(7), 0.0);
+   }
+}
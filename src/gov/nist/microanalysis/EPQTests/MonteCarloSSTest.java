@@ -1,8 +1,27 @@
 package gov.nist.microanalysis.EPQTests;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Map;
+import java.util.Random;
+
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.NISTMottScatteringAngle;
+import gov.nist.microanalysis.EPQLibrary.RandomizedScatterFactory;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.BackscatterStats;
+import gov.nist.microanalysis.NISTMonte.BasicMaterialModel;
+import gov.nist.microanalysis.NISTMonte.CompiledMaterialModel;
+import gov.nist.microanalysis.NISTMonte.Electron;
+import gov.nist.microanalysis.NISTMonte.IMonteCarloListener;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.MultiPlaneShape;
+import gov.nist.microanalysis.NISTMonte.PathLengthTracer;
 import gov.nist.microanalysis.NISTMonte.SimpleBlock;
+import gov.nist.microanalysis.NISTMonte.Sphere;
 import junit.framework.TestCase;
 
 /**
@@ -70,4 +89,205 @@ public class MonteCarloSSTest extends TestCase {
          }
       }
    }
+
+   public void testEventMask() throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.Si),
+            MultiPlaneShape.createSubstrate(new double[]{0.0, 0.0, -1.0}, new double[]{0.0, 0.0, 0.0}));
+      final int[] typed = new int[2];
+      final IMonteCarloListener endOnly = new IMonteCarloListener() {
+         @Override
+         public void onEvent(int type, MonteCarloSS src) {
+            assertSame(mcss, src);
+            if (type == MonteCarloSS.TrajectoryEndEvent)
+               ++typed[0];
+            else
+               ++typed[1];
+         }
+
+         @Override
+         public long getEventMask() {
+            return MonteCarloSS.eventMask(MonteCarloSS.TrajectoryEndEvent);
+         }
+      };
+      final int[] all = new int[2];
+      final ActionEvent[] prev = new ActionEvent[1];
+      final ActionListener legacy = new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            assertSame(mcss, e.getSource());
+            if (e.getID() == MonteCarloSS.ScatterEvent) {
+               // The ActionEvent is reused
+               if (prev[0] != null)
+                  assertSame(prev[0], e);
+               prev[0] = e;
+               ++all[1];
+            }
+            if (e.getID() == MonteCarloSS.TrajectoryEndEvent)
+               ++all[0];
+         }
+      };
+      mcss.addMonteCarloListener(endOnly);
+      mcss.addActionListener(legacy);
+      mcss.runMultipleTrajectories(20);
+      assertEquals(20, typed[0]);
+      assertEquals(0, typed[1]);
+      assertEquals(20, all[0]);
+      assertTrue(all[1] > 20);
+      mcss.removeMonteCarloListener(endOnly);
+      mcss.removeActionListener(legacy);
+      mcss.runMultipleTrajectories(5);
+      assertEquals(20, typed[0]);
+      assertEquals(20, all[0]);
+   }
+
+   /**
+    * Checks that the bounding volume hierarchy over the sub-regions gives the
+    * same results as a linear search.
+    */
+   public void testSubRegionIndex() throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      final double dim = 10.0e-6;
+      final MonteCarloSS.Region block = mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.Si),
+            new SimpleBlock(new double[]{-0.5 * dim, -0.5 * dim, 0.0}, new double[]{0.5 * dim, 0.5 * dim, dim}));
+      final Random r = new Random(0x5EED);
+      final double radius = 0.2e-6;
+      final int n = 10;
+      final MonteCarloSS.Region[] spheres = new MonteCarloSS.Region[n * n * n];
+      for (int i = 0; i < n; ++i)
+         for (int j = 0; j < n; ++j)
+            for (int k = 0; k < n; ++k) {
+               final double[] center = {dim * (((i + 0.5) / n) - 0.5) + (0.2 * radius * r.nextGaussian()),
+                     dim * (((j + 0.5) / n) - 0.5) + (0.2 * radius * r.nextGaussian()), dim * ((k + 0.5) / n)};
+               spheres[(((i * n) + j) * n) + k] = mcss.addSubRegion(block, MaterialFactory.createPureElement(Element.Au),
+                     new Sphere(center, radius));
+            }
+      final int threshold = MonteCarloSS.RegionBase.getSubRegionIndexThreshold();
+      int inBlock = 0, crossed = 0;
+      try {
+         for (int trial = 0; trial < 2; ++trial) {
+            for (int i = 0; i < 2000; ++i) {
+               final double[] pos0 = {dim * (r.nextDouble() - 0.5), dim * (r.nextDouble() - 0.5), dim * r.nextDouble()};
+               final double len = 2.0e-6 * r.nextDouble();
+               final double th = Math.acos(1.0 - (2.0 * r.nextDouble())), ph = 2.0 * Math.PI * r.nextDouble();
+               final double[] pos1 = {pos0[0] + (len * Math.sin(th) * Math.cos(ph)), pos0[1] + (len * Math.sin(th) * Math.sin(ph)),
+                     pos0[2] + (len * Math.cos(th))};
+               MonteCarloSS.RegionBase.setSubRegionIndexThreshold(Integer.MAX_VALUE);
+               final MonteCarloSS.RegionBase start = mcss.findRegionContaining(pos0);
+               final double[] linEnd = pos1.clone();
+               final MonteCarloSS.RegionBase linear = start.findEndOfStep(pos0, linEnd);
+               MonteCarloSS.RegionBase.setSubRegionIndexThreshold(threshold);
+               assertSame(start, mcss.findRegionContaining(pos0));
+               if (start == block)
+                  ++inBlock;
+               final double[] idxEnd = pos1.clone();
+               final MonteCarloSS.RegionBase indexed = start.findEndOfStep(pos0, idxEnd);
+               assertSame(linear, indexed);
+               if (indexed != block)
+                  ++crossed;
+               for (int j = 0; j < 3; ++j)
+                  assertEquals(linEnd[j], idxEnd[j], 0.0);
+            }
+            // Moving a sub-region must invalidate the index
+            for (final MonteCarloSS.Region sphere : spheres)
+               sphere.translate(new double[]{0.1 * radius, -0.1 * radius, 0.0});
+         }
+      } finally {
+         MonteCarloSS.RegionBase.setSubRegionIndexThreshold(threshold);
+      }
+      assertTrue(inBlock > 3000);
+      assertTrue(crossed > 500);
+   }
+
+   /**
+    * Compares PathLengthTracer against getMaterialMap(...) for a film on a
+    * substrate.
+    */
+   public void testPathLengthTracer() throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      final double[] normal = {0.0, 0.0, -1.0};
+      mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.C),
+            MultiPlaneShape.createFilm(normal, new double[]{0.0, 0.0, 0.0}, 100.0e-9));
+      mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.Cu),
+            MultiPlaneShape.createSubstrate(normal, new double[]{0.0, 0.0, 100.0e-9}));
+      final double[] det = mcss.computeDetectorPosition(Math.toRadians(40.0), 0.0);
+      final PathLengthTracer exact = new PathLengthTracer(mcss, det);
+      final PathLengthTracer memo = new PathLengthTracer(mcss, det);
+      memo.setVoxelSize(10.0e-9);
+      final Random r = new Random(0x7ACE);
+      for (int i = 0; i < 2000; ++i) {
+         final double[] pt = {1.0e-6 * r.nextGaussian(), 1.0e-6 * r.nextGaussian(), 1.0e-6 * r.nextDouble()};
+         final Map<Material, Double> map = mcss.getMaterialMap(pt, det);
+         final double[] lengths = exact.trace(pt);
+         final int nMat = exact.getMaterialCount();
+         for (final Material mat : map.keySet())
+            assertTrue(exact.getMaterialID(mat) < nMat);
+         for (int id = 0; id < exact.getMaterialCount(); ++id) {
+            final Double len = map.get(exact.getMaterial(id));
+            assertEquals(len != null ? len.doubleValue() : 0.0, lengths[id], 1.0e-12 * MonteCarloSS.ChamberRadius);
+         }
+         final double[] interp = memo.trace(pt);
+         for (int id = 0; id < memo.getMaterialCount(); ++id) {
+            final Material mat = memo.getMaterial(id);
+            if (mat != Material.Null)
+               assertEquals(lengths[exact.getMaterialID(mat)], interp[id], 1.0e-12);
+         }
+      }
+      assertTrue(memo.getInterpolatedCount() > 1000);
+      assertTrue(memo.getNodeCount() > 0);
+   }
+
+   /**
+    * Compares CompiledMaterialModel against the BasicMaterialModel from which
+    * it was compiled.
+    */
+   public void testCompiledMaterialModel() throws EPQException {
+      final Material mat = MaterialFactory.createCompound("Fe2O3", ToSI.gPerCC(5.24));
+      final BasicMaterialModel basic = new BasicMaterialModel(mat);
+      final CompiledMaterialModel compiled = new CompiledMaterialModel(basic, ToSI.keV(20.0));
+      final RandomizedScatterFactory rsf = NISTMottScatteringAngle.Factory;
+      for (double e = 0.06; e < 25.0; e *= 1.0137) {
+         final double kE = ToSI.keV(e);
+         final Electron pe = new Electron(new double[3], kE);
+         final double loss = basic.calculateEnergyLoss(1.0e-9, pe);
+         assertEquals(loss, compiled.calculateEnergyLoss(1.0e-9, pe), 1.0e-4 * Math.abs(loss));
+         double invMfp = 0.0;
+         for (final Element el : mat.getElementSet())
+            invMfp += (mat.getDensity() * mat.weightFraction(el, true) * rsf.get(el).totalCrossSection(kE)) / el.getMass();
+         assertEquals(invMfp, compiled.inverseMeanFreePath(kE), 1.0e-4 * invMfp);
+      }
+      // The scattering element should be selected in proportion to the
+      // per-element inverse mean free path
+      final double kE = ToSI.keV(5.0);
+      final Electron pe = new Electron(new double[3], kE);
+      final double oInvMfp = (mat.getDensity() * mat.weightFraction(Element.O, true) * rsf.get(Element.O).totalCrossSection(kE)) / Element.O.getMass();
+      final int n = 100000;
+      int nO = 0;
+      double sum = 0.0;
+      for (int i = 0; i < n; ++i) {
+         sum += compiled.randomMeanPathLength(pe);
+         if (pe.getScatteringElement() == Element.O)
+            ++nO;
+         else
+            assertEquals(Element.Fe, pe.getScatteringElement());
+      }
+      final double pO = oInvMfp / compiled.inverseMeanFreePath(kE);
+      assertEquals(pO, (double) nO / n, 5.0 * Math.sqrt((pO * (1.0 - pO)) / n));
+      assertEquals(1.0 / compiled.inverseMeanFreePath(kE), sum / n, (5.0 / Math.sqrt(n)) / compiled.inverseMeanFreePath(kE));
+      // Compare backscatter coefficients from full simulations
+      final double[] eta = new double[2];
+      for (int i = 0; i < 2; ++i) {
+         final MonteCarloSS mcss = new MonteCarloSS();
+         mcss.setBeamEnergy(ToSI.keV(15.0));
+         mcss.addSubRegion(mcss.getChamber(), MaterialFactory.createPureElement(Element.Cu),
+               MultiPlaneShape.createSubstrate(new double[]{0.0, 0.0, -1.0}, new double[]{0.0, 0.0, 0.0}));
+         if (i == 1)
+            mcss.compileScatterModels();
+         final BackscatterStats bs = new BackscatterStats(mcss);
+         mcss.addActionListener(bs);
+         mcss.runMultipleTrajectories(2000);
+         eta[i] = bs.backscatterFraction();
+      }
+      assertEquals(eta[0], eta[1], 0.05);
+   }
 }
@@ -0,0 +1,132 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.util.Collections;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.XRayTransition;
+import gov.nist.microanalysis.NISTMonte.BackscatterStats;
+import gov.nist.microanalysis.NISTMonte.GaussianBeam;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.MultiPlaneShape;
+import gov.nist.microanalysis.NISTMonte.ParallelMonteCarlo;
+import gov.nist.microanalysis.NISTMonte.Gen3.CharacteristicXRayGeneration3;
+import gov.nist.microanalysis.NISTMonte.Gen3.XRayAccumulator3;
+import gov.nist.microanalysis.NISTMonte.Gen3.XRayTransport3;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the ParallelMonteCarlo class.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class ParallelMonteCarloTest extends TestCase {
+
+   private static final XRayTransition CU_KA = new XRayTransition(Element.Cu, XRayTransition.KA1);
+
+   public ParallelMonteCarloTest(String test) {
+      super(test);
+   }
+
+   private static MonteCarloSS buildCuBulk() throws EPQException {
+      final MonteCarloSS mcss = new MonteCarloSS();
+      mcss.setElectronGun(new GaussianBeam(1.0e-8));
+      mcss.setBeamEnergy(ToSI.keV(20.0));
+      final Material cu = MaterialFactory.createPureElement(Element.Cu);
+      mcss.addSubRegion(mcss.getChamber(), cu, MultiPlaneShape.createSubstrate(new double[]{0.0, 0.0, -1.0}, new double[]{0.0, 0.0, 0.0}));
+      return mcss;
+   }
+
+   private static final ParallelMonteCarlo.ReplicaFactory FACTORY = new ParallelMonteCarlo.ReplicaFactory() {
+      @Override
+      public ParallelMonteCarlo.Replica create(int partition) throws EPQException {
+         final MonteCarloSS mcss = buildCuBulk();
+         final BackscatterStats bs = new BackscatterStats(mcss);
+         mcss.addActionListener(bs);
+         final CharacteristicXRayGeneration3 cxg = CharacteristicXRayGeneration3.create(mcss);
+         final XRayTransport3 xrt = XRayTransport3.create(mcss, mcss.computeDetectorPosition(Math.toRadians(40.0), 0.0), cxg);
+         final XRayAccumulator3 acc = new XRayAccumulator3(Collections.singleton(CU_KA), "Cu", 1.0e-9);
+         xrt.addXRayListener(acc);
+         return new ParallelMonteCarlo.Replica(mcss).addResult(bs).addResult(acc);
+      }
+   };
+
+   public void testMerge() throws EPQException {
+      final int nTraj = 400;
+      final ParallelMonteCarlo pmc = new ParallelMonteCarlo(FACTORY, 4);
+      final ParallelMonteCarlo.Replica res = pmc.run(nTraj);
+      final BackscatterStats bs = res.getResult(0, BackscatterStats.class);
+      // Cu at 20 keV backscatters roughly 30% of the incident electrons
+      assertEquals(0.30, bs.backscatterFraction(), 0.08);
+      assertEquals(bs.elevationHistogram().totalCounts(), bs.backscatterEnergyHistogram().totalCounts()
+            + bs.forwardscatterEnergyHistogram().totalCounts());
+      final XRayAccumulator3 acc = res.getResult(1, XRayAccumulator3.class);
+      assertTrue(acc.getGenerated(CU_KA) > 0.0);
+      assertTrue(acc.getEmitted(CU_KA) < acc.getGenerated(CU_KA));
+      // Compare against a single partition run.
+      final ParallelMonteCarlo serial = new ParallelMonteCarlo(FACTORY, 1);
+      final XRayAccumulator3 sAcc = serial.run(nTraj).getResult(1, XRayAccumulator3.class);
+      assertEquals(sAcc.getGenerated(CU_KA), acc.getGenerated(CU_KA), 0.15 * sAcc.getGenerated(CU_KA));
+   }
+
+   public void testReproducible() throws EPQException {
+      final double[] generated = new double[3];
+      final int[] backscatter = new int[3];
+      final int[] threads = {1, 3, 4};
+      for (int i = 0; i < threads.length; ++i) {
+         final ParallelMonteCarlo pmc = new ParallelMonteCarlo(FACTORY, threads[i]);
+         pmc.setPartitionCount(4);
+         pmc.setRandomSeed(0x1234L);
+         final ParallelMonteCarlo.Replica res = pmc.run(100);
+         generated[i] = res.getResult(1, XRayAccumulator3.class).getGenerated(CU_KA);
+         backscatter[i] = res.getResult(0, BackscatterStats.class).backscatterEnergyHistogram().totalCounts();
+      }
+      assertEquals(generated[0], generated[1], 0.0);
+      assertEquals(generated[0], generated[2], 0.0);
+      assertEquals(backscatter[0], backscatter[1]);
+      assertEquals(backscatter[0], backscatter[2]);
+   }
+
+   public void testMergeSelf() {
+      final XRayAccumulator3 acc = new XRayAccumulator3(Collections.singleton(CU_KA), "Self", 1.0e-9);
+      try {
+         acc.merge(acc);
+         fail("Merging an accumulator with itself should be rejected.");
+      } catch (final EPQFatalException e) {
+         // Expected
+      }
+   }
+
+   public void testSharedListener() {
+      final ParallelMonteCarlo.ReplicaFactory shared = new ParallelMonteCarlo.ReplicaFactory() {
+         private final XRayAccumulator3 mShared = new XRayAccumulator3(Collections.singleton(CU_KA), "Shared", 1.0e-9);
+
+         @Override
+         public ParallelMonteCarlo.Replica create(int partition) throws EPQException {
+            return new ParallelMonteCarlo.Replica(buildCuBulk()).addResult(mShared);
+         }
+      };
+      try {
+         new ParallelMonteCarlo(shared, 2).run(10);
+         fail("A shared listener should be rejected.");
+      } catch (final EPQFatalException e) {
+         // Expected
+      } catch (final EPQException e) {
+         fail(e.getMessage());
+      }
+   }
+}
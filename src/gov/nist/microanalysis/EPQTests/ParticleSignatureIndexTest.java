@@ -0,0 +1,250 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import gov.nist.microanalysis.EPQDatabase.ParticleSignatureIndex;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ParticleSignature;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares the tolerance and nearest neighbour queries in
+ * ParticleSignatureIndex with brute force searches.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class ParticleSignatureIndexTest extends TestCase {
+
+   private static final Element[] ELEMENTS = {
+      Element.C,
+      Element.O,
+      Element.Na,
+      Element.Mg,
+      Element.Al,
+      Element.Si,
+      Element.S,
+      Element.Cl,
+      Element.K,
+      Element.Ca,
+      Element.Ti,
+      Element.Fe,
+      Element.Zn,
+      Element.Pb
+   };
+
+   private final Random mRandom = new Random(0x5EED);
+   private final List<ParticleSignature> mSignatures = new ArrayList<ParticleSignature>();
+   private final List<Integer> mIds = new ArrayList<Integer>();
+
+   public ParticleSignatureIndexTest(String test) {
+      super(test);
+   }
+
+   private ParticleSignature randomSignature() {
+      final ParticleSignature sig = new ParticleSignature();
+      final int n = 1 + mRandom.nextInt(5);
+      for (int i = 0; i < n; ++i)
+         sig.add(ELEMENTS[mRandom.nextInt(ELEMENTS.length)], mRandom.nextDouble());
+      return sig;
+   }
+
+   private ParticleSignatureIndex populate(ParticleSignatureIndex idx, int n) {
+      for (int i = 0; i < n; ++i) {
+         final ParticleSignature sig = randomSignature();
+         final int id = 3 * mSignatures.size() + 1;
+         mSignatures.add(sig);
+         mIds.add(Integer.valueOf(id));
+         idx.add(id, sig);
+      }
+      return idx;
+   }
+
+   private static double fraction(ParticleSignature sig, Element elm) {
+      return sig.getUnstrippedElementSet().contains(elm) ? (float) sig.get(elm) : 0.0;
+   }
+
+   private static double distance2(ParticleSignature a, ParticleSignature b) {
+      double res = 0.0;
+      for (final Element elm : ELEMENTS) {
+         final double d = fraction(a, elm) - fraction(b, elm);
+         res += d * d;
+      }
+      return res;
+   }
+
+   /**
+    * The IDs matched by the SQL in Session.find(ParticleSignature, double,
+    * int).
+    */
+   private TreeSet<Integer> bruteForce(ParticleSignature sig, double tol) {
+      final TreeSet<Integer> res = new TreeSet<Integer>();
+      for (int i = 0; i < mSignatures.size(); ++i) {
+         boolean match = true;
+         for (final Element elm : sig.getUnstrippedElementSet()) {
+            final double delta = Math.max(sig.get(elm), 0.1) * tol;
+            final float min = (float) Math.max(0.0, sig.get(elm) - delta);
+            final float max = (float) Math.min(1.0, sig.get(elm) + delta);
+            final float v = (float) fraction(mSignatures.get(i), elm);
+            match &= (v >= min) && (v <= max);
+         }
+         if (match)
+            res.add(mIds.get(i));
+      }
+      return res;
+   }
+
+   private ParticleSignature byId(int id) {
+      return mSignatures.get(mIds.indexOf(Integer.valueOf(id)));
+   }
+
+   private void checkQueries(ParticleSignatureIndex idx) {
+      for (int q = 0; q < 50; ++q) {
+         final ParticleSignature sig = q % 2 == 0 ? randomSignature() : mSignatures.get(mRandom.nextInt(mSignatures.size()));
+         for (final double tol : new double[]{0.05, 0.2, 0.9}) {
+            final TreeSet<Integer> expected = bruteForce(sig, tol);
+            final int[] all = idx.findWithinTolerance(sig, tol, Integer.MAX_VALUE);
+            final TreeSet<Integer> actual = new TreeSet<Integer>();
+            for (final int id : all)
+               actual.add(Integer.valueOf(id));
+            assertEquals(expected, actual);
+            // Limited results are the closest matches
+            final int[] limited = idx.findWithinTolerance(sig, tol, 3);
+            assertEquals(Math.min(3, all.length), limited.length);
+            for (int i = 0; i < limited.length; ++i)
+               assertEquals(distance2(sig, byId(all[i])), distance2(sig, byId(limited[i])), 1.0e-6);
+         }
+         final int k = 10;
+         final int[] nearest = idx.findNearest(sig, k);
+         assertEquals(Math.min(k, mSignatures.size()), nearest.length);
+         final double[] d2 = new double[mSignatures.size()];
+         for (int i = 0; i < d2.length; ++i)
+            d2[i] = distance2(sig, mSignatures.get(i));
+         Arrays.sort(d2);
+         for (int i = 0; i < nearest.length; ++i)
+            assertEquals(d2[i], distance2(sig, byId(nearest[i])), 1.0e-6);
+      }
+   }
+
+   public void testQueries() {
+      final ParticleSignatureIndex idx = populate(new ParticleSignatureIndex(), 1000);
+      assertEquals(1000, idx.size());
+      assertEquals(3 * 999 + 1, idx.getMaxId());
+      checkQueries(idx);
+      // Enough to merge the recently added signatures into the primary index
+      populate(idx, 5000);
+      assertEquals(6000, idx.size());
+      checkQueries(idx);
+      assertEquals(0, new ParticleSignatureIndex().findNearest(randomSignature(), 5).length);
+   }
+
+   /**
+    * Deletes the files in dir and dir. Memory mapped files can not be deleted
+    * on Windows until the mapping is garbage collected.
+    */
+   private static void delete(File dir) {
+      final File[] files = dir.listFiles();
+      if (files != null)
+         for (final File f : files)
+            if (!f.delete()) {
+               System.gc();
+               if (!f.delete())
+                  f.deleteOnExit();
+            }
+      if (!dir.delete())
+         dir.deleteOnExit();
+   }
+
+   private static File createTempDir() throws IOException {
+      return Files.createTempDirectory("psi").toFile();
+   }
+
+   public void testReadWrite() throws IOException {
+      final File dir = createTempDir();
+      try {
+         final File file = new File(dir, "psi.idx");
+         final ParticleSignatureIndex idx = populate(new ParticleSignatureIndex(), 500);
+         assertEquals(file.getAbsoluteFile(), idx.write(file));
+         final ParticleSignatureIndex mapped = ParticleSignatureIndex.read(file);
+         assertEquals(500, mapped.size());
+         assertEquals(idx.getMaxId(), mapped.getMaxId());
+         checkQueries(mapped);
+         // Additions to a memory mapped index
+         populate(mapped, 100);
+         assertEquals(600, mapped.size());
+         checkQueries(mapped);
+         // Replaces the mapped file or, where that is not permitted, writes
+         // the next version
+         final File written = mapped.write(file);
+         assertEquals(ParticleSignatureIndex.latest(file), written);
+         final ParticleSignatureIndex reread = ParticleSignatureIndex.read(file);
+         assertEquals(600, reread.size());
+         assertEquals(mapped.getMaxId(), reread.getMaxId());
+         checkQueries(reread);
+         // Unmodified so not rewritten
+         assertEquals(written, reread.write(file));
+         // Truncated files are rejected
+         final File bad = new File(dir, "bad.idx");
+         final byte[] data = Files.readAllBytes(written.toPath());
+         Files.write(bad.toPath(), Arrays.copyOf(data, data.length - 4));
+         try {
+            ParticleSignatureIndex.read(bad);
+            fail("A truncated index should not be read.");
+         } catch (final IOException e) {
+            // Expected
+         }
+      } finally {
+         delete(dir);
+      }
+   }
+
+   /**
+    * The most recent version of the file is read and the next write
+    * supersedes the older versions.
+    */
+   public void testVersions() throws IOException {
+      final File dir = createTempDir();
+      try {
+         final File file = new File(dir, "psi.idx");
+         assertEquals(file.getAbsoluteFile(), ParticleSignatureIndex.latest(file));
+         populate(new ParticleSignatureIndex(), 100).write(file);
+         final File v3 = new File(dir, "psi.idx.3");
+         populate(new ParticleSignatureIndex(), 200).write(v3);
+         // Not versions of psi.idx
+         Files.write(new File(dir, "psi.idx.old").toPath(), new byte[0]);
+         Files.write(new File(dir, "psi.idx.3.1").toPath(), new byte[0]);
+         assertEquals(v3.getAbsoluteFile(), ParticleSignatureIndex.latest(file));
+         final ParticleSignatureIndex idx = ParticleSignatureIndex.read(file);
+         assertEquals(200, idx.size());
+         populate(idx, 50);
+         final File v4 = idx.write(file);
+         assertEquals(new File(dir, "psi.idx.4").getAbsoluteFile(), v4);
+         assertEquals(v4, ParticleSignatureIndex.latest(file));
+         assertEquals(250, ParticleSignatureIndex.read(file).size());
+         // The superseded files are removed where possible
+         assertTrue(new File(dir, "psi.idx.old").exists());
+         if (!System.getProperty("os.name").startsWith("Windows")) {
+            assertFalse(file.exists());
+            assertFalse(v3.exists());
+         }
+      } finally {
+         delete(dir);
+      }
+   }
+}
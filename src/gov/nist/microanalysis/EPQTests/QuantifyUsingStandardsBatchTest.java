@@ -0,0 +1,238 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.EditableSpectrum;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.MaterialFactory;
+import gov.nist.microanalysis.EPQLibrary.NoisySpectrum;
+import gov.nist.microanalysis.EPQLibrary.QuantifyUsingStandards;
+import gov.nist.microanalysis.EPQLibrary.QuantifyUsingStandardsBatch;
+import gov.nist.microanalysis.EPQLibrary.QuantifyUsingStandardsBatch.Item;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares the results of QuantifyUsingStandardsBatch with
+ * QuantifyUsingStandards.compute(...).
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class QuantifyUsingStandardsBatchTest extends TestCase {
+
+   private ISpectrumData mUnknown;
+   private QuantifyUsingStandards mQuant;
+
+   public QuantifyUsingStandardsBatchTest(String test) {
+      super(test);
+   }
+
+   private static ISpectrumData read(String name) throws IOException {
+      final EMSAFile spec = new EMSAFile();
+      spec.read(QuantifyUsingStandardsBatchTest.class.getResourceAsStream(name));
+      spec.getProperties().setNumericProperty(SpectrumProperties.ProbeCurrent, 1.0);
+      spec.getProperties().setNumericProperty(SpectrumProperties.LiveTime, 60.0);
+      return spec;
+   }
+
+   @Override
+   protected void setUp() throws IOException, EPQException {
+      mUnknown = read("TestData/K3189_1.msa");
+      final EDSDetector det = EDSDetector.createSiLiDetector(mUnknown.getChannelCount(), mUnknown.getChannelWidth(),
+            SpectrumUtils.getFWHMAtMnKA(mUnknown, 135.0));
+      mQuant = new QuantifyUsingStandards(det, ToSI.keV(SpectrumUtils.getBeamEnergy(mUnknown)));
+      final Object[][] stds = {{Element.O, "TestData/MgO_ref1.msa", MaterialFactory.createMaterial(MaterialFactory.MagnesiumOxide)},
+            {Element.Mg, "TestData/Mg_ref1.msa", MaterialFactory.createPureElement(Element.Mg)},
+            {Element.Al, "TestData/Al_ref1.msa", MaterialFactory.createPureElement(Element.Al)},
+            {Element.Si, "TestData/Si_ref1.msa", MaterialFactory.createPureElement(Element.Si)},
+            {Element.Ca, "TestData/Ca_ref1.msa", MaterialFactory.createPureElement(Element.Ca)},
+            {Element.Ti, "TestData/Ti_ref1.msa", MaterialFactory.createPureElement(Element.Ti)},
+            {Element.Fe, "TestData/Fe_ref1.msa", MaterialFactory.createPureElement(Element.Fe)}};
+      for (final Object[] std : stds)
+         mQuant.addStandard((Element) std[0], (Composition) std[2], read((String) std[1]));
+   }
+
+   private List<ISpectrumData> unknowns(int n) {
+      final List<ISpectrumData> res = new ArrayList<ISpectrumData>();
+      for (int i = 0; i < n; ++i)
+         res.add(new NoisySpectrum(mUnknown, 1.0, 1000 + i));
+      return res;
+   }
+
+   private static void assertSame(Composition expected, Composition actual) {
+      assertEquals(expected.getElementSet(), actual.getElementSet());
+      for (final Element elm : expected.getElementSet())
+         assertEquals(elm.toAbbrev(), expected.weightFraction(elm, false), actual.weightFraction(elm, false), 1.0e-12);
+   }
+
+   public void testQuantify() throws EPQException {
+      final List<ISpectrumData> unks = unknowns(12);
+      // An unknown which can't be fit
+      final EditableSpectrum bad = new EditableSpectrum(mUnknown);
+      for (int ch = 0; ch < bad.getChannelCount(); ++ch)
+         bad.setCounts(ch, Double.NaN);
+      unks.add(5, bad);
+      final List<Item> items = new QuantifyUsingStandardsBatch(mQuant, 3, 2).quantify(unks);
+      assertEquals(unks.size(), items.size());
+      for (int i = 0; i < unks.size(); ++i) {
+         final Item item = items.get(i);
+         assertEquals(i, item.getIndex());
+         assertTrue(unks.get(i) == item.getUnknown());
+         if (i == 5) {
+            assertFalse(item.isSuccess());
+            assertNull(item.getResult());
+            assertNotNull(item.getException());
+         } else {
+            assertTrue(item.isSuccess());
+            final Composition expected = mQuant.compute(new NoisySpectrum(mUnknown, 1.0, 1000 + (i < 5 ? i : i - 1))).getComposition();
+            assertSame(expected, item.getResult().getComposition());
+            assertEquals(0.187, expected.weightFraction(Element.Si, false), 0.01);
+            assertNotNull(item.getUnknown().getProperties().getCompositionWithDefault(SpectrumProperties.MicroanalyticalComposition, null));
+            assertNotNull(item.getResult().getResidual());
+         }
+      }
+   }
+
+   /**
+    * A failure while submitting the unknowns is thrown from quantify(...)
+    * rather than returning the partial list.
+    */
+   public void testQuantifyFailure() throws EPQException {
+      final List<ISpectrumData> unks = unknowns(4);
+      unks.add(2, null);
+      try {
+         new QuantifyUsingStandardsBatch(mQuant, 2, 1).quantify(unks);
+         fail();
+      } catch (final NullPointerException e) {
+         // Expected
+      }
+      final Iterable<ISpectrumData> failing = new Iterable<ISpectrumData>() {
+         @Override
+         public Iterator<ISpectrumData> iterator() {
+            final Iterator<ISpectrumData> it = unknowns(3).iterator();
+            return new Iterator<ISpectrumData>() {
+               @Override
+               public boolean hasNext() {
+                  return true;
+               }
+
+               @Override
+               public ISpectrumData next() {
+                  if (!it.hasNext())
+                     throw new IllegalStateException("Unable to read the next unknown.");
+                  return it.next();
+               }
+            };
+         }
+      };
+      try {
+         new QuantifyUsingStandardsBatch(mQuant, 2, 1).quantify(failing);
+         fail();
+      } catch (final IllegalStateException e) {
+         assertEquals("Unable to read the next unknown.", e.getMessage());
+      }
+   }
+
+   public void testStream() throws EPQException, InterruptedException {
+      final QuantifyUsingStandardsBatch batch = new QuantifyUsingStandardsBatch(mQuant, 2, 1);
+      final List<ISpectrumData> unks = unknowns(5);
+      final List<Item> items = new ArrayList<Item>();
+      for (final ISpectrumData unk : unks) {
+         batch.submit(unk);
+         // Keep the result queue from filling
+         if (unks.indexOf(unk) % 2 == 1)
+            items.add(batch.take());
+      }
+      batch.close();
+      for (Item item = batch.take(); item != null; item = batch.take())
+         items.add(item);
+      assertNull(batch.take());
+      assertEquals(unks.size(), items.size());
+      final boolean[] seen = new boolean[unks.size()];
+      for (final Item item : items) {
+         assertTrue(item.isSuccess());
+         assertFalse(seen[(int) item.getIndex()]);
+         seen[(int) item.getIndex()] = true;
+      }
+      try {
+         batch.submit(mUnknown);
+         fail();
+      } catch (final RuntimeException e) {
+         // Expected
+      }
+   }
+
+   /**
+    * Several threads submit unknowns while the batch is closed. Every unknown
+    * which is accepted must be quantified and the rest must be rejected.
+    */
+   public void testSubmitClose() throws EPQException, InterruptedException {
+      final QuantifyUsingStandardsBatch batch = new QuantifyUsingStandardsBatch(mQuant, 2, 2);
+      final AtomicInteger accepted = new AtomicInteger();
+      final AtomicInteger seed = new AtomicInteger(2000);
+      final Thread[] submitters = new Thread[3];
+      for (int i = 0; i < submitters.length; ++i) {
+         submitters[i] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  while (true) {
+                     batch.submit(new NoisySpectrum(mUnknown, 1.0, seed.getAndIncrement()));
+                     accepted.incrementAndGet();
+                  }
+               } catch (final EPQFatalException e) {
+                  // Closed
+               } catch (final InterruptedException e) {
+                  // Cancelled
+               }
+            }
+         });
+         submitters[i].start();
+      }
+      final List<Item> items = new ArrayList<Item>();
+      for (int i = 0; i < 4; ++i)
+         items.add(batch.take());
+      // close() waits for blocked submitters so keep taking on this thread
+      final Thread closer = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            batch.close();
+         }
+      });
+      closer.start();
+      for (Item item = batch.take(); item != null; item = batch.take())
+         items.add(item);
+      closer.join();
+      for (final Thread th : submitters)
+         th.join();
+      assertEquals(accepted.get(), items.size());
+      final boolean[] seen = new boolean[items.size()];
+      for (final Item item : items) {
+         assertTrue(item.isSuccess());
+         assertFalse(seen[(int) item.getIndex()]);
+         seen[(int) item.getIndex()] = true;
+      }
+   }
+}
@@ -0,0 +1,362 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gov.nist.microanalysis.EPQDatabase.Session;
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the Session class against a Derby database in a temporary directory.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class SessionTest extends TestCase {
+
+   private static final int CHANNELS = 256;
+   private static final int THREADS = 4;
+
+   private File mDir;
+   private Session mSession;
+   private EDSDetector mDetector;
+
+   public SessionTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void setUp() throws IOException {
+      mDir = File.createTempFile("Session", "");
+      mDir.delete();
+      mDir.mkdirs();
+      mSession = new Session(new File(mDir, "db").getPath());
+      mDetector = EDSDetector.createSDDDetector(CHANNELS, 10.0, 130.0);
+      mSession.addDetector(mDetector);
+   }
+
+   private static void delete(File f) {
+      final File[] files = f.listFiles();
+      if (files != null)
+         for (final File child : files)
+            delete(child);
+      f.delete();
+   }
+
+   @Override
+   protected void tearDown() {
+      mSession = null;
+      delete(mDir);
+   }
+
+   /**
+    * A synthetic spectrum whose counts depend upon <code>seed</code>.
+    */
+   private ISpectrumData spectrum(int seed) {
+      final double[] counts = new double[CHANNELS];
+      for (int ch = 0; ch < CHANNELS; ++ch)
+         counts[ch] = ((seed + 1) * (ch % 17)) + seed;
+      final ISpectrumData res = SpectrumUtils.applyEDSDetector(mDetector, SpectrumUtils.toSpectrum(10.0, 0.0, counts));
+      res.getProperties().setNumericProperty(SpectrumProperties.BeamEnergy, 20.0);
+      SpectrumUtils.rename(res, "Spectrum " + Integer.toString(seed));
+      return res;
+   }
+
+   private List<ISpectrumData> spectra(int first, int n) {
+      final List<ISpectrumData> res = new ArrayList<ISpectrumData>();
+      for (int i = first; i < first + n; ++i)
+         res.add(spectrum(i));
+      return res;
+   }
+
+   private void assertStored(ISpectrumData expected, int id) throws Exception {
+      final ISpectrumData spec = mSession.readSpectrum(id);
+      assertEquals(expected.toString(), spec.toString());
+      assertEquals(expected.getChannelCount(), spec.getChannelCount());
+      for (int ch = 0; ch < expected.getChannelCount(); ++ch)
+         assertEquals(expected.getCounts(ch), spec.getCounts(ch), 0.0);
+   }
+
+   /**
+    * Each spectrum is written and the IDs increase in the order of the list.
+    */
+   public void testAddSpectra() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, 5);
+      final List<Session.ImportResult> res = mSession.addSpectra(specs, false, 2);
+      assertEquals(specs.size(), res.size());
+      int prev = -1;
+      for (int i = 0; i < res.size(); ++i) {
+         final Session.ImportResult ir = res.get(i);
+         assertSame(specs.get(i), ir.getSpectrum());
+         assertTrue(ir.isImported());
+         assertNull(ir.getError());
+         assertTrue(ir.getId() > prev);
+         prev = ir.getId();
+         assertStored(specs.get(i), ir.getId());
+      }
+      assertTrue(mSession.addSpectra(new ArrayList<ISpectrumData>(), false, 1).isEmpty());
+      try {
+         mSession.addSpectra(specs, false, 0);
+         fail("Accepted zero threads");
+      } catch (final EPQException e) {
+         // Expected
+      }
+   }
+
+   /**
+    * The IDs are matched to the spectra in the order of the list across more
+    * than one batch and progress is reported once per batch.
+    */
+   public void testOrder() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, Session.IMPORT_BATCH_SIZE + 3);
+      final List<ActionEvent> events = new ArrayList<ActionEvent>();
+      final List<Session.ImportResult> res = mSession.addSpectra(specs, false, 4, new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            events.add(e);
+         }
+      });
+      int prev = -1;
+      for (final Session.ImportResult ir : res) {
+         assertTrue(ir.isImported());
+         assertTrue(ir.getId() > prev);
+         prev = ir.getId();
+      }
+      assertStored(specs.get(0), res.get(0).getId());
+      assertStored(specs.get(Session.IMPORT_BATCH_SIZE), res.get(Session.IMPORT_BATCH_SIZE).getId());
+      assertStored(specs.get(specs.size() - 1), res.get(specs.size() - 1).getId());
+      assertEquals(2, events.size());
+      assertEquals(Session.IMPORT_BATCH_SIZE, events.get(0).getID());
+      assertEquals(specs.size(), events.get(1).getID());
+      assertEquals("100%", events.get(1).getActionCommand());
+   }
+
+   /**
+    * Replicas are detected both against the database and within the list
+    * unless forced.
+    */
+   public void testReplicas() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, 2);
+      specs.add(spectrum(0));
+      List<Session.ImportResult> res = mSession.addSpectra(specs, false, 1);
+      assertTrue(res.get(0).isImported());
+      assertTrue(res.get(1).isImported());
+      assertTrue(res.get(2).isDuplicate());
+      assertFalse(res.get(2).isImported());
+      assertEquals(-1, res.get(2).getId());
+      assertTrue(res.get(2).getError() instanceof Session.AlreadyInDatabaseException);
+      // Against the database
+      res = mSession.addSpectra(spectra(1, 2), false, 1);
+      assertTrue(res.get(0).isDuplicate());
+      assertTrue(res.get(1).isImported());
+      try {
+         mSession.addSpectrum(spectrum(2), false);
+         fail("addSpectrum(...) did not detect the replica");
+      } catch (final Session.AlreadyInDatabaseException e) {
+         // Expected
+      }
+      // Unless forced
+      res = mSession.addSpectra(spectra(0, 1), true, 1);
+      assertTrue(res.get(0).isImported());
+      assertStored(specs.get(0), res.get(0).getId());
+   }
+
+   /**
+    * A batch which fails to write is rolled back in its entirety.
+    */
+   public void testRollback() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, 3);
+      // Longer than DISPLAY_NAME permits
+      final StringBuffer sb = new StringBuffer();
+      while (sb.length() <= 1024)
+         sb.append("Too long ");
+      SpectrumUtils.rename(specs.get(1), sb.toString());
+      List<Session.ImportResult> res = mSession.addSpectra(specs, false, 1);
+      for (final Session.ImportResult ir : res) {
+         assertFalse(ir.isImported());
+         assertFalse(ir.isDuplicate());
+         assertEquals(-1, ir.getId());
+         assertNotNull(ir.getError());
+      }
+      // Nothing was committed so these are not replicas
+      res = mSession.addSpectra(spectra(0, 1), false, 1);
+      assertTrue(res.get(0).isImported());
+      assertStored(specs.get(0), res.get(0).getId());
+   }
+
+   /**
+    * A write on another thread during an import waits for the import and so
+    * is not rolled back with a failing batch of the import.
+    */
+   public void testConcurrentWrite() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, Session.IMPORT_BATCH_SIZE + 2);
+      // Longer than DISPLAY_NAME permits so the second batch fails
+      final StringBuffer sb = new StringBuffer();
+      while (sb.length() <= 1024)
+         sb.append("Too long ");
+      SpectrumUtils.rename(specs.get(specs.size() - 1), sb.toString());
+      final List<Thread> writers = new ArrayList<Thread>();
+      final List<Session.ImportResult> res = mSession.addSpectra(specs, false, 2, new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            if (writers.isEmpty()) {
+               final Thread th = new Thread(new Runnable() {
+                  @Override
+                  public void run() {
+                     mSession.addPerson("Concurrent Operator", "");
+                  }
+               });
+               writers.add(th);
+               th.start();
+               try {
+                  // Give the writer the chance to write before the next batch
+                  th.join(500);
+               } catch (final InterruptedException ex) {
+                  Thread.currentThread().interrupt();
+               }
+               assertTrue(th.isAlive());
+            }
+         }
+      });
+      assertTrue(res.get(0).isImported());
+      assertFalse(res.get(specs.size() - 1).isImported());
+      assertEquals(1, writers.size());
+      writers.get(0).join();
+      mSession.invalidateCaches();
+      assertTrue(mSession.getPeople().containsKey("Concurrent Operator"));
+   }
+
+   /**
+    * Repeated queries reuse the cached statement and the least recently used
+    * statement is closed when the cache is full.
+    */
+   public void testStatementCache() throws Exception {
+      final Composition fe = new Composition(Element.Fe);
+      final int id = mSession.addMeasurement(fe);
+      mSession.resetQueryCounts();
+      assertEquals(id, mSession.find(fe, Session.ElementDataTypes.MEASURED_COMPOSITION));
+      assertEquals(id, mSession.find(fe, Session.ElementDataTypes.MEASURED_COMPOSITION));
+      assertEquals(1, mSession.getStatementsPrepared());
+      assertEquals(1, mSession.getStatementsReused());
+      assertEquals(Long.valueOf(2), mSession.getQueryCounts().get("find(Composition)"));
+      // One statement per element set; Fe (Z=26) was used least recently
+      // when the cache overflows.
+      for (int z = 1; z <= Session.STATEMENT_CACHE_SIZE + 1; ++z)
+         if (z != Element.Fe.getAtomicNumber())
+            assertEquals(-1, mSession.find(new Composition(Element.byAtomicNumber(z)), Session.ElementDataTypes.MEASURED_COMPOSITION));
+      assertEquals(Session.STATEMENT_CACHE_SIZE + 1, mSession.getStatementsPrepared());
+      assertEquals(1, mSession.getStatementsReused());
+      // The most recent statement is still cached...
+      mSession.find(new Composition(Element.byAtomicNumber(Session.STATEMENT_CACHE_SIZE + 1)), Session.ElementDataTypes.MEASURED_COMPOSITION);
+      assertEquals(Session.STATEMENT_CACHE_SIZE + 1, mSession.getStatementsPrepared());
+      assertEquals(2, mSession.getStatementsReused());
+      // ...but the least recently used was evicted and is prepared again.
+      assertEquals(id, mSession.find(fe, Session.ElementDataTypes.MEASURED_COMPOSITION));
+      assertEquals(Session.STATEMENT_CACHE_SIZE + 2, mSession.getStatementsPrepared());
+      mSession.resetQueryCounts();
+      assertEquals(0, mSession.getStatementsPrepared());
+      assertTrue(mSession.getQueryCounts().isEmpty());
+   }
+
+   /**
+    * The table caches are read once and re-read after invalidateCaches().
+    */
+   public void testInvalidateCaches() throws Exception {
+      final Composition std = new Composition(new Element[] {
+         Element.Si,
+         Element.O
+      }, new double[] {
+         0.4674,
+         0.5326
+      }, "Quartz");
+      final int id = mSession.addStandard(std);
+      mSession.addPerson("Anne Operator", "");
+      mSession.resetQueryCounts();
+      assertTrue(mSession.getPeople().containsKey("Anne Operator"));
+      assertTrue(mSession.getPeople().containsKey("Anne Operator"));
+      assertEquals(id, mSession.find(std, Session.ElementDataTypes.STANDARD_COMPOSITION));
+      assertEquals(id, mSession.find(std, Session.ElementDataTypes.STANDARD_COMPOSITION));
+      Map<String, Long> counts = mSession.getQueryCounts();
+      assertNull(counts.get("getPeople"));
+      assertEquals(Long.valueOf(1), counts.get("find(Composition)"));
+      mSession.invalidateCaches();
+      assertTrue(mSession.getPeople().containsKey("Anne Operator"));
+      assertEquals(id, mSession.find(std, Session.ElementDataTypes.STANDARD_COMPOSITION));
+      assertEquals(1, mSession.getDetectors().size());
+      counts = mSession.getQueryCounts();
+      assertEquals(Long.valueOf(1), counts.get("getPeople"));
+      assertEquals(Long.valueOf(2), counts.get("find(Composition)"));
+   }
+
+   /**
+    * Spectra are read and compositions found on several threads at once. The
+    * finds share the cached statements.
+    */
+   public void testThreads() throws Exception {
+      final List<ISpectrumData> specs = spectra(0, 8);
+      final Composition[] comps = new Composition[specs.size()];
+      for (int i = 0; i < comps.length; ++i) {
+         comps[i] = new Composition(new Element[] {
+            Element.Fe,
+            Element.Ni
+         }, new double[] {
+            0.5 + (0.01 * i),
+            0.5 - (0.01 * i)
+         });
+      }
+      final List<Session.ImportResult> res = mSession.addSpectra(specs, false, 2);
+      final int[] ids = new int[comps.length];
+      for (int i = 0; i < ids.length; ++i)
+         ids[i] = mSession.addMeasurement(comps[i]);
+      final ExecutorService es = Executors.newFixedThreadPool(THREADS);
+      try {
+         final List<Future<Boolean>> futs = new ArrayList<Future<Boolean>>();
+         for (int t = 0; t < THREADS; ++t) {
+            final int offset = t;
+            futs.add(es.submit(new Callable<Boolean>() {
+               @Override
+               public Boolean call() throws Exception {
+                  for (int rep = 0; rep < 10; ++rep)
+                     for (int j = 0; j < comps.length; ++j) {
+                        final int i = (j + offset) % comps.length;
+                        assertEquals(ids[i], mSession.find(comps[i], Session.ElementDataTypes.MEASURED_COMPOSITION));
+                        final ISpectrumData spec = mSession.readSpectrum(res.get(i).getId());
+                        assertEquals(specs.get(i).toString(), spec.toString());
+                        assertEquals(specs.get(i).getCounts(i), spec.getCounts(i), 0.0);
+                     }
+                  return Boolean.TRUE;
+               }
+            }));
+         }
+         for (final Future<Boolean> fut : futs)
+            assertTrue(fut.get().booleanValue());
+      } finally {
+         es.shutdown();
+      }
+   }
+}
@@ -0,0 +1,197 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumProperties;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import gov.nist.microanalysis.EPQTools.EdaxSPCSpectrum;
+import gov.nist.microanalysis.EPQTools.SpectrumFile;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the format identification and the parallel import in SpectrumFile.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class SpectrumFileTest extends TestCase {
+
+   private static final String[] SPECTRA = {
+      "Al_ref1.msa",
+      "Albite.spc",
+      "Gold.tif",
+      "K3189_1.msa",
+      "Si_ref1.msa",
+      "gel01.spc"
+   };
+
+   private File mDir;
+
+   public SpectrumFileTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void setUp() throws IOException {
+      mDir = File.createTempFile("SpectrumFile", "");
+      mDir.delete();
+      mDir.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() {
+      final File[] files = mDir.listFiles();
+      if (files != null)
+         for (final File f : files)
+            f.delete();
+      mDir.delete();
+   }
+
+   private static File testData(String name) throws URISyntaxException {
+      return new File(SpectrumFileTest.class.getResource("TestData/" + name).toURI());
+   }
+
+   private static SpectrumFile.Format identify(File file) throws IOException {
+      try (final FileInputStream fis = new FileInputStream(file)) {
+         return SpectrumFile.identify(SpectrumFile.Head.read(file, fis));
+      }
+   }
+
+   private static void assertSameCounts(ISpectrumData expected, ISpectrumData actual) {
+      assertEquals(expected.getChannelCount(), actual.getChannelCount());
+      for (int ch = 0; ch < expected.getChannelCount(); ++ch)
+         assertEquals(expected.getCounts(ch), actual.getCounts(ch), 0.0);
+   }
+
+   public void testIdentify() throws Exception {
+      assertEquals("EMSA", identify(testData("K3189_1.msa")).getName());
+      assertEquals("EDAX SPC", identify(testData("Albite.spc")).getName());
+      assertEquals("ASPEX TIFF", identify(testData("Gold.tif")).getName());
+      final File junk = new File(mDir, "junk.txt");
+      try (final PrintWriter pw = new PrintWriter(junk)) {
+         pw.println("Not a spectrum");
+      }
+      assertNull(identify(junk));
+      assertFalse(SpectrumFile.isInstanceOf(junk));
+      assertTrue(SpectrumFile.isInstanceOf(testData("gel01.spc")));
+   }
+
+   public void testOpen() throws Exception {
+      final File msa = testData("K3189_1.msa");
+      final ISpectrumData[] specs = SpectrumFile.open(msa);
+      assertEquals(1, specs.length);
+      assertSameCounts(new EMSAFile(msa), specs[0]);
+      assertEquals(msa.getAbsolutePath(), specs[0].getProperties().getTextWithDefault(SpectrumProperties.SourceFile, null));
+      // From the contents already in memory
+      for (final String name : SPECTRA) {
+         final File file = testData(name);
+         assertSameCounts(SpectrumFile.open(file)[0], SpectrumFile.open(file, Files.readAllBytes(file.toPath()))[0]);
+      }
+      final File spc = testData("Albite.spc");
+      try (final FileInputStream fis = new FileInputStream(spc)) {
+         assertSameCounts(new EdaxSPCSpectrum(fis), SpectrumFile.open(spc, 0));
+      }
+      try {
+         SpectrumFile.open(spc, 1);
+         fail("EDAX files contain a single spectrum.");
+      } catch (final EPQException e) {
+         // Expected
+      }
+   }
+
+   public void testOpenDirectory() throws Exception {
+      for (final String name : SPECTRA)
+         Files.copy(testData(name).toPath(), new File(mDir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      Files.write(new File(mDir, "aaa.txt").toPath(), "Not a spectrum".getBytes(StandardCharsets.US_ASCII));
+      Files.write(new File(mDir, "broken.msa").toPath(), "#FORMAT : EMSA/MAS Spectral Data File\n#SPECTRUM : \n1.0, x\n".getBytes(StandardCharsets.US_ASCII));
+      final List<SpectrumFile.Imported> imps = SpectrumFile.openDirectory(mDir, 3);
+      final List<String> names = new ArrayList<String>();
+      for (final SpectrumFile.Imported imp : imps) {
+         assertFalse(imp.isUnrecognized());
+         names.add(imp.getFile().getName());
+      }
+      final List<String> expected = new ArrayList<String>(Arrays.asList(SPECTRA));
+      expected.add("broken.msa");
+      java.util.Collections.sort(expected);
+      assertEquals(expected, names);
+      for (final SpectrumFile.Imported imp : imps)
+         if (!imp.getFile().getName().equals("broken.msa")) {
+            assertNull(imp.getError());
+            assertEquals(1, imp.getSpectra().length);
+            assertSameCounts(SpectrumFile.open(imp.getFile())[0], imp.getSpectra()[0]);
+         }
+      // The serial and parallel imports agree and unrecognized files are
+      // reported by open(List, int)
+      final List<File> files = Arrays.asList(new File(mDir, "aaa.txt"), new File(mDir, "gel01.spc"));
+      final List<SpectrumFile.Imported> res = SpectrumFile.open(files, 1);
+      assertTrue(res.get(0).isUnrecognized());
+      assertNotNull(res.get(0).getError());
+      assertEquals("EDAX SPC", res.get(1).getFormat().getName());
+   }
+
+   /**
+    * A registered format is identified from the head and reads the entire
+    * file, including the part beyond the head, from the supplied stream.
+    */
+   public void testRegister() throws Exception {
+      final String magic = "#SpectrumFileTest";
+      SpectrumFile.register(new SpectrumFile.Format() {
+         @Override
+         public String getName() {
+            return "Test";
+         }
+
+         @Override
+         public boolean matches(SpectrumFile.Head head) {
+            return head.startsWith(magic.getBytes(StandardCharsets.US_ASCII));
+         }
+
+         @Override
+         public ISpectrumData[] read(SpectrumFile.Head head, InputStream is) throws IOException {
+            final String[] lines = new String(is.readAllBytes(), StandardCharsets.US_ASCII).split("\n");
+            assertEquals(magic, lines[0]);
+            final double[] counts = new double[lines.length - 1];
+            for (int i = 1; i < lines.length; ++i)
+               counts[i - 1] = Double.parseDouble(lines[i]);
+            return new ISpectrumData[] {
+               SpectrumUtils.toSpectrum(10.0, 0.0, counts)
+            };
+         }
+      });
+      final int nCh = 4096;
+      final File file = new File(mDir, "test.tst");
+      final StringBuffer sb = new StringBuffer(magic);
+      for (int ch = 0; ch < nCh; ++ch)
+         sb.append("\n" + Integer.toString(ch % 97));
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+      assertTrue(file.length() > SpectrumFile.HEAD_SIZE);
+      final ISpectrumData spec = SpectrumFile.open(file, 0);
+      assertEquals(nCh, spec.getChannelCount());
+      for (int ch = 0; ch < nCh; ++ch)
+         assertEquals(ch % 97, spec.getCounts(ch), 0.0);
+      assertEquals("Test", SpectrumFile.getFormats().get(SpectrumFile.getFormats().size() - 1).getName());
+   }
+}
@@ -0,0 +1,158 @@
+package gov.nist.microanalysis.EPQTests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import gov.nist.microanalysis.EPQLibrary.Composition;
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
+import gov.nist.microanalysis.EPQLibrary.SpectrumFitter8;
+import gov.nist.microanalysis.EPQLibrary.SpectrumFitter8.AltEnergyScaleFunction;
+import gov.nist.microanalysis.EPQLibrary.SpectrumFitter8.EnergyScaleFunction;
+import gov.nist.microanalysis.EPQLibrary.SpectrumFitter8.FanoNoiseWidth;
+import gov.nist.microanalysis.EPQLibrary.SpectrumFitter8.MultiLineset;
+import gov.nist.microanalysis.EPQLibrary.SpectrumUtils;
+import gov.nist.microanalysis.EPQLibrary.Detector.EDSDetector;
+import gov.nist.microanalysis.EPQTools.EMSAFile;
+import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.CompiledFunction;
+import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.InvertableFunction;
+import gov.nist.microanalysis.Utility.LevenbergMarquardtParameterized.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares the compiled form of the SpectrumFitter8 fit functions with the
+ * Map&lt;Parameter, Double&gt; form.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class SpectrumFitter8Test extends TestCase {
+
+   private final Random mRandom = new Random(0x5F8);
+
+   public SpectrumFitter8Test(String test) {
+      super(test);
+   }
+
+   private static ISpectrumData read(String name) throws IOException {
+      final EMSAFile spec = new EMSAFile();
+      spec.read(SpectrumFitter8Test.class.getResourceAsStream(name));
+      return spec;
+   }
+
+   private SpectrumFitter8 build(InvertableFunction scale, boolean incomplete) throws IOException, EPQException {
+      final ISpectrumData spec = read("TestData/K3189_1.msa");
+      final EDSDetector det = EDSDetector.createSiLiDetector(spec.getChannelCount(), spec.getChannelWidth(),
+            SpectrumUtils.getFWHMAtMnKA(spec, 135.0));
+      final Composition comp = new Composition(new Element[]{Element.O, Element.Mg, Element.Al, Element.Si, Element.Ca, Element.Ti, Element.Fe},
+            new double[]{0.42, 0.1, 0.05, 0.2, 0.11, 0.02, 0.1});
+      final SpectrumFitter8 sf8 = new SpectrumFitter8(det, comp, spec);
+      sf8.setFitIncompleteCharge(incomplete);
+      sf8.setEnergyScale(scale);
+      sf8.setResolution(new FanoNoiseWidth(2, 0.12, 6.0));
+      sf8.setMultiLineset(sf8.buildWeighted(sf8.getROIS()));
+      return sf8;
+   }
+
+   private void compare(SpectrumFitter8 sf8) {
+      final MultiLineset mls = sf8.getMultiLineset();
+      final List<Parameter> params = new ArrayList<Parameter>(mls.getParameters(false));
+      final Map<Parameter, Integer> slots = new HashMap<Parameter, Integer>();
+      for (int i = 0; i < params.size(); ++i)
+         slots.put(params.get(i), Integer.valueOf(i));
+      final CompiledFunction cf = mls.compile(slots);
+      assertNotNull(cf);
+      final int[] fit = cf.getSlots();
+      assertEquals(params.size(), fit.length);
+      final double[] dfdp = new double[fit.length];
+      for (int trial = 0; trial < 3; ++trial) {
+         // Perturb the parameters about their default values
+         final double[] values = new double[params.size()];
+         final Map<Parameter, Double> map = new HashMap<Parameter, Double>();
+         for (int i = 0; i < values.length; ++i) {
+            final Parameter p = params.get(i);
+            values[i] = p.getName().startsWith("Incomplete") ? 0.05 * mRandom.nextDouble()
+                  : p.getDefaultValue() * (1.0 + (0.02 * (mRandom.nextDouble() - 0.5)));
+            map.put(p, Double.valueOf(values[i]));
+         }
+         cf.update(values);
+         for (int ch = 10; ch < 1200; ch += 3) {
+            final double expected = mls.compute(ch, map);
+            assertEquals(expected, cf.compute(ch), 1.0e-10 * Math.max(1.0, Math.abs(expected)));
+            cf.partials(ch, dfdp);
+            for (int i = 0; i < fit.length; ++i) {
+               final double d = mls.derivative(ch, map, params.get(fit[i]));
+               assertEquals(params.get(fit[i]).getName(), d, dfdp[i], 1.0e-9 * Math.max(1.0, Math.abs(d)));
+            }
+         }
+      }
+   }
+
+   /**
+    * Both forms truncate the line shapes at the same width so far from the
+    * lines they must agree exactly rather than to within an absolute
+    * tolerance.
+    */
+   private void compareTails(SpectrumFitter8 sf8) {
+      final MultiLineset mls = sf8.getMultiLineset();
+      final List<Parameter> params = new ArrayList<Parameter>(mls.getParameters(false));
+      final Map<Parameter, Integer> slots = new HashMap<Parameter, Integer>();
+      final Map<Parameter, Double> map = new HashMap<Parameter, Double>();
+      final double[] values = new double[params.size()];
+      for (int i = 0; i < values.length; ++i) {
+         final Parameter p = params.get(i);
+         slots.put(p, Integer.valueOf(i));
+         values[i] = p.getName().startsWith("Incomplete") ? 0.02 : p.getDefaultValue();
+         map.put(p, Double.valueOf(values[i]));
+      }
+      final CompiledFunction cf = mls.compile(slots);
+      cf.update(values);
+      final int[] fit = cf.getSlots();
+      final double[] dfdp = new double[fit.length];
+      int zeros = 0;
+      for (int ch = 0; ch < 2048; ++ch) {
+         final double expected = mls.compute(ch, map);
+         final double actual = cf.compute(ch);
+         assertEquals(Integer.toString(ch), expected == 0.0, actual == 0.0);
+         assertEquals(Integer.toString(ch), expected, actual, 1.0e-10 * Math.abs(expected));
+         if (expected == 0.0)
+            ++zeros;
+         cf.partials(ch, dfdp);
+         for (int i = 0; i < fit.length; ++i) {
+            final double d = mls.derivative(ch, map, params.get(fit[i]));
+            assertEquals(params.get(fit[i]).getName() + "[" + ch + "]", d == 0.0, dfdp[i] == 0.0);
+         }
+      }
+      // There must be channels beyond the truncation for this to test anything
+      assertTrue(zeros > 0);
+   }
+
+   public void testTruncation() throws IOException, EPQException {
+      final double[] coeff = new double[]{0.0, 10.0};
+      compareTails(build(new EnergyScaleFunction(coeff, new boolean[]{true, true}), false));
+      compareTails(build(new EnergyScaleFunction(coeff, new boolean[]{true, true}), true));
+      compareTails(build(new AltEnergyScaleFunction(coeff), true));
+   }
+
+   public void testCompiled() throws IOException, EPQException {
+      final double[] coeff = new double[]{0.0, 10.0};
+      compare(build(new EnergyScaleFunction(coeff, new boolean[]{true, true}), false));
+      compare(build(new EnergyScaleFunction(new double[]{0.0, 10.0, 1.0e-6}, new boolean[]{false, true, true}), true));
+      compare(build(new AltEnergyScaleFunction(coeff), false));
+      compare(build(new AltEnergyScaleFunction(coeff), true));
+   }
+}
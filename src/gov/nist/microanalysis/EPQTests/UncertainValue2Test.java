@@ -1,7 +1,10 @@
 package gov.nist.microanalysis.EPQTests;
 
+import java.io.InputStream;
 import java.text.DecimalFormat;
+import java.util.List;
 
+import gov.nist.microanalysis.EPQTools.EPQXStream;
 import gov.nist.microanalysis.Utility.MCUncertaintyEngine;
 import gov.nist.microanalysis.Utility.UncertainValue2;
 import gov.nist.microanalysis.Utility.UncertainValueMC;
@@ -331,4 +334,87 @@ public class UncertainValue2Test extends TestCase {
       }
 
    }
+
+   public void testFused() {
+      final UncertainValue2 a = new UncertainValue2(1.1, "A", 0.1);
+      final UncertainValue2 b = new UncertainValue2(2.3, "B", 0.2);
+      final UncertainValue2 c = new UncertainValue2(-3.6, "A", 0.15);
+      final UncertainValue2 mad = UncertainValue2.multiplyDivide(a, b, c);
+      final UncertainValue2 md = UncertainValue2.divide(UncertainValue2.multiply(a, b), c);
+      assertEquals(md, mad, 1.0e-12);
+      assertEquals(md.getComponent("A"), mad.getComponent("A"), 1.0e-12);
+      assertEquals(md.getComponent("B"), mad.getComponent("B"), 1.0e-12);
+      final double[] w = {2.0, -1.0, 0.5};
+      final UncertainValue2 ws = UncertainValue2.weightedSum(w, new UncertainValue2[]{a, b, c});
+      final UncertainValue2 sum = UncertainValue2.add(1.0, UncertainValue2.add(2.0, a, -1.0, b), 0.5, c);
+      assertEquals(sum, ws, 1.0e-12);
+      assertEquals(sum.getComponent("A"), ws.getComponent("A"), 1.0e-12);
+      assertTrue(Double.isInfinite(UncertainValue2.multiplyDivide(a, b, UncertainValue2.ZERO).doubleValue()));
+      assertTrue(UncertainValue2.multiplyDivide(UncertainValue2.ZERO, b, UncertainValue2.ZERO).isNaN());
+   }
+
+   public void testComponents() throws Exception {
+      // Anonymous sources round-trip through their names
+      final UncertainValue2 a = new UncertainValue2(2.0, 0.1);
+      final String name = a.getComponentNames().iterator().next();
+      assertTrue(name.startsWith(UncertainValue2.DEFAULT));
+      final UncertainValue2 a2 = new UncertainValue2(3.0, a.getComponents());
+      assertTrue(a2.hasComponent(name));
+      // ...and remain 100% correlated with the original
+      assertEquals(0.0, UncertainValue2.subtract(a2, a).uncertainty(), 1.0e-12);
+      assertEquals(0.2, UncertainValue2.add(a2, a).uncertainty(), 1.0e-12);
+      assertFalse(new UncertainValue2(2.0, 0.0).isUncertain());
+      // Assign, replace and remove
+      final UncertainValue2 b = new UncertainValue2(1.0);
+      b.assignComponent("Z", 0.3);
+      b.assignComponent("Y", -0.2);
+      b.assignComponent("X", 0.1);
+      b.assignComponent("Z", 0.4);
+      assertEquals("1.000±0.100(X)±0.200(Y)±0.400(Z)", b.formatLong(new DecimalFormat("0.000")));
+      b.assignComponent("Y", 0.0);
+      assertFalse(b.hasComponent("Y"));
+      assertFalse(b.hasComponent("Never used"));
+      assertEquals(0.0, b.getComponent("Never used"), 0.0);
+      b.renameComponent("X", "W");
+      assertEquals(0.1, b.getComponent("W"), 0.0);
+      assertEquals(Math.sqrt(0.17), b.uncertainty(), 1.0e-12);
+      // Serialization
+      final java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+      try (final java.io.ObjectOutputStream oos = new java.io.ObjectOutputStream(bos)) {
+         oos.writeObject(b);
+      }
+      try (final java.io.ObjectInputStream ois = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(bos.toByteArray()))) {
+         final UncertainValue2 b2 = (UncertainValue2) ois.readObject();
+         assertEquals(b, b2);
+         assertEquals(b.hashCode(), b2.hashCode());
+      }
+   }
+
+   public void testLegacyXML() throws Exception {
+      // Written by EPQXStream when the components were stored in a TreeMap
+      final List<?> items;
+      try (final InputStream is = UncertainValue2Test.class.getResourceAsStream("TestData/UncertainValue2.xml")) {
+         items = (List<?>) EPQXStream.getInstance().fromXML(is);
+      }
+      assertEquals(5, items.size());
+      final UncertainValue2 fe = (UncertainValue2) items.get(0);
+      assertEquals(0.7, fe.doubleValue(), 0.0);
+      assertEquals(0.01, fe.getComponent("Fe-std"), 0.0);
+      assertEquals(0.002, fe.getComponent("Counting"), 0.0);
+      assertEquals(0.003, ((UncertainValue2) items.get(1)).getComponent("Default7"), 0.0);
+      final UncertainValue2 prod = (UncertainValue2) items.get(2);
+      assertEquals(0.13999999999999999, prod.doubleValue(), 0.0);
+      assertEquals(0.0034999999999999996, prod.getComponent("Cr-std"), 0.0);
+      assertEquals(3, prod.getComponents().size());
+      assertFalse(((UncertainValue2) items.get(3)).isUncertain());
+      assertSame(fe, items.get(4));
+      // Components with the same name remain correlated
+      assertEquals(0.0, UncertainValue2.subtract(fe, new UncertainValue2(0.7, fe.getComponents())).uncertainty(), 0.0);
+      // Round trip
+      final String xml = EPQXStream.getInstance().toXML(items);
+      final List<?> items2 = (List<?>) EPQXStream.getInstance().fromXML(xml);
+      assertEquals(items, items2);
+      assertSame(items2.get(0), items2.get(4));
+      assertEquals(xml, EPQXStream.getInstance().toXML(items2));
+   }
 };
\ No newline at end of file
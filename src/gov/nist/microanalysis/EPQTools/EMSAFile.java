@@ -556,21 +556,31 @@ public class EMSAFile extends BaseSpectrum {
       try (final InputStream is = new FileInputStream(file)) {
          read(is);
          setFilename(file.getCanonicalPath());
-         if (withImgs) {
-            try {
-               final String imgRef = getProperties().getTextWithDefault(SpectrumProperties.ImageRef, null);
-               if (imgRef != null) {
-                  final File fn = new File(file.getParentFile(), imgRef);
-                  final BufferedImage[] sis = ASPEXImage.read(fn);
-                  if (sis.length > 0)
-                     getProperties().setObjectProperty(SpectrumProperties.MicroImage, sis[0]);
-                  if (sis.length > 1)
-                     getProperties().setObjectProperty(SpectrumProperties.MicroImage2, sis[1]);
-               }
-            } catch (Exception e) {
-               e.printStackTrace();
-            }
+         if (withImgs)
+            readImages(file);
+      }
+   }
+
+   /**
+    * Reads the images referenced by the ImageRef property (if any). The image
+    * file is located relative to the spectrum file.
+    *
+    * @param file
+    *           The file from which this spectrum was read
+    */
+   void readImages(File file) {
+      try {
+         final String imgRef = getProperties().getTextWithDefault(SpectrumProperties.ImageRef, null);
+         if (imgRef != null) {
+            final File fn = new File(file.getParentFile(), imgRef);
+            final BufferedImage[] sis = ASPEXImage.read(fn);
+            if (sis.length > 0)
+               getProperties().setObjectProperty(SpectrumProperties.MicroImage, sis[0]);
+            if (sis.length > 1)
+               getProperties().setObjectProperty(SpectrumProperties.MicroImage2, sis[1]);
          }
+      } catch (Exception e) {
+         e.printStackTrace();
       }
    }
 
@@ -5,13 +5,20 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.ConverterLookup;
+import com.thoughtworks.xstream.converters.Converter;
 import com.thoughtworks.xstream.converters.ConverterRegistry;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.thoughtworks.xstream.security.*;
 
@@ -47,6 +54,73 @@ public class EPQXStream extends XStream {
 
    private static EPQXStream mInstance = null;
 
+   /**
+    * Reads and writes UncertainValue2 in the form XStream used when the
+    * components were stored in a TreeMap&lt;String,Double&gt; named mSigmas.
+    * This keeps the XML independent of the internal representation so files
+    * written by earlier versions still load (and vice versa).
+    */
+   private static class UncertainValue2Converter implements Converter {
+
+      @Override
+      @SuppressWarnings("rawtypes")
+      public boolean canConvert(Class type) {
+         return type == UncertainValue2.class;
+      }
+
+      @Override
+      public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+         final UncertainValue2 uv = (UncertainValue2) source;
+         writer.startNode("mValue");
+         writer.setValue(Double.toString(uv.doubleValue()));
+         writer.endNode();
+         writer.startNode("mSigmas");
+         for (final Map.Entry<String, Double> me : uv.getComponents().entrySet()) {
+            writer.startNode("entry");
+            writer.startNode("string");
+            writer.setValue(me.getKey());
+            writer.endNode();
+            writer.startNode("double");
+            writer.setValue(me.getValue().toString());
+            writer.endNode();
+            writer.endNode();
+         }
+         writer.endNode();
+      }
+
+      @Override
+      public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+         double value = Double.NaN;
+         final TreeMap<String, Double> sigmas = new TreeMap<String, Double>();
+         while (reader.hasMoreChildren()) {
+            reader.moveDown();
+            if (reader.getNodeName().equals("mValue"))
+               value = Double.parseDouble(reader.getValue());
+            else if (reader.getNodeName().equals("mSigmas"))
+               while (reader.hasMoreChildren()) {
+                  reader.moveDown();
+                  if (reader.getNodeName().equals("entry")) {
+                     String name = null;
+                     double sigma = 0.0;
+                     while (reader.hasMoreChildren()) {
+                        reader.moveDown();
+                        if (reader.getNodeName().equals("string"))
+                           name = reader.getValue();
+                        else if (reader.getNodeName().equals("double"))
+                           sigma = Double.parseDouble(reader.getValue());
+                        reader.moveUp();
+                     }
+                     if (name != null)
+                        sigmas.put(name, Double.valueOf(sigma));
+                  }
+                  reader.moveUp();
+               }
+            reader.moveUp();
+         }
+         return new UncertainValue2(value, sigmas);
+      }
+   }
+
    public static EPQXStream getInstance() {
       if (mInstance == null)
          mInstance = new EPQXStream();
@@ -109,6 +183,7 @@ public class EPQXStream extends XStream {
       alias("StandardBlock2", StandardsDatabase2.StandardBlock2.class);
       alias("UncertainValue", UncertainValue.class);
       alias("UncertainValue2", UncertainValue2.class);
+      registerConverter(new UncertainValue2Converter());
       alias("Vector", Vector.class);
       alias("VectorSet", VectorSet.class);
       alias("XRayTransition", XRayTransition.class);
@@ -3,6 +3,7 @@ package gov.nist.microanalysis.EPQTools;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -74,8 +75,52 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
       return path.substring(st, end);
    }
 
+   /**
+    * Tracks the offset into the file so that the fixed layout can be navigated
+    * without a FileChannel.
+    */
+   private static class PositionInputStream extends FilterInputStream {
+      private long mPosition;
+
+      private PositionInputStream(InputStream is) {
+         super(is);
+      }
+
+      @Override
+      public int read() throws IOException {
+         final int res = super.read();
+         if (res >= 0)
+            ++mPosition;
+         return res;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         final int res = super.read(b, off, len);
+         if (res > 0)
+            mPosition += res;
+         return res;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         final long res = super.skip(n);
+         mPosition += res;
+         return res;
+      }
+
+      private long position() {
+         return mPosition;
+      }
+   }
+
    public EdaxSPCSpectrum(FileInputStream is) throws EPQException, IOException {
-      try (final LEDataInputStream dis = new LEDataInputStream(is)) {
+      this((InputStream) is);
+   }
+
+   public EdaxSPCSpectrum(InputStream is) throws EPQException, IOException {
+      final PositionInputStream pis = new PositionInputStream(is);
+      try (final LEDataInputStream dis = new LEDataInputStream(pis)) {
          final float version = dis.readFloat();
          float f;
          if ((version < MIN_VERSION) || (version > MAX_VERSION))
@@ -99,7 +144,7 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
          dis.readInt(); // data start
          mData = new int[dis.readShort()];
          dis.skipBytes(64 - (32 + 2));
-         assert dis.getChannel().position() == 64;
+         assert pis.position() == 64;
          {
             final String desc = readString(dis, 40);
             if (desc.length() > 0)
@@ -113,15 +158,15 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
          dis.skipBytes(8);
          mProperties.setNumericProperty(SpectrumProperties.BeamSpotX, dis.readShort());
          mProperties.setNumericProperty(SpectrumProperties.BeamSpotY, dis.readShort());
-         dis.skipBytes(442 - (int) dis.getChannel().position());
-         assert dis.getChannel().position() == 442;
+         dis.skipBytes(442 - (int) pis.position());
+         assert pis.position() == 442;
          // mProperties.setTextProperty(SpectrumProperties.SpectrumClass, val)
          dis.readShort(); // escape peaks removed ->1 else 0
          dis.readInt(); // analyzer type
          final double offset = dis.readFloat();
          final double scale = (1000.0 * (dis.readFloat() - offset)) / mData.length;
          setEnergyScale(offset, scale);
-         assert dis.getChannel().position() == 456;
+         assert pis.position() == 456;
          mProperties.setNumericProperty(SpectrumProperties.LiveTime, dis.readFloat());
          final StageCoordinate sc = new StageCoordinate();
          sc.set(Axis.T, dis.readFloat());
@@ -132,7 +177,7 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
             mProperties.setNumericProperty(SpectrumProperties.ProbeCurrent, f);
          mProperties.setNumericProperty(SpectrumProperties.Resolution, dis.readFloat());
          final String[] types = {"std", "UTW", "Super UTW", "ECON 3/4 Open", "ECON 3/4 Closed", "Econ 5/6 Open", "Econ 5/6 Closed", "TEMECON"};
-         assert dis.getChannel().position() == 476;
+         assert pis.position() == 476;
          final int tmp = dis.readInt() - 1;
          mProperties.setTextProperty(SpectrumProperties.DetectorDescription, (tmp >= 0) && (tmp < types.length) ? types[tmp] : "unknown");
          f = dis.readFloat();
@@ -163,13 +208,13 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
             final double NOM_WD = 0.04;
             mProperties.setDetectorPosition(elev, az, NOM_DISTANCE, NOM_WD);
          }
-         // assert dis.getChannel().position() == 516;
-         dis.skipBytes(532 - (int) dis.getChannel().position());
+         // assert pis.position() == 516;
+         dis.skipBytes(532 - (int) pis.position());
          mProperties.setNumericProperty(SpectrumProperties.BeamEnergy, dis.readFloat());
-         dis.skipBytes(576 - (int) dis.getChannel().position());
+         dis.skipBytes(576 - (int) pis.position());
          mProperties.setTextProperty(SpectrumProperties.Instrument, dis.readShort() == 1 ? "TEM" : "SEM");
-         dis.skipBytes(638 - (int) dis.getChannel().position());
-         assert dis.getChannel().position() == 638;
+         dis.skipBytes(638 - (int) pis.position());
+         assert pis.position() == 638;
          {
             final int nElm = dis.readShort();
             final TreeSet<Element> elms = new TreeSet<Element>();
@@ -178,15 +223,15 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
                if ((i < nElm) && (Element.isValid(z)))
                   elms.add(Element.byAtomicNumber(z));
             }
-            dis.skipBytes(1342 - (int) dis.getChannel().position());
+            dis.skipBytes(1342 - (int) pis.position());
             if (elms.size() > 0)
                mProperties.setTextProperty(SpectrumProperties.ElementList, elms.toString());
          }
-         assert dis.getChannel().position() == 1342;
+         assert pis.position() == 1342;
          // Skip rois, background, conc, labels, background pcts
-         dis.skipBytes(3096 - (int) dis.getChannel().position());
+         dis.skipBytes(3096 - (int) pis.position());
          {
-            assert dis.getChannel().position() == 3096;
+            assert pis.position() == 3096;
             final int numConcen = dis.readShort();
             assert numConcen < 24;
             final int[] z = new int[24];
@@ -203,8 +248,8 @@ public class EdaxSPCSpectrum extends BaseSpectrum {
                mProperties.setCompositionProperty(SpectrumProperties.MicroanalyticalComposition, comp);
             }
          }
-         dis.skipBytes(3840 - (int) dis.getChannel().position());
-         assert dis.getChannel().position() == 3840;
+         dis.skipBytes(3840 - (int) pis.position());
+         assert pis.position() == 3840;
          // Read spectral data
          for (int i = 0; i < mData.length; ++i)
             mData[i] = dis.readInt();
@@ -0,0 +1,452 @@
+package gov.nist.microanalysis.EPQTools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * A read-only, memory-mapped view of the data in a LISPIX-style Ripple file
+ * (rpl/raw). Unlike RippleFile, which reads each datum through a
+ * RandomAccessFile, MappedRippleFile maps the raw file into memory and reads
+ * whole spectra or whole planes at a time through typed buffer views. The byte
+ * order is handled by the views rather than by swapping bytes. Both "vector"
+ * (spectrum by spectrum) and "image" (plane by plane) ordered files are
+ * supported.
+ * </p>
+ * <p>
+ * A single mapping is limited to 2 GB so larger files are mapped as a series
+ * of segments. Each segment holds a whole number of records (spectra for
+ * vector ordered files and plane rows for image ordered files) so a record
+ * never straddles two segments.
+ * </p>
+ * <p>
+ * All reads are absolute so a MappedRippleFile may be read concurrently by
+ * multiple threads. The mappings are released when the MappedRippleFile is
+ * garbage collected.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class MappedRippleFile implements AutoCloseable {
+
+   /**
+    * The maximum number of bytes in a single mapping.
+    */
+   public static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+   private static final int INT8 = 0;
+   private static final int UINT8 = 1;
+   private static final int INT16 = 2;
+   private static final int UINT16 = 3;
+   private static final int INT32 = 4;
+   private static final int UINT32 = 5;
+   private static final int FLOAT32 = 6;
+   private static final int FLOAT64 = 7;
+
+   private final String mRawFilename;
+   private final int mWidth;
+   private final int mHeight;
+   private final int mDepth;
+   private final int mByteDepth;
+   private final String mDataType;
+   private final String mRecordBy;
+   private final ByteOrder mByteOrder;
+   private final int mKind;
+   // Number of data items per segment (a whole number of records)
+   private final long mSegmentItems;
+   // The typed views of each segment (only the one matching mKind is used)
+   private ByteBuffer[] mBytes;
+   private ShortBuffer[] mShorts;
+   private IntBuffer[] mInts;
+   private FloatBuffer[] mFloats;
+   private DoubleBuffer[] mDoubles;
+
+   /**
+    * Maps the raw file associated with the specified Ripple header file. The
+    * name of the raw file is inferred as in RippleFile(String, boolean).
+    *
+    * @param rplFile
+    * @throws Exception
+    */
+   public MappedRippleFile(String rplFile) throws Exception {
+      this(rplFile, RippleFile.findRaw(rplFile));
+   }
+
+   /**
+    * Maps the raw file associated with an open RippleFile.
+    *
+    * @param rf
+    * @throws Exception
+    */
+   public MappedRippleFile(RippleFile rf) throws Exception {
+      this(rf.getRplFilename(), rf.getRawFilename());
+   }
+
+   /**
+    * Maps the specified raw file as described by the specified Ripple header
+    * file.
+    *
+    * @param rplFile
+    * @param rawFile
+    * @throws Exception
+    */
+   public MappedRippleFile(String rplFile, String rawFile) throws Exception {
+      this(rplFile, rawFile, MAX_SEGMENT_SIZE);
+   }
+
+   /**
+    * Maps the specified raw file as described by the specified Ripple header
+    * file using segments of at most maxSegment bytes.
+    *
+    * @param rplFile
+    * @param rawFile
+    * @param maxSegment
+    *           The maximum size of a single mapping in bytes
+    * @throws Exception
+    */
+   public MappedRippleFile(String rplFile, String rawFile, int maxSegment) throws Exception {
+      final RippleFile.Header hdr = RippleFile.Header.read(rplFile);
+      if ((hdr.mWidth > Integer.MAX_VALUE) || (hdr.mHeight > Integer.MAX_VALUE) || (hdr.mDepth > Integer.MAX_VALUE))
+         throw new Exception("The dimensions of the Ripple file are too large.");
+      mRawFilename = rawFile;
+      mWidth = (int) hdr.mWidth;
+      mHeight = (int) hdr.mHeight;
+      mDepth = (int) hdr.mDepth;
+      mByteDepth = (int) hdr.mByteDepth;
+      mDataType = hdr.mDataType;
+      mRecordBy = hdr.mRecordBy;
+      mByteOrder = hdr.mOrder == RippleFile.LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      if (mDataType == RippleFile.FLOAT)
+         mKind = mByteDepth == 4 ? FLOAT32 : FLOAT64;
+      else {
+         final boolean signed = (mDataType == RippleFile.SIGNED);
+         mKind = mByteDepth == 1 ? (signed ? INT8 : UINT8) : (mByteDepth == 2 ? (signed ? INT16 : UINT16) : (signed ? INT32 : UINT32));
+      }
+      final long recordItems = mRecordBy == RippleFile.IMAGE_ORDER ? mWidth : mDepth;
+      final long recordBytes = recordItems * mByteDepth;
+      if (recordBytes > maxSegment)
+         throw new Exception("A single record in the Ripple file is larger than the maximum segment size.");
+      mSegmentItems = (maxSegment / recordBytes) * recordItems;
+      final long totalItems = (long) mWidth * mHeight * mDepth;
+      final int nSegments = (int) ((totalItems + mSegmentItems - 1) / mSegmentItems);
+      try (final FileChannel fc = FileChannel.open(Paths.get(mRawFilename), StandardOpenOption.READ)) {
+         final long required = hdr.mOffset + (totalItems * mByteDepth);
+         if (fc.size() < required)
+            throw new IOException("The raw file " + mRawFilename + " is shorter (" + fc.size() + " bytes) than the header requires (" + required
+                  + " bytes).");
+         mBytes = new ByteBuffer[nSegments];
+         for (int s = 0; s < nSegments; ++s) {
+            final long first = s * mSegmentItems;
+            final long items = Math.min(mSegmentItems, totalItems - first);
+            final MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, hdr.mOffset + (first * mByteDepth), items * mByteDepth);
+            mBytes[s] = mbb.order(mByteOrder);
+         }
+      }
+      switch (mKind) {
+         case INT16 :
+         case UINT16 :
+            mShorts = new ShortBuffer[nSegments];
+            for (int s = 0; s < nSegments; ++s)
+               mShorts[s] = mBytes[s].asShortBuffer();
+            break;
+         case INT32 :
+         case UINT32 :
+            mInts = new IntBuffer[nSegments];
+            for (int s = 0; s < nSegments; ++s)
+               mInts[s] = mBytes[s].asIntBuffer();
+            break;
+         case FLOAT32 :
+            mFloats = new FloatBuffer[nSegments];
+            for (int s = 0; s < nSegments; ++s)
+               mFloats[s] = mBytes[s].asFloatBuffer();
+            break;
+         case FLOAT64 :
+            mDoubles = new DoubleBuffer[nSegments];
+            for (int s = 0; s < nSegments; ++s)
+               mDoubles[s] = mBytes[s].asDoubleBuffer();
+            break;
+      }
+   }
+
+   /**
+    * Releases the references to the mappings. Don't try to read after
+    * performing this operation.
+    */
+   @Override
+   public void close() {
+      mBytes = null;
+      mShorts = null;
+      mInts = null;
+      mFloats = null;
+      mDoubles = null;
+   }
+
+   /**
+    * Returns the number of columns.
+    *
+    * @return int
+    */
+   public int getWidth() {
+      return mWidth;
+   }
+
+   /**
+    * Returns the number of rows.
+    *
+    * @return int
+    */
+   public int getHeight() {
+      return mHeight;
+   }
+
+   /**
+    * Returns the number of items (channels) at each pixel.
+    *
+    * @return int
+    */
+   public int getDepth() {
+      return mDepth;
+   }
+
+   /**
+    * Returns the size in bytes of the underlying data items.
+    *
+    * @return 1, 2, 4 or 8
+    */
+   public int getDatumSize() {
+      return mByteDepth;
+   }
+
+   /**
+    * Returns the type of data item.
+    *
+    * @return RippleFile.SIGNED, RippleFile.UNSIGNED or RippleFile.FLOAT
+    */
+   public String getDataType() {
+      return mDataType;
+   }
+
+   /**
+    * Returns the order in which the data is recorded.
+    *
+    * @return RippleFile.VECTOR_ORDER or RippleFile.IMAGE_ORDER
+    */
+   public String getRecordBy() {
+      return mRecordBy;
+   }
+
+   /**
+    * Returns the byte order of the data.
+    *
+    * @return ByteOrder
+    */
+   public ByteOrder getByteOrder() {
+      return mByteOrder;
+   }
+
+   /**
+    * Returns the number of segments into which the file has been mapped.
+    *
+    * @return int
+    */
+   public int getSegmentCount() {
+      return mBytes.length;
+   }
+
+   private boolean isImageOrder() {
+      return mRecordBy == RippleFile.IMAGE_ORDER;
+   }
+
+   private long index(int x, int y, int item) {
+      assert (x >= 0) && (x < mWidth) : "x out of range: " + x;
+      assert (y >= 0) && (y < mHeight) : "y out of range: " + y;
+      assert (item >= 0) && (item < mDepth) : "item out of range: " + item;
+      return isImageOrder() ? ((((long) item * mHeight) + y) * mWidth) + x : ((((long) y * mWidth) + x) * mDepth) + item;
+   }
+
+   /**
+    * Reads the datum at the specified index (in items from the start of the
+    * data).
+    */
+   private double item(long idx) {
+      final int seg = (int) (idx / mSegmentItems);
+      final int i = (int) (idx - (seg * mSegmentItems));
+      switch (mKind) {
+         case INT8 :
+            return mBytes[seg].get(i);
+         case UINT8 :
+            return mBytes[seg].get(i) & 0xFF;
+         case INT16 :
+            return mShorts[seg].get(i);
+         case UINT16 :
+            return mShorts[seg].get(i) & 0xFFFF;
+         case INT32 :
+            return mInts[seg].get(i);
+         case UINT32 :
+            return mInts[seg].get(i) & 0xFFFFFFFFL;
+         case FLOAT32 :
+            return mFloats[seg].get(i);
+         default :
+            return mDoubles[seg].get(i);
+      }
+   }
+
+   /**
+    * Reads len contiguous items starting at idx into dst[off] to dst[off+len-1]
+    * (or adds them to dst if add is true). The items must lie within a single
+    * record.
+    */
+   private void items(long idx, double[] dst, int off, int len, boolean add) {
+      final int seg = (int) (idx / mSegmentItems);
+      final int i0 = (int) (idx - (seg * mSegmentItems));
+      switch (mKind) {
+         case INT8 : {
+            final ByteBuffer b = mBytes[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + b.get(i0 + i);
+            break;
+         }
+         case UINT8 : {
+            final ByteBuffer b = mBytes[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + (b.get(i0 + i) & 0xFF);
+            break;
+         }
+         case INT16 : {
+            final ShortBuffer b = mShorts[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + b.get(i0 + i);
+            break;
+         }
+         case UINT16 : {
+            final ShortBuffer b = mShorts[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + (b.get(i0 + i) & 0xFFFF);
+            break;
+         }
+         case INT32 : {
+            final IntBuffer b = mInts[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + b.get(i0 + i);
+            break;
+         }
+         case UINT32 : {
+            final IntBuffer b = mInts[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + (b.get(i0 + i) & 0xFFFFFFFFL);
+            break;
+         }
+         case FLOAT32 : {
+            final FloatBuffer b = mFloats[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + b.get(i0 + i);
+            break;
+         }
+         default : {
+            final DoubleBuffer b = mDoubles[seg];
+            for (int i = 0; i < len; ++i)
+               dst[off + i] = (add ? dst[off + i] : 0.0) + b.get(i0 + i);
+            break;
+         }
+      }
+   }
+
+   /**
+    * Returns the datum at the specified pixel and item. (Integers are
+    * converted to doubles.)
+    *
+    * @param x
+    * @param y
+    * @param item
+    * @return double
+    */
+   public double get(int x, int y, int item) {
+      return item(index(x, y, item));
+   }
+
+   private void spectrum(int x, int y, double[] dst, boolean add) {
+      if (isImageOrder()) {
+         final long plane = (long) mWidth * mHeight;
+         long idx = index(x, y, 0);
+         for (int ch = 0; ch < mDepth; ++ch, idx += plane)
+            dst[ch] = (add ? dst[ch] : 0.0) + item(idx);
+      } else
+         items(index(x, y, 0), dst, 0, mDepth, add);
+   }
+
+   /**
+    * Reads the spectrum (all getDepth() items) at the specified pixel into dst.
+    *
+    * @param x
+    * @param y
+    * @param dst
+    *           An array of length getDepth() or longer (or null to allocate
+    *           one)
+    * @return dst
+    */
+   public double[] readSpectrum(int x, int y, double[] dst) {
+      final double[] res = dst != null ? dst : new double[mDepth];
+      spectrum(x, y, res, false);
+      return res;
+   }
+
+   /**
+    * Adds the spectrum at the specified pixel to dst. Useful for summing blocks
+    * of pixels without creating intermediate arrays.
+    *
+    * @param x
+    * @param y
+    * @param dst
+    *           An array of length getDepth() or longer
+    */
+   public void addSpectrum(int x, int y, double[] dst) {
+      spectrum(x, y, dst, true);
+   }
+
+   /**
+    * Reads the specified item (channel) for every pixel into dst in row-major
+    * order (dst[y*getWidth()+x]). For image ordered files, each row of the
+    * plane is read in bulk.
+    *
+    * @param item
+    * @param dst
+    *           An array of length getWidth()*getHeight() or longer (or null to
+    *           allocate one)
+    * @return dst
+    */
+   public double[] readPlane(int item, double[] dst) {
+      final double[] res = dst != null ? dst : new double[mWidth * mHeight];
+      if (isImageOrder())
+         for (int y = 0; y < mHeight; ++y)
+            items(index(0, y, item), res, y * mWidth, mWidth, false);
+      else {
+         final int n = mWidth * mHeight;
+         long idx = index(0, 0, item);
+         for (int i = 0; i < n; ++i, idx += mDepth)
+            res[i] = item(idx);
+      }
+      return res;
+   }
+
+   @Override
+   public String toString() {
+      return "MappedRippleFile[" + mRawFilename + "]";
+   }
+}
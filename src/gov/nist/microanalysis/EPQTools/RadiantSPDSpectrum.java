@@ -37,7 +37,7 @@ public class RadiantSPDSpectrum extends BaseSpectrum {
       try {
          if (is instanceof FileInputStream) {
             final FileInputStream fis = (FileInputStream) is;
-            return fis.getChannel().size() == (is.read() + 1 + SKIP_LEN + (4 * 2048));
+            return isInstanceOf(is.read(), fis.getChannel().size());
          }
          return false;
       } catch (final IOException e) {
@@ -45,6 +45,20 @@ public class RadiantSPDSpectrum extends BaseSpectrum {
       }
    }
 
+   /**
+    * Radiant files are identified by their length which is determined by the
+    * first byte in the file.
+    *
+    * @param firstByte
+    *           The first byte in the file (0 to 255)
+    * @param fileLength
+    *           The length of the file in bytes
+    * @return true if the file is likely to be a Radiant SPD file
+    */
+   public static boolean isInstanceOf(int firstByte, long fileLength) {
+      return (firstByte >= 0) && (fileLength == (firstByte + 1 + SKIP_LEN + (4 * 2048)));
+   }
+
    private int toInt(byte[] bi) {
       return ((bi[3] & 0xFF) << 24) + ((bi[2] & 0xFF) << 16) + ((bi[1] & 0xFF) << 8) + (bi[0] & 0xFF);
    }
@@ -5,7 +5,9 @@
  * The items may be 1,2,4 byte signed, 1,2,4 byte unsigned or 4,8 byte floats.
  * The image is written either little-endian or big-endian. This class only
  * handles "vector" type Ripple files (not "image"). The Ripple file is never
- * read into memory by this class. Rather items are read as requested.
+ * read into memory by this class. Rather items are read as requested. For
+ * fast bulk reads of spectra or planes (and for "image" files) use
+ * MappedRippleFile.
  * </p>
  * <p>
  * Reads and writes will convert integers into floats under the assumption that
@@ -141,7 +143,7 @@ public class RippleFile implements AutoCloseable {
          pw.println("data-length\t" + Long.toString(mByteDepth));
          pw.println("data-type\t" + mDataType);
          if (mByteDepth == 1)
-            pw.println("byte-order\t+dont-care");
+            pw.println("byte-order\tdont-care");
          else if (mOrder == BIG_ENDIAN)
             pw.println("byte-order\tbig-endian");
          else
@@ -164,7 +166,7 @@ public class RippleFile implements AutoCloseable {
       return (mByteDepth * mWidth * mHeight * mDepth) + mOffset;
    }
 
-   private static String findRaw(String rplFile) throws FileNotFoundException {
+   static String findRaw(String rplFile) throws FileNotFoundException {
       File rawFile = new File(rplFile.replace(".rpl", ".raw"));
       if (rawFile.exists())
          return rawFile.toString();
@@ -209,84 +211,119 @@ public class RippleFile implements AutoCloseable {
       super();
       mRplFilename = rplFile;
       mRawFilename = rawFile;
-      try (final FileReader fr = new FileReader(mRplFilename)) {
-         try (final BufferedReader br = new BufferedReader(fr)) {
-            mWidth = -1;
-            mHeight = -1;
-            mDepth = -1;
-            mOffset = 0;
-            mByteDepth = -1;
-            mDataType = null;
-            mOrder = DONT_CARE_ENDIAN;
-            String str = br.readLine();
-            if ((str == null) || (!str.matches("key\\s+value")))
-               throw new Exception("The header file does not appear to be a valid RPL header.");
-            do {
-               str = br.readLine();
-               if (str != null)
-                  str = str.trim().replaceFirst("\\s+", "\t");
-               final int p = str != null ? str.indexOf('\t') : -1;
-               if (p >= 0) {
-                  final String key = str.substring(0, p);
-                  final String value = str.substring(p + 1).trim();
-                  if (key.compareToIgnoreCase("width") == 0)
-                     mWidth = Integer.parseInt(value);
-                  else if (key.compareToIgnoreCase("height") == 0)
-                     mHeight = Integer.parseInt(value);
-                  else if (key.compareToIgnoreCase("depth") == 0)
-                     mDepth = Integer.parseInt(value);
-                  else if (key.compareToIgnoreCase("offset") == 0)
-                     mOffset = Integer.parseInt(value);
-                  else if (key.compareToIgnoreCase("data-type") == 0) {
-                     if (value.compareToIgnoreCase("signed") == 0)
-                        mDataType = SIGNED;
-                     else if (value.compareToIgnoreCase("unsigned") == 0)
-                        mDataType = UNSIGNED;
-                     else if (value.compareToIgnoreCase("float") == 0)
-                        mDataType = FLOAT;
-                     else
-                        throw new Exception("Unexpected type (" + value + ") in data-type key.");
-                  } else if (key.compareToIgnoreCase("data-length") == 0)
-                     mByteDepth = Integer.parseInt(value);
-                  // validate this later...
-                  else if (key.compareToIgnoreCase("byte-order") == 0) {
-                     if (value.compareToIgnoreCase("big-endian") == 0)
-                        mOrder = BIG_ENDIAN;
-                     else if (value.compareToIgnoreCase("little-endian") == 0)
-                        mOrder = LITTLE_ENDIAN;
-                     else if (value.compareToIgnoreCase("dont-care") == 0)
-                        mOrder = DONT_CARE_ENDIAN;
-                     else
-                        throw new Exception("Unexpected ordering (" + value + ") in data-type key.");
-                  } else if (key.compareToIgnoreCase("record-by") == 0)
-                     if ((value.compareToIgnoreCase("vector") != 0) && (value.compareToIgnoreCase("dont-care") != 0))
-                        throw new Exception("The 'image' 'recorded-by' method is not currently supported.");
-               }
-            } while (str != null);
-            if (mWidth < 0)
-               throw new Exception("Image width not initialized by header.");
-            if (mHeight < 0)
-               throw new Exception("Image height not initialized by header.");
-            if (mDepth < 0)
-               throw new Exception("Image depth not initialized by header.");
-            if ((mDataType == SIGNED) || (mDataType == UNSIGNED)) {
-               if (!((mByteDepth == 1) || (mByteDepth == 2) || (mByteDepth == 4)))
-                  throw new Exception("Only 1,2 and 4 byte integers are currently supported.");
-            } else if (mDataType == FLOAT) {
-               if (!((mByteDepth == 4) || (mByteDepth == 8)))
-                  throw new Exception("Only 4 and 8 byte floats are currently supported.");
-            } else
-               throw new Exception("Data-type not initialized by header.");
-            if (mOrder == DONT_CARE_ENDIAN) {
-               if (mByteDepth != 1)
-                  throw new Exception("The order=dont-care but the byte-depth isn't 1.");
-               mOrder = BIG_ENDIAN;
+      final Header hdr = Header.read(mRplFilename);
+      if (hdr.mRecordBy == IMAGE_ORDER)
+         throw new Exception("The 'image' 'recorded-by' method is not currently supported. (Use MappedRippleFile.)");
+      mWidth = hdr.mWidth;
+      mHeight = hdr.mHeight;
+      mDepth = hdr.mDepth;
+      mOffset = hdr.mOffset;
+      mByteDepth = hdr.mByteDepth;
+      mDataType = hdr.mDataType;
+      mOrder = hdr.mOrder;
+      mRawStream = new EndianRandomAccessFile(mRawFilename, readOnly ? "r" : "rw", mOrder);
+      mCurRow = 0;
+      mCurCol = 0;
+      mCurDepth = 0;
+   }
+
+   /**
+    * The validated contents of a Ripple header file.
+    */
+   static final class Header {
+      long mWidth = -1;
+      long mHeight = -1;
+      long mDepth = -1;
+      long mOffset = 0;
+      long mByteDepth = -1;
+      String mDataType = null;
+      String mOrder = DONT_CARE_ENDIAN;
+      String mRecordBy = VECTOR_ORDER;
+
+      /**
+       * Reads and validates the Ripple header file. The byte order is
+       * resolved to BIG_ENDIAN or LITTLE_ENDIAN and the record-by to
+       * VECTOR_ORDER or IMAGE_ORDER.
+       *
+       * @param rplFile
+       * @return Header
+       * @throws Exception
+       */
+      static Header read(String rplFile) throws Exception {
+         final Header res = new Header();
+         try (final FileReader fr = new FileReader(rplFile)) {
+            try (final BufferedReader br = new BufferedReader(fr)) {
+               String str = br.readLine();
+               if ((str == null) || (!str.matches("key\\s+value")))
+                  throw new Exception("The header file does not appear to be a valid RPL header.");
+               do {
+                  str = br.readLine();
+                  if (str != null)
+                     str = str.trim().replaceFirst("\\s+", "\t");
+                  final int p = str != null ? str.indexOf('\t') : -1;
+                  if (p >= 0) {
+                     final String key = str.substring(0, p);
+                     final String value = str.substring(p + 1).trim();
+                     if (key.compareToIgnoreCase("width") == 0)
+                        res.mWidth = Integer.parseInt(value);
+                     else if (key.compareToIgnoreCase("height") == 0)
+                        res.mHeight = Integer.parseInt(value);
+                     else if (key.compareToIgnoreCase("depth") == 0)
+                        res.mDepth = Integer.parseInt(value);
+                     else if (key.compareToIgnoreCase("offset") == 0)
+                        res.mOffset = Integer.parseInt(value);
+                     else if (key.compareToIgnoreCase("data-type") == 0) {
+                        if (value.compareToIgnoreCase("signed") == 0)
+                           res.mDataType = SIGNED;
+                        else if (value.compareToIgnoreCase("unsigned") == 0)
+                           res.mDataType = UNSIGNED;
+                        else if (value.compareToIgnoreCase("float") == 0)
+                           res.mDataType = FLOAT;
+                        else
+                           throw new Exception("Unexpected type (" + value + ") in data-type key.");
+                     } else if (key.compareToIgnoreCase("data-length") == 0)
+                        res.mByteDepth = Integer.parseInt(value);
+                     // validate this later...
+                     else if (key.compareToIgnoreCase("byte-order") == 0) {
+                        if (value.compareToIgnoreCase("big-endian") == 0)
+                           res.mOrder = BIG_ENDIAN;
+                        else if (value.compareToIgnoreCase("little-endian") == 0)
+                           res.mOrder = LITTLE_ENDIAN;
+                        else if ((value.compareToIgnoreCase("dont-care") == 0) || (value.compareToIgnoreCase("+dont-care") == 0))
+                           // Earlier versions wrote "+dont-care"
+                           res.mOrder = DONT_CARE_ENDIAN;
+                        else
+                           throw new Exception("Unexpected ordering (" + value + ") in data-type key.");
+                     } else if (key.compareToIgnoreCase("record-by") == 0) {
+                        if (value.compareToIgnoreCase("image") == 0)
+                           res.mRecordBy = IMAGE_ORDER;
+                        else if ((value.compareToIgnoreCase("vector") != 0) && (value.compareToIgnoreCase("dont-care") != 0))
+                           throw new Exception("Unexpected record-by (" + value + ") in record-by key.");
+                     }
+                  }
+               } while (str != null);
             }
-            mRawStream = new EndianRandomAccessFile(mRawFilename, readOnly ? "r" : "rw", mOrder);
-            mCurRow = 0;
-            mCurCol = 0;
-            mCurDepth = 0;
          }
+         if (res.mWidth < 0)
+            throw new Exception("Image width not initialized by header.");
+         if (res.mHeight < 0)
+            throw new Exception("Image height not initialized by header.");
+         if (res.mDepth < 0)
+            throw new Exception("Image depth not initialized by header.");
+         if ((res.mDataType == SIGNED) || (res.mDataType == UNSIGNED)) {
+            if (!((res.mByteDepth == 1) || (res.mByteDepth == 2) || (res.mByteDepth == 4)))
+               throw new Exception("Only 1,2 and 4 byte integers are currently supported.");
+         } else if (res.mDataType == FLOAT) {
+            if (!((res.mByteDepth == 4) || (res.mByteDepth == 8)))
+               throw new Exception("Only 4 and 8 byte floats are currently supported.");
+         } else
+            throw new Exception("Data-type not initialized by header.");
+         if (res.mOrder == DONT_CARE_ENDIAN) {
+            if (res.mByteDepth != 1)
+               throw new Exception("The order=dont-care but the byte-depth isn't 1.");
+            res.mOrder = BIG_ENDIAN;
+         }
+         return res;
       }
    }
 
@@ -687,6 +724,14 @@ public class RippleFile implements AutoCloseable {
       return mOffset;
    }
 
+   String getRplFilename() {
+      return mRplFilename;
+   }
+
+   String getRawFilename() {
+      return mRawFilename;
+   }
+
    private static IndexColorModel createColorModel() {
       final byte[] r = new byte[256];
       final byte[] g = new byte[256];
@@ -7,6 +7,7 @@ package gov.nist.microanalysis.EPQTools;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 
 import gov.nist.microanalysis.EPQLibrary.BaseSpectrum;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
@@ -36,7 +37,7 @@ import gov.nist.microanalysis.Utility.Math2;
  */
 public class RippleSpectrum extends BaseSpectrum {
 
-   private final RippleFile mRipple;
+   private final MappedRippleFile mRipple;
    private final SpectrumProperties mProperties;
    private final double mBaseLiveTime;
    private int mChannelCount;
@@ -49,6 +50,7 @@ public class RippleSpectrum extends BaseSpectrum {
    // Permit averaging together blocks of adjacent pixels
    transient private int mRowSpan;
    transient private int mColSpan;
+   // The summed data when the span is larger than one pixel otherwise null
    transient private double[] mData;
 
    /**
@@ -59,14 +61,28 @@ public class RippleSpectrum extends BaseSpectrum {
     * @throws FileNotFoundException
     */
    public RippleSpectrum(String filename, SpectrumProperties sp) throws FileNotFoundException, IOException, EPQException, Exception {
-      mRipple = new RippleFile(filename, true);
+      this(new MappedRippleFile(filename), new File(filename).getName(), sp);
+      mProperties.setTextProperty(SpectrumProperties.SourceFile, filename);
+   }
+
+   /**
+    * Constructs a RippleSpectrum object which accesses the spectra in an
+    * existing MappedRippleFile. The data is read directly from the mapping so
+    * multiple RippleSpectrum objects may share one MappedRippleFile.
+    * 
+    * @param mrf
+    * @param name
+    * @param sp
+    * @throws IOException
+    * @throws EPQException
+    */
+   public RippleSpectrum(MappedRippleFile mrf, String name, SpectrumProperties sp) throws IOException, EPQException {
+      mRipple = mrf;
       mProperties = new SpectrumProperties();
       mProperties.addAll(sp);
-      mProperties.setTextProperty(SpectrumProperties.SourceFile, filename);
       mBaseLiveTime = mProperties.getNumericWithDefault(SpectrumProperties.LiveTime, Double.NaN);
       setEnergyScale(sp.getNumericProperty(SpectrumProperties.EnergyOffset), sp.getNumericProperty(SpectrumProperties.EnergyScale));
-      final File file = new File(filename);
-      SpectrumUtils.rename(this, file.getName());
+      SpectrumUtils.rename(this, name);
       mRow = -1;
       mRowSpan = 1;
       mColSpan = 1;
@@ -144,14 +160,18 @@ public class RippleSpectrum extends BaseSpectrum {
    }
 
    private void updateData() throws IOException {
-      mData = new double[mDepth];
       final int maxRow = Math.min(mRow + mRowSpan, getRows());
       final int maxCol = Math.min(mCol + mColSpan, getColumns());
-      for (int r = mRow; r < maxRow; ++r)
-         for (int c = mCol; c < maxCol; ++c) {
-            mRipple.seek(r, c);
-            Math2.plusEquals(mData, mRipple.readDouble(mData.length));
-         }
+      if ((maxRow - mRow) * (maxCol - mCol) > 1) {
+         if (mData == null)
+            mData = new double[mDepth];
+         else
+            Arrays.fill(mData, 0.0);
+         for (int r = mRow; r < maxRow; ++r)
+            for (int c = mCol; c < maxCol; ++c)
+               mRipple.addSpectrum(c, r, mData);
+      } else
+         mData = null;
       mProperties.setTextProperty(SpectrumProperties.SampleId, toString() + "[[" + Integer.toString(mRow) + ", " + Integer.toString(maxRow) + "),["
             + Integer.toString(mCol) + ", " + Integer.toString(maxCol) + ")]");
       if (!Double.isNaN(mBaseLiveTime))
@@ -164,7 +184,10 @@ public class RippleSpectrum extends BaseSpectrum {
    @Override
    public double getCounts(int i) {
       i -= mBrukerOffset;
-      return (i >= 0) && (i < mDepth) ? mData[i] : 0.0;
+      if ((i >= 0) && (i < mDepth))
+         return mData != null ? mData[i] : mRipple.get(mCol, mRow, i);
+      else
+         return 0.0;
    }
 
    /**
@@ -220,10 +243,13 @@ public class RippleSpectrum extends BaseSpectrum {
          for (int rr = r * binSize; rr < (r + 1) * binSize; ++rr) {
             for (int c = 0; c < (ww - binSize + 1) / binSize; ++c) {
                // build the sum spectrum
-               double[] spec = new double[mData.length];
+               final double[] spec = new double[mDepth];
                for (int cc = c * binSize; cc < (c + 1) * binSize; ++cc) {
                   seek(rr, cc);
-                  Math2.addInPlace(spec, this.mData);
+                  if (mData != null)
+                     Math2.addInPlace(spec, mData);
+                  else
+                     mRipple.addSpectrum(mCol, mRow, spec);
                }
                for (int i = 0; i < vs.length; ++i)
                   mi.set(c, r, i, vs[i].apply(spec));
@@ -1,10 +1,24 @@
 package gov.nist.microanalysis.EPQTools;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import gov.nist.microanalysis.EPQLibrary.EPQException;
 import gov.nist.microanalysis.EPQLibrary.ISpectrumData;
@@ -16,6 +30,14 @@ import gov.nist.microanalysis.EPQLibrary.StandardBundle;
  * A utility class to open spectrum files of all ilks..
  * </p>
  * <p>
+ * The file format is determined by reading the head of the file once into a
+ * buffer (see Head) and testing it against each registered Format in turn.
+ * The matching Format then reads the spectra from a stream which replays the
+ * head before continuing with the rest of the file so that, for most formats,
+ * each file is opened only once. Additional formats may be added using
+ * register(...).
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -29,196 +51,617 @@ import gov.nist.microanalysis.EPQLibrary.StandardBundle;
 
 public class SpectrumFile {
 
+   /**
+    * The number of bytes read from the start of each file to identify the
+    * format.
+    */
+   public static final int HEAD_SIZE = 8192;
+
+   /**
+    * The first HEAD_SIZE bytes (or fewer for short files) of a file along with
+    * the file's length.
+    */
+   public static final class Head {
+      private final File mFile;
+      private final byte[] mBytes;
+      private final long mFileLength;
+
+      private Head(File file, byte[] bytes, long fileLength) {
+         mFile = file;
+         mBytes = bytes;
+         mFileLength = fileLength;
+      }
+
+      /**
+       * Reads the head of the file from the stream. On return the stream is
+       * positioned immediately after the head.
+       *
+       * @param file
+       * @param fis
+       *           A stream positioned at the start of file
+       * @return Head
+       * @throws IOException
+       */
+      public static Head read(File file, FileInputStream fis) throws IOException {
+         final long len = fis.getChannel().size();
+         return new Head(file, fis.readNBytes((int) Math.min(HEAD_SIZE, len)), len);
+      }
+
+      public File getFile() {
+         return mFile;
+      }
+
+      /**
+       * Returns the length of the entire file in bytes.
+       *
+       * @return long
+       */
+      public long getFileLength() {
+         return mFileLength;
+      }
+
+      /**
+       * Returns the number of bytes in the head.
+       *
+       * @return int
+       */
+      public int length() {
+         return mBytes.length;
+      }
+
+      /**
+       * Returns the idx-th byte in the file as an int in the range 0 to 255 or
+       * -1 if idx is beyond the head.
+       *
+       * @param idx
+       * @return int
+       */
+      public int get(int idx) {
+         return idx < mBytes.length ? mBytes[idx] & 0xFF : -1;
+      }
+
+      /**
+       * Does the file start with the specified bytes?
+       *
+       * @param prefix
+       * @return boolean
+       */
+      public boolean startsWith(byte[] prefix) {
+         if (prefix.length > mBytes.length)
+            return false;
+         for (int i = 0; i < prefix.length; ++i)
+            if (mBytes[i] != prefix[i])
+               return false;
+         return true;
+      }
+
+      /**
+       * Returns a new stream over the bytes in the head. Suitable for passing
+       * to the isInstanceOf(InputStream) methods.
+       *
+       * @return InputStream
+       */
+      public InputStream stream() {
+         return new ByteArrayInputStream(mBytes);
+      }
+
+      /**
+       * Returns a stream which replays the head and then continues with the
+       * remainder of the file from rest.
+       *
+       * @param rest
+       *           A stream positioned immediately after the head
+       * @return InputStream
+       */
+      public InputStream stream(InputStream rest) {
+         return mBytes.length < mFileLength ? new ReplayInputStream(mBytes, rest) : stream();
+      }
+   }
+
+   /**
+    * Replays the head and then continues with the rest of the file. Unlike
+    * SequenceInputStream, available() accounts for both parts so readers which
+    * poll BufferedReader.ready() do not stop at the end of the head.
+    */
+   private static final class ReplayInputStream extends InputStream {
+      private final byte[] mHead;
+      private final InputStream mRest;
+      private int mPos;
+
+      private ReplayInputStream(byte[] head, InputStream rest) {
+         mHead = head;
+         mRest = rest;
+      }
+
+      @Override
+      public int read() throws IOException {
+         return mPos < mHead.length ? mHead[mPos++] & 0xFF : mRest.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (mPos < mHead.length) {
+            final int n = Math.min(len, mHead.length - mPos);
+            System.arraycopy(mHead, mPos, b, off, n);
+            mPos += n;
+            return n;
+         }
+         return mRest.read(b, off, len);
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         if (mPos < mHead.length) {
+            final int s = (int) Math.max(0, Math.min(n, mHead.length - mPos));
+            mPos += s;
+            return s;
+         }
+         return mRest.skip(n);
+      }
+
+      @Override
+      public int available() throws IOException {
+         return (mHead.length - mPos) + mRest.available();
+      }
+
+      @Override
+      public void close() throws IOException {
+         mRest.close();
+      }
+   }
+
+   /**
+    * A spectrum file format which may be registered with SpectrumFile.
+    */
+   public interface Format {
+      /**
+       * A short human-friendly name for the format.
+       *
+       * @return String
+       */
+      String getName();
+
+      /**
+       * Does the head of the file look like this format? Implementations
+       * should only examine the Head and avoid reopening the file.
+       *
+       * @param head
+       * @return boolean
+       */
+      boolean matches(Head head);
+
+      /**
+       * Reads all the spectra in the file.
+       *
+       * @param head
+       *           The head of the file
+       * @param is
+       *           A stream over the entire file starting at the first byte
+       * @return ISpectrumData[]
+       * @throws Exception
+       */
+      ISpectrumData[] read(Head head, InputStream is) throws Exception;
+   }
+
+   /**
+    * The result of importing a single file with open(List&lt;File&gt;, int).
+    */
+   public static final class Imported {
+      private final File mFile;
+      private final Format mFormat;
+      private final ISpectrumData[] mSpectra;
+      private final EPQException mError;
+      private final boolean mUnrecognized;
+
+      private Imported(File file, Format format, ISpectrumData[] spectra, EPQException error) {
+         mFile = file;
+         mFormat = format;
+         mSpectra = spectra;
+         mError = error;
+         mUnrecognized = false;
+      }
+
+      private Imported(File file) {
+         mFile = file;
+         mFormat = null;
+         mSpectra = null;
+         mError = new EPQException("The file " + file.getName() + " does not seem to be in one of the known file formats.");
+         mUnrecognized = true;
+      }
+
+      public File getFile() {
+         return mFile;
+      }
+
+      /**
+       * Was the file read successfully and found not to be in any of the
+       * registered formats?
+       *
+       * @return boolean
+       */
+      public boolean isUnrecognized() {
+         return mUnrecognized;
+      }
+
+      /**
+       * The format of the file or null if the format was not identified.
+       *
+       * @return Format
+       */
+      public Format getFormat() {
+         return mFormat;
+      }
+
+      /**
+       * The spectra read from the file or null if the file could not be read.
+       *
+       * @return ISpectrumData[]
+       */
+      public ISpectrumData[] getSpectra() {
+         return mSpectra;
+      }
+
+      /**
+       * The reason the file could not be read or null on success.
+       *
+       * @return EPQException
+       */
+      public EPQException getError() {
+         return mError;
+      }
+
+      @Override
+      public String toString() {
+         return mFile.getName() + "[" + (mError != null ? mError.getMessage() : mFormat.getName()) + "]";
+      }
+   }
+
+   private static ISpectrumData[] one(ISpectrumData spec) {
+      return new ISpectrumData[] {
+         spec
+      };
+   }
+
+   private static final List<Format> sFormats = new CopyOnWriteArrayList<Format>(Arrays.asList(new Format[] {
+      new Format() {
+         @Override
+         public String getName() {
+            return "DTSA";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return DTSAFile.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) {
+            final DTSAFile df = new DTSAFile(new BufferedInputStream(is));
+            final ISpectrumData[] res = new ISpectrumData[df.getSpectrumCount()];
+            for (int j = 0; j < res.length; ++j)
+               res[j] = df.getSpectrum(j);
+            return res;
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "EMSA";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return EMSAFile.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws IOException {
+            final EMSAFile ef = new EMSAFile(is);
+            ef.setFilename(head.getFile().getCanonicalPath());
+            ef.readImages(head.getFile());
+            return one(ef);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "EMISPEC";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return EMISPECFile.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws IOException {
+            final EMISPECFile ef = new EMISPECFile();
+            ef.read(is);
+            ef.setFilename(head.getFile().getName());
+            return one(ef);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "ASPEX TIFF";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return ASPEXSpectrum.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            // TIFF requires random access
+            return one(new ASPEXSpectrum(head.getFile(), true));
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "IXRF";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return IXRFSpectrum.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            final IXRFSpectrum res = new IXRFSpectrum(is);
+            res.setFilename(head.getFile().getName());
+            return one(res);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "PMCA";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return PMCASpectrum.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws IOException {
+            final PMCASpectrum res = new PMCASpectrum(is);
+            res.setFilename(head.getFile().getName());
+            return one(res);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "Radiant SPD";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return RadiantSPDSpectrum.isInstanceOf(head.get(0), head.getFileLength());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws IOException {
+            final RadiantSPDSpectrum res = new RadiantSPDSpectrum(is);
+            res.setFilename(head.getFile().getName());
+            return one(res);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "EDAX SPC";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return EdaxSPCSpectrum.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            return one(new EdaxSPCSpectrum(is));
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "Bruker SPX";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return BrukerSPX.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            return one(new BrukerSPX(is));
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "Bruker TXT";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return BrukerTXT.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            return one(new BrukerTXT(is));
+         }
+      },
+      new Format() {
+         private final byte[] ZIP_MAGIC = {
+            'P',
+            'K',
+            3,
+            4
+         };
+
+         @Override
+         public String getName() {
+            return "Standard bundle";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return head.startsWith(ZIP_MAGIC) && StandardBundle.isInstance(head.getFile());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            final List<ISpectrumData> specs = StandardBundle.readSpectra(head.getFile());
+            return specs.toArray(new ISpectrumData[specs.size()]);
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "Bruker PDZ";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return (head.get(0) == 1) && (head.get(1) == 1) && (head.get(2) == 23) && (head.get(3) == 0);
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            return one(new BrukerPDZ(is));
+         }
+      },
+      new Format() {
+         @Override
+         public String getName() {
+            return "Oxford SPT";
+         }
+
+         @Override
+         public boolean matches(Head head) {
+            return OxfordSPTFile.isInstanceOf(head.stream());
+         }
+
+         @Override
+         public ISpectrumData[] read(Head head, InputStream is) throws Exception {
+            // Read twice, once raw and once processed
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream((int) head.getFileLength());
+            is.transferTo(bos);
+            final byte[] data = bos.toByteArray();
+            return new ISpectrumData[] {
+               new OxfordSPTFile(new ByteArrayInputStream(data), false),
+               new OxfordSPTFile(new ByteArrayInputStream(data), true)
+            };
+         }
+      }
+   }));
+
+   /**
+    * Registers an additional file format. Formats are tested in the order in
+    * which they were registered so the built-in formats take precedence.
+    *
+    * @param format
+    */
+   static public void register(final Format format) {
+      sFormats.add(format);
+   }
+
+   /**
+    * Returns the registered formats in the order in which they are tested.
+    *
+    * @return List&lt;Format&gt;
+    */
+   static public List<Format> getFormats() {
+      return Collections.unmodifiableList(sFormats);
+   }
+
+   /**
+    * Returns the first registered format which matches the head or null if
+    * none match.
+    *
+    * @param head
+    * @return Format or null
+    */
+   static public Format identify(final Head head) {
+      for (final Format format : sFormats)
+         if (format.matches(head))
+            return format;
+      return null;
+   }
+
    static public ISpectrumData[] open(final String path) throws EPQException {
       return open(new File(path));
    }
 
    static public boolean isInstanceOf(final File file) {
-      boolean res = false;
-      try {
-         {
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = DTSAFile.isInstanceOf(st);
-            }
-         }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EMSAFile.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EMISPECFile.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = ASPEXSpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = IXRFSpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = IXRFSpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = PMCASpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = RadiantSPDSpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = EdaxSPCSpectrum.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = BrukerSPX.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = BrukerPDZ.isInstanceOf(st);
-            }
-         if (!res)
-            try (final FileInputStream st = new FileInputStream(file)) {
-               res = OxfordSPTFile.isInstanceOf(st);
-            }
-      } catch (final FileNotFoundException e) {
+      try (final FileInputStream fis = new FileInputStream(file)) {
+         return identify(Head.read(file, fis)) != null;
       } catch (final IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Opens the file once, identifies the format and reads the spectra.
+    * Returns an Imported with a null Format if the format is not recognized.
+    */
+   private static Imported read(final File file) {
+      try (final FileInputStream fis = new FileInputStream(file)) {
+         final Head head = Head.read(file, fis);
+         final Format format = identify(head);
+         if (format == null)
+            return new Imported(file);
+         try {
+            return new Imported(file, format, wrapResult(format.read(head, head.stream(fis)), file), null);
+         } catch (final Exception e) {
+            return new Imported(file, format, null, new EPQException(e));
+         }
+      } catch (final Exception e) {
+         return new Imported(file, null, null, new EPQException(e));
       }
-      return res;
    }
 
    static public ISpectrumData[] open(final File file) throws EPQException {
+      final Imported res = read(file);
+      if (res.getError() != null)
+         throw res.getError();
+      return res.getSpectra();
+   }
+
+   /**
+    * Reads the spectra from the contents of file which have already been
+    * loaded into memory. Useful when the caller also needs the raw bytes (to
+    * compute a digest or to store them) and wants to avoid reading the file
+    * twice. Formats which require random access reopen the file.
+    *
+    * @param file
+    *           The file from which data was read
+    * @param data
+    *           The entire contents of file
+    * @return ISpectrumData[]
+    * @throws EPQException
+    */
+   static public ISpectrumData[] open(final File file, final byte[] data) throws EPQException {
+      final Head head = new Head(file, Arrays.copyOf(data, Math.min(HEAD_SIZE, data.length)), data.length);
+      final Format format = identify(head);
+      if (format == null)
+         throw new Imported(file).getError();
       try {
-         ISpectrumData[] res = null;
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (DTSAFile.isInstanceOf(fis)) {
-               final DTSAFile df = new DTSAFile(file);
-               res = new ISpectrumData[df.getSpectrumCount()];
-               for (int j = 0; j < df.getSpectrumCount(); ++j)
-                  res[j] = df.getSpectrum(j);
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMSAFile.isInstanceOf(fis)) {
-               final EMSAFile ef = new EMSAFile(file, true);
-               res = new ISpectrumData[1];
-               res[0] = ef;
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMISPECFile.isInstanceOf(fis)) {
-               final EMISPECFile ef = new EMISPECFile();
-               try (final FileInputStream st5 = new FileInputStream(file)) {
-                  ef.read(st5);
-               }
-               ef.setFilename(file.getName());
-               res = new ISpectrumData[1];
-               res[0] = ef;
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (ASPEXSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               res[0] = new ASPEXSpectrum(file, true);
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (IXRFSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st8 = new FileInputStream(file)) {
-                  final IXRFSpectrum is = new IXRFSpectrum(st8);
-                  is.setFilename(file.getName());
-                  res[0] = is;
-               }
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (PMCASpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st10 = new FileInputStream(file)) {
-                  final PMCASpectrum is = new PMCASpectrum(st10);
-                  is.setFilename(file.getName());
-                  res[0] = is;
-               }
-               return wrapResult(res, file);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (RadiantSPDSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st12 = new FileInputStream(file)) {
-                  final RadiantSPDSpectrum is = new RadiantSPDSpectrum(st12);
-                  is.setFilename(file.getName());
-                  res[0] = is;
-                  return wrapResult(res, file);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EdaxSPCSpectrum.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st14 = new FileInputStream(file)) {
-                  res[0] = new EdaxSPCSpectrum(st14);
-                  return wrapResult(res, file);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerSPX.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st16 = new FileInputStream(file)) {
-                  res[0] = new BrukerSPX(st16);
-                  return wrapResult(res, file);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerTXT.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st17 = new FileInputStream(file)) {
-                  res[0] = new BrukerTXT(st17);
-                  return wrapResult(res, file);
-               }
-            }
-         }
-         if (StandardBundle.isInstance(file)) {
-            final List<ISpectrumData> specs = StandardBundle.readSpectra(file);
-            return wrapResult(specs.toArray(new ISpectrumData[specs.size()]), file);
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerPDZ.isInstanceOf(fis)) {
-               res = new ISpectrumData[1];
-               try (final FileInputStream st18 = new FileInputStream(file)) {
-                  res[0] = new BrukerPDZ(st18);
-                  return wrapResult(res, file);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (OxfordSPTFile.isInstanceOf(fis)) {
-               res = new ISpectrumData[2];
-               try (final FileInputStream st19 = new FileInputStream(file)) {
-                  res[0] = new OxfordSPTFile(st19, false);
-               }
-               try (final FileInputStream st20 = new FileInputStream(file)) {
-                  res[1] = new OxfordSPTFile(st20, true);
-               }
-               return wrapResult(res, file);
-            }
-         }
+         return wrapResult(format.read(head, new ByteArrayInputStream(data)), file);
+      } catch (final EPQException e) {
+         throw e;
       } catch (final Exception e) {
          throw new EPQException(e);
       }
-      throw new EPQException("The file " + file.getName() + " does not seem to be in one of the known file formats.");
    }
 
    private static ISpectrumData[] wrapResult(final ISpectrumData[] res, final File file) {
@@ -243,112 +686,101 @@ public class SpectrumFile {
    }
 
    static public ISpectrumData open(final File file, final int idx) throws EPQException {
+      final ISpectrumData[] specs = open(file);
+      if ((idx < 0) || (idx >= specs.length))
+         throw new EPQException("The file " + file.getName() + " contains " + Integer.toString(specs.length)
+               + (specs.length == 1 ? " spectrum." : " spectra."));
+      return specs[idx];
+   }
+
+   /**
+    * Opens the specified files on nThreads threads. Each file is opened only
+    * once to identify its format and, for most formats, to read it. Failures
+    * are reported in the Imported objects rather than thrown so that one bad
+    * file does not prevent the rest from being read.
+    *
+    * @param files
+    * @param nThreads
+    * @return List&lt;Imported&gt; in the same order as files
+    * @throws EPQException
+    *            If the import is interrupted
+    */
+   static public List<Imported> open(final List<File> files, final int nThreads) throws EPQException {
+      if (nThreads < 1)
+         throw new EPQException("The number of threads must be one or more.");
+      final List<Imported> res = new ArrayList<Imported>();
+      if (files.isEmpty())
+         return res;
+      final ExecutorService exec = Executors.newFixedThreadPool(Math.min(nThreads, files.size()), new ThreadFactory() {
+         private final AtomicInteger mIndex = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable r) {
+            final Thread th = new Thread(r, "SpectrumFile-" + mIndex.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+         }
+      });
       try {
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (DTSAFile.isInstanceOf(fis)) {
-               final DTSAFile df = new DTSAFile(file);
-               return wrapResult(df.getSpectrum(idx), file, idx);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMSAFile.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EMSA files can only contain one spectrum.");
-               final EMSAFile ef = new EMSAFile();
-               try (FileInputStream st = new FileInputStream(file)) {
-                  ef.read(st);
-                  ef.setFilename(file.getName());
-                  return wrapResult(ef, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EMISPECFile.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EMISPEC files can only contain one spectrum.");
-               final EMISPECFile ef = new EMISPECFile();
-               try (FileInputStream st = new FileInputStream(file)) {
-                  ef.read(st);
-                  ef.setFilename(file.getName());
-                  return wrapResult(ef, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (ASPEXSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("ASPEX TIFF files can only contain one spectrum.");
-               return wrapResult(new ASPEXSpectrum(file), file, idx);
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (IXRFSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("ASPEX TIFF files can only contain one spectrum.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  final IXRFSpectrum is = new IXRFSpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (PMCASpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("PMCA files can only contain one spectrum.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  final PMCASpectrum is = new PMCASpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (RadiantSPDSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Radiant files can only contain one spectrum.");
-               final RadiantSPDSpectrum is;
-               try (FileInputStream st = new FileInputStream(file)) {
-                  is = new RadiantSPDSpectrum(st);
-                  is.setFilename(file.getName());
-                  return wrapResult(is, file, idx);
+         final List<Future<Imported>> futures = new ArrayList<Future<Imported>>();
+         for (final File file : files)
+            futures.add(exec.submit(new Callable<Imported>() {
+               @Override
+               public Imported call() {
+                  return read(file);
                }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (EdaxSPCSpectrum.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("EDAX files can only contain one spectrum.");
-               try (FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new EdaxSPCSpectrum(st), file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerSPX.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Only single spectrum Bruker files are supported.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new BrukerSPX(st), file, idx);
-               }
-            }
-         }
-         try (FileInputStream fis = new FileInputStream(file)) {
-            if (BrukerTXT.isInstanceOf(fis)) {
-               if (idx != 0)
-                  throw new EPQException("Only single spectrum Bruker text file are supported.");
-               try (final FileInputStream st = new FileInputStream(file)) {
-                  return wrapResult(new BrukerTXT(st), file, idx);
-               }
-            }
-         }
-         if (StandardBundle.isInstance(file)) {
-            final List<ISpectrumData> specs = StandardBundle.readSpectra(file);
-            return wrapResult(specs.get(idx), file, idx);
-         }
-         throw new EPQException("The file " + file.getName() + " does not seem to be in one of the known file formats.");
-      } catch (final Exception ex) {
-         throw new EPQException(ex);
+            }));
+         for (final Future<Imported> fut : futures)
+            res.add(fut.get());
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new EPQException("The spectrum import was interrupted.", e);
+      } catch (final ExecutionException e) {
+         throw new EPQException("The spectrum import failed.", e.getCause());
+      } finally {
+         exec.shutdownNow();
       }
+      return res;
+   }
+
+   /**
+    * Opens all the spectrum files in the specified directory (not including
+    * sub-directories) using one thread per available processor. Files which
+    * are not in a recognized format are skipped. Files which fail to read are
+    * returned with getError() set.
+    *
+    * @param dir
+    * @return List&lt;Imported&gt; sorted by file name
+    * @throws EPQException
+    */
+   static public List<Imported> openDirectory(final File dir) throws EPQException {
+      return openDirectory(dir, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Opens all the spectrum files in the specified directory (not including
+    * sub-directories) using the specified number of threads. Files which are
+    * not in a recognized format are skipped. Files which fail to read are
+    * returned with getError() set.
+    *
+    * @param dir
+    * @param nThreads
+    * @return List&lt;Imported&gt; sorted by file name
+    * @throws EPQException
+    */
+   static public List<Imported> openDirectory(final File dir, final int nThreads) throws EPQException {
+      final File[] all = dir.listFiles();
+      if (all == null)
+         throw new EPQException(dir.toString() + " is not a readable directory.");
+      final List<File> files = new ArrayList<File>();
+      for (final File f : all)
+         if (f.isFile())
+            files.add(f);
+      Collections.sort(files);
+      final List<Imported> res = new ArrayList<Imported>();
+      for (final Imported imp : open(files, nThreads))
+         if (!imp.isUnrecognized())
+            res.add(imp);
+      return res;
    }
 }
@@ -11,6 +11,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.FromSI;
 import gov.nist.microanalysis.Utility.Histogram;
 
@@ -35,7 +36,7 @@ import gov.nist.microanalysis.Utility.Histogram;
  * @author John Villarrubia
  * @version 1.0
  */
-final public class BackscatterStats implements ActionListener {
+final public class BackscatterStats implements ActionListener, IMonteCarloListener, IMergeable<BackscatterStats> {
    private int mEnergyBinCount;
    private final transient MonteCarloSS mMonte;
    private double mBeamEnergy; // in eV
@@ -189,14 +190,26 @@ final public class BackscatterStats implements ActionListener {
    @Override
    public void actionPerformed(final ActionEvent ae) {
       assert (ae.getSource() instanceof MonteCarloSS);
-      assert (ae.getSource() == mMonte);
-      switch (ae.getID()) {
+      onEvent(ae.getID(), (MonteCarloSS) ae.getSource());
+   }
+
+   private static final long EVENT_MASK = MonteCarloSS.eventMask(MonteCarloSS.FirstTrajectoryEvent, MonteCarloSS.BackscatterEvent,
+         MonteCarloSS.TrajectoryEndEvent, MonteCarloSS.BeamEnergyChanged);
+
+   @Override
+   public long getEventMask() {
+      return EVENT_MASK;
+   }
+
+   @Override
+   public void onEvent(final int type, final MonteCarloSS mcss) {
+      assert (mcss == mMonte);
+      switch (type) {
          case MonteCarloSS.FirstTrajectoryEvent : {
             mEventCount = 0;
             break;
          }
          case MonteCarloSS.BackscatterEvent : {
-            final MonteCarloSS mcss = (MonteCarloSS) ae.getSource();
             final Electron el = mcss.getElectron();
             final double[] pos = el.getPosition();
             final double elevation = (Math.PI / 2) - Math.atan2(pos[2], Math.sqrt((pos[0] * pos[0]) + (pos[1] * pos[1])));
@@ -234,6 +247,30 @@ final public class BackscatterStats implements ActionListener {
       }
    }
 
+   /**
+    * Adds the histograms, the trajectory count and the detected electron log
+    * accumulated by bss into this object.
+    *
+    * @param bss
+    *           A BackscatterStats configured with the same beam energy and
+    *           number of energy bins.
+    */
+   @Override
+   public synchronized void merge(final BackscatterStats bss) {
+      if (bss == this)
+         throw new EPQFatalException("Unable to merge BackscatterStats with itself.");
+      synchronized (bss) {
+         if ((mEnergyBinCount != bss.mEnergyBinCount) || (mBeamEnergy != bss.mBeamEnergy))
+            throw new EPQFatalException("Unable to merge BackscatterStats with different binning.");
+         mElevationBins.merge(bss.mElevationBins);
+         mAzimuthalBins.merge(bss.mAzimuthalBins);
+         mFwdEnergyBins.merge(bss.mFwdEnergyBins);
+         mBackEnergyBins.merge(bss.mBackEnergyBins);
+         mEventCount += bss.mEventCount;
+         mLog.addAll(bss.mLog);
+      }
+   }
+
    /**
     * Returns a histogram object representing the accumulated backscatter energy
     * statistics.
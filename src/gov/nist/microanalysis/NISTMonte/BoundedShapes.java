@@ -26,7 +26,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @author nritchie
  * @version 1.0
  */
-public class BoundedShapes implements Shape {
+public class BoundedShapes implements IBoundedShape {
 
    private final ArrayList<Shape> mShapes;
    private final SimpleBlock mBounds;
@@ -71,6 +71,12 @@ public class BoundedShapes implements Shape {
       return mBounds.getCorner1();
    }
 
+   // JavaDoc in IBoundedShape
+   @Override
+   public double[][] getBoundingBox() {
+      return mBounds.getBoundingBox();
+   }
+
    public static BoundedShapes boundedSphere(double[] center, double radius) {
       final double[] c0 = Math2.minus(center, Math2.multiply(radius, Math2.ONE));
       final double[] c1 = Math2.add(center, Math2.multiply(radius, Math2.ONE));
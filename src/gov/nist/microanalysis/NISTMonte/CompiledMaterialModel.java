@@ -0,0 +1,329 @@
+package gov.nist.microanalysis.NISTMonte;
+
+import gov.nist.microanalysis.EPQLibrary.AlgorithmUser;
+import gov.nist.microanalysis.EPQLibrary.BetheElectronEnergyLoss;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.Element;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.RandomizedScatter;
+import gov.nist.microanalysis.EPQLibrary.RandomizedScatterFactory;
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase;
+import gov.nist.microanalysis.Utility.Math2;
+
+/**
+ * <p>
+ * A precompiled equivalent of BasicMaterialModel. The scattering and energy
+ * loss algorithms are resolved once when the model is constructed and the
+ * total inverse mean free path, the cumulative probability of scattering off
+ * each element and the stopping power are tabulated on a logarithmic energy
+ * grid. Each call to randomMeanPathLength(...) or calculateEnergyLoss(...)
+ * then requires a single table interpolation rather than a strategy lookup
+ * and a loop over the elements in the Material.
+ * </p>
+ * <p>
+ * The results are statistically equivalent to BasicMaterialModel to within the
+ * interpolation error of the tables. (Rather than drawing an independent free
+ * path for each element and taking the shortest, a single free path is drawn
+ * from the total inverse mean free path and the scattering element is selected
+ * in proportion to the per-element inverse mean free paths. The two
+ * procedures produce the same distributions but consume random numbers
+ * differently.) Energies outside the tabulated range are computed exactly.
+ * </p>
+ * <p>
+ * Since the algorithms are captured when the model is constructed, subsequent
+ * changes to the source model's strategy or the global default
+ * BetheElectronEnergyLoss algorithm are not reflected in the compiled model.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class CompiledMaterialModel implements IMaterialScatterModel {
+
+   /**
+    * The default number of grid points per decade of energy.
+    */
+   public static final int DEFAULT_POINTS_PER_DECADE = 500;
+
+   private static final double MIN_GRID_ENERGY = ToSI.eV(1.0);
+
+   private final Material mMaterial;
+   private double mMinEforTracking;
+
+   // The snapshot of the strategy
+   private final RandomizedScatterFactory mFactory;
+   private final BetheElectronEnergyLoss mBethe;
+   private final Element[] mElements;
+   private final RandomizedScatter[] mScatter;
+   private final RandomizedScatter[] mScatterByZ = new RandomizedScatter[Element.elmEndOfElements];
+   // Per element density * weight fraction / atomic mass (atoms per m^3)
+   private final double[] mNumberDensity;
+   // Per element density * weight fraction (kg per m^3)
+   private final double[] mMassDensity;
+
+   // The tables
+   private final double mLogEMin;
+   private final double mLogEMax;
+   private final double mInvDelta;
+   private final int mPoints;
+   // The natural log of the total inverse mean free path in 1/m
+   private final double[] mLogInvMfp;
+   // Cumulative selection probabilities [point*(elements-1)+element]
+   private final double[] mCumulative;
+   // The stopping power in J/m (negative)
+   private final double[] mStoppingPower;
+
+   /**
+    * Constructs a CompiledMaterialModel equivalent to the specified
+    * BasicMaterialModel for electrons with energies up to maxE.
+    *
+    * @param model
+    * @param maxE
+    *           The maximum tabulated energy in Joules (typically the beam
+    *           energy)
+    */
+   public CompiledMaterialModel(BasicMaterialModel model, double maxE) {
+      this(model, maxE, DEFAULT_POINTS_PER_DECADE);
+   }
+
+   /**
+    * Constructs a CompiledMaterialModel equivalent to the specified
+    * BasicMaterialModel for electrons with energies up to maxE.
+    *
+    * @param model
+    * @param maxE
+    *           The maximum tabulated energy in Joules (typically the beam
+    *           energy)
+    * @param pointsPerDecade
+    *           The density of the energy grid
+    */
+   public CompiledMaterialModel(BasicMaterialModel model, double maxE, int pointsPerDecade) {
+      if (pointsPerDecade < 10)
+         throw new EPQFatalException("The energy grid must contain at least 10 points per decade.");
+      mMaterial = model.getMaterial();
+      mMinEforTracking = model.getMinEforTracking();
+      mFactory = (RandomizedScatterFactory) model.getAlgorithm(RandomizedScatterFactory.class);
+      mBethe = AlgorithmUser.getDefaultBetheEnergyLoss();
+      assert mFactory != null;
+      final int nEl = mMaterial.getElementCount();
+      mElements = mMaterial.getElementSet().toArray(new Element[nEl]);
+      mScatter = new RandomizedScatter[nEl];
+      mNumberDensity = new double[nEl];
+      mMassDensity = new double[nEl];
+      final double den = mMaterial.getDensity();
+      for (int i = 0; i < nEl; ++i) {
+         final Element el = mElements[i];
+         mScatter[i] = mFactory.get(el);
+         mScatterByZ[el.getAtomicNumber()] = mScatter[i];
+         mMassDensity[i] = den * mMaterial.weightFraction(el, true);
+         mNumberDensity[i] = mMassDensity[i] / el.getMass();
+      }
+      mLogEMin = Math.log(Math.max(mMinEforTracking, MIN_GRID_ENERGY));
+      mLogEMax = Math.log(Math.max(maxE, 2.0 * Math.exp(mLogEMin)));
+      final double delta = Math.log(10.0) / pointsPerDecade;
+      mPoints = 2 + (int) Math.ceil((mLogEMax - mLogEMin) / delta);
+      mInvDelta = (mPoints - 1) / (mLogEMax - mLogEMin);
+      mLogInvMfp = new double[mPoints];
+      mCumulative = new double[mPoints * Math.max(0, nEl - 1)];
+      mStoppingPower = new double[mPoints];
+      final double[] invMfp = new double[nEl];
+      for (int p = 0; p < mPoints; ++p) {
+         final double e = Math.exp(mLogEMin + (p / mInvDelta));
+         final double total = computeInvMfp(e, invMfp);
+         mLogInvMfp[p] = Math.log(total);
+         double sum = 0.0;
+         for (int i = 0; i < nEl - 1; ++i) {
+            sum += invMfp[i];
+            mCumulative[(p * (nEl - 1)) + i] = total > 0.0 ? sum / total : 1.0;
+         }
+         mStoppingPower[p] = computeStoppingPower(e);
+      }
+   }
+
+   private double computeInvMfp(double e, double[] invMfp) {
+      double total = 0.0;
+      for (int i = 0; i < mElements.length; ++i) {
+         invMfp[i] = mNumberDensity[i] * mScatter[i].totalCrossSection(e);
+         total += invMfp[i];
+      }
+      return total;
+   }
+
+   private double computeStoppingPower(double e) {
+      double res = 0.0;
+      for (int i = 0; i < mElements.length; ++i)
+         res += mBethe.compute(mElements[i], e) * mMassDensity[i];
+      return res;
+   }
+
+   /**
+    * Returns the total inverse mean free path (the probability of an elastic
+    * scattering event per unit length) in 1/m for an electron of the
+    * specified energy.
+    *
+    * @param energy
+    *           In Joules
+    * @return double In 1/m
+    */
+   public double inverseMeanFreePath(double energy) {
+      final double x = (Math.log(energy) - mLogEMin) * mInvDelta;
+      if ((x >= 0.0) && (x < (mPoints - 1))) {
+         final int p = (int) x;
+         final double f = x - p;
+         return Math.exp(mLogInvMfp[p] + (f * (mLogInvMfp[p + 1] - mLogInvMfp[p])));
+      } else {
+         double total = 0.0;
+         for (int i = 0; i < mElements.length; ++i)
+            total += mNumberDensity[i] * mScatter[i].totalCrossSection(energy);
+         return total;
+      }
+   }
+
+   /**
+    * Returns the stopping power (dE/ds, a negative number) in J/m for an
+    * electron of the specified energy.
+    *
+    * @param energy
+    *           In Joules
+    * @return double In J/m
+    */
+   public double stoppingPower(double energy) {
+      final double x = (Math.log(energy) - mLogEMin) * mInvDelta;
+      if ((x >= 0.0) && (x < (mPoints - 1))) {
+         final int p = (int) x;
+         final double f = x - p;
+         return mStoppingPower[p] + (f * (mStoppingPower[p + 1] - mStoppingPower[p]));
+      } else
+         return computeStoppingPower(energy);
+   }
+
+   /**
+    * Returns the range of energies (in Joules) over which the tables are
+    * defined.
+    *
+    * @return double[2] containing { min, max }
+    */
+   public double[] getTabulatedRange() {
+      return new double[] {
+         Math.exp(mLogEMin),
+         Math.exp(mLogEMax)
+      };
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#getMaterial()
+    */
+   @Override
+   public Material getMaterial() {
+      return mMaterial;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#randomMeanPathLength(gov.nist.microanalysis.NISTMonte.Electron)
+    */
+   @Override
+   public double randomMeanPathLength(Electron pe) {
+      final double kE = pe.getEnergy();
+      final int nEl = mElements.length;
+      final double x = (Math.log(kE) - mLogEMin) * mInvDelta;
+      double mfp;
+      Element el = Element.None;
+      if ((x >= 0.0) && (x < (mPoints - 1))) {
+         final int p = (int) x;
+         final double f = x - p;
+         mfp = Math2.expRand() / Math.exp(mLogInvMfp[p] + (f * (mLogInvMfp[p + 1] - mLogInvMfp[p])));
+         if (mfp < 1.0) {
+            final double r = Math2.rgen.nextDouble();
+            final int off0 = p * (nEl - 1), off1 = off0 + (nEl - 1);
+            int i = 0;
+            for (; i < nEl - 1; ++i)
+               if (r < (mCumulative[off0 + i] + (f * (mCumulative[off1 + i] - mCumulative[off0 + i]))))
+                  break;
+            el = mElements[i];
+         }
+      } else {
+         // Outside the tabulated range
+         mfp = 1.0;
+         for (int i = 0; i < nEl; ++i) {
+            final double m = Math2.expRand() / (mNumberDensity[i] * mScatter[i].totalCrossSection(kE));
+            if (m < mfp) {
+               mfp = m;
+               el = mElements[i];
+            }
+         }
+      }
+      // Match BasicMaterialModel which limits the free path to 1 meter
+      if (!(mfp < 1.0)) {
+         mfp = 1.0;
+         el = Element.None;
+      }
+      pe.setScatteringElement(el);
+      return mfp;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#scatter(gov.nist.microanalysis.NISTMonte.Electron)
+    */
+   @Override
+   public Electron scatter(Electron pe) {
+      final Element se = pe.getScatteringElement();
+      if ((se != null) && (se != Element.None)) {
+         RandomizedScatter rs = mScatterByZ[se.getAtomicNumber()];
+         if (rs == null)
+            rs = mFactory.get(se);
+         final double alpha = rs.randomScatteringAngle(pe.getEnergy());
+         final double beta = 2.0 * Math.PI * Math2.rgen.nextDouble();
+         pe.updateDirection(alpha, beta);
+      }
+      return null;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#barrierScatter(gov.nist.microanalysis.NISTMonte.Electron,
+    *      gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase)
+    */
+   @Override
+   public Electron barrierScatter(Electron pe, RegionBase nextRegion) {
+      pe.setCurrentRegion(nextRegion);
+      pe.setScatteringElement(null);
+      return null;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#calculateEnergyLoss(double,
+    *      gov.nist.microanalysis.NISTMonte.Electron)
+    */
+   @Override
+   public double calculateEnergyLoss(double len, Electron pe) {
+      return stoppingPower(pe.getEnergy()) * len;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#getMinEforTracking()
+    */
+   @Override
+   public double getMinEforTracking() {
+      return mMinEforTracking;
+   }
+
+   /**
+    * @see gov.nist.microanalysis.NISTMonte.IMaterialScatterModel#setMinEforTracking(double)
+    */
+   @Override
+   public void setMinEforTracking(double minEforTracking) {
+      mMinEforTracking = minEforTracking;
+   }
+
+   @Override
+   public String toString() {
+      return "Compiled[" + mMaterial.toString() + "]";
+   }
+}
@@ -27,7 +27,7 @@ import gov.nist.microanalysis.Utility.Transform3D;
  * @version 1.0
  */
 
-public class CylindricalShape implements MonteCarloSS.Shape, ITransform, TrajectoryVRML.IRender, Cloneable {
+public class CylindricalShape implements IBoundedShape, ITransform, TrajectoryVRML.IRender, Cloneable {
    private double[] mEnd0; // The position of the center of one end cap
    private double[] mDelta; // The length and direction of the axis
    final private double mRadius2; // The sqr(radius) of the cylinder
@@ -121,6 +121,20 @@ public class CylindricalShape implements MonteCarloSS.Shape, ITransform, Traject
       return new double[]{mEnd0[0] + mDelta[0], mEnd0[1] + mDelta[1], mEnd0[2] + mDelta[2]};
    }
 
+   // JavaDoc in IBoundedShape
+   @Override
+   public double[][] getBoundingBox() {
+      // The end caps are disks of radius r perpendicular to the axis
+      final double r = Math.sqrt(mRadius2);
+      final double[][] res = new double[2][3];
+      for (int i = 0; i < 3; ++i) {
+         final double ext = r * Math.sqrt(Math.max(0.0, 1.0 - ((mDelta[i] * mDelta[i]) / mLen2)));
+         res[0][i] = Math.min(mEnd0[i], mEnd0[i] + mDelta[i]) - ext;
+         res[1][i] = Math.max(mEnd0[i], mEnd0[i] + mDelta[i]) + ext;
+      }
+      return res;
+   }
+
    static final double checkT(double t) {
       return t >= 0.0 ? t : Double.MAX_VALUE;
    }
@@ -1,5 +1,7 @@
 package gov.nist.microanalysis.NISTMonte;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import gov.nist.microanalysis.EPQLibrary.Element;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase;
 import gov.nist.microanalysis.Utility.Math2;
@@ -57,7 +59,7 @@ public class Electron {
 
    transient private boolean mTrajectoryComplete;
 
-   private static long lastID = 0; // ID of last generated electron
+   private static final AtomicLong lastID = new AtomicLong(); // ID of last generated electron
    private final long ident; // A unique identifying number to assist tracking
    private long parentID = 0; // 0 if from e-gun. Otherwise ID of parent.
 
@@ -98,7 +100,7 @@ public class Electron {
       mPhi = phi;
       mStepCount = 0;
       mTrajectoryComplete = false;
-      ident = ++lastID;
+      ident = lastID.incrementAndGet();
    }
 
    /**
@@ -407,7 +409,7 @@ public class Electron {
     * @return Returns the identifier of the most recently created electron.
     */
    static public long getlastIdent() {
-      return lastID;
+      return lastID.get();
    }
 
    /**
@@ -29,7 +29,7 @@ final public class BremsstrahlungXRayGeneration3 extends BaseXRayGeneration3 {
    // Bookkeeping data
    transient private Map<Element, Bremsstrahlung> mBremInstances;
    transient private boolean mInitialized = false;
-   transient private Random mRandom = new Random();
+   transient private Random mRandom = Math2.rgen;
 
    /**
     * Use this static method instead of the constructor to create instances of
@@ -77,7 +77,7 @@ final public class CharacteristicXRayGeneration3 extends BaseXRayGeneration3 imp
 
    private transient TreeMap<AtomicShell, TreeSet<XRayData>> mData = null;
    private transient int mTrajCount = 0;
-   private transient Random mRandom = new Random();
+   private transient Random mRandom = Math2.rgen;
 
    private final double mMinWeight = 0.001;
    private final int mMaxTrajectories = Integer.MAX_VALUE;
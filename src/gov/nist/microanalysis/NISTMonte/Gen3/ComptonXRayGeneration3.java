@@ -40,7 +40,7 @@ final public class ComptonXRayGeneration3 extends BaseXRayGeneration3 {
    private BaseXRayGeneration3 mSource;
    private final MuCal mMuCal = new MuCal();
 
-   transient private final Random mRandom = new Random();
+   transient private final Random mRandom = Math2.rgen;
 
    /**
     * Use this static method instead of the constructor to create instances of
@@ -48,7 +48,7 @@ final public class FluorescenceXRayGeneration3 extends BaseXRayGeneration3 {
    private BaseXRayGeneration3 mSource;
 
    transient private MassAbsorptionCoefficient mMac = null;
-   transient private final Random mRandom = new Random();
+   transient private final Random mRandom = Math2.rgen;
    transient private final DescriptiveStatistics mScaleStats = new DescriptiveStatistics();
 
    private class ShellData {
@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -27,9 +28,11 @@ import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 
 import gov.nist.microanalysis.EPQLibrary.AtomicShell;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.FromSI;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.NISTMonte.IMergeable;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.BremsstrahlungXRay;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.CharacteristicXRay;
@@ -37,7 +40,7 @@ import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.XRay;
 import gov.nist.microanalysis.Utility.HalfUpFormat;
 import gov.nist.microanalysis.Utility.Math2;
 
-final public class VoxelatedDetector implements ActionListener {
+final public class VoxelatedDetector implements ActionListener, IMergeable<VoxelatedDetector> {
 
    public interface XRayType {
       public boolean accept(XRay xr);
@@ -323,6 +326,35 @@ final public class VoxelatedDetector implements ActionListener {
       }
    }
 
+   /**
+    * Adds the voxel intensities and the event and electron counts accumulated
+    * by vd into this detector. vd must have the same position, size and
+    * dimensions as this detector. XRayType objects which are not accumulated
+    * by this detector are ignored.
+    *
+    * @param vd
+    */
+   @Override
+   public void merge(VoxelatedDetector vd) {
+      if (vd == this)
+         throw new EPQFatalException("Unable to merge a VoxelatedDetector with itself.");
+      if (!(Arrays.equals(mDims, vd.mDims) && Arrays.equals(mDelta, vd.mDelta) && Arrays.equals(mPosition, vd.mPosition)
+            && (mGenerated == vd.mGenerated)))
+         throw new EPQFatalException("Unable to merge VoxelatedDetector objects with different voxelations.");
+      for (final Map.Entry<XRayType, double[][][]> me : mAccumulator.entrySet()) {
+         final double[][][] src = vd.mAccumulator.get(me.getKey());
+         if (src != null) {
+            final double[][][] dest = me.getValue();
+            for (int x = 0; x < mDims[0]; ++x)
+               for (int y = 0; y < mDims[1]; ++y)
+                  for (int z = 0; z < mDims[2]; ++z)
+                     dest[x][y][z] += src[x][y][z];
+         }
+      }
+      mEventCount += vd.mEventCount;
+      mElectronCount += vd.mElectronCount;
+   }
+
    /**
     * Returns a list of voxel indices sorted by generated intensity. Smallest
     * intensities first.
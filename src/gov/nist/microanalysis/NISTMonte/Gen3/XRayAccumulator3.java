@@ -14,9 +14,11 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.PhysicalConstants;
 import gov.nist.microanalysis.EPQLibrary.XRayTransition;
 import gov.nist.microanalysis.EPQLibrary.XRayTransitionSet;
+import gov.nist.microanalysis.NISTMonte.IMergeable;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.CharacteristicXRay;
 import gov.nist.microanalysis.NISTMonte.Gen3.BaseXRayGeneration3.XRay;
@@ -38,7 +40,7 @@ import gov.nist.microanalysis.Utility.HalfUpFormat;
  * @author Nicholas W M Ritchie
  * @version 1.0
  */
-final public class XRayAccumulator3 implements ActionListener {
+final public class XRayAccumulator3 implements ActionListener, IMergeable<XRayAccumulator3> {
 
    private class Accumulator {
       final XRayTransition mTransition;
@@ -159,6 +161,29 @@ final public class XRayAccumulator3 implements ActionListener {
       }
    }
 
+   /**
+    * merge - Adds the intensities and electron and event counts accumulated by
+    * xra into this accumulator. Transitions which are not accumulated by this
+    * object are ignored.
+    *
+    * @param xra
+    *           XRayAccumulator3
+    */
+   @Override
+   public void merge(XRayAccumulator3 xra) {
+      if (xra == this)
+         throw new EPQFatalException("Unable to merge an XRayAccumulator3 with itself.");
+      for (final Accumulator acc : mAccumulators.values()) {
+         final Accumulator other = xra.find(acc.mTransition);
+         if (other != null) {
+            acc.mGenerated += other.mGenerated;
+            acc.mTransmitted += other.mTransmitted;
+         }
+      }
+      mElectronCount += xra.mElectronCount;
+      mEventCount += xra.mEventCount;
+   }
+
    /**
     * getEmitted - Get the transmitted intensity for the specified transition in
     * x-rays per millistetradian of detector solid angle.
@@ -1,8 +1,6 @@
 package gov.nist.microanalysis.NISTMonte.Gen3;
 
 import java.awt.event.ActionEvent;
-import java.util.Map;
-
 import gov.nist.microanalysis.EPQLibrary.AlgorithmUser;
 import gov.nist.microanalysis.EPQLibrary.BremsstrahlungAngularDistribution;
 import gov.nist.microanalysis.EPQLibrary.MACCache;
@@ -12,6 +10,7 @@ import gov.nist.microanalysis.EPQLibrary.PhysicalConstants;
 import gov.nist.microanalysis.EPQLibrary.ToSI;
 import gov.nist.microanalysis.EPQLibrary.Detector.IXRayDetector;
 import gov.nist.microanalysis.NISTMonte.MonteCarloSS;
+import gov.nist.microanalysis.NISTMonte.PathLengthTracer;
 import gov.nist.microanalysis.Utility.Math2;
 
 /**
@@ -35,6 +34,9 @@ final public class XRayTransport3 extends BaseXRayGeneration3 {
    }
 
    transient private MACCache mCache;
+   private boolean mInterpolateContinuum = false;
+   transient private PathLengthTracer mTracer;
+   private double mVoxelSize = 0.0;
 
    /**
     * Use this static method instead of the constructor to create instances of
@@ -84,6 +86,76 @@ final public class XRayTransport3 extends BaseXRayGeneration3 {
       return mEndPoint.clone();
    }
 
+   /**
+    * When true, the MACs for continuum x-rays (Bremsstrahlung and Compton) are
+    * interpolated from a log-log energy grid rather than computed exactly. The
+    * interpolated MACs are accurate to within MACCache.DEFAULT_TOLERANCE. The
+    * default is false so that the results match earlier versions.
+    *
+    * @param interpolate
+    */
+   public void setInterpolateContinuum(boolean interpolate) {
+      mInterpolateContinuum = interpolate;
+      if (mCache != null)
+         mCache.setInterpolationEnabled(interpolate);
+   }
+
+   /**
+    * Are the MACs for continuum x-rays interpolated?
+    *
+    * @return boolean
+    */
+   public boolean getInterpolateContinuum() {
+      return mInterpolateContinuum;
+   }
+
+   /**
+    * Enables memoization of the x-ray path lengths on a grid with the
+    * specified spacing (in meters). Zero (the default) disables memoization.
+    * Memoization is appropriate for bulk and layered samples where the voxel
+    * size is small compared with the x-ray generation volume. (See
+    * PathLengthTracer.)
+    *
+    * @param size
+    */
+   public void setPathVoxelSize(double size) {
+      mVoxelSize = size;
+      if (mTracer != null)
+         mTracer.setVoxelSize(size);
+   }
+
+   /**
+    * Returns the spacing of the path length memoization grid (zero if
+    * disabled).
+    *
+    * @return double
+    */
+   public double getPathVoxelSize() {
+      return mVoxelSize;
+   }
+
+   /**
+    * Returns the PathLengthTracer used to compute the path from the point of
+    * generation to the end point. Returns null until the first x-ray has been
+    * transported.
+    *
+    * @return PathLengthTracer
+    */
+   public PathLengthTracer getPathLengthTracer() {
+      return mTracer;
+   }
+
+   /**
+    * Returns the MACCache used to compute the absorption along the x-ray
+    * path. This is primarily useful for the cache statistics. Returns null
+    * until the first x-ray has been transported.
+    *
+    * @return MACCache
+    */
+   public MACCache getMACCache() {
+      return mCache;
+   }
+
    /*
     * (non-Javadoc)
     * 
@@ -111,14 +183,18 @@ final public class XRayTransport3 extends BaseXRayGeneration3 {
          case BaseXRayGeneration3.XRayGeneration : {
             final BaseXRayGeneration3 bxre = (BaseXRayGeneration3) e.getSource();
             final BremsstrahlungAngularDistribution bremAngular = AlgorithmUser.getDefaultAngularDistribution();
+            if (mTracer == null) {
+               mTracer = new PathLengthTracer(mMonte, mEndPoint);
+               mTracer.setVoxelSize(mVoxelSize);
+            }
             double[] startPt = null;
             double geo = Double.NaN;
-            Map<Material, Double> path = null;
+            double[] path = null;
             for (int i = bxre.getEventCount() - 1; i >= 0; --i) {
                final XRay xr = bxre.getXRay(i);
                if (xr.getPosition() != startPt) {
                   startPt = xr.getPosition();
-                  path = mMonte.getMaterialMap(startPt, mEndPoint);
+                  path = mTracer.trace(startPt);
                   geo = 1.0 / Math2.distanceSqr(startPt, mEndPoint);
                }
                final double energy = xr.getEnergy();
@@ -128,35 +204,44 @@ final public class XRayTransport3 extends BaseXRayGeneration3 {
                   BremsstrahlungXRay bxr = (BremsstrahlungXRay) xr;
                   final double generated = woAbs
                         * bremAngular.compute(bxr.getElement(), bxr.getAngle(outgoingDir), bxr.getElectronEnergy(), xr.getEnergy());
-                  addXRay(xr, mEndPoint, generated * Math.exp(-calculateEffectiveMAC(path, energy)), generated);
+                  addXRay(xr, mEndPoint, generated * Math.exp(-calculateEffectiveMAC(path, energy, true)), generated);
                } else if (xr instanceof ComptonXRay) {
                   final ComptonXRay cxr = (ComptonXRay) xr;
                   final double th = Math2.angleBetween(cxr.getPrimaryDirection(), outgoingDir);
                   final double shifted = xr.getEnergy() * comptonShift(th, xr.getEnergy());
                   assert !Double.isNaN(shifted) : xr + " -> th=" + th;
                   final double generated = comptonAngular(xr.getEnergy(), th) * woAbs;
-                  addXRay(cxr, mEndPoint, shifted, generated * Math.exp(-calculateEffectiveMAC(path, shifted)), generated);
+                  addXRay(cxr, mEndPoint, shifted, generated * Math.exp(-calculateEffectiveMAC(path, shifted, true)), generated);
                } else
-                  addXRay(xr, mEndPoint, woAbs * Math.exp(-calculateEffectiveMAC(path, energy)), woAbs);
+                  addXRay(xr, mEndPoint, woAbs * Math.exp(-calculateEffectiveMAC(path, energy, false)), woAbs);
             }
             fireXRayListeners();
          }
             break;
+         case MonteCarloSS.FirstTrajectoryEvent :
+            // The sample may have changed since the last run
+            if (mTracer != null)
+               mTracer.clear();
+            fireXRayListeners(e.getID());
+            break;
          default :
             fireXRayListeners(e.getID());
             break;
       }
    }
 
-   private double calculateEffectiveMAC(Map<Material, Double> path, final double energy) {
-      if (mCache == null)
+   private double calculateEffectiveMAC(double[] path, final double energy, boolean continuum) {
+      if (mCache == null) {
          mCache = new MACCache(mMonte.getBeamEnergy(), (MassAbsorptionCoefficient) getAlgorithm(MassAbsorptionCoefficient.class));
+         mCache.setInterpolationEnabled(mInterpolateContinuum);
+      }
       double mac = 0.0;
-      for (final Map.Entry<Material, Double> matLen : path.entrySet()) {
-         final Material mat = matLen.getKey();
-         if (mat != Material.Null) {
-            final double len = matLen.getValue().doubleValue();
-            mac += mCache.getMAC(mat, energy) * mat.getDensity() * len;
+      for (int id = mTracer.getMaterialCount() - 1; id >= 0; --id) {
+         final double len = path[id];
+         final Material mat = mTracer.getMaterial(id);
+         if ((len > 0.0) && (mat != Material.Null)) {
+            final double m = continuum ? mCache.getInterpolatedMAC(mat, energy) : mCache.getMAC(mat, energy);
+            mac += m * mat.getDensity() * len;
          }
       }
       return mac;
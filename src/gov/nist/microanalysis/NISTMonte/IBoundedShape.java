@@ -0,0 +1,34 @@
+package gov.nist.microanalysis.NISTMonte;
+
+/**
+ * <p>
+ * Implemented by Shapes that can compute an axis-aligned box that fully
+ * encloses them. RegionBase uses these boxes to build a bounding volume
+ * hierarchy over its sub-regions so that the cost of findEndOfStep(...) and
+ * containingSubRegion(...) grows with the logarithm of the number of
+ * sub-regions rather than linearly. Sub-regions whose Shape does not implement
+ * this interface (or returns null) are always checked.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public interface IBoundedShape extends MonteCarloSS.Shape {
+
+   /**
+    * Returns an axis-aligned box that encloses the Shape in its current
+    * position and orientation as {corner0, corner1} where corner0[i] &lt;=
+    * corner1[i]. The box need not be tight but the Shape must lie entirely
+    * within it. Returns null if the Shape is not bounded.
+    *
+    * @return double[2][3] or null
+    */
+   double[][] getBoundingBox();
+}
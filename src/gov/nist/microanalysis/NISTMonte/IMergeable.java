@@ -0,0 +1,36 @@
+package gov.nist.microanalysis.NISTMonte;
+
+/**
+ * <p>
+ * Implemented by accumulators whose state can be combined with the state of
+ * another instance of the same class. This permits a simulation to be split
+ * into independent parts (such as the replicas run by ParallelMonteCarlo) and
+ * the results recombined as though they had been accumulated by a single
+ * instance.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public interface IMergeable<T> {
+
+   /**
+    * Adds the accumulated state of <code>other</code> into this object.
+    * <code>other</code> is not modified. The result should not depend upon
+    * anything other than the order in which the instances are merged. An
+    * object can not be merged with itself.
+    *
+    * @param other
+    *           An instance configured identically to this one
+    * @throws gov.nist.microanalysis.EPQLibrary.EPQFatalException
+    *            If <code>other</code> is this object or is incompatible
+    */
+   void merge(T other);
+}
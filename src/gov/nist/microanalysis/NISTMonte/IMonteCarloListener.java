@@ -0,0 +1,49 @@
+package gov.nist.microanalysis.NISTMonte;
+
+/**
+ * <p>
+ * A typed alternative to the java.awt.event.ActionListener mechanism for
+ * listening to MonteCarloSS events. MonteCarloSS fires an event for every
+ * step of every trajectory, so it avoids allocating an event object for each
+ * call and only notifies a listener of the event types selected by the
+ * listener's event mask.
+ * </p>
+ * <p>
+ * Classes that implement both IMonteCarloListener and ActionListener may be
+ * registered via either MonteCarloSS.addActionListener(...) or
+ * MonteCarloSS.addMonteCarloListener(...). In both cases, onEvent(...) is
+ * called for the event types in getEventMask().
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public interface IMonteCarloListener {
+
+   /**
+    * Called by MonteCarloSS when an event selected by getEventMask() occurs.
+    *
+    * @param type
+    *           One of MonteCarloSS.ScatterEvent, MonteCarloSS.NonScatterEvent,
+    *           ...
+    * @param src
+    *           The MonteCarloSS instance firing the event
+    */
+   void onEvent(int type, MonteCarloSS src);
+
+   /**
+    * The event types to which this listener will respond as constructed by
+    * MonteCarloSS.eventMask(...) or MonteCarloSS.AllEvents. The mask is read
+    * once when the listener is registered.
+    *
+    * @return long
+    */
+   long getEventMask();
+}
@@ -26,7 +26,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @author nritchie
  * @version 1.0
  */
-public class Intersection implements Shape, ITransform {
+public class Intersection implements IBoundedShape, ITransform {
 
    private final List<Shape> mShapes;
 
@@ -116,6 +116,30 @@ public class Intersection implements Shape, ITransform {
       return Collections.unmodifiableList(mShapes);
    }
 
+   /**
+    * The intersection of the bounding boxes of the bounded sub-Shapes or null
+    * if none of the sub-Shapes is bounded.
+    *
+    * @see gov.nist.microanalysis.NISTMonte.IBoundedShape#getBoundingBox()
+    */
+   @Override
+   public double[][] getBoundingBox() {
+      double[][] res = null;
+      for (final Shape shape : mShapes) {
+         final double[][] bb = shape instanceof IBoundedShape ? ((IBoundedShape) shape).getBoundingBox() : null;
+         if (bb != null) {
+            if (res == null)
+               res = bb;
+            else
+               for (int i = 0; i < 3; ++i) {
+                  res[0][i] = Math.max(res[0][i], bb[0][i]);
+                  res[1][i] = Math.min(res[1][i], bb[1][i]);
+               }
+         }
+      }
+      return res;
+   }
+
    @Override
    public String toString() {
       StringBuffer sb = new StringBuffer();
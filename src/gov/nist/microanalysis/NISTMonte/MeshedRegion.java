@@ -926,8 +926,10 @@ public class MeshedRegion extends TransformableRegion {
       this.mesh = mesh;
       mScatterModel = null;
       mShape = mesh.getMeshShape();
-      if (mParent != null)
+      if (mParent != null) {
          mParent.mSubRegions.add(this);
+         mParent.invalidateSubRegionIndex();
+      }
       /* Find the set of unique tags in the mesh. */
       for (i = 1; i <= mesh.getNumberOfElements(); i++)
          /*
@@ -986,8 +988,10 @@ public class MeshedRegion extends TransformableRegion {
       this.mesh = mesh;
       mScatterModel = null;
       mShape = mesh.getMeshShape();
-      if (mParent != null)
+      if (mParent != null) {
          mParent.mSubRegions.add(this);
+         mParent.invalidateSubRegionIndex();
+      }
       /* Find the set of unique tags in the mesh. */
       final int nel = mesh.getNumberOfElements();
       for (int i = 1; i <= nel; i++)
@@ -43,6 +43,12 @@ import gov.nist.microanalysis.Utility.Math2;
  * LastTrajectoryEvent, FirstTrajectoryEvent, or ExitMaterialEvent.
  * </p>
  * <p>
+ * Performance sensitive listeners may instead implement IMonteCarloListener and
+ * register via addMonteCarloListener(...). These listeners are only called for
+ * the event types selected by their event mask and are called without
+ * allocating an event object.
+ * </p>
+ * <p>
  * Physical models can be changed by using setBetheElectronEnergyLoss,
  * setScatteringAlgorithm or setGasScatteringAlgorithm.
  * </p>
@@ -151,6 +157,37 @@ final public class MonteCarloSS {
     */
    public static final int BeamEnergyChanged = 100;
 
+   /**
+    * An event mask selecting all event types.
+    */
+   public static final long AllEvents = -1L;
+
+   /**
+    * Builds an event mask for use with addMonteCarloListener(...) or
+    * addActionListener(...) that selects the specified event types.
+    *
+    * @param events
+    *           ScatterEvent, NonScatterEvent, BackscatterEvent, ...
+    * @return long
+    */
+   public static long eventMask(int... events) {
+      long res = 0L;
+      for (final int event : events)
+         res |= 1L << eventBit(event);
+      return res;
+   }
+
+   /**
+    * Maps an event type onto a bit in an event mask. Events with IDs outside
+    * [0,63) (including BeamEnergyChanged) share the top bit.
+    *
+    * @param event
+    * @return int
+    */
+   private static int eventBit(int event) {
+      return (event >= 0) && (event < 63) ? event : 63;
+   }
+
    /**
     * XAxis, YAxis and ZAxis enumerate the coordinate axes.
     */
@@ -343,6 +380,66 @@ final public class MonteCarloSS {
 
       protected ArrayList<RegionBase> mSubRegions = new ArrayList<RegionBase>();
 
+      /**
+       * A bounding volume hierarchy over mSubRegions. Built on demand when
+       * there are at least sSubRegionIndexThreshold sub-regions and discarded
+       * whenever the sub-regions are added, removed or transformed.
+       */
+      private transient volatile SubRegionBVH mSubRegionIndex;
+
+      private static volatile int sSubRegionIndexThreshold = 8;
+
+      /**
+       * Sets the minimum number of sub-regions for which findEndOfStep(...)
+       * and containingSubRegion(...) will use a bounding volume hierarchy
+       * rather than checking each sub-region in turn. Only sub-regions whose
+       * Shape implements IBoundedShape benefit. Use Integer.MAX_VALUE to
+       * disable the hierarchy.
+       *
+       * @param threshold
+       */
+      public static void setSubRegionIndexThreshold(int threshold) {
+         sSubRegionIndexThreshold = Math.max(1, threshold);
+      }
+
+      /**
+       * Returns the minimum number of sub-regions for which a bounding volume
+       * hierarchy is used.
+       *
+       * @return int
+       */
+      public static int getSubRegionIndexThreshold() {
+         return sSubRegionIndexThreshold;
+      }
+
+      /**
+       * Discards the bounding volume hierarchy over the sub-regions. This
+       * happens automatically when sub-regions are added or removed via Region
+       * and when a region is transformed via rotate(...) or translate(...). Call
+       * this method if the Shape of a sub-region is modified directly.
+       */
+      public void invalidateSubRegionIndex() {
+         mSubRegionIndex = null;
+      }
+
+      /**
+       * Returns the bounding volume hierarchy over the sub-regions, building it
+       * if necessary, or null if there are too few sub-regions to warrant one.
+       *
+       * @return SubRegionBVH
+       */
+      private SubRegionBVH getSubRegionIndex() {
+         final int n = mSubRegions.size();
+         if (n < sSubRegionIndexThreshold)
+            return null;
+         SubRegionBVH res = mSubRegionIndex;
+         if ((res == null) || (res.size() != n)) {
+            res = new SubRegionBVH(mSubRegions);
+            mSubRegionIndex = res;
+         }
+         return res;
+      }
+
       public void updateMaterial(Material oldMat, IMaterialScatterModel newMat) {
          // Recursively replace all instances of oldMat with newMat
          if (mScatterModel.getMaterial() == oldMat)
@@ -396,6 +493,11 @@ final public class MonteCarloSS {
        */
       protected RegionBase containingSubRegion(double[] pos) {
          if (mShape.contains(pos)) {
+            final SubRegionBVH index = getSubRegionIndex();
+            if (index != null) {
+               final RegionBase csr = index.containingSubRegion(pos);
+               return csr != null ? csr : this;
+            }
             for (final RegionBase reg : mSubRegions) {
                final RegionBase csr = reg.containingSubRegion(pos);
                if (csr != null)
@@ -457,23 +559,32 @@ final public class MonteCarloSS {
           * sub Regions, we don't need to check the child region's child regions
           * etc.
           */
-         for (final RegionBase subRegion : mSubRegions) {
-            final double candidate = subRegion.mShape.getFirstIntersection(pos0, pos1);
-            assert candidate >= 0.0 : subRegion.mShape.toString() + " " + Double.toString(candidate);
-            if ((candidate <= 1.0) && (candidate < t)) {
-               t = candidate;
-               base = subRegion;
+         final SubRegionBVH index = getSubRegionIndex();
+         if (index != null) {
+            final int idx = index.firstIntersected(pos0, pos1, t);
+            if (idx >= 0) {
+               base = mSubRegions.get(idx);
+               t = base.mShape.getFirstIntersection(pos0, pos1);
+            }
+         } else
+            for (final RegionBase subRegion : mSubRegions) {
+               final double candidate = subRegion.mShape.getFirstIntersection(pos0, pos1);
+               assert candidate >= 0.0 : subRegion.mShape.toString() + " " + Double.toString(candidate);
+               if ((candidate <= 1.0) && (candidate < t)) {
+                  t = candidate;
+                  base = subRegion;
+               }
             }
-         }
          assert (t >= 0.0);
          if (t <= 1.0) {
-            final double[] delta = Math2.minus(pos1, pos0);
+            final double dx = pos1[0] - pos0[0], dy = pos1[1] - pos0[1], dz = pos1[2] - pos0[2];
             // Put pos1 exactly on the boundary.
-            pos1[0] = pos0[0] + (t * delta[0]);
-            pos1[1] = pos0[1] + (t * delta[1]);
-            pos1[2] = pos0[2] + (t * delta[2]);
+            pos1[0] = pos0[0] + (t * dx);
+            pos1[1] = pos0[1] + (t * dy);
+            pos1[2] = pos0[2] + (t * dz);
             // Find the region just over the boundary...
-            final double[] over = Math2.plus(pos1, Math2.multiply(SMALL_DISP, Math2.normalize(delta)));
+            final double mag = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+            final double[] over = {pos1[0] + (SMALL_DISP * (dx / mag)), pos1[1] + (SMALL_DISP * (dy / mag)), pos1[2] + (SMALL_DISP * (dz / mag))};
             while (base != null) {
                res = base.containingSubRegion(over);
                if (res != null)
@@ -579,6 +690,9 @@ final public class MonteCarloSS {
             t = (ITransform) element;
             t.rotate(pivot, phi, theta, psi);
          }
+         invalidateSubRegionIndex();
+         if (mParent != null)
+            mParent.invalidateSubRegionIndex();
       }
 
       // documented in ITransform
@@ -599,6 +713,9 @@ final public class MonteCarloSS {
             t = (ITransform) element;
             t.translate(distance);
          }
+         invalidateSubRegionIndex();
+         if (mParent != null)
+            mParent.invalidateSubRegionIndex();
       }
    }
 
@@ -624,8 +741,10 @@ final public class MonteCarloSS {
          mParent = parent;
          mScatterModel = msm;
          mShape = shape;
-         if (mParent != null)
+         if (mParent != null) {
             mParent.mSubRegions.add(this);
+            mParent.invalidateSubRegionIndex();
+         }
       }
 
       /**
@@ -636,6 +755,7 @@ final public class MonteCarloSS {
        */
       public void removeSubRegion(TransformableRegion subRegion) {
          mSubRegions.remove(subRegion);
+         invalidateSubRegionIndex();
       }
 
       /**
@@ -643,6 +763,7 @@ final public class MonteCarloSS {
        */
       public void clearSubRegions() {
          mSubRegions.clear();
+         invalidateSubRegionIndex();
       }
    }
 
@@ -709,11 +830,52 @@ final public class MonteCarloSS {
     */
    private final ArrayList<Electron> mElectronStack = new ArrayList<Electron>();
 
+   /**
+    * Adapts an ActionListener to the IMonteCarloListener interface. The
+    * ActionEvent objects passed to the ActionListener are cached and reused.
+    */
+   private static final class ActionListenerAdapter implements IMonteCarloListener {
+      private final ActionListener mListener;
+      private final long mMask;
+
+      private ActionListenerAdapter(ActionListener al, long mask) {
+         mListener = al;
+         mMask = mask;
+      }
+
+      @Override
+      public void onEvent(int type, MonteCarloSS src) {
+         mListener.actionPerformed(src.getActionEvent(type));
+      }
+
+      @Override
+      public long getEventMask() {
+         return mMask;
+      }
+   }
+
+   private static final IMonteCarloListener[] NO_LISTENERS = new IMonteCarloListener[0];
+
    // Bookkeeping data
-   transient private final ArrayList<ActionListener> mEventListeners = new ArrayList<ActionListener>();
+   /**
+    * The registered listeners (last added first) and the listeners for each
+    * event bit. Both are replaced rather than modified when a listener is added
+    * or removed.
+    */
+   transient private IMonteCarloListener[] mEventListeners = NO_LISTENERS;
+   transient private final IMonteCarloListener[][] mDispatch = new IMonteCarloListener[64][];
+   transient private final ActionEvent[] mActionEvents = new ActionEvent[64];
 
    transient private boolean mDisableEvents = false;
 
+   /**
+    * When mSeeded is true, each trajectory's random numbers are drawn from a
+    * stream determined by mSeed and the trajectory's index.
+    */
+   private boolean mSeeded = false;
+   private long mSeed;
+   private long mNextTrajectory;
+
    /**
     * Computes the Euclidean distance between pos0 and pos1.
     * 
@@ -762,12 +924,33 @@ final public class MonteCarloSS {
       return new Region(parent, msm, shape);
    }
 
+   /**
+    * Replaces each BasicMaterialModel in the sample with an equivalent
+    * CompiledMaterialModel tabulated up to the current beam energy. Call this
+    * after the sample has been constructed and the beam energy set.
+    */
+   public void compileScatterModels() {
+      final Map<BasicMaterialModel, CompiledMaterialModel> compiled = new HashMap<BasicMaterialModel, CompiledMaterialModel>();
+      final List<RegionBase> regions = new ArrayList<RegionBase>();
+      regions.add(mChamber);
+      for (int i = 0; i < regions.size(); ++i) {
+         final RegionBase reg = regions.get(i);
+         final IMaterialScatterModel msm = reg.getScatterModel();
+         if ((msm instanceof BasicMaterialModel) && (!compiled.containsKey(msm)))
+            compiled.put((BasicMaterialModel) msm, new CompiledMaterialModel((BasicMaterialModel) msm, getBeamEnergy()));
+         regions.addAll(reg.getSubRegions());
+      }
+      for (final Map.Entry<BasicMaterialModel, CompiledMaterialModel> me : compiled.entrySet())
+         mChamber.updateMaterial(me.getKey(), me.getValue());
+   }
+
    /**
     * Creates a map containing a list of the materials through which an x-ray
     * (or any ray) will pass on its way from startPt to endPt. Associated with
     * each material is the measure of the length of the path through the
     * material. This information can be used to compute the absorption of x-rays
-    * generated in the sample as they pass towards a detector.
+    * generated in the sample as they pass towards a detector. Use a
+    * PathLengthTracer when tracing many rays towards the same end point.
     * 
     * @return Map&lt;Material,Double&gt; - the key class is Material and value
     *         class is Double
@@ -806,10 +989,42 @@ final public class MonteCarloSS {
     *           - One of ScatterEvent, NonScatterEvent, BackscatterEvent,...
     */
    private void fireEvent(int event) {
-      if (!(mEventListeners.isEmpty() || mDisableEvents)) {
-         final ActionEvent ae = new ActionEvent(this, event, "MonteCarloSS event");
-         for (final ActionListener sel : mEventListeners)
-            sel.actionPerformed(ae);
+      if (!mDisableEvents) {
+         final IMonteCarloListener[] listeners = mDispatch[eventBit(event)];
+         if (listeners != null)
+            for (final IMonteCarloListener listener : listeners)
+               listener.onEvent(event, this);
+      }
+   }
+
+   /**
+    * Returns an ActionEvent for the specified event type. One ActionEvent is
+    * created per event type and then reused.
+    *
+    * @param event
+    * @return ActionEvent
+    */
+   private ActionEvent getActionEvent(int event) {
+      final int bit = eventBit(event);
+      ActionEvent res = mActionEvents[bit];
+      if ((res == null) || (res.getID() != event)) {
+         res = new ActionEvent(this, event, "MonteCarloSS event");
+         mActionEvents[bit] = res;
+      }
+      return res;
+   }
+
+   /**
+    * Rebuilds the per-event-type dispatch lists from mEventListeners.
+    */
+   private void rebuildDispatch() {
+      final ArrayList<IMonteCarloListener> tmp = new ArrayList<IMonteCarloListener>();
+      for (int bit = 0; bit < mDispatch.length; ++bit) {
+         tmp.clear();
+         for (final IMonteCarloListener listener : mEventListeners)
+            if ((listener.getEventMask() & (1L << bit)) != 0L)
+               tmp.add(listener);
+         mDispatch[bit] = tmp.isEmpty() ? null : tmp.toArray(NO_LISTENERS);
       }
    }
 
@@ -1017,11 +1232,43 @@ final public class MonteCarloSS {
     *           ActionListener
     */
    public void addActionListener(ActionListener sel) {
+      if (sel instanceof IMonteCarloListener)
+         addMonteCarloListener((IMonteCarloListener) sel);
+      else
+         addActionListener(sel, AllEvents);
+   }
+
+   /**
+    * Register an ActionListener which will only be informed of the event types
+    * selected by <code>mask</code>. (See eventMask(...))
+    *
+    * @param sel
+    *           ActionListener
+    * @param mask
+    *           An event mask
+    */
+   public void addActionListener(ActionListener sel, long mask) {
+      addMonteCarloListener(new ActionListenerAdapter(sel, mask));
+   }
+
+   /**
+    * Register an IMonteCarloListener which will be informed of the event types
+    * selected by its getEventMask() method. Like ActionListeners, these
+    * listeners are last-added, first-called.
+    *
+    * @param listener
+    *           IMonteCarloListener
+    */
+   public void addMonteCarloListener(IMonteCarloListener listener) {
       /*
        * The new listener is put at the front of the list, so they are
        * last-added, first-called
        */
-      mEventListeners.add(0, sel);
+      final IMonteCarloListener[] res = new IMonteCarloListener[mEventListeners.length + 1];
+      res[0] = listener;
+      System.arraycopy(mEventListeners, 0, res, 1, mEventListeners.length);
+      mEventListeners = res;
+      rebuildDispatch();
    }
 
    /**
@@ -1031,7 +1278,32 @@ final public class MonteCarloSS {
     *           ActionEvent
     */
    public void removeActionListener(ActionListener sel) {
-      mEventListeners.remove(sel);
+      removeListener(sel);
+   }
+
+   /**
+    * Remove an event handler that was registered using
+    * addMonteCarloListener(...)
+    *
+    * @param listener
+    *           IMonteCarloListener
+    */
+   public void removeMonteCarloListener(IMonteCarloListener listener) {
+      removeListener(listener);
+   }
+
+   private void removeListener(Object listener) {
+      for (int i = 0; i < mEventListeners.length; ++i) {
+         final IMonteCarloListener ml = mEventListeners[i];
+         if ((ml == listener) || ((ml instanceof ActionListenerAdapter) && (((ActionListenerAdapter) ml).mListener == listener))) {
+            final IMonteCarloListener[] res = new IMonteCarloListener[mEventListeners.length - 1];
+            System.arraycopy(mEventListeners, 0, res, 0, i);
+            System.arraycopy(mEventListeners, i + 1, res, i, res.length - i);
+            mEventListeners = res;
+            rebuildDispatch();
+            return;
+         }
+      }
    }
 
    /**
@@ -1070,6 +1342,8 @@ final public class MonteCarloSS {
     * tracked to completion before runTrajectory will return.
     */
    public void runTrajectory() {
+      if (mSeeded)
+         Math2.seedRandomStream(mSeed, mNextTrajectory++);
       initializeTrajectory();
       fireEvent(TrajectoryStartEvent);
       while (!allElectronsComplete())
@@ -1090,6 +1364,40 @@ final public class MonteCarloSS {
       fireEvent(LastTrajectoryEvent);
    }
 
+   /**
+    * Specifies that each subsequent trajectory is to be run using a random
+    * number stream which depends only upon seed and the index of the
+    * trajectory. The first trajectory run after this call will have index
+    * firstTrajectory. This makes a simulation reproducible and allows a
+    * simulation to be split across threads (see ParallelMonteCarlo) without
+    * changing the trajectories.
+    *
+    * @param seed
+    * @param firstTrajectory
+    */
+   public void setRandomSeed(long seed, long firstTrajectory) {
+      mSeeded = true;
+      mSeed = seed;
+      mNextTrajectory = firstTrajectory;
+   }
+
+   /**
+    * Equivalent to setRandomSeed(seed, 0).
+    *
+    * @param seed
+    */
+   public void setRandomSeed(long seed) {
+      setRandomSeed(seed, 0);
+   }
+
+   /**
+    * Subsequent trajectories will draw random numbers from the calling
+    * thread's unseeded stream.
+    */
+   public void clearRandomSeed() {
+      mSeeded = false;
+   }
+
    /**
     * Returns the incident electron beam energy (in Joules)
     * 
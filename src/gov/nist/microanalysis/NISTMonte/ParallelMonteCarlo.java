@@ -0,0 +1,340 @@
+package gov.nist.microanalysis.NISTMonte;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gov.nist.microanalysis.EPQLibrary.EPQException;
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+
+/**
+ * <p>
+ * Runs the trajectories for a simulation on multiple threads. A MonteCarloSS
+ * instance and the listeners attached to it are not thread-safe so rather than
+ * sharing a single instance, ParallelMonteCarlo asks a ReplicaFactory to build
+ * one independent copy of the simulation (the region tree, the electron gun
+ * and the listeners) for each partition of the trajectories. Each partition
+ * runs its share of the trajectories on a worker thread. When all the
+ * partitions have completed, the listeners that were registered as results
+ * (via Replica.addResult(...)) are merged into the listeners of the first
+ * replica.
+ * </p>
+ * <p>
+ * The trajectories are distributed over the partitions statically and the
+ * results are always merged in partition order so the merged result does not
+ * depend upon the order in which the threads finish. By default there is one
+ * partition per thread.
+ * </p>
+ * <p>
+ * When a seed is specified via setRandomSeed(...), each trajectory draws its
+ * random numbers from a stream that depends only upon the seed and the
+ * trajectory's index. The individual trajectories are then the same regardless
+ * of the number of threads or partitions. Since floating point sums depend
+ * upon the order of the summation, the merged results are bit-for-bit
+ * identical for a given seed and partition count regardless of the number of
+ * threads.
+ * </p>
+ * <p>
+ * Note: Each replica must construct its own listeners. Listeners shared
+ * between replicas (for example an EDSDetector returned by
+ * EDSDetector.createDetector(...) which caches instances) will be detected and
+ * rejected. Use EDSDetector.createSession() to give each replica its own
+ * detector.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final public class ParallelMonteCarlo {
+
+   /**
+    * <p>
+    * A Replica is one fully configured, independent copy of a simulation. The
+    * results are the listeners which will be merged at the end of the run.
+    * Results must be added in the same order on every replica.
+    * </p>
+    */
+   public static class Replica {
+      private final MonteCarloSS mMonte;
+      private final ArrayList<IMergeable<?>> mResults = new ArrayList<IMergeable<?>>();
+
+      /**
+       * Constructs a Replica around a MonteCarloSS instance to which the
+       * necessary listeners have been attached.
+       *
+       * @param mcss
+       */
+      public Replica(MonteCarloSS mcss) {
+         if (mcss == null)
+            throw new NullPointerException("mcss == null");
+         mMonte = mcss;
+      }
+
+      /**
+       * Register a listener whose state will be merged at the end of the run.
+       *
+       * @param res
+       * @return this
+       */
+      public Replica addResult(IMergeable<?> res) {
+         mResults.add(res);
+         return this;
+      }
+
+      /**
+       * Returns the MonteCarloSS instance associated with this replica.
+       *
+       * @return MonteCarloSS
+       */
+      public MonteCarloSS getMonteCarlo() {
+         return mMonte;
+      }
+
+      /**
+       * Returns an immutable list of the results in the order in which they
+       * were added.
+       *
+       * @return List&lt;IMergeable&lt;?&gt;&gt;
+       */
+      public List<IMergeable<?>> getResults() {
+         return Collections.unmodifiableList(mResults);
+      }
+
+      /**
+       * Returns the idx-th result cast to the specified class.
+       *
+       * @param idx
+       * @param cls
+       * @return T
+       */
+      public <T> T getResult(int idx, Class<T> cls) {
+         return cls.cast(mResults.get(idx));
+      }
+   }
+
+   /**
+    * <p>
+    * Implement this interface to build a complete, independent copy of the
+    * simulation. create(...) is called once per partition from the thread that
+    * calls ParallelMonteCarlo.run(...).
+    * </p>
+    */
+   public interface ReplicaFactory {
+      /**
+       * Build a new Replica.
+       *
+       * @param partition
+       *           The index of the partition for which the replica is built.
+       * @return Replica
+       * @throws EPQException
+       */
+      Replica create(int partition) throws EPQException;
+   }
+
+   private final ReplicaFactory mFactory;
+   private final int mThreadCount;
+   private int mPartitionCount;
+   private boolean mSeeded = false;
+   private long mSeed;
+
+   /**
+    * Constructs a ParallelMonteCarlo which will use one thread per available
+    * processor.
+    *
+    * @param factory
+    */
+   public ParallelMonteCarlo(ReplicaFactory factory) {
+      this(factory, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Constructs a ParallelMonteCarlo which will use the specified number of
+    * threads.
+    *
+    * @param factory
+    * @param nThreads
+    */
+   public ParallelMonteCarlo(ReplicaFactory factory, int nThreads) {
+      if (factory == null)
+         throw new NullPointerException("factory == null");
+      if (nThreads < 1)
+         throw new EPQFatalException("The number of threads must be one or more.");
+      mFactory = factory;
+      mThreadCount = nThreads;
+      mPartitionCount = nThreads;
+   }
+
+   /**
+    * Returns the number of worker threads.
+    *
+    * @return int
+    */
+   public int getThreadCount() {
+      return mThreadCount;
+   }
+
+   /**
+    * Returns the number of partitions into which the trajectories are divided.
+    *
+    * @return int
+    */
+   public int getPartitionCount() {
+      return mPartitionCount;
+   }
+
+   /**
+    * Sets the number of partitions (and replicas) into which the trajectories
+    * are divided. Using more partitions than threads improves the load balance
+    * at the cost of building more replicas.
+    *
+    * @param nPartitions
+    */
+   public void setPartitionCount(int nPartitions) {
+      if (nPartitions < 1)
+         throw new EPQFatalException("The number of partitions must be one or more.");
+      mPartitionCount = nPartitions;
+   }
+
+   /**
+    * Specifies the seed from which the per-trajectory random number streams
+    * are derived.
+    *
+    * @param seed
+    */
+   public void setRandomSeed(long seed) {
+      mSeeded = true;
+      mSeed = seed;
+   }
+
+   /**
+    * The trajectories will be run using the worker threads' unseeded random
+    * number streams.
+    */
+   public void clearRandomSeed() {
+      mSeeded = false;
+   }
+
+   /**
+    * The number of trajectories run by the specified partition.
+    *
+    * @param nTrajectories
+    * @param nPartitions
+    * @param partition
+    * @return int
+    */
+   static int trajectoriesInPartition(int nTrajectories, int nPartitions, int partition) {
+      return (nTrajectories / nPartitions) + (partition < (nTrajectories % nPartitions) ? 1 : 0);
+   }
+
+   /**
+    * Checks that the replicas are consistent with one another and don't share
+    * any result objects.
+    *
+    * @param replicas
+    */
+   private static void validate(List<Replica> replicas) {
+      final Replica first = replicas.get(0);
+      final IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+      for (final Replica rep : replicas) {
+         if (rep.mResults.size() != first.mResults.size())
+            throw new EPQFatalException("Each replica must register the same number of results.");
+         if (seen.put(rep.mMonte, Boolean.TRUE) != null)
+            throw new EPQFatalException("Replicas may not share a MonteCarloSS instance.");
+         for (int i = 0; i < rep.mResults.size(); ++i) {
+            final IMergeable<?> res = rep.mResults.get(i);
+            if (res.getClass() != first.mResults.get(i).getClass())
+               throw new EPQFatalException("Result " + i + " is not of the same class in each replica.");
+            if (seen.put(res, Boolean.TRUE) != null)
+               throw new EPQFatalException(res.toString() + " is shared between replicas.");
+         }
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> void mergeInto(IMergeable<T> dest, Object src) {
+      dest.merge((T) src);
+   }
+
+   /**
+    * Builds the replicas, runs a total of <code>nTrajectories</code>
+    * trajectories distributed over the partitions and then merges the results
+    * into the first replica's listeners.
+    *
+    * @param nTrajectories
+    * @return Replica - The first replica containing the merged results.
+    * @throws EPQException
+    */
+   public Replica run(int nTrajectories) throws EPQException {
+      final int nPartitions = Math.max(1, Math.min(mPartitionCount, nTrajectories));
+      final List<Replica> replicas = new ArrayList<Replica>();
+      for (int p = 0; p < nPartitions; ++p) {
+         final Replica rep = mFactory.create(p);
+         if (rep == null)
+            throw new EPQException("The replica factory returned null for partition " + p);
+         replicas.add(rep);
+      }
+      validate(replicas);
+      if (mSeeded) {
+         long first = 0;
+         for (int p = 0; p < nPartitions; ++p) {
+            replicas.get(p).getMonteCarlo().setRandomSeed(mSeed, first);
+            first += trajectoriesInPartition(nTrajectories, nPartitions, p);
+         }
+      }
+      final ExecutorService exec = Executors.newFixedThreadPool(Math.min(mThreadCount, nPartitions), new ThreadFactory() {
+         private final AtomicInteger mIndex = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable r) {
+            final Thread th = new Thread(r, "ParallelMonteCarlo-" + mIndex.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+         }
+      });
+      try {
+         final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         for (int p = 0; p < nPartitions; ++p) {
+            final MonteCarloSS mcss = replicas.get(p).getMonteCarlo();
+            final int nTraj = trajectoriesInPartition(nTrajectories, nPartitions, p);
+            futures.add(exec.submit(new Callable<Void>() {
+               @Override
+               public Void call() {
+                  mcss.runMultipleTrajectories(nTraj);
+                  return null;
+               }
+            }));
+         }
+         for (final Future<Void> fut : futures)
+            fut.get();
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new EPQException("The parallel Monte Carlo run was interrupted.", e);
+      } catch (final ExecutionException e) {
+         throw new EPQException("A Monte Carlo partition failed.", e.getCause());
+      } finally {
+         exec.shutdownNow();
+      }
+      final Replica res = replicas.get(0);
+      for (int p = 1; p < nPartitions; ++p) {
+         final List<IMergeable<?>> src = replicas.get(p).mResults;
+         for (int i = 0; i < res.mResults.size(); ++i)
+            mergeInto(res.mResults.get(i), src.get(i));
+      }
+      return res;
+   }
+}
@@ -0,0 +1,378 @@
+package gov.nist.microanalysis.NISTMonte;
+
+import java.util.Arrays;
+
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase;
+
+/**
+ * <p>
+ * Computes the length of the path through each material along a ray from a
+ * start point to a fixed end point (typically a detector). This performs the
+ * same calculation as MonteCarloSS.getMaterialMap(...) but reports the path
+ * lengths in a reusable array indexed by a material ID rather than allocating
+ * a new Map on each call. Material IDs are assigned in the order in which the
+ * materials are first encountered and remain valid for the lifetime of the
+ * tracer.
+ * </p>
+ * <p>
+ * Optionally, the path lengths can be memoized on a grid of nodes spaced by
+ * the voxel size. The path lengths from each grid node are computed once and
+ * the path lengths from a start point are interpolated (trilinearly) from the
+ * eight nodes at the corners of the voxel containing the start point. When the
+ * corners and the start point are not all in the same region, the path
+ * lengths are computed exactly. Within a region bounded by planes the path
+ * length varies slowly and nearly linearly with the start point, so this is
+ * very accurate for bulk and layered samples. For samples with features
+ * smaller than the voxel size, the interpolation may miss features. The memo
+ * must be cleared (via clear()) whenever the sample geometry changes.
+ * </p>
+ * <p>
+ * PathLengthTracer is not thread safe.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final public class PathLengthTracer {
+
+   /**
+    * The default maximum number of memoized grid nodes.
+    */
+   public static final int DEFAULT_MAX_NODES = 1 << 20;
+
+   private static final double EPS = 1.0e-7;
+   private static final int INDEX_LIMIT = 1 << 20;
+
+   /**
+    * The path lengths from a grid node along with the region containing the
+    * node.
+    */
+   private static final class Node {
+      private final RegionBase mRegion;
+      private final double[] mLengths;
+
+      private Node(RegionBase region, double[] lengths) {
+         mRegion = region;
+         mLengths = lengths;
+      }
+   }
+
+   private final MonteCarloSS mMonte;
+   private final double[] mEndPoint;
+
+   private Material[] mMaterials = new Material[4];
+   private double[] mLengths = new double[4];
+   private int mMaterialCount = 0;
+
+   // Scratch vectors
+   private final double[] mStart = new double[3];
+   private final double[] mEnd = new double[3];
+   private final double[] mNodePt = new double[3];
+   private final Node[] mCorners = new Node[8];
+
+   // The memo (an open addressing hash table mapping packed node indices to
+   // Nodes)
+   private double mVoxelSize = 0.0;
+   private int mMaxNodes = DEFAULT_MAX_NODES;
+   private long[] mKeys;
+   private Node[] mNodes;
+   private int mNodeCount;
+
+   private long mTraceCount;
+   private long mInterpolatedCount;
+
+   /**
+    * Constructs a PathLengthTracer for rays from points within the sample
+    * simulated by mcss to endPt.
+    *
+    * @param mcss
+    * @param endPt
+    *           The fixed end point of the rays (typically a detector position)
+    */
+   public PathLengthTracer(MonteCarloSS mcss, double[] endPt) {
+      if (mcss == null)
+         throw new NullPointerException("mcss == null");
+      mMonte = mcss;
+      mEndPoint = endPt.clone();
+   }
+
+   /**
+    * Returns a copy of the end point.
+    *
+    * @return double[]
+    */
+   public double[] getEndPoint() {
+      return mEndPoint.clone();
+   }
+
+   /**
+    * Enables memoization of path lengths on a grid of nodes with the
+    * specified spacing (in meters). A size of zero disables memoization.
+    * Clears the memo.
+    *
+    * @param size
+    */
+   public void setVoxelSize(double size) {
+      if (!(size >= 0.0))
+         throw new EPQFatalException("The voxel size must be non-negative.");
+      mVoxelSize = size;
+      clear();
+   }
+
+   /**
+    * Returns the spacing of the memoization grid in meters (zero if
+    * memoization is disabled).
+    *
+    * @return double
+    */
+   public double getVoxelSize() {
+      return mVoxelSize;
+   }
+
+   /**
+    * Sets the maximum number of grid nodes to memoize. Once the memo is full,
+    * path lengths that would require additional nodes are computed exactly.
+    *
+    * @param maxNodes
+    */
+   public void setMaxNodes(int maxNodes) {
+      mMaxNodes = Math.max(8, maxNodes);
+   }
+
+   /**
+    * Discards the memoized path lengths. Call this whenever the sample
+    * geometry changes.
+    */
+   public void clear() {
+      mKeys = null;
+      mNodes = null;
+      mNodeCount = 0;
+   }
+
+   /**
+    * The number of memoized grid nodes.
+    *
+    * @return int
+    */
+   public int getNodeCount() {
+      return mNodeCount;
+   }
+
+   /**
+    * The number of rays traced exactly (including rays traced from grid
+    * nodes).
+    *
+    * @return long
+    */
+   public long getTraceCount() {
+      return mTraceCount;
+   }
+
+   /**
+    * The number of path length calculations satisfied by interpolation.
+    *
+    * @return long
+    */
+   public long getInterpolatedCount() {
+      return mInterpolatedCount;
+   }
+
+   /**
+    * The number of materials which have been assigned IDs.
+    *
+    * @return int
+    */
+   public int getMaterialCount() {
+      return mMaterialCount;
+   }
+
+   /**
+    * Returns the Material associated with the specified ID.
+    *
+    * @param id
+    * @return Material
+    */
+   public Material getMaterial(int id) {
+      return mMaterials[id];
+   }
+
+   /**
+    * Returns the ID associated with the specified Material, assigning a new
+    * ID if necessary.
+    *
+    * @param mat
+    * @return int
+    */
+   public int getMaterialID(Material mat) {
+      for (int i = 0; i < mMaterialCount; ++i)
+         if (mMaterials[i] == mat)
+            return i;
+      for (int i = 0; i < mMaterialCount; ++i)
+         if (mMaterials[i].equals(mat))
+            return i;
+      if (mMaterialCount == mMaterials.length) {
+         mMaterials = Arrays.copyOf(mMaterials, 2 * mMaterialCount);
+         mLengths = Arrays.copyOf(mLengths, 2 * mMaterialCount);
+      }
+      mMaterials[mMaterialCount] = mat;
+      mLengths[mMaterialCount] = 0.0;
+      return mMaterialCount++;
+   }
+
+   /**
+    * Computes the path length through each material along the ray from
+    * startPt to the end point. The result is an array indexed by material ID
+    * (see getMaterial(...)). Only the first getMaterialCount() entries are
+    * meaningful. The array is owned by this object and is overwritten by the
+    * next call to trace(...).
+    *
+    * @param startPt
+    * @return double[] The path lengths in meters indexed by material ID
+    */
+   public double[] trace(double[] startPt) {
+      if ((mVoxelSize > 0.0) && interpolate(startPt))
+         return mLengths;
+      traceExact(startPt);
+      return mLengths;
+   }
+
+   /**
+    * Traces the ray from startPt to the end point into mLengths.
+    *
+    * @param startPt
+    * @return RegionBase The region containing startPt
+    */
+   private RegionBase traceExact(double[] startPt) {
+      ++mTraceCount;
+      Arrays.fill(mLengths, 0, mMaterialCount, 0.0);
+      final double[] start = mStart, end = mEnd, endPt = mEndPoint;
+      System.arraycopy(startPt, 0, start, 0, 3);
+      final RegionBase res = mMonte.findRegionContaining(start);
+      RegionBase region = res;
+      while ((region != null) && (MonteCarloSS.distance(start, endPt) > EPS)) {
+         System.arraycopy(endPt, 0, end, 0, 3);
+         final RegionBase nextRegion = region.findEndOfStep(start, end);
+         final double dist = MonteCarloSS.distance(start, end);
+         if (dist > 0.0) {
+            final int id = getMaterialID(region.getMaterial());
+            mLengths[id] += dist;
+         }
+         // Step just beyond the boundary
+         final double dx = endPt[0] - start[0], dy = endPt[1] - start[1], dz = endPt[2] - start[2];
+         final double mag = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+         start[0] = end[0] + (MonteCarloSS.SMALL_DISP * (dx / mag));
+         start[1] = end[1] + (MonteCarloSS.SMALL_DISP * (dy / mag));
+         start[2] = end[2] + (MonteCarloSS.SMALL_DISP * (dz / mag));
+         region = nextRegion;
+      }
+      return res;
+   }
+
+   private static long packKey(long ix, long iy, long iz) {
+      return ((ix & 0x1FFFFFL) << 42) | ((iy & 0x1FFFFFL) << 21) | (iz & 0x1FFFFFL);
+   }
+
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+
+   private Node lookup(long key) {
+      if (mKeys == null)
+         return null;
+      final int mask = mKeys.length - 1;
+      for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+         final Node n = mNodes[i];
+         if (n == null)
+            return null;
+         if (mKeys[i] == key)
+            return n;
+      }
+   }
+
+   private void store(long key, Node node) {
+      if ((mKeys == null) || ((2 * (mNodeCount + 1)) > mKeys.length)) {
+         final long[] oldKeys = mKeys;
+         final Node[] oldNodes = mNodes;
+         final int cap = oldKeys == null ? 1024 : 2 * oldKeys.length;
+         mKeys = new long[cap];
+         mNodes = new Node[cap];
+         if (oldKeys != null)
+            for (int i = 0; i < oldKeys.length; ++i)
+               if (oldNodes[i] != null)
+                  insert(oldKeys[i], oldNodes[i]);
+      }
+      insert(key, node);
+      ++mNodeCount;
+   }
+
+   private void insert(long key, Node node) {
+      final int mask = mKeys.length - 1;
+      int i = hash(key) & mask;
+      while (mNodes[i] != null)
+         i = (i + 1) & mask;
+      mKeys[i] = key;
+      mNodes[i] = node;
+   }
+
+   /**
+    * Returns the memoized Node at the specified grid indices, computing it if
+    * necessary. Returns null if the memo is full.
+    */
+   private Node getNode(long ix, long iy, long iz) {
+      final long key = packKey(ix, iy, iz);
+      Node res = lookup(key);
+      if (res == null) {
+         if (mNodeCount >= mMaxNodes)
+            return null;
+         mNodePt[0] = ix * mVoxelSize;
+         mNodePt[1] = iy * mVoxelSize;
+         mNodePt[2] = iz * mVoxelSize;
+         final RegionBase region = traceExact(mNodePt);
+         res = new Node(region, Arrays.copyOf(mLengths, mMaterialCount));
+         store(key, res);
+      }
+      return res;
+   }
+
+   /**
+    * Attempts to interpolate the path lengths from the memoized grid nodes.
+    * Returns false if the path lengths must be computed exactly.
+    */
+   private boolean interpolate(double[] startPt) {
+      final double x = startPt[0] / mVoxelSize, y = startPt[1] / mVoxelSize, z = startPt[2] / mVoxelSize;
+      final double fx = Math.floor(x), fy = Math.floor(y), fz = Math.floor(z);
+      if ((Math.abs(fx) >= INDEX_LIMIT) || (Math.abs(fy) >= INDEX_LIMIT) || (Math.abs(fz) >= INDEX_LIMIT))
+         return false;
+      final long ix = (long) fx, iy = (long) fy, iz = (long) fz;
+      RegionBase region = null;
+      for (int c = 0; c < 8; ++c) {
+         final Node n = getNode(ix + (c & 1), iy + ((c >> 1) & 1), iz + ((c >> 2) & 1));
+         if ((n == null) || (n.mRegion == null) || ((region != null) && (n.mRegion != region)))
+            return false;
+         region = n.mRegion;
+         mCorners[c] = n;
+      }
+      if (mMonte.findRegionContaining(startPt) != region)
+         return false;
+      final double dx = x - fx, dy = y - fy, dz = z - fz;
+      Arrays.fill(mLengths, 0, mMaterialCount, 0.0);
+      for (int c = 0; c < 8; ++c) {
+         final double w = ((c & 1) != 0 ? dx : 1.0 - dx) * (((c >> 1) & 1) != 0 ? dy : 1.0 - dy) * (((c >> 2) & 1) != 0 ? dz : 1.0 - dz);
+         final double[] lengths = mCorners[c].mLengths;
+         for (int id = 0; id < lengths.length; ++id)
+            mLengths[id] += w * lengths[id];
+      }
+      ++mInterpolatedCount;
+      return true;
+   }
+}
@@ -23,7 +23,7 @@ import gov.nist.microanalysis.EPQLibrary.ITransform;
  * @version 1.0
  */
 
-public class ShapeDifference implements MonteCarloSS.Shape, ITransform {
+public class ShapeDifference implements IBoundedShape, ITransform {
 
    static final boolean DEBUG = false;
 
@@ -166,6 +166,16 @@ public class ShapeDifference implements MonteCarloSS.Shape, ITransform {
       return mPrimary;
    }
 
+   /**
+    * The bounding box of the primary Shape.
+    *
+    * @see gov.nist.microanalysis.NISTMonte.IBoundedShape#getBoundingBox()
+    */
+   @Override
+   public double[][] getBoundingBox() {
+      return mPrimary instanceof IBoundedShape ? ((IBoundedShape) mPrimary).getBoundingBox() : null;
+   }
+
    @Override
    public String toString() {
       final StringBuffer res = new StringBuffer("Difference[");
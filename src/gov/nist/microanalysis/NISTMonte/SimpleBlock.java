@@ -25,7 +25,7 @@ import java.util.Locale;
  * @version 1.0
  */
 
-public class SimpleBlock implements MonteCarloSS.Shape, TrajectoryVRML.IRender {
+public class SimpleBlock implements IBoundedShape, TrajectoryVRML.IRender {
    private final double[] mCorner0;
    private final double[] mCorner1;
 
@@ -143,6 +143,12 @@ public class SimpleBlock implements MonteCarloSS.Shape, TrajectoryVRML.IRender {
       return mCorner1.clone();
    }
 
+   // JavaDoc in IBoundedShape
+   @Override
+   public double[][] getBoundingBox() {
+      return new double[][]{mCorner0.clone(), mCorner1.clone()};
+   }
+
    @Override
    public String toString() {
       return "Block(" + Arrays.toString(mCorner0) + "," + Arrays.toString(mCorner1) + ")";
@@ -27,7 +27,7 @@ import gov.nist.microanalysis.Utility.Transform3D;
  * @version 1.0
  */
 
-public class Sphere implements MonteCarloSS.Shape, ITransform, TrajectoryVRML.IRender {
+public class Sphere implements IBoundedShape, ITransform, TrajectoryVRML.IRender {
    private final double mRadius; // meters
    private double[] mCenter; // = new double[3]; x,y & z in meters
 
@@ -176,6 +176,14 @@ public class Sphere implements MonteCarloSS.Shape, ITransform, TrajectoryVRML.IR
       return mCenter.clone();
    }
 
+   // JavaDoc in IBoundedShape
+   @Override
+   public double[][] getBoundingBox() {
+      return new double[][]{ //
+            {mCenter[0] - mRadius, mCenter[1] - mRadius, mCenter[2] - mRadius}, //
+            {mCenter[0] + mRadius, mCenter[1] + mRadius, mCenter[2] + mRadius}};
+   }
+
    @Override
    public String toString() {
       return "Sphere[" + Arrays.toString(mCenter) + ", r=" + Double.toString(mRadius) + "]";
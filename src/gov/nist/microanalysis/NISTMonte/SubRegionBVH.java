@@ -0,0 +1,348 @@
+package gov.nist.microanalysis.NISTMonte;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS.RegionBase;
+import gov.nist.microanalysis.NISTMonte.MonteCarloSS.Shape;
+
+/**
+ * <p>
+ * A bounding volume hierarchy over the sub-regions of a RegionBase. The
+ * hierarchy is built from the axis-aligned boxes returned by the sub-regions'
+ * IBoundedShape.getBoundingBox() and permits findEndOfStep(...) and
+ * containingSubRegion(...) to ignore the sub-regions whose boxes don't
+ * intersect the step or contain the point. Sub-regions whose shapes are not
+ * bounded are always checked.
+ * </p>
+ * <p>
+ * The queries return exactly the same result as a linear search of the
+ * sub-region list. In particular, when two sub-regions are equally good
+ * candidates, the one that appears earlier in the list is selected. The
+ * hierarchy is immutable once built and may be shared between threads. It must
+ * be rebuilt whenever the sub-regions are added, removed or transformed.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+final class SubRegionBVH {
+
+   private static final int LEAF_SIZE = 4;
+   /**
+    * The boxes are padded by this fraction of their largest dimension (plus
+    * SMALL_DISP) to accommodate round-off in the shapes' intersection
+    * calculations.
+    */
+   private static final double PADDING = 1.0e-9;
+   /**
+    * Traversal stacks reused by firstIntersected(...) which is called on every
+    * step of every trajectory.
+    */
+   private static final ThreadLocal<int[]> sStack = new ThreadLocal<int[]>() {
+      @Override
+      protected int[] initialValue() {
+         return new int[64];
+      }
+   };
+
+   private final RegionBase[] mRegions;
+   private final int[] mUnbounded;
+   // Indices into mRegions ordered so that each leaf is a contiguous range
+   private final int[] mItems;
+   // Per-item boxes (6 per region index) for the bounded regions
+   private final double[] mItemBox;
+   // Per-node boxes (6 per node), first child (-1 for leaves) and item range
+   private final double[] mNodeBox;
+   private final int[] mNodeChild;
+   private final int[] mNodeStart;
+   private final int[] mNodeCount;
+   private int mNodeCountTotal;
+   private int mMaxDepth;
+
+   /**
+    * Builds a hierarchy over the specified regions.
+    *
+    * @param regions
+    *           The sub-regions in list order
+    */
+   SubRegionBVH(List<RegionBase> regions) {
+      mRegions = regions.toArray(new RegionBase[regions.size()]);
+      final int n = mRegions.length;
+      mItemBox = new double[6 * n];
+      final ArrayList<Integer> unbounded = new ArrayList<Integer>();
+      final int[] items = new int[n];
+      int nItems = 0;
+      for (int i = 0; i < n; ++i) {
+         final Shape sh = mRegions[i].getShape();
+         final double[][] bb = sh instanceof IBoundedShape ? ((IBoundedShape) sh).getBoundingBox() : null;
+         if (bb == null)
+            unbounded.add(Integer.valueOf(i));
+         else {
+            final double pad = MonteCarloSS.SMALL_DISP
+                  + (PADDING * Math.max(bb[1][0] - bb[0][0], Math.max(bb[1][1] - bb[0][1], bb[1][2] - bb[0][2])));
+            for (int j = 0; j < 3; ++j) {
+               mItemBox[(6 * i) + j] = bb[0][j] - pad;
+               mItemBox[(6 * i) + 3 + j] = bb[1][j] + pad;
+            }
+            items[nItems++] = i;
+         }
+      }
+      mUnbounded = new int[unbounded.size()];
+      for (int i = 0; i < mUnbounded.length; ++i)
+         mUnbounded[i] = unbounded.get(i).intValue();
+      mItems = new int[nItems];
+      System.arraycopy(items, 0, mItems, 0, nItems);
+      final int maxNodes = Math.max(1, 2 * nItems);
+      mNodeBox = new double[6 * maxNodes];
+      mNodeChild = new int[maxNodes];
+      mNodeStart = new int[maxNodes];
+      mNodeCount = new int[maxNodes];
+      mNodeCountTotal = 0;
+      mMaxDepth = 0;
+      if (nItems > 0)
+         build(allocateNode(), 0, nItems, 0);
+   }
+
+   /**
+    * The number of sub-regions indexed (bounded and unbounded).
+    *
+    * @return int
+    */
+   int size() {
+      return mRegions.length;
+   }
+
+   /**
+    * The number of sub-regions without bounding boxes.
+    *
+    * @return int
+    */
+   int unboundedCount() {
+      return mUnbounded.length;
+   }
+
+   private int allocateNode() {
+      return mNodeCountTotal++;
+   }
+
+   private void build(int node, int start, int count, int depth) {
+      mMaxDepth = Math.max(mMaxDepth, depth);
+      final int nb = 6 * node;
+      for (int j = 0; j < 3; ++j) {
+         mNodeBox[nb + j] = Double.MAX_VALUE;
+         mNodeBox[nb + 3 + j] = -Double.MAX_VALUE;
+      }
+      final double[] cLo = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      final double[] cHi = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (int k = start; k < start + count; ++k) {
+         final int ib = 6 * mItems[k];
+         for (int j = 0; j < 3; ++j) {
+            mNodeBox[nb + j] = Math.min(mNodeBox[nb + j], mItemBox[ib + j]);
+            mNodeBox[nb + 3 + j] = Math.max(mNodeBox[nb + 3 + j], mItemBox[ib + 3 + j]);
+            final double c = 0.5 * (mItemBox[ib + j] + mItemBox[ib + 3 + j]);
+            cLo[j] = Math.min(cLo[j], c);
+            cHi[j] = Math.max(cHi[j], c);
+         }
+      }
+      int axis = 0;
+      for (int j = 1; j < 3; ++j)
+         if ((cHi[j] - cLo[j]) > (cHi[axis] - cLo[axis]))
+            axis = j;
+      if ((count <= LEAF_SIZE) || (!(cHi[axis] > cLo[axis]))) {
+         mNodeChild[node] = -1;
+         mNodeStart[node] = start;
+         mNodeCount[node] = count;
+         return;
+      }
+      // Partition about the median centroid along the longest axis
+      final int mid = start + (count / 2);
+      select(start, start + count - 1, mid, axis);
+      final int left = allocateNode();
+      final int right = allocateNode();
+      assert right == left + 1;
+      mNodeChild[node] = left;
+      build(left, start, mid - start, depth + 1);
+      build(right, mid, start + count - mid, depth + 1);
+   }
+
+   private double centroid(int item, int axis) {
+      final int ib = 6 * mItems[item];
+      return mItemBox[ib + axis] + mItemBox[ib + 3 + axis];
+   }
+
+   private void swap(int i, int j) {
+      final int tmp = mItems[i];
+      mItems[i] = mItems[j];
+      mItems[j] = tmp;
+   }
+
+   /**
+    * Partially orders mItems[lo..hi] so that the k-th item is the one that
+    * would be there if the range were sorted by centroid along axis.
+    */
+   private void select(int lo, int hi, int k, int axis) {
+      while (hi > lo) {
+         final double pivot = centroid((lo + hi) >>> 1, axis);
+         int i = lo, j = hi;
+         while (i <= j) {
+            while (centroid(i, axis) < pivot)
+               ++i;
+            while (centroid(j, axis) > pivot)
+               --j;
+            if (i <= j)
+               swap(i++, j--);
+         }
+         if (k <= j)
+            hi = j;
+         else if (k >= i)
+            lo = i;
+         else
+            return;
+      }
+   }
+
+   private static boolean boxContains(double[] boxes, int b, double[] pos) {
+      return (pos[0] >= boxes[b]) && (pos[0] <= boxes[b + 3]) && //
+            (pos[1] >= boxes[b + 1]) && (pos[1] <= boxes[b + 4]) && //
+            (pos[2] >= boxes[b + 2]) && (pos[2] <= boxes[b + 5]);
+   }
+
+   /**
+    * Returns the parameter at which the segment pos0 + t*(pos1-pos0) enters
+    * the box or Double.MAX_VALUE if the segment misses the box on [0, tMax].
+    */
+   private static double boxEntry(double[] boxes, int b, double[] pos0, double[] pos1, double tMax) {
+      double t0 = 0.0, t1 = tMax;
+      for (int j = 0; j < 3; ++j) {
+         final double d = pos1[j] - pos0[j];
+         final double lo = boxes[b + j], hi = boxes[b + 3 + j];
+         if (d == 0.0) {
+            if ((pos0[j] < lo) || (pos0[j] > hi))
+               return Double.MAX_VALUE;
+         } else {
+            double ta = (lo - pos0[j]) / d, tb = (hi - pos0[j]) / d;
+            if (ta > tb) {
+               final double tmp = ta;
+               ta = tb;
+               tb = tmp;
+            }
+            if (ta > t0)
+               t0 = ta;
+            if (tb < t1)
+               t1 = tb;
+            if (t0 > t1)
+               return Double.MAX_VALUE;
+         }
+      }
+      return t0;
+   }
+
+   /**
+    * Returns the result of containingSubRegion(pos) for the first sub-region
+    * in list order that contains pos or null if none of the sub-regions
+    * contain pos.
+    *
+    * @param pos
+    * @return RegionBase
+    */
+   RegionBase containingSubRegion(double[] pos) {
+      int best = Integer.MAX_VALUE;
+      for (final int i : mUnbounded)
+         if (mRegions[i].getShape().contains(pos)) {
+            best = i;
+            break;
+         }
+      if (mNodeCountTotal > 0)
+         best = containing(0, pos, best);
+      return best != Integer.MAX_VALUE ? mRegions[best].containingSubRegion(pos) : null;
+   }
+
+   private int containing(int node, double[] pos, int best) {
+      if (!boxContains(mNodeBox, 6 * node, pos))
+         return best;
+      final int child = mNodeChild[node];
+      if (child >= 0)
+         return containing(child + 1, pos, containing(child, pos, best));
+      for (int k = mNodeStart[node], end = k + mNodeCount[node]; k < end; ++k) {
+         final int i = mItems[k];
+         if ((i < best) && boxContains(mItemBox, 6 * i, pos) && mRegions[i].getShape().contains(pos))
+            best = i;
+      }
+      return best;
+   }
+
+   /**
+    * Finds the sub-region whose boundary is first intersected by the segment
+    * from pos0 to pos1 subject to the intersection occurring at u &lt;= 1.0
+    * and u &lt; t (where t is typically the intersection with the parent
+    * region's boundary).
+    *
+    * @param pos0
+    * @param pos1
+    * @param t
+    * @return int The index of the sub-region or -1 if no sub-region is
+    *         intersected before t.
+    */
+   int firstIntersected(double[] pos0, double[] pos1, double t) {
+      int best = -1;
+      for (final int i : mUnbounded) {
+         final double candidate = mRegions[i].getShape().getFirstIntersection(pos0, pos1);
+         assert candidate >= 0.0 : mRegions[i].getShape().toString() + " " + Double.toString(candidate);
+         if ((candidate <= 1.0) && ((candidate < t) || ((candidate == t) && (best >= 0) && (i < best)))) {
+            t = candidate;
+            best = i;
+         }
+      }
+      if (mNodeCountTotal > 0) {
+         int[] stack = sStack.get();
+         if (stack.length < (mMaxDepth + 2)) {
+            stack = new int[mMaxDepth + 2];
+            sStack.set(stack);
+         }
+         int top = 0;
+         stack[top++] = 0;
+         while (top > 0) {
+            final int node = stack[--top];
+            final double tMax = Math.min(1.0, t);
+            if (boxEntry(mNodeBox, 6 * node, pos0, pos1, tMax) == Double.MAX_VALUE)
+               continue;
+            final int child = mNodeChild[node];
+            if (child >= 0) {
+               // Visit the nearer child first
+               final double tl = boxEntry(mNodeBox, 6 * child, pos0, pos1, tMax);
+               final double tr = boxEntry(mNodeBox, 6 * (child + 1), pos0, pos1, tMax);
+               if (tl <= tr) {
+                  if (tr != Double.MAX_VALUE)
+                     stack[top++] = child + 1;
+                  if (tl != Double.MAX_VALUE)
+                     stack[top++] = child;
+               } else {
+                  if (tl != Double.MAX_VALUE)
+                     stack[top++] = child;
+                  stack[top++] = child + 1;
+               }
+            } else
+               for (int k = mNodeStart[node], end = k + mNodeCount[node]; k < end; ++k) {
+                  final int i = mItems[k];
+                  if (boxEntry(mItemBox, 6 * i, pos0, pos1, Math.min(1.0, t)) == Double.MAX_VALUE)
+                     continue;
+                  final double candidate = mRegions[i].getShape().getFirstIntersection(pos0, pos1);
+                  assert candidate >= 0.0 : mRegions[i].getShape().toString() + " " + Double.toString(candidate);
+                  if ((candidate <= 1.0) && ((candidate < t) || ((candidate == t) && (best >= 0) && (i < best)))) {
+                     t = candidate;
+                     best = i;
+                  }
+               }
+         }
+      }
+      return best;
+   }
+}
@@ -35,7 +35,7 @@ import gov.nist.microanalysis.Utility.Math2;
  * @version 1.0
  */
 
-public class SumShape implements MonteCarloSS.Shape, ITransform, TrajectoryVRML.IRender {
+public class SumShape implements IBoundedShape, ITransform, TrajectoryVRML.IRender {
    // The list of Shape instances to union.
    private final ArrayList<MonteCarloSS.Shape> mShapes;
 
@@ -170,6 +170,30 @@ public class SumShape implements MonteCarloSS.Shape, ITransform, TrajectoryVRML.
       return Collections.unmodifiableList(mShapes);
    }
 
+   /**
+    * The union of the bounding boxes of the sub-Shapes or null if any sub-Shape
+    * is not bounded.
+    *
+    * @see gov.nist.microanalysis.NISTMonte.IBoundedShape#getBoundingBox()
+    */
+   @Override
+   public double[][] getBoundingBox() {
+      double[][] res = null;
+      for (final MonteCarloSS.Shape shape : mShapes) {
+         final double[][] bb = shape instanceof IBoundedShape ? ((IBoundedShape) shape).getBoundingBox() : null;
+         if (bb == null)
+            return null;
+         if (res == null)
+            res = bb;
+         else
+            for (int i = 0; i < 3; ++i) {
+               res[0][i] = Math.min(res[0][i], bb[0][i]);
+               res[1][i] = Math.max(res[1][i], bb[1][i]);
+            }
+      }
+      return res;
+   }
+
    @Override
    public String toString() {
       final StringBuffer res = new StringBuffer("Sum[");
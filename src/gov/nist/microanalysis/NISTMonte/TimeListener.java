@@ -16,7 +16,7 @@ import gov.nist.microanalysis.Utility.UncertainValue2;
  * @author ppinard
  * @author nritchie
  */
-public class TimeListener implements ActionListener {
+public class TimeListener implements ActionListener, IMonteCarloListener {
 
    /** Monte Carlo simulator. */
    private final MonteCarloSS mMcss;
@@ -48,9 +48,22 @@ public class TimeListener implements ActionListener {
    @Override
    public void actionPerformed(ActionEvent ae) {
       assert (ae.getSource() instanceof MonteCarloSS);
-      assert (ae.getSource() == mMcss);
+      onEvent(ae.getID(), (MonteCarloSS) ae.getSource());
+   }
+
+   private static final long EVENT_MASK = MonteCarloSS.eventMask(MonteCarloSS.FirstTrajectoryEvent, MonteCarloSS.LastTrajectoryEvent,
+         MonteCarloSS.TrajectoryStartEvent, MonteCarloSS.TrajectoryEndEvent);
+
+   @Override
+   public long getEventMask() {
+      return EVENT_MASK;
+   }
+
+   @Override
+   public void onEvent(int type, MonteCarloSS mcss) {
+      assert (mcss == mMcss);
 
-      switch (ae.getID()) {
+      switch (type) {
          case MonteCarloSS.FirstTrajectoryEvent :
             mStartSimulationTime = System.currentTimeMillis();
             mElapsedTime = 0;
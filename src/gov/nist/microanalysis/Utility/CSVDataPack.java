@@ -0,0 +1,502 @@
+package gov.nist.microanalysis.Utility;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A binary pack of the numeric tables that the library reads from CSV (and
+ * similar text) resources. Parsing these resources dominates the start-up time
+ * of short-lived programs. The pack holds the parsed numbers so a table can be
+ * copied out of it directly. The pack is read the first time a table is
+ * requested and each table is decoded only when it is requested. The pack is
+ * read into memory rather than mapped so that the file may be replaced while it
+ * is in use (which Windows does not allow for a mapped file).
+ * </p>
+ * <p>
+ * The pack is built from the compiled resources by running main(...). The
+ * Maven build does this when the data-pack profile is active. The pack is
+ * optional since it adds about 13 MB (9 MB compressed) to the jar. Each table
+ * records the CRC32 and length of the resource from which it was made. A table
+ * is only used if the resource on the class path still has the same CRC32 and
+ * length and the table's own CRC32 is correct. Otherwise, or if there is no
+ * pack, CSVReader parses the resource as before. The pack never changes the
+ * numbers returned. The check of a resource is remembered, and is only
+ * repeated for a file if its length or modification time changes.
+ * </p>
+ * <p>
+ * File layout (big-endian): int MAGIC, int VERSION, int number of tables, then
+ * for each table a directory entry (UTF name relative to the class path root,
+ * byte kind, int source CRC32, long source length, long offset, int length, int
+ * CRC32 of the data), then the table data. CSV tables are stored untrimmed as
+ * int row count then, for each row, int length and the doubles. Column tables
+ * (one number per line after a header line) are stored as int count then the
+ * doubles.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class CSVDataPack {
+
+   /**
+    * The name of the default pack resource (in this package)
+    */
+   public static final String RESOURCE_NAME = "EPQDataPack.bin";
+
+   private static final int MAGIC = 0x45505144; // "EPQD"
+   private static final int VERSION = 1;
+
+   private static final byte CSV = 0;
+   private static final byte COLUMN = 1;
+
+   /**
+    * The result of checking an entry against a resource
+    */
+   private static final class Validation {
+      private final String mSource;
+      private final long mLastModified;
+      private final long mLength;
+      private final boolean mCurrent;
+
+      private Validation(String source, long lastModified, long length, boolean current) {
+         mSource = source;
+         mLastModified = lastModified;
+         mLength = length;
+         mCurrent = current;
+      }
+   }
+
+   private static final class Entry {
+      private final byte mKind;
+      private final int mSourceCRC;
+      private final long mSourceLength;
+      private final int mOffset;
+      private final int mLength;
+      private final int mCRC;
+      private volatile Validation mValidation;
+
+      private Entry(byte kind, int sourceCRC, long sourceLength, int offset, int length, int crc) {
+         mKind = kind;
+         mSourceCRC = sourceCRC;
+         mSourceLength = sourceLength;
+         mOffset = offset;
+         mLength = length;
+         mCRC = crc;
+      }
+   }
+
+   private static class DefaultHolder {
+      private static final CSVDataPack DEFAULT = openDefault();
+   }
+
+   private final ByteBuffer mBuffer;
+   private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+   /**
+    * Constructs a CSVDataPack from the contents of a pack file.
+    *
+    * @param buffer
+    * @throws IOException
+    *            If the buffer does not contain a pack of this version.
+    */
+   public CSVDataPack(ByteBuffer buffer) throws IOException {
+      mBuffer = buffer.duplicate();
+      try {
+         final ByteBuffer bb = mBuffer.duplicate();
+         if ((bb.getInt() != MAGIC) || (bb.getInt() != VERSION))
+            throw new IOException("Not a version " + VERSION + " data pack.");
+         final int n = bb.getInt();
+         final ArrayList<String> names = new ArrayList<String>();
+         final ArrayList<Entry> entries = new ArrayList<Entry>();
+         for (int i = 0; i < n; ++i) {
+            final byte[] utf = new byte[bb.getShort() & 0xFFFF];
+            bb.get(utf);
+            names.add(new String(utf, "UTF-8"));
+            entries.add(new Entry(bb.get(), bb.getInt(), bb.getLong(), (int) bb.getLong(), bb.getInt(), bb.getInt()));
+         }
+         final int dataStart = bb.position();
+         for (int i = 0; i < n; ++i) {
+            final Entry e = entries.get(i);
+            if ((e.mOffset < 0) || (e.mLength < 0) || ((dataStart + (long) e.mOffset + e.mLength) > mBuffer.limit()))
+               throw new IOException("Data pack entry " + names.get(i) + " is out of range.");
+            mEntries.put(names.get(i), new Entry(e.mKind, e.mSourceCRC, e.mSourceLength, dataStart + e.mOffset, e.mLength, e.mCRC));
+         }
+      } catch (final RuntimeException e) {
+         throw new IOException("Corrupt data pack.", e);
+      }
+   }
+
+   private static CSVDataPack openDefault() {
+      final URL url = CSVDataPack.class.getResource(RESOURCE_NAME);
+      if (url == null)
+         return null;
+      try {
+         return new CSVDataPack(read(url));
+      } catch (final Exception e) {
+         return null;
+      }
+   }
+
+   private static ByteBuffer read(URL url) throws IOException, URISyntaxException {
+      if ("file".equals(url.getProtocol()))
+         return ByteBuffer.wrap(Files.readAllBytes(new File(url.toURI()).toPath()));
+      try (final InputStream is = url.openStream()) {
+         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[65536];
+         for (int len = is.read(buffer); len != -1; len = is.read(buffer))
+            bos.write(buffer, 0, len);
+         return ByteBuffer.wrap(bos.toByteArray());
+      }
+   }
+
+   /**
+    * Returns the pack built into the library or null if there is none.
+    *
+    * @return CSVDataPack
+    */
+   public static CSVDataPack getDefault() {
+      return DefaultHolder.DEFAULT;
+   }
+
+   /**
+    * Returns the name by which the pack knows the resource that
+    * clss.getResource(name) finds.
+    */
+   private static String resourceKey(Class<?> clss, String name) {
+      if (name.startsWith("/"))
+         return name.substring(1);
+      final String pkg = clss.getPackage() != null ? clss.getPackage().getName() : "";
+      return pkg.length() > 0 ? pkg.replace('.', '/') + "/" + name : name;
+   }
+
+   /**
+    * Returns the names of the tables in this pack.
+    *
+    * @return List&lt;String&gt;
+    */
+   public List<String> getNames() {
+      final ArrayList<String> res = new ArrayList<String>(mEntries.keySet());
+      Collections.sort(res);
+      return res;
+   }
+
+   /**
+    * Returns true if the resource at source has the CRC32 and length recorded
+    * in the entry. Jar entries record their CRC32, which saves reading the
+    * resource.
+    */
+   private static boolean isCurrent(Entry e, URL source) {
+      try {
+         final URLConnection conn = source.openConnection();
+         if (conn instanceof JarURLConnection) {
+            final JarEntry je = ((JarURLConnection) conn).getJarEntry();
+            if ((je != null) && (je.getCrc() != -1) && (je.getSize() != -1))
+               return ((int) je.getCrc() == e.mSourceCRC) && (je.getSize() == e.mSourceLength);
+         }
+         try (final InputStream is = conn.getInputStream()) {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[65536];
+            long length = 0;
+            for (int len = is.read(buffer); len != -1; len = is.read(buffer)) {
+               crc.update(buffer, 0, len);
+               length += len;
+            }
+            return ((int) crc.getValue() == e.mSourceCRC) && (length == e.mSourceLength);
+         }
+      } catch (final IOException ex) {
+         return false;
+      }
+   }
+
+   /**
+    * Returns a slice containing the data for the entry or null if the data
+    * are damaged.
+    */
+   private ByteBuffer data(Entry e) {
+      final ByteBuffer bb = mBuffer.duplicate();
+      bb.position(e.mOffset);
+      bb.limit(e.mOffset + e.mLength);
+      final ByteBuffer res = bb.slice();
+      final CRC32 crc = new CRC32();
+      crc.update(res.duplicate());
+      return (int) crc.getValue() == e.mCRC ? res : null;
+   }
+
+   /**
+    * Returns the file that source names or null if it is not a file.
+    */
+   private static File toFile(URL source) {
+      if (!"file".equals(source.getProtocol()))
+         return null;
+      try {
+         return new File(source.toURI());
+      } catch (final URISyntaxException | IllegalArgumentException e) {
+         return null;
+      }
+   }
+
+   private Entry find(String key, URL source, byte kind) {
+      final Entry e = mEntries.get(key);
+      if ((e == null) || (e.mKind != kind) || (source == null))
+         return null;
+      final String name = source.toExternalForm();
+      final File file = toFile(source);
+      final long lastModified = file != null ? file.lastModified() : -1L;
+      final long length = file != null ? file.length() : -1L;
+      Validation v = e.mValidation;
+      if ((v == null) || (!v.mSource.equals(name)) || (v.mLastModified != lastModified) || (v.mLength != length)) {
+         v = new Validation(name, lastModified, length, isCurrent(e, source));
+         e.mValidation = v;
+      }
+      return v.mCurrent ? e : null;
+   }
+
+   /**
+    * Returns the table that CSVReader would read from the resource at source
+    * or null if the pack does not contain an up-to-date copy.
+    *
+    * @param key
+    *           The resource's path relative to the root of the class path
+    * @param trimZeros
+    *           As for CSVReader
+    * @param source
+    *           The URL of the resource
+    * @return double[][] A new array on each call
+    */
+   public double[][] getTable(String key, boolean trimZeros, URL source) {
+      final Entry e = find(key, source, CSV);
+      final ByteBuffer bb = e != null ? data(e) : null;
+      if (bb == null)
+         return null;
+      final double[][] res = new double[bb.getInt()][];
+      for (int r = 0; r < res.length; ++r) {
+         final int len = bb.getInt();
+         if (len < 0)
+            continue;
+         int last = len;
+         if (trimZeros) {
+            // As CSVReader: trim after the last non-zero, non-NaN value
+            last = -1;
+            for (int c = len - 1; (c >= 0) && (last == -1); --c) {
+               final double d = bb.getDouble(bb.position() + (8 * c));
+               if (!((d == 0.0) || Double.isNaN(d)))
+                  last = c + 1;
+            }
+         }
+         if (last >= 0) {
+            res[r] = new double[last];
+            bb.duplicate().asDoubleBuffer().get(res[r]);
+         }
+         bb.position(bb.position() + (8 * len));
+      }
+      return res;
+   }
+
+   /**
+    * Returns the table that CSVReader would read from the resource
+    * clss.getResource(name) or null if the default pack does not contain an
+    * up-to-date copy.
+    *
+    * @param clss
+    * @param name
+    * @param trimZeros
+    * @return double[][] A new array on each call
+    */
+   public static double[][] getTable(Class<?> clss, String name, boolean trimZeros) {
+      final CSVDataPack pack = getDefault();
+      return pack != null ? pack.getTable(resourceKey(clss, name), trimZeros, clss.getResource(name)) : null;
+   }
+
+   /**
+    * Returns the numbers in a text resource with a header line followed by one
+    * number per line (as parsed by NumberFormat.getInstance(Locale.US)) or
+    * null if the pack does not contain an up-to-date copy.
+    *
+    * @param key
+    *           The resource's path relative to the root of the class path
+    * @param source
+    *           The URL of the resource
+    * @return double[] A new array on each call
+    */
+   public double[] getColumn(String key, URL source) {
+      final Entry e = find(key, source, COLUMN);
+      final ByteBuffer bb = e != null ? data(e) : null;
+      if (bb == null)
+         return null;
+      final double[] res = new double[bb.getInt()];
+      bb.asDoubleBuffer().get(res);
+      return res;
+   }
+
+   /**
+    * As getColumn(String, URL) for the resource clss.getResource(name) in the
+    * default pack.
+    *
+    * @param clss
+    * @param name
+    * @return double[] or null
+    */
+   public static double[] getColumn(Class<?> clss, String name) {
+      final CSVDataPack pack = getDefault();
+      return pack != null ? pack.getColumn(resourceKey(clss, name), clss.getResource(name)) : null;
+   }
+
+   private static void findResources(File dir, String prefix, List<String> res) {
+      final File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (final File f : files)
+         if (f.isDirectory())
+            findResources(f, prefix + f.getName() + "/", res);
+         else {
+            final String name = f.getName().toLowerCase(Locale.US);
+            if (name.endsWith(".csv") || name.endsWith(".d64"))
+               res.add(prefix + f.getName());
+         }
+   }
+
+   private static double[] readColumn(File file) throws Exception {
+      try (final BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"))) {
+         // As NISTMottScatteringAngle: skip a header, then one number per line
+         final NumberFormat nf = NumberFormat.getInstance(Locale.US);
+         final ArrayList<Double> vals = new ArrayList<Double>();
+         br.readLine();
+         for (String line = br.readLine(); line != null; line = br.readLine())
+            if (line.trim().length() > 0)
+               vals.add(Double.valueOf(nf.parse(line.trim()).doubleValue()));
+         final double[] res = new double[vals.size()];
+         for (int i = 0; i < res.length; ++i)
+            res[i] = vals.get(i).doubleValue();
+         return res;
+      }
+   }
+
+   /**
+    * Builds a pack from the CSV and D64 resources found under root and writes
+    * it to dest. Resources which can not be parsed are omitted (and reported
+    * on System.err) so CSVReader will continue to read them directly.
+    *
+    * @param root
+    *           The root of the class path (e.g. the build's output directory)
+    * @param dest
+    *           The file to write
+    * @return The number of tables written
+    * @throws IOException
+    */
+   public static int write(File root, File dest) throws IOException {
+      final List<String> names = new ArrayList<String>();
+      findResources(root, "", names);
+      Collections.sort(names);
+      final ByteArrayOutputStream data = new ByteArrayOutputStream();
+      final ByteArrayOutputStream dir = new ByteArrayOutputStream();
+      final DataOutputStream dirOut = new DataOutputStream(dir);
+      int count = 0;
+      for (final String name : names) {
+         final File file = new File(root, name);
+         final byte kind = name.toLowerCase(Locale.US).endsWith(".csv") ? CSV : COLUMN;
+         final ByteArrayOutputStream table = new ByteArrayOutputStream();
+         final DataOutputStream tableOut = new DataOutputStream(table);
+         try {
+            if (kind == CSV) {
+               final double[][] rows = new CSVReader.FileReader(file, false).getResource(CSVDataPack.class);
+               tableOut.writeInt(rows.length);
+               for (final double[] row : rows) {
+                  tableOut.writeInt(row != null ? row.length : -1);
+                  if (row != null)
+                     for (final double d : row)
+                        tableOut.writeDouble(d);
+               }
+            } else {
+               final double[] vals = readColumn(file);
+               tableOut.writeInt(vals.length);
+               for (final double d : vals)
+                  tableOut.writeDouble(d);
+            }
+         } catch (final Exception e) {
+            System.err.println("CSVDataPack: omitting " + name + " - " + e);
+            continue;
+         }
+         final byte[] bytes = table.toByteArray();
+         final byte[] source = Files.readAllBytes(file.toPath());
+         final CRC32 sourceCRC = new CRC32();
+         sourceCRC.update(source);
+         final CRC32 crc = new CRC32();
+         crc.update(bytes);
+         dirOut.writeUTF(name);
+         dirOut.writeByte(kind);
+         dirOut.writeInt((int) sourceCRC.getValue());
+         dirOut.writeLong(source.length);
+         dirOut.writeLong(data.size());
+         dirOut.writeInt(bytes.length);
+         dirOut.writeInt((int) crc.getValue());
+         data.write(bytes);
+         ++count;
+      }
+      final File tmp = new File(dest.getPath() + ".tmp");
+      try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(count);
+         dir.writeTo(out);
+         data.writeTo(out);
+      }
+      try {
+         Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (final IOException e) {
+         // Windows won't replace a file that is open
+         Files.deleteIfExists(dest.toPath());
+         Files.move(tmp.toPath(), dest.toPath());
+      }
+      return count;
+   }
+
+   /**
+    * Builds the default pack. Usage: CSVDataPack root [dest] where root is the
+    * root of the class path containing the resources (e.g. target/classes) and
+    * dest defaults to the location of RESOURCE_NAME beneath root.
+    *
+    * @param args
+    * @throws IOException
+    * @throws IllegalArgumentException
+    *            If the arguments are wrong
+    */
+   public static void main(String[] args) throws IOException {
+      if ((args.length < 1) || (args.length > 2))
+         throw new IllegalArgumentException("Usage: CSVDataPack root [dest]");
+      final File root = new File(args[0]);
+      final File dest = args.length > 1 ? new File(args[1])
+            : new File(root, CSVDataPack.class.getPackage().getName().replace('.', File.separatorChar) + File.separator + RESOURCE_NAME);
+      final int n = write(root, dest);
+      System.out.println("CSVDataPack: wrote " + n + " tables to " + dest.getPath());
+   }
+}
@@ -51,6 +51,11 @@ abstract public class CSVReader {
 
    }
 
+   /**
+    * Reads a resource. The table is taken from the library's CSVDataPack when
+    * it contains an up-to-date copy of the resource, otherwise the resource is
+    * parsed.
+    */
    static public class ResourceReader extends CSVReader {
       private final String mFileName;
 
@@ -61,6 +66,8 @@ abstract public class CSVReader {
 
       @Override
       public double[][] getResource(Class<?> clss) {
+         if (mData == null)
+            mData = CSVDataPack.getTable(clss, mFileName, mTrimExtraZeros);
          if (mData == null)
             try {
                final InputStream res = clss.getResourceAsStream(mFileName);
@@ -75,7 +82,7 @@ abstract public class CSVReader {
       }
    }
 
-   private boolean mTrimExtraZeros = true;
+   protected boolean mTrimExtraZeros = true;
 
    protected double[][] mData;
 
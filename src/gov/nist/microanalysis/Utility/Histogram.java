@@ -92,6 +92,8 @@ public class Histogram {
    }
 
    public boolean merge(Histogram h1) {
+      if (mBinMin.length != h1.mBinMin.length)
+         return false;
       for (int i = 0; i < mBinMin.length; ++i)
          if (mBinMin[i] != h1.mBinMin[i])
             return false;
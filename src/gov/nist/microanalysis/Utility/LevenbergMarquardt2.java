@@ -224,16 +224,23 @@ public class LevenbergMarquardt2 {
    private Matrix jTj(Matrix j, Matrix sigma) {
       final int n = j.getRowDimension();
       final int m = j.getColumnDimension();
-      final Matrix a = new Matrix(m, m);
-      for (int im1 = 0; im1 < m; ++im1)
-         for (int im2 = im1; im2 < m; ++im2) {
-            double v = 0.0;
-            for (int in = 0; in < n; ++in)
-               v += (j.get(in, im1) * j.get(in, im2)) / Math2.sqr(sigma.get(in, 0));
-            a.set(im1, im2, v);
-            a.set(im2, im1, v);
+      // Jama stores matrices by row so accumulate a row of j at a time
+      final double[][] ja = j.getArray();
+      final double[][] a = new double[m][m];
+      for (int in = 0; in < n; ++in) {
+         final double[] row = ja[in];
+         final double s2 = Math2.sqr(sigma.get(in, 0));
+         for (int im1 = 0; im1 < m; ++im1) {
+            final double[] ai = a[im1];
+            final double r1 = row[im1];
+            for (int im2 = im1; im2 < m; ++im2)
+               ai[im2] += (r1 * row[im2]) / s2;
          }
-      return a;
+      }
+      for (int im1 = 0; im1 < m; ++im1)
+         for (int im2 = im1 + 1; im2 < m; ++im2)
+            a[im2][im1] = a[im1][im2];
+      return new Matrix(a, m, m);
    }
 
    /**
@@ -251,14 +258,15 @@ public class LevenbergMarquardt2 {
       final int n = j.getRowDimension();
       final int m = j.getColumnDimension();
       assert eps.getRowDimension() == n;
-      final Matrix g = new Matrix(m, 1);
-      for (int i = 0; i < m; ++i) {
-         double v = 0.0;
-         for (int k = 0; k < n; ++k)
-            v += (j.get(k, i) * eps.get(k, 0)) / sigma.get(k, 0);
-         g.set(i, 0, v);
+      final double[][] ja = j.getArray();
+      final double[] g = new double[m];
+      for (int k = 0; k < n; ++k) {
+         final double[] row = ja[k];
+         final double e = eps.get(k, 0), s = sigma.get(k, 0);
+         for (int i = 0; i < m; ++i)
+            g[i] += (row[i] * e) / s;
       }
-      return g;
+      return new Matrix(g, m);
    }
 
    /**
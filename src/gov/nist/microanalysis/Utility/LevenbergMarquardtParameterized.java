@@ -2,6 +2,7 @@ package gov.nist.microanalysis.Utility;
 
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -35,6 +36,12 @@ import Jama.Matrix;
  * value which they they use to perform the computation.
  * </p>
  * <p>
+ * Functions that are evaluated many times per fit may also implement
+ * CompilableFunction. The fit then resolves each Parameter to a slot in a
+ * <code>double[]</code> once and evaluates the CompiledFunction rather than
+ * looking up each parameter in a Map for each ordinate value.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -164,6 +171,33 @@ public class LevenbergMarquardtParameterized {
       public String getName() {
          return mName;
       }
+
+      /**
+       * Returns the slot assigned to this Parameter or -1 if this Parameter is
+       * not fit.
+       * 
+       * @param slots
+       *           Map&lt;Parameter, Integer&gt; as passed to
+       *           {@link CompilableFunction#compile(Map)}
+       * @return int
+       */
+      public int getSlot(Map<Parameter, Integer> slots) {
+         final Integer slot = mIsFit ? slots.get(this) : null;
+         return slot != null ? slot.intValue() : -1;
+      }
+
+      /**
+       * Returns the value of this Parameter given the slot returned by
+       * <code>getSlot(...)</code>.
+       * 
+       * @param param
+       *           double[] indexed by slot
+       * @param slot
+       * @return double
+       */
+      public double getValue(double[] param, int slot) {
+         return slot >= 0 ? param[slot] : mDefaultValue;
+      }
    }
 
    static public class ParameterObject<T> extends Parameter {
@@ -269,6 +303,84 @@ public class LevenbergMarquardtParameterized {
       public UncertainValue2 inverse(double arg, Map<Parameter, UncertainValue2> param);
    }
 
+   /**
+    * <p>
+    * A form of a Function in which the fit parameters have been resolved into
+    * slots in a <code>double[]</code>. <code>update(...)</code> is called with
+    * the current parameter values before <code>compute(...)</code> and
+    * <code>partials(...)</code> are called for each ordinate value.
+    * Implementations may compute and retain quantities that depend only upon
+    * the parameters in <code>update(...)</code>. A CompiledFunction is not
+    * thread safe.
+    * </p>
+    * <p>
+    * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+    * software is not subject to copyright protection and is in the public
+    * domain
+    * </p>
+    * <p>
+    * Institution: National Institute of Standards and Technology
+    * </p>
+    * 
+    * @author nritchie
+    * @version 1.0
+    */
+   public interface CompiledFunction {
+
+      /**
+       * The slots of the fit parameters upon which this function depends. The
+       * order defines the order of the partial derivatives in
+       * <code>partials(...)</code>.
+       * 
+       * @return int[]
+       */
+      int[] getSlots();
+
+      /**
+       * Sets the parameter values for subsequent calls to
+       * <code>compute(...)</code> and <code>partials(...)</code>.
+       * 
+       * @param param
+       *           double[] indexed by slot
+       */
+      void update(double[] param);
+
+      /**
+       * Equivalent to <code>Function.compute(arg, param)</code>.
+       * 
+       * @param arg
+       * @return double
+       */
+      double compute(double arg);
+
+      /**
+       * Computes the derivative with respect to each of the parameters in
+       * <code>getSlots()</code> and stores the result in the corresponding
+       * element of dfdp.
+       * 
+       * @param arg
+       * @param dfdp
+       *           double[getSlots().length]
+       */
+      void partials(double arg, double[] dfdp);
+   }
+
+   /**
+    * A Function which can be compiled into a {@link CompiledFunction}.
+    */
+   public interface CompilableFunction extends Function {
+
+      /**
+       * Compiles this function. <code>slots</code> contains an entry for each
+       * of the fit parameters in <code>getParameters(false)</code>.
+       * 
+       * @param slots
+       *           Map&lt;Parameter, Integer&gt;
+       * @return CompiledFunction or null if this function can not be compiled.
+       */
+      CompiledFunction compile(Map<Parameter, Integer> slots);
+   }
+
    public static abstract class FunctionImpl implements Function {
 
       private final HashSet<Parameter> mParameters = new HashSet<Parameter>();
@@ -339,11 +451,35 @@ public class LevenbergMarquardtParameterized {
       private final ArrayList<Parameter> mParameters;
       private final Function mFunction;
       private final double[] mOrdinate;
+      private final CompiledFunction mCompiled;
+      private final int[] mSlots;
+      private final double[] mPartials;
+      private final double[][] mJacobian;
 
       private ParameterizedFitFunction(double[] x, Function f) {
          mFunction = f;
          mParameters = new ArrayList<Parameter>(f.getParameters(false));
          mOrdinate = x.clone();
+         CompiledFunction cf = null;
+         if (f instanceof CompilableFunction) {
+            final Map<Parameter, Integer> slots = new HashMap<Parameter, Integer>();
+            for (int i = 0; i < mParameters.size(); ++i)
+               slots.put(mParameters.get(i), Integer.valueOf(i));
+            cf = ((CompilableFunction) f).compile(slots);
+         }
+         mCompiled = cf;
+         if (mCompiled != null) {
+            mSlots = mCompiled.getSlots();
+            mPartials = new double[mSlots.length];
+            // Jama stores matrices by row so the Jacobian is filled a channel
+            // at a time. LevenbergMarquardt2 does not retain the Jacobian
+            // between calls to partials(...).
+            mJacobian = new double[mOrdinate.length][mParameters.size()];
+         } else {
+            mSlots = null;
+            mPartials = null;
+            mJacobian = null;
+         }
       }
 
       private Map<Parameter, Double> getUpdatedParam(Matrix params) {
@@ -358,6 +494,17 @@ public class LevenbergMarquardtParameterized {
 
       @Override
       public Matrix partials(Matrix params) {
+         if (mCompiled != null) {
+            mCompiled.update(params.getColumnPackedCopy());
+            for (int ch = 0; ch < mOrdinate.length; ++ch) {
+               final double[] row = mJacobian[ch];
+               Arrays.fill(row, 0.0);
+               mCompiled.partials(mOrdinate[ch], mPartials);
+               for (int i = 0; i < mSlots.length; ++i)
+                  row[mSlots[i]] = mPartials[i];
+            }
+            return new Matrix(mJacobian, mOrdinate.length, mParameters.size());
+         }
          final Matrix res = new Matrix(mOrdinate.length, params.getRowDimension());
          final Map<Parameter, Double> param = getUpdatedParam(params);
          for (int j = 0; j < mParameters.size(); ++j) {
@@ -378,6 +525,13 @@ public class LevenbergMarquardtParameterized {
       @Override
       public Matrix compute(Matrix params) {
          final Matrix res = new Matrix(mOrdinate.length, 1);
+         if (mCompiled != null) {
+            mCompiled.update(params.getColumnPackedCopy());
+            final double[][] vals = res.getArray();
+            for (int j = 0; j < mOrdinate.length; ++j)
+               vals[j][0] = mCompiled.compute(mOrdinate[j]);
+            return res;
+         }
          final Map<Parameter, Double> param = getUpdatedParam(params);
          for (int j = 0; j < mOrdinate.length; ++j)
             res.set(j, 0, mFunction.compute(mOrdinate[j], param));
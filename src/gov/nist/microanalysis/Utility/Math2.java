@@ -44,9 +44,11 @@ public class Math2 {
     * A random number generator. It is invoked by, e.g., rgen.nextDouble(). By
     * default it functions similarly to Math.double(), with an initial seed
     * produced by a procedure unlikely to give the same value under repeated
-    * invocations.
+    * invocations. The default instance is a RandomContext which maintains an
+    * independent stream for each thread so that simulations running on
+    * different threads don't contend for a shared seed.
     */
-   public static Random rgen = new Random();
+   public static Random rgen = new RandomContext();
 
    /**
     * initializeRandom - When called with an argument of type long, it
@@ -58,11 +60,33 @@ public class Math2 {
     *           Seed for {@link Random} constructor
     */
    public static void initializeRandom(long seed) {
-      rgen = new Random(seed);
+      if (rgen instanceof RandomContext)
+         ((RandomContext) rgen).reseed(seed);
+      else
+         rgen = new RandomContext(seed);
    }
 
    public static void initializeRandom() {
-      rgen = new Random();
+      if (rgen instanceof RandomContext)
+         ((RandomContext) rgen).reseed();
+      else
+         rgen = new RandomContext();
+   }
+
+   /**
+    * seedRandomStream - Reseeds the calling thread's stream in Math2.rgen such
+    * that the subsequent random numbers drawn on this thread depend only upon
+    * seed and stream.
+    * 
+    * @param seed
+    * @param stream
+    *           An index such as the trajectory number
+    */
+   public static void seedRandomStream(long seed, long stream) {
+      if (rgen instanceof RandomContext)
+         ((RandomContext) rgen).seedStream(seed, stream);
+      else
+         rgen.setSeed(RandomContext.streamSeed(seed, stream));
    }
 
    /**
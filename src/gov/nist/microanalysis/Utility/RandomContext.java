@@ -0,0 +1,261 @@
+package gov.nist.microanalysis.Utility;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * <p>
+ * A java.util.Random that maintains an independent random number stream for
+ * each thread. java.util.Random shares a single atomic seed between all the
+ * threads that use it which becomes a point of contention when multiple
+ * simulations are run in one JVM. RandomContext instead delegates each call to
+ * a generator confined to the calling thread.
+ * </p>
+ * <p>
+ * Each thread's stream is seeded from a root SplittableRandom the first time
+ * the thread draws a number. Seeding the context (via the constructor,
+ * setSeed(...) or reseed(...)) resets the root and causes every thread to
+ * derive a new stream. When a thread calls seedStream(seed, stream), the
+ * thread's generator is replaced by one that depends only upon seed and
+ * stream. MonteCarloSS uses this to give each trajectory its own stream so
+ * that a seeded simulation reproduces the same trajectories regardless of
+ * which thread runs them.
+ * </p>
+ * <p>
+ * The generator algorithm is pluggable and may be any algorithm supported by
+ * java.util.random.RandomGeneratorFactory (such as "L64X128MixRandom"). The
+ * default is "SplittableRandom".
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Company: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class RandomContext extends Random {
+
+   private static final long serialVersionUID = -3406725146582356218L;
+
+   /**
+    * The name of the default generator algorithm.
+    */
+   public static final String DEFAULT_ALGORITHM = "SplittableRandom";
+
+   /**
+    * A thread's generator along with the generation of the root from which it
+    * was derived.
+    */
+   private static final class Stream {
+      private final int mGeneration;
+      private final RandomGenerator mGenerator;
+
+      private Stream(int generation, RandomGenerator gen) {
+         mGeneration = generation;
+         mGenerator = gen;
+      }
+   }
+
+   private transient RandomGeneratorFactory<RandomGenerator> mFactory;
+   private transient SplittableRandom mRoot;
+   private transient volatile int mGeneration;
+   private final transient ThreadLocal<Stream> mStream = new ThreadLocal<Stream>();
+
+   /**
+    * Constructs a RandomContext using the default algorithm with a seed
+    * unlikely to be the same under repeated invocations.
+    */
+   public RandomContext() {
+      this(new SplittableRandom(), DEFAULT_ALGORITHM);
+   }
+
+   /**
+    * Constructs a RandomContext using the default algorithm with the specified
+    * seed.
+    *
+    * @param seed
+    */
+   public RandomContext(long seed) {
+      this(new SplittableRandom(seed), DEFAULT_ALGORITHM);
+   }
+
+   /**
+    * Constructs a RandomContext using the named algorithm with the specified
+    * seed.
+    *
+    * @param seed
+    * @param algorithm
+    *           A name recognized by RandomGeneratorFactory.of(...)
+    */
+   public RandomContext(long seed, String algorithm) {
+      this(new SplittableRandom(seed), algorithm);
+   }
+
+   private RandomContext(SplittableRandom root, String algorithm) {
+      super(0L);
+      mFactory = RandomGeneratorFactory.of(algorithm);
+      mRoot = root;
+      mGeneration = 0;
+   }
+
+   /**
+    * Mixes the bits of z (the finalizer from Steele, Lea and Flood's
+    * SplitMix64).
+    *
+    * @param z
+    * @return long
+    */
+   private static long mix64(long z) {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * Computes the seed for the stream'th stream associated with the specified
+    * seed.
+    *
+    * @param seed
+    * @param stream
+    * @return long
+    */
+   public static long streamSeed(long seed, long stream) {
+      return mix64(seed + mix64(stream + 0x9e3779b97f4a7c15L));
+   }
+
+   /**
+    * Returns the generator associated with the calling thread. Code in tight
+    * loops may cache the result for the duration of a single calculation but
+    * should not hold it beyond that since reseeding the context replaces it.
+    *
+    * @return RandomGenerator
+    */
+   public RandomGenerator current() {
+      final Stream s = mStream.get();
+      final int gen = mGeneration;
+      if ((s != null) && (s.mGeneration == gen))
+         return s.mGenerator;
+      final long seed;
+      synchronized (this) {
+         seed = mRoot.nextLong();
+      }
+      final RandomGenerator res = mFactory.create(seed);
+      mStream.set(new Stream(gen, res));
+      return res;
+   }
+
+   /**
+    * Resets the root generator using the specified seed. Every thread will
+    * derive a new stream the next time it draws a number.
+    *
+    * @param seed
+    */
+   public synchronized void reseed(long seed) {
+      mRoot = new SplittableRandom(seed);
+      ++mGeneration;
+   }
+
+   /**
+    * Resets the root generator using a seed unlikely to be the same under
+    * repeated invocations.
+    */
+   public synchronized void reseed() {
+      mRoot = new SplittableRandom();
+      ++mGeneration;
+   }
+
+   /**
+    * Replaces the calling thread's generator with one that depends only upon
+    * seed and stream. Other threads are unaffected.
+    *
+    * @param seed
+    * @param stream
+    */
+   public void seedStream(long seed, long stream) {
+      mStream.set(new Stream(mGeneration, mFactory.create(streamSeed(seed, stream))));
+   }
+
+   /**
+    * Selects the generator algorithm. Every thread will derive a new stream
+    * the next time it draws a number.
+    *
+    * @param algorithm
+    *           A name recognized by RandomGeneratorFactory.of(...)
+    */
+   public synchronized void setAlgorithm(String algorithm) {
+      mFactory = RandomGeneratorFactory.of(algorithm);
+      ++mGeneration;
+   }
+
+   /**
+    * Returns the name of the generator algorithm.
+    *
+    * @return String
+    */
+   public String getAlgorithm() {
+      return mFactory.name();
+   }
+
+   /**
+    * Equivalent to reseed(seed).
+    *
+    * @see java.util.Random#setSeed(long)
+    */
+   @Override
+   public synchronized void setSeed(long seed) {
+      // Called by the Random constructor before this object is initialized
+      if (mRoot != null)
+         reseed(seed);
+   }
+
+   @Override
+   protected int next(int bits) {
+      return (int) (current().nextLong() >>> (64 - bits));
+   }
+
+   @Override
+   public int nextInt() {
+      return current().nextInt();
+   }
+
+   @Override
+   public int nextInt(int bound) {
+      return current().nextInt(bound);
+   }
+
+   @Override
+   public long nextLong() {
+      return current().nextLong();
+   }
+
+   @Override
+   public boolean nextBoolean() {
+      return current().nextBoolean();
+   }
+
+   @Override
+   public float nextFloat() {
+      return current().nextFloat();
+   }
+
+   @Override
+   public double nextDouble() {
+      return current().nextDouble();
+   }
+
+   @Override
+   public double nextGaussian() {
+      return current().nextGaussian();
+   }
+
+   @Override
+   public void nextBytes(byte[] bytes) {
+      current().nextBytes(bytes);
+   }
+}
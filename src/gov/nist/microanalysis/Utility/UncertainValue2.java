@@ -1,17 +1,18 @@
 package gov.nist.microanalysis.Utility;
 
+import java.lang.ref.WeakReference;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import Jama.Matrix;
 import gov.nist.microanalysis.EPQLibrary.EPQException;
@@ -38,6 +39,17 @@ import gov.nist.microanalysis.EPQLibrary.EPQException;
  * as though it was the only source of uncertainty.
  * </p>
  * <p>
+ * Internally, each component name is represented by a canonical Source object
+ * carrying a numeric key. The components are stored as parallel arrays of
+ * sources and magnitudes sorted by key so that the arithmetic operations can
+ * merge the components of their arguments without string comparisons or
+ * boxing. The table of named sources holds them weakly so names which are no
+ * longer used by any UncertainValue2 don't accumulate. The anonymous sources
+ * created by the UncertainValue2(double, double) constructor ("Default1",
+ * "Default2", ...) are assigned keys computed from their index and never enter
+ * the table.
+ * </p>
+ * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
  * software is not subject to copyright protection and is in the public domain
  * </p>
@@ -51,16 +63,35 @@ import gov.nist.microanalysis.EPQLibrary.EPQException;
 final public class UncertainValue2 extends Number implements Comparable<UncertainValue2> {
 
    public static final String DEFAULT = "Default";
-   private static transient long sDefIndex = 0;
+   private static final AtomicLong sDefIndex = new AtomicLong();
    private static final long serialVersionUID = 119495064970078787L;
+
+   private static final Source[] NO_SOURCES = new Source[0];
+   private static final double[] NO_SIGMAS = new double[0];
+   private static final long NO_KEY = Long.MIN_VALUE;
+
    /**
     * The value
     */
-   private final double mValue;
+   private double mValue;
+   /**
+    * The sources of the uncertainty components in order of increasing key.
+    */
+   private transient Source[] mSources = NO_SOURCES;
+   /**
+    * The one-sigma width uncertainty components associated with mSources.
+    */
+   private transient double[] mMagnitudes = NO_SIGMAS;
+   /**
+    * The number of uncertainty components.
+    */
+   private transient int mCount;
    /**
-    * A map of one-sigma width uncertainty components.
+    * Only used in the serialized form (see writeReplace() and readResolve())
+    * which is the same as when the components were stored in a
+    * TreeMap&lt;String,Double&gt;.
     */
-   private final TreeMap<String, Double> mSigmas = new TreeMap<String, Double>();
+   private TreeMap<String, Double> mSigmas;
 
    public static final UncertainValue2 ONE = new UncertainValue2(1.0);
    public static final UncertainValue2 ZERO = new UncertainValue2(0.0);
@@ -69,9 +100,91 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public static final UncertainValue2 NEGATIVE_INFINITY = new UncertainValue2(Double.NEGATIVE_INFINITY);
    public static final UncertainValue2 MAX_VALUE = new UncertainValue2(Double.MAX_VALUE);
 
+   /**
+    * A source of uncertainty. Names of the form "Default" + n (n&gt;0 in
+    * canonical form) have the key -n. All other names are assigned increasing
+    * non-negative keys as they are first registered. The registry holds the
+    * named sources weakly so a name which is no longer used by any
+    * UncertainValue2 is forgotten. Sources are compared by key as there may be
+    * more than one instance of an anonymous source.
+    */
+   private static final class Source {
+      private static final WeakHashMap<String, WeakReference<Source>> sRegistry = new WeakHashMap<String, WeakReference<Source>>();
+      private static long sNextKey = 0;
+
+      private final long mKey;
+      // null for the anonymous sources
+      private final String mName;
+
+      private Source(final long key, final String name) {
+         mKey = key;
+         mName = name;
+      }
+
+      private static long defaultKey(final String name) {
+         final int len = name.length(), dl = DEFAULT.length();
+         if ((len > dl) && (len <= (dl + 18)) && name.startsWith(DEFAULT) && (name.charAt(dl) != '0')) {
+            long idx = 0;
+            for (int i = dl; i < len; ++i) {
+               final char c = name.charAt(i);
+               if ((c < '0') || (c > '9'))
+                  return NO_KEY;
+               idx = (10 * idx) + (c - '0');
+            }
+            return -idx;
+         }
+         return NO_KEY;
+      }
+
+      /**
+       * Returns the anonymous source "Default" + index.
+       */
+      static Source anonymous(final long index) {
+         return new Source(-index, null);
+      }
+
+      /**
+       * Returns the source associated with name, registering it if necessary.
+       */
+      static Source get(final String name) {
+         final long dk = defaultKey(name);
+         if (dk != NO_KEY)
+            return new Source(dk, null);
+         synchronized (sRegistry) {
+            final WeakReference<Source> ref = sRegistry.get(name);
+            Source res = ref != null ? ref.get() : null;
+            if (res == null) {
+               res = new Source(sNextKey++, name);
+               // Remove any stale entry so the key is the name held by res
+               sRegistry.remove(name);
+               sRegistry.put(res.mName, new WeakReference<Source>(res));
+            }
+            return res;
+         }
+      }
+
+      /**
+       * Returns the source associated with name or null if no UncertainValue2
+       * is using it.
+       */
+      static Source find(final String name) {
+         final long dk = defaultKey(name);
+         if (dk != NO_KEY)
+            return new Source(dk, null);
+         synchronized (sRegistry) {
+            final WeakReference<Source> ref = sRegistry.get(name);
+            return ref != null ? ref.get() : null;
+         }
+      }
+
+      String name() {
+         return mName != null ? mName : DEFAULT + Long.toString(-mKey);
+      }
+   }
+
    @Override
    public UncertainValue2 clone() {
-      return new UncertainValue2(mValue, mSigmas);
+      return new UncertainValue2(mValue, this);
    }
 
    /**
@@ -84,7 +197,9 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     *           The associated uncertainty
     */
    public UncertainValue2(final double v, final double dv) {
-      this(v, DEFAULT + Long.toString(++sDefIndex), dv);
+      mValue = v;
+      if (dv != 0.0)
+         assignComponent(Source.anonymous(sDefIndex.incrementAndGet()), dv);
    }
 
    /**
@@ -94,7 +209,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     *           The value
     */
    public UncertainValue2(final double v) {
-      this(v, 0.0);
+      mValue = v;
    }
 
    public static UncertainValue2 asUncertainValue2(final Number n) {
@@ -133,6 +248,32 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
             assignComponent(me.getKey(), me.getValue());
    }
 
+   /**
+    * Constructs a UncertainValue2 with value <code>v</code> and a copy of the
+    * uncertainty components of <code>uv</code>.
+    */
+   private UncertainValue2(final double v, final UncertainValue2 uv) {
+      mValue = v;
+      if (uv.mCount > 0) {
+         mSources = Arrays.copyOf(uv.mSources, uv.mCount);
+         mMagnitudes = Arrays.copyOf(uv.mMagnitudes, uv.mCount);
+         mCount = uv.mCount;
+      }
+   }
+
+   /**
+    * Constructs a UncertainValue2 which takes ownership of the component
+    * arrays.
+    */
+   private UncertainValue2(final double v, final Source[] keys, final double[] sigmas, final int count) {
+      mValue = v;
+      if (count > 0) {
+         mSources = keys;
+         mMagnitudes = sigmas;
+         mCount = count;
+      }
+   }
+
    /**
     * Create an UncertainValue2 where the source of uncertainty is Gaussian
     * (sigma~sqrt(v)).
@@ -157,9 +298,56 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    public void assignComponent(final String name, final double sigma) {
       if (sigma != 0.0)
-         mSigmas.put(name, Math.abs(sigma));
-      else
-         mSigmas.remove(name);
+         assignComponent(Source.get(name), sigma);
+      else {
+         final Source src = Source.find(name);
+         if (src != null)
+            assignComponent(src, sigma);
+      }
+   }
+
+   /**
+    * Returns the index of the component with the specified key or -(insertion
+    * point) - 1 as Arrays.binarySearch(...).
+    */
+   private int indexOf(final long key) {
+      int lo = 0, hi = mCount - 1;
+      while (lo <= hi) {
+         final int mid = (lo + hi) >>> 1;
+         final long k = mSources[mid].mKey;
+         if (k < key)
+            lo = mid + 1;
+         else if (k > key)
+            hi = mid - 1;
+         else
+            return mid;
+      }
+      return -(lo + 1);
+   }
+
+   private void assignComponent(final Source src, final double sigma) {
+      final int idx = indexOf(src.mKey);
+      if (sigma != 0.0) {
+         if (idx >= 0)
+            mMagnitudes[idx] = Math.abs(sigma);
+         else {
+            final int ins = -(idx + 1);
+            if (mCount == mSources.length) {
+               final int cap = Math.max(4, 2 * mCount);
+               mSources = Arrays.copyOf(mSources, cap);
+               mMagnitudes = Arrays.copyOf(mMagnitudes, cap);
+            }
+            System.arraycopy(mSources, ins, mSources, ins + 1, mCount - ins);
+            System.arraycopy(mMagnitudes, ins, mMagnitudes, ins + 1, mCount - ins);
+            mSources[ins] = src;
+            mMagnitudes[ins] = Math.abs(sigma);
+            ++mCount;
+         }
+      } else if (idx >= 0) {
+         System.arraycopy(mSources, idx + 1, mSources, idx, mCount - idx - 1);
+         System.arraycopy(mMagnitudes, idx + 1, mMagnitudes, idx, mCount - idx - 1);
+         --mCount;
+      }
    }
 
    public void assignComponents(final Map<String, Double> comps) {
@@ -167,19 +355,34 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          assignComponent(me.getKey(), me.getValue());
    }
 
+   private double getComponent(final long key) {
+      final int idx = indexOf(key);
+      return idx >= 0 ? mMagnitudes[idx] : 0.0;
+   }
+
+   /**
+    * Returns the components as a map sorted by name.
+    */
+   private TreeMap<String, Double> componentMap() {
+      final TreeMap<String, Double> res = new TreeMap<String, Double>();
+      for (int i = 0; i < mCount; ++i)
+         res.put(mSources[i].name(), Double.valueOf(mMagnitudes[i]));
+      return res;
+   }
+
    @Override
    public String toString() {
-      if (mSigmas.size() > 0)
+      if (mCount > 0)
          return Double.toString(mValue) + " \u00B1 " + Double.toString(uncertainty());
       else
          return Double.toString(mValue);
    }
 
    public String toLongString() {
-      if (mSigmas.size() > 0) {
+      if (mCount > 0) {
          final StringBuffer sb = new StringBuffer();
          sb.append(mValue);
-         for (final Map.Entry<String, Double> me : mSigmas.entrySet()) {
+         for (final Map.Entry<String, Double> me : componentMap().entrySet()) {
             sb.append("\u00B1");
             sb.append(me.getValue());
             sb.append("(");
@@ -206,7 +409,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return String
     */
    public String format(final NumberFormat nf) {
-      if (mSigmas.size() > 0)
+      if (mCount > 0)
          return nf.format(mValue) + "\u00B1" + nf.format(uncertainty());
       else
          return nf.format(mValue);
@@ -222,7 +425,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public String formatLong(final NumberFormat nf) {
       final StringBuffer sb = new StringBuffer();
       sb.append(nf.format(mValue));
-      for (final Map.Entry<String, Double> me : mSigmas.entrySet()) {
+      for (final Map.Entry<String, Double> me : componentMap().entrySet()) {
          sb.append("\u00B1");
          sb.append(nf.format(me.getValue()));
          sb.append("(");
@@ -240,8 +443,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return String
     */
    public String format(final String src, final NumberFormat nf) {
-      final Double dv = mSigmas.get(src);
-      return "U(" + src + ")=" + nf.format(dv != null ? dv.doubleValue() : 0.0);
+      return "U(" + src + ")=" + nf.format(getComponent(src));
    }
 
    /**
@@ -251,8 +453,8 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return The specified uncertainty or 0.0 if src not defined.
     */
    public double getComponent(final String src) {
-      final Double v = mSigmas.get(src);
-      return v != null ? v.doubleValue() : 0.0;
+      final Source s = Source.find(src);
+      return s != null ? getComponent(s.mKey) : 0.0;
    }
 
    /**
@@ -262,20 +464,18 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return double
     */
    public double getFractional(final String src) {
-      final Double v = mSigmas.get(src);
-      return v != null ? v.doubleValue() / mValue : 0.0;
+      return hasComponent(src) ? getComponent(src) / mValue : 0.0;
 
    }
 
    public String formatComponent(final String comp, final NumberFormat nf) {
-      final Double v = mSigmas.get(comp);
-      return nf.format(v != null ? v.doubleValue() : 0.0) + "(" + comp + ")";
+      return nf.format(getComponent(comp)) + "(" + comp + ")";
    }
 
    public String formatComponent(final String comp, final int dec) {
-      final Double v = mSigmas.get(comp);
+      final double v = getComponent(comp);
       NumberFormat nf;
-      if ((v != null) && (Math.abs(v.doubleValue()) < (10.0 * Math.pow(10, -dec))))
+      if (hasComponent(comp) && (Math.abs(v) < (10.0 * Math.pow(10, -dec))))
          nf = new ExponentFormat(2);
       else {
          final StringBuffer sf = new StringBuffer("0.");
@@ -283,7 +483,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
             sf.append("0");
          nf = new HalfUpFormat(sf.toString());
       }
-      return nf.format(v != null ? v.doubleValue() : 0.0) + "(" + comp + ")";
+      return nf.format(v) + "(" + comp + ")";
    }
 
    /**
@@ -293,15 +493,22 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return true or false
     */
    public boolean hasComponent(final String src) {
-      return mSigmas.containsKey(src);
+      final Source s = Source.find(src);
+      return (s != null) && (indexOf(s.mKey) >= 0);
    }
 
+   /**
+    * Returns an unmodifiable map from the component names (sorted) to the
+    * component uncertainties.
+    * 
+    * @return Map&lt;String, Double&gt;
+    */
    public Map<String, Double> getComponents() {
-      return Collections.unmodifiableMap(mSigmas);
+      return Collections.unmodifiableMap(componentMap());
    }
 
    public Set<String> getComponentNames() {
-      return Collections.unmodifiableSet(mSigmas.keySet());
+      return Collections.unmodifiableSet(componentMap().keySet());
    }
 
    /**
@@ -312,11 +519,13 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @param newName
     */
    public void renameComponent(final String oldName, final String newName) throws EPQException {
-      if (mSigmas.containsKey(newName))
+      if (hasComponent(newName))
          throw new EPQException("A component named " + newName + " already exists.");
-      final Double val = mSigmas.remove(oldName);
-      if (val != null)
-         mSigmas.put(newName, val);
+      if (hasComponent(oldName)) {
+         final double val = getComponent(oldName);
+         assignComponent(oldName, 0.0);
+         assignComponent(newName, val);
+      }
    }
 
    static private UncertainValue2 toUV2(Number num) {
@@ -326,6 +535,113 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          return new UncertainValue2(num.doubleValue());
    }
 
+   /**
+    * Returns an UncertainValue2 with the specified value whose components are
+    * abs(c*ua) where ua are the components of a.
+    */
+   private static UncertainValue2 scale(final double value, final double c, final UncertainValue2 a) {
+      final int na = a.mCount;
+      if (na == 0)
+         return new UncertainValue2(value);
+      final Source[] keys = new Source[na];
+      final double[] sigmas = new double[na];
+      int n = 0;
+      for (int i = 0; i < na; ++i) {
+         final double s = Math.abs(c * a.mMagnitudes[i]);
+         if (s != 0.0) {
+            keys[n] = a.mSources[i];
+            sigmas[n] = s;
+            ++n;
+         }
+      }
+      return new UncertainValue2(value, keys, sigmas, n);
+   }
+
+   /**
+    * Returns an UncertainValue2 with the specified value whose components are
+    * abs(ca*ua+cb*ub) where ua and ub are the components of a and b.
+    */
+   private static UncertainValue2 combine(final double value, final double ca, final UncertainValue2 a, final double cb, final UncertainValue2 b) {
+      final int na = a.mCount, nb = b.mCount;
+      if ((na + nb) == 0)
+         return new UncertainValue2(value);
+      final Source[] ka = a.mSources, kb = b.mSources;
+      final double[] sa = a.mMagnitudes, sb = b.mMagnitudes;
+      final Source[] keys = new Source[na + nb];
+      final double[] sigmas = new double[na + nb];
+      int ia = 0, ib = 0, n = 0;
+      while ((ia < na) || (ib < nb)) {
+         final Source key;
+         double ua = 0.0, ub = 0.0;
+         if ((ib == nb) || ((ia < na) && (ka[ia].mKey < kb[ib].mKey))) {
+            key = ka[ia];
+            ua = sa[ia++];
+         } else if ((ia == na) || (kb[ib].mKey < ka[ia].mKey)) {
+            key = kb[ib];
+            ub = sb[ib++];
+         } else {
+            key = ka[ia];
+            ua = sa[ia++];
+            ub = sb[ib++];
+         }
+         final double s = Math.abs((ca * ua) + (cb * ub));
+         if (s != 0.0) {
+            keys[n] = key;
+            sigmas[n] = s;
+            ++n;
+         }
+      }
+      return new UncertainValue2(value, keys, sigmas, n);
+   }
+
+   /**
+    * Returns an UncertainValue2 with the specified value whose components are
+    * abs(sum(c[i]*u[i])) where u[i] are the components of uvs[i].
+    */
+   private static UncertainValue2 combine(final double value, final double[] c, final UncertainValue2[] uvs) {
+      // Build the sorted union of the keys
+      Source[] keys = NO_SOURCES;
+      int n = 0;
+      for (final UncertainValue2 uv : uvs) {
+         if (uv.mCount == 0)
+            continue;
+         final Source[] merged = new Source[n + uv.mCount];
+         int i = 0, j = 0, m = 0;
+         while ((i < n) || (j < uv.mCount)) {
+            if ((j == uv.mCount) || ((i < n) && (keys[i].mKey < uv.mSources[j].mKey)))
+               merged[m++] = keys[i++];
+            else if ((i == n) || (uv.mSources[j].mKey < keys[i].mKey))
+               merged[m++] = uv.mSources[j++];
+            else {
+               merged[m++] = keys[i++];
+               ++j;
+            }
+         }
+         keys = merged;
+         n = m;
+      }
+      if (n == 0)
+         return new UncertainValue2(value);
+      // Accumulate the components in the order of uvs
+      final double[] sigmas = new double[n];
+      for (int k = 0; k < uvs.length; ++k) {
+         final UncertainValue2 uv = uvs[k];
+         for (int i = 0, j = 0; j < uv.mCount; ++i)
+            if (keys[i].mKey == uv.mSources[j].mKey)
+               sigmas[i] += c[k] * uv.mMagnitudes[j++];
+      }
+      int m = 0;
+      for (int i = 0; i < n; ++i) {
+         final double s = Math.abs(sigmas[i]);
+         if (s != 0.0) {
+            keys[m] = keys[i];
+            sigmas[m] = s;
+            ++m;
+         }
+      }
+      return new UncertainValue2(value, keys, sigmas, m);
+   }
+
    /**
     * Add a list of {@link UncertainValue2}.
     * 
@@ -333,22 +649,17 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return An UncertainValue2 equal to the sum of the uvs
     */
    static public UncertainValue2 add(final Collection<? extends Number> uvs) {
-      final HashSet<String> srcs = new HashSet<String>();
+      final UncertainValue2[] items = new UncertainValue2[uvs.size()];
+      final double[] ones = new double[items.length];
       double sum = 0.0;
+      int i = 0;
       for (final Number n2 : uvs) {
-         final UncertainValue2 uv2 = toUV2(n2);
-         srcs.addAll(uv2.mSigmas.keySet());
-         sum += uv2.mValue;
-      }
-      final UncertainValue2 res = new UncertainValue2(sum);
-      for (final String src : srcs) {
-         double unc = 0.0;
-         for (final Number n2 : uvs) {
-            unc += toUV2(n2).getComponent(src);
-         }
-         res.assignComponent(src, unc);
+         items[i] = toUV2(n2);
+         ones[i] = 1.0;
+         sum += items[i].mValue;
+         ++i;
       }
-      return res;
+      return combine(sum, ones, items);
    }
 
    static public UncertainValue2 add(final Number[] uvs) {
@@ -357,13 +668,29 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
 
    static public UncertainValue2 add(final double a, final Number na, final double b, final Number nb) {
       final UncertainValue2 uva = toUV2(na), uvb = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2((a * uva.mValue) + (b * uvb.mValue));
-      final Set<String> srcs = new HashSet<String>();
-      srcs.addAll(uva.mSigmas.keySet());
-      srcs.addAll(uvb.mSigmas.keySet());
-      for (final String src : srcs)
-         res.assignComponent(src, Math.abs((a * uva.getComponent(src)) + (b * uvb.getComponent(src))));
-      return res;
+      return combine((a * uva.mValue) + (b * uvb.mValue), a, uva, b, uvb);
+   }
+
+   /**
+    * Computes the weighted sum, w[0]*uvs[0] + w[1]*uvs[1] + ..., in a single
+    * pass over the uncertainty components.
+    * 
+    * @param w
+    *           The weights (known without error)
+    * @param uvs
+    *           The values
+    * @return An UncertainValue2
+    */
+   static public UncertainValue2 weightedSum(final double[] w, final Number[] uvs) {
+      if (w.length != uvs.length)
+         throw new IllegalArgumentException("The number of weights must equal the number of values.");
+      final UncertainValue2[] items = new UncertainValue2[uvs.length];
+      double sum = 0.0;
+      for (int i = 0; i < uvs.length; ++i) {
+         items[i] = toUV2(uvs[i]);
+         sum += w[i] * items[i].mValue;
+      }
+      return combine(sum, w, items);
    }
 
    static public UncertainValue2 subtract(final Number na, final Number nb) {
@@ -379,7 +706,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    }
 
    public UncertainValue2 abs() {
-      return mValue >= 0.0 ? this : new UncertainValue2(-mValue, this.mSigmas);
+      return mValue >= 0.0 ? this : new UncertainValue2(-mValue, this);
    }
 
    public static UncertainValue2 abs(Number n) {
@@ -405,7 +732,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          if (Double.isNaN(ivar))
             throw new UtilException("Unable to compute the weighted mean when one or more datapoints have zero uncertainty.");
          varSum += ivar;
-         sum = UncertainValue2.add(sum, UncertainValue2.multiply(ivar, uv));
+         sum = UncertainValue2.add(1.0, sum, ivar, uv);
       }
       final double iVarSum = 1.0 / varSum;
       return Double.isNaN(iVarSum) ? UncertainValue2.NaN : UncertainValue2.multiply(iVarSum, sum);
@@ -432,7 +759,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          if (Double.isNaN(ivar))
             continue;
          varSum += ivar;
-         sum = UncertainValue2.add(sum, UncertainValue2.multiply(ivar, uv));
+         sum = UncertainValue2.add(1.0, sum, ivar, uv);
       }
       final double iVarSum = 1.0 / varSum;
       return Double.isNaN(iVarSum) ? UncertainValue2.NaN : UncertainValue2.multiply(iVarSum, sum);
@@ -493,7 +820,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public Number add(final Number v1, final double v2) {
       if (v1 instanceof UncertainValue2)
-         return new UncertainValue2(((UncertainValue2) v1).mValue + v2, ((UncertainValue2) v1).mSigmas);
+         return new UncertainValue2(((UncertainValue2) v1).mValue + v2, (UncertainValue2) v1);
       else
          return Double.valueOf(v1.doubleValue() + v2);
    }
@@ -507,7 +834,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public UncertainValue2 add(final double v1, final Number v2) {
       if (v2 instanceof UncertainValue2)
-         return new UncertainValue2(((UncertainValue2) v2).mValue + v1, ((UncertainValue2) v2).mSigmas);
+         return new UncertainValue2(((UncertainValue2) v2).mValue + v1, (UncertainValue2) v2);
       else
          return UncertainValue2.valueOf(v1 + v2.doubleValue());
    }
@@ -533,10 +860,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    static public UncertainValue2 multiply(final double v1, final Number n2) {
       UncertainValue2 v2 = toUV2(n2);
       assert v2.uncertainty() >= 0.0 : v2.toLongString();
-      final UncertainValue2 res = new UncertainValue2(v1 * v2.mValue);
-      for (final Map.Entry<String, Double> me : v2.mSigmas.entrySet())
-         res.assignComponent(me.getKey(), v1 * me.getValue());
-      return res;
+      return scale(v1 * v2.mValue, v1, v2);
    }
 
    /**
@@ -548,30 +872,46 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public UncertainValue2 multiply(final Number na, final Number nb) {
       final UncertainValue2 a = toUV2(na), b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a.mValue * b.mValue);
-      final Set<String> srcs = new TreeSet<String>();
-      srcs.addAll(a.mSigmas.keySet());
-      srcs.addAll(b.mSigmas.keySet());
-      final double ca = b.mValue;
-      final double cb = a.mValue;
-      for (final String src : srcs) {
-         final double ua = a.getComponent(src), ub = b.getComponent(src);
-         res.assignComponent(src, Math.abs((ca * ua) + (cb * ub)));
-      }
-      return res;
+      return combine(a.mValue * b.mValue, b.mValue, a, a.mValue, b);
+   }
+
+   /**
+    * Computes a*b/c in a single pass over the uncertainty components. This is
+    * equivalent to divide(multiply(a, b), c) but avoids the intermediate
+    * result.
+    * 
+    * @param na
+    * @param nb
+    * @param nc
+    * @return An UncertainValue2
+    */
+   static public UncertainValue2 multiplyDivide(final Number na, final Number nb, final Number nc) {
+      final UncertainValue2 a = toUV2(na), b = toUV2(nb), c = toUV2(nc);
+      final double ab = a.mValue * b.mValue;
+      final double value = ab / c.mValue;
+      if (Double.isNaN(value))
+         return new UncertainValue2(value);
+      final double ic = 1.0 / c.mValue;
+      final double[] w = {
+         b.mValue * ic,
+         a.mValue * ic,
+         -ab * ic * ic
+      };
+      if (Double.isNaN(w[0]) || Double.isNaN(w[1]) || Double.isNaN(w[2]))
+         return UncertainValue2.NaN;
+      return combine(value, w, new UncertainValue2[]{a, b, c});
    }
 
    static public UncertainValue2 invert(final Number nv) {
       final UncertainValue2 v = toUV2(nv);
-      final UncertainValue2 res = new UncertainValue2(1.0 / v.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
+      final double res = 1.0 / v.mValue;
+      if (!Double.isNaN(res)) {
          final double cb = 1.0 / (v.mValue * v.mValue);
          if (Double.isNaN(cb))
             return UncertainValue2.NaN;
-         for (final String src : v.mSigmas.keySet())
-            res.assignComponent(src, Math.abs(cb * v.getComponent(src)));
+         return scale(res, cb, v);
       }
-      return res;
+      return new UncertainValue2(res);
    }
 
    /**
@@ -583,44 +923,31 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    static public UncertainValue2 divide(final Number na, final Number nb) {
       final UncertainValue2 a = toUV2(na), b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a.mValue / b.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
-         final Set<String> srcs = new TreeSet<String>();
-         srcs.addAll(a.mSigmas.keySet());
-         srcs.addAll(b.mSigmas.keySet());
+      final double res = a.mValue / b.mValue;
+      if (!Double.isNaN(res)) {
          final double ca = 1.0 / b.mValue;
          final double cb = -a.mValue / (b.mValue * b.mValue);
          if (Double.isNaN(ca) || Double.isNaN(cb))
             return UncertainValue2.NaN;
-         for (final String src : srcs) {
-            final double ua = a.getComponent(src), ub = b.getComponent(src);
-            res.assignComponent(src, Math.abs((ca * ua) + (cb * ub)));
-         }
+         return combine(res, ca, a, cb, b);
       }
-      return res;
+      return new UncertainValue2(res);
    }
 
    static public UncertainValue2 divide(final double a, final Number nb) {
       final UncertainValue2 b = toUV2(nb);
-      final UncertainValue2 res = new UncertainValue2(a / b.mValue);
-      if (!Double.isNaN(res.doubleValue())) {
-         final double ub = Math.abs(a / (b.mValue * b.mValue));
-         for (final Map.Entry<String, Double> me : b.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), ub * me.getValue().doubleValue());
-      }
-      return res;
+      final double res = a / b.mValue;
+      if (!Double.isNaN(res))
+         return scale(res, Math.abs(a / (b.mValue * b.mValue)), b);
+      return new UncertainValue2(res);
    }
 
    static public UncertainValue2 divide(final Number na, final double b) {
       final UncertainValue2 a = toUV2(na);
       final double den = 1.0 / b;
-      if (!Double.isNaN(den)) {
-         final UncertainValue2 res = new UncertainValue2(den * a.doubleValue());
-         final double ua = Math.abs(den);
-         for (final Map.Entry<String, Double> me : a.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), ua * me.getValue().doubleValue());
-         return res;
-      } else
+      if (!Double.isNaN(den))
+         return scale(den * a.doubleValue(), Math.abs(den), a);
+      else
          return UncertainValue2.NaN;
    }
 
@@ -635,10 +962,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       final UncertainValue2 x = toUV2(nx);
       assert !Double.isNaN(x.mValue) : x.toString();
       final double ex = Math.exp(x.mValue);
-      final UncertainValue2 res = new UncertainValue2(ex);
-      for (final Map.Entry<String, Double> me : x.mSigmas.entrySet())
-         res.assignComponent(me.getKey(), ex * me.getValue().doubleValue());
-      return res;
+      return scale(ex, ex, x);
    }
 
    /**
@@ -651,12 +975,9 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       final UncertainValue2 v2 = toUV2(nx);
       final double tmp = 1.0 / v2.mValue;
       final double lv = Math.log(v2.mValue);
-      if (!(Double.isNaN(tmp) || Double.isNaN(lv))) {
-         final UncertainValue2 res = new UncertainValue2(lv);
-         for (final Map.Entry<String, Double> me : v2.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), tmp * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(tmp) || Double.isNaN(lv)))
+         return scale(lv, tmp, v2);
+      else
          return UncertainValue2.NaN;
    }
 
@@ -674,10 +995,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       if (v1.mValue != 0.0) {
          final double f = Math.pow(v1.mValue, n);
          final double df = n * Math.pow(v1.mValue, n - 1.0);
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : v1.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), me.getValue() * df);
-         return res;
+         return scale(f, df, v1);
       } else
          return UncertainValue2.ZERO;
    }
@@ -728,7 +1046,7 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return boolean
     */
    public boolean isUncertain() {
-      return mSigmas.size() > 0;
+      return mCount > 0;
    }
 
    /**
@@ -751,8 +1069,8 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    public double variance() {
       double sigma2 = 0.0;
-      for (final Double s : mSigmas.values())
-         sigma2 += s * s;
+      for (int i = 0; i < mCount; ++i)
+         sigma2 += mMagnitudes[i] * mMagnitudes[i];
       return sigma2;
    }
 
@@ -791,7 +1109,10 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     */
    @Override
    public int hashCode() {
-      return Objects.hash(mValue, mSigmas);
+      int comps = 0;
+      for (int i = 0; i < mCount; ++i)
+         comps += Long.hashCode(mSources[i].mKey) ^ Double.hashCode(mMagnitudes[i]);
+      return Objects.hash(mValue, comps);
    }
 
    /**
@@ -806,7 +1127,12 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
       if (getClass() != obj.getClass())
          return false;
       final UncertainValue2 other = (UncertainValue2) obj;
-      return mSigmas.equals(other.mSigmas) && (mValue == other.mValue);
+      if ((mCount != other.mCount) || (mValue != other.mValue))
+         return false;
+      for (int i = 0; i < mCount; ++i)
+         if ((mSources[i].mKey != other.mSources[i].mKey) || (Double.compare(mMagnitudes[i], other.mMagnitudes[i]) != 0))
+            return false;
+      return true;
    }
 
    /**
@@ -820,11 +1146,11 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
    public boolean equals(final UncertainValue2 other, double tolerance) {
       if (this == other)
          return true;
-      Set<String> keys = new TreeSet<String>();
-      keys.addAll(other.mSigmas.keySet());
-      keys.addAll(mSigmas.keySet());
-      for (String key : keys)
-         if (Math.abs(mSigmas.get(key) - other.mSigmas.get(key)) >= tolerance)
+      for (int i = 0; i < mCount; ++i)
+         if (Math.abs(mMagnitudes[i] - other.getComponent(mSources[i].mKey)) >= tolerance)
+            return false;
+      for (int i = 0; i < other.mCount; ++i)
+         if (Math.abs(getComponent(other.mSources[i].mKey) - other.mMagnitudes[i]) >= tolerance)
             return false;
       return (Math.abs(uncertainty() - other.uncertainty()) < tolerance) && (Math.abs(mValue - other.mValue) < tolerance);
    }
@@ -860,35 +1186,29 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
 
    static public UncertainValue2 negate(final Number n) {
       final UncertainValue2 uv = toUV2(n);
-      return new UncertainValue2(-uv.mValue, uv.mSigmas);
+      return new UncertainValue2(-uv.mValue, uv);
    }
 
    static public UncertainValue2 atan(final UncertainValue2 uv) {
       final double f = Math.atan(uv.doubleValue());
       final double df = 1.0 / (1.0 + (uv.doubleValue() * uv.doubleValue()));
-      if (!(Double.isNaN(f) || Double.isNaN(df))) {
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : uv.mSigmas.entrySet())
-            res.assignComponent(me.getKey(), df * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(f) || Double.isNaN(df)))
+         return scale(f, df, uv);
+      else
          return UncertainValue2.NaN;
    }
 
    static public UncertainValue2 atan2(final UncertainValue2 y, final UncertainValue2 x) {
       final double f = Math.atan2(y.doubleValue(), x.doubleValue());
       final double df = 1.0 / (1.0 + Math2.sqr(y.doubleValue() / x.doubleValue()));
-      if (!(Double.isNaN(f) || Double.isNaN(df))) {
-         final UncertainValue2 res = new UncertainValue2(f);
-         for (final Map.Entry<String, Double> me : UncertainValue2.divide(y, x).mSigmas.entrySet())
-            res.assignComponent(me.getKey(), df * me.getValue());
-         return res;
-      } else
+      if (!(Double.isNaN(f) || Double.isNaN(df)))
+         return scale(f, df, UncertainValue2.divide(y, x));
+      else
          return UncertainValue2.NaN;
    }
 
    static public UncertainValue2 nonNegative(final UncertainValue2 uv) {
-      return uv.doubleValue() >= 0.0 ? uv : new UncertainValue2(0.0, uv.mSigmas);
+      return uv.doubleValue() >= 0.0 ? uv : new UncertainValue2(0.0, uv);
    }
 
    /**
@@ -986,13 +1306,15 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
     * @return The correlated variance
     */
    public double variance(final Correlations corr) {
-      final ArrayList<String> keys = new ArrayList<String>(mSigmas.keySet());
+      final ArrayList<String> keys = new ArrayList<String>(mCount);
+      for (int i = 0; i < mCount; ++i)
+         keys.add(mSources[i].name());
       double res = 0.0;
-      for (int i = 0; i < keys.size(); ++i)
-         res += Math2.sqr(mSigmas.get(keys.get(i)));
-      for (int i = 0; i < (keys.size() - 1); ++i)
-         for (int j = i + 1; j < keys.size(); ++j)
-            res += 2.0 * mSigmas.get(keys.get(i)) * mSigmas.get(keys.get(j)) * corr.get(keys.get(i), keys.get(j));
+      for (int i = 0; i < mCount; ++i)
+         res += Math2.sqr(mMagnitudes[i]);
+      for (int i = 0; i < (mCount - 1); ++i)
+         for (int j = i + 1; j < mCount; ++j)
+            res += 2.0 * mMagnitudes[i] * mMagnitudes[j] * corr.get(keys.get(i), keys.get(j));
       return res;
    }
 
@@ -1066,4 +1388,25 @@ final public class UncertainValue2 extends Number implements Comparable<Uncertai
          res[i]=new UncertainValue2(vals[i].doubleValue()/s, Math.sqrt(r.get(i, i)));
       return res;
    }
+
+   /**
+    * Serializes the components by name in mSigmas so the serialized form is
+    * the same as when the components were stored in a TreeMap.
+    *
+    * @return Object
+    */
+   private Object writeReplace() {
+      final UncertainValue2 res = new UncertainValue2(mValue);
+      res.mSigmas = componentMap();
+      return res;
+   }
+
+   /**
+    * Rebuilds the component arrays from the serialized form.
+    *
+    * @return Object
+    */
+   private Object readResolve() {
+      return new UncertainValue2(mValue, mSigmas);
+   }
 }
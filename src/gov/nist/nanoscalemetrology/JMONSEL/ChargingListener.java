@@ -71,7 +71,9 @@ import Jama.Matrix;
  * preconditioner). Setters and getters for these parameters are provided by
  * ChargingListener. A description of the function of each parameter may be
  * found in the documentation for these methods. For additional details, see
- * Sparskit documentation available on the web.
+ * Sparskit documentation available on the web. JavaFEArunner solves the same
+ * problem within this process, without GetDP or scratch files, and may be
+ * supplied to the constructors that accept an IFEArunner.
  * </p>
  * <p>
  * In the constructor, set feaInitializationRequired = true if you need an FEA
@@ -0,0 +1,537 @@
+package gov.nist.nanoscalemetrology.JMONSEL;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>
+ * Reads and writes the tables used by NUTableInterpolation and
+ * RegularTableInterpolation. Tables are traditionally stored as numbers in
+ * character format separated by white space (see the NUTableInterpolation and
+ * RegularTableInterpolation constructors). Parsing the larger of these tables
+ * takes seconds. This class also defines an equivalent binary format which is
+ * read in a single operation and copied directly into the table arrays. The
+ * binary file is not left memory mapped so that it may be replaced (on Windows
+ * a mapped file can't be replaced or deleted until the mapping is garbage
+ * collected). The binary file
+ * holds the same numbers in the same order, little-endian, preceded by a
+ * header:
+ * </p>
+ * <ul>
+ * <li>int MAGIC, int VERSION, int 0 for nonuniform or 1 for regular, int
+ * dimension (N)</li>
+ * <li>int[4] The number of values taken by each of the N input variables (zero
+ * padded)</li>
+ * <li>double[] The input variable values (nonuniform) or the minimum and
+ * increment of each input variable (regular)</li>
+ * <li>double[] The tabulated values with the Nth input variable varying most
+ * rapidly</li>
+ * </ul>
+ * <p>
+ * Use convert(...) or run this class with the names of the text tables as
+ * arguments to write the binary tables. The binary table is written alongside
+ * the text table with BINARY_EXTENSION appended to the name. The interpolation
+ * classes use the binary table in place of the text table when it is present
+ * and at least as new as the text table.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain.
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ */
+public final class InterpolationTableFile {
+
+   /**
+    * The extension appended to the name of a text table to form the name of
+    * the equivalent binary table.
+    */
+   public static final String BINARY_EXTENSION = ".jmt";
+
+   private static final int MAGIC = 0x4A4D5442; // "JMTB"
+   private static final int VERSION = 1;
+   private static final int MAX_DIM = 4;
+   // MAGIC, VERSION, kind, dim, nPoints[MAX_DIM]
+   private static final int HEADER_SIZE = (4 + MAX_DIM) * Integer.BYTES;
+
+   private InterpolationTableFile() {
+   }
+
+   /**
+    * The contents of a table. The tabulated values are held in a DoubleBuffer.
+    */
+   static final class Table {
+      final boolean mRegular;
+      final int mDim;
+      final int[] mNPoints;
+      /**
+       * double[dim][nPoints[i]] for nonuniform tables or double[2][dim]
+       * containing the minima and increments for regular tables.
+       */
+      final double[][] mX;
+      final DoubleBuffer mValues;
+
+      private Table(boolean regular, int[] nPoints, double[][] x, DoubleBuffer values) {
+         mRegular = regular;
+         mDim = nPoints.length;
+         mNPoints = nPoints;
+         mX = x;
+         mValues = values;
+      }
+
+      private int gridSize() {
+         int res = 0;
+         for (final double[] xx : mX)
+            res += xx.length;
+         return res;
+      }
+
+      double[] values1d() {
+         final double[] res = new double[mNPoints[0]];
+         mValues.get(0, res);
+         return res;
+      }
+
+      double[][] values2d() {
+         final double[][] res = new double[mNPoints[0]][mNPoints[1]];
+         int pos = 0;
+         for (final double[] row : res) {
+            mValues.get(pos, row);
+            pos += row.length;
+         }
+         return res;
+      }
+
+      double[][][] values3d() {
+         final double[][][] res = new double[mNPoints[0]][mNPoints[1]][mNPoints[2]];
+         int pos = 0;
+         for (final double[][] plane : res)
+            for (final double[] row : plane) {
+               mValues.get(pos, row);
+               pos += row.length;
+            }
+         return res;
+      }
+
+      double[][][][] values4d() {
+         final double[][][][] res = new double[mNPoints[0]][mNPoints[1]][mNPoints[2]][mNPoints[3]];
+         int pos = 0;
+         for (final double[][][] cube : res)
+            for (final double[][] plane : cube)
+               for (final double[] row : plane) {
+                  mValues.get(pos, row);
+                  pos += row.length;
+               }
+         return res;
+      }
+   }
+
+   /**
+    * Shares instances between threads. Instances are only weakly referenced so
+    * tables no longer in use may be garbage collected. Each name is loaded at
+    * most once at a time. Other threads requesting the same name wait for the
+    * load. The load runs outside the map so it doesn't hold up requests for
+    * other names.
+    */
+   static final class Registry<T> {
+
+      interface Loader<T> {
+         T load(String name) throws FileNotFoundException;
+      }
+
+      /**
+       * Either a load in progress (mTask) or a loaded instance (mRef)
+       */
+      private static final class Slot<T> {
+         private final FutureTask<T> mTask;
+         private final WeakReference<T> mRef;
+
+         private Slot(FutureTask<T> task, WeakReference<T> ref) {
+            mTask = task;
+            mRef = ref;
+         }
+      }
+
+      private final ConcurrentHashMap<String, Slot<T>> mInstances = new ConcurrentHashMap<String, Slot<T>>();
+      private final Loader<T> mLoader;
+
+      Registry(Loader<T> loader) {
+         mLoader = loader;
+      }
+
+      T get(String name) throws FileNotFoundException {
+         while (true) {
+            Slot<T> slot = mInstances.get(name);
+            if (slot == null) {
+               final FutureTask<T> task = new FutureTask<T>(() -> mLoader.load(name));
+               final Slot<T> pending = new Slot<T>(task, null);
+               slot = mInstances.putIfAbsent(name, pending);
+               if (slot == null) {
+                  task.run();
+                  slot = pending;
+               }
+            }
+            if (slot.mTask == null) {
+               final T res = slot.mRef.get();
+               if (res != null)
+                  return res;
+               // Discard the entry for an instance which has been collected
+               mInstances.remove(name, slot);
+               continue;
+            }
+            final T res = await(name, slot);
+            // Only weakly reference the instance from now on
+            mInstances.replace(name, slot, new Slot<T>(null, new WeakReference<T>(res)));
+            return res;
+         }
+      }
+
+      /**
+       * Waits for the load in slot to complete and returns the result. A
+       * failure to load is removed so that it isn't remembered.
+       */
+      private T await(String name, Slot<T> slot) throws FileNotFoundException {
+         boolean interrupted = false;
+         try {
+            while (true)
+               try {
+                  return slot.mTask.get();
+               } catch (final InterruptedException e) {
+                  interrupted = true;
+               } catch (final ExecutionException e) {
+                  mInstances.remove(name, slot);
+                  final Throwable cause = e.getCause();
+                  if (cause instanceof FileNotFoundException)
+                     throw (FileNotFoundException) cause;
+                  if (cause instanceof RuntimeException)
+                     throw (RuntimeException) cause;
+                  if (cause instanceof Error)
+                     throw (Error) cause;
+                  throw new IllegalStateException(cause);
+               }
+         } finally {
+            if (interrupted)
+               Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Splits a Reader into white space delimited tokens.
+    */
+   private static final class Tokenizer {
+      private final Reader mReader;
+      private final StringBuilder mToken = new StringBuilder(32);
+
+      private Tokenizer(Reader reader) {
+         mReader = reader;
+      }
+
+      private String next() throws IOException {
+         mToken.setLength(0);
+         int c = mReader.read();
+         while ((c != -1) && Character.isWhitespace(c))
+            c = mReader.read();
+         while ((c != -1) && !Character.isWhitespace(c)) {
+            mToken.append((char) c);
+            c = mReader.read();
+         }
+         if (mToken.length() == 0)
+            throw new IllegalArgumentException("The table ended unexpectedly.");
+         return mToken.toString();
+      }
+
+      private int nextInt() throws IOException {
+         final String tok = next();
+         try {
+            return Integer.parseInt(tok);
+         } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an integer but found " + tok);
+         }
+      }
+
+      private double nextDouble() throws IOException {
+         final String tok = next();
+         try {
+            return Double.parseDouble(tok);
+         } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number but found " + tok);
+         }
+      }
+   }
+
+   private static int[] checkDimensions(int dim) {
+      if ((dim < 1) || (dim > MAX_DIM))
+         throw new IllegalArgumentException("Table dimensions must be 1<=dim<=4");
+      return new int[dim];
+   }
+
+   private static int valueCount(int[] nPoints) {
+      try {
+         int res = 1;
+         for (final int n : nPoints) {
+            if (n < 1)
+               throw new IllegalArgumentException("Each input variable must take one or more values.");
+            res = Math.multiplyExact(res, n);
+         }
+         return res;
+      } catch (final ArithmeticException e) {
+         throw new IllegalArgumentException("The table is too large.");
+      }
+   }
+
+   /**
+    * Reads a table in the text format.
+    *
+    * @param is
+    * @param regular
+    *           true for the RegularTableInterpolation format, false for the
+    *           NUTableInterpolation format
+    * @return Table
+    * @throws IOException
+    */
+   static Table readText(InputStream is, boolean regular) throws IOException {
+      final Tokenizer s = new Tokenizer(new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII), 1 << 16));
+      final int[] nPoints = checkDimensions(s.nextInt());
+      final int dim = nPoints.length;
+      final double[][] x = regular ? new double[2][dim] : new double[dim][];
+      for (int i = 0; i < dim; i++) {
+         nPoints[i] = s.nextInt();
+         if (regular) {
+            x[0][i] = s.nextDouble();
+            x[1][i] = s.nextDouble();
+         } else {
+            if (nPoints[i] < 1)
+               throw new IllegalArgumentException("Each input variable must take one or more values.");
+            x[i] = new double[nPoints[i]];
+            for (int j = 0; j < nPoints[i]; j++)
+               x[i][j] = s.nextDouble();
+         }
+      }
+      final double[] values = new double[valueCount(nPoints)];
+      for (int i = 0; i < values.length; i++)
+         values[i] = s.nextDouble();
+      return new Table(regular, nPoints, x, DoubleBuffer.wrap(values));
+   }
+
+   private static Table readBinary(ByteBuffer bb, String name) throws IOException {
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      if ((bb.limit() < HEADER_SIZE) || (bb.getInt(0) != MAGIC))
+         throw new IOException(name + " is not a binary interpolation table.");
+      if (bb.getInt(4) != VERSION)
+         throw new IOException("Unsupported interpolation table version " + bb.getInt(4) + " in " + name);
+      final boolean regular = bb.getInt(8) == 1;
+      final int[] nPoints = checkDimensions(bb.getInt(12));
+      final int dim = nPoints.length;
+      for (int i = 0; i < dim; i++)
+         nPoints[i] = bb.getInt(16 + (i * Integer.BYTES));
+      final int nValues = valueCount(nPoints);
+      bb.position(HEADER_SIZE);
+      final DoubleBuffer db = bb.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+      final double[][] x = regular ? new double[2][dim] : new double[dim][];
+      int gridSize = 2 * dim;
+      if (!regular) {
+         gridSize = 0;
+         for (int i = 0; i < dim; i++) {
+            x[i] = new double[nPoints[i]];
+            gridSize += nPoints[i];
+         }
+      }
+      if (db.limit() != ((long) gridSize + nValues))
+         throw new IOException(name + " is truncated or corrupt.");
+      for (final double[] xx : x)
+         db.get(xx);
+      return new Table(regular, nPoints, x, db.slice());
+   }
+
+   /**
+    * Is the specified file a binary interpolation table?
+    *
+    * @param file
+    * @return boolean
+    */
+   static boolean isBinary(File file) {
+      try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+         return (raf.length() >= HEADER_SIZE) && (Integer.reverseBytes(raf.readInt()) == MAGIC);
+      } catch (final IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Returns the binary table to use in place of the specified text table or
+    * null if there is no binary table or if it is older than the text table.
+    *
+    * @param textFile
+    * @return File or null
+    */
+   static File binaryFor(File textFile) {
+      final File bin = new File(textFile.getPath() + BINARY_EXTENSION);
+      return bin.isFile() && (bin.lastModified() >= textFile.lastModified()) ? bin : null;
+   }
+
+   /**
+    * Reads the table in the named file. The file may be a text or binary table.
+    * An up-to-date binary table alongside a text table is used in place of the
+    * text table.
+    *
+    * @param fileName
+    * @param regular
+    *           true for the RegularTableInterpolation format, false for the
+    *           NUTableInterpolation format
+    * @return Table
+    * @throws IOException
+    */
+   static Table readFile(String fileName, boolean regular) throws IOException {
+      final File file = new File(fileName);
+      if (!file.isFile())
+         throw new FileNotFoundException(fileName);
+      File bin = isBinary(file) ? file : binaryFor(file);
+      if (bin != null) {
+         // Not mapped so that the file may be replaced while the table is in use
+         final Table res = readBinary(ByteBuffer.wrap(Files.readAllBytes(bin.toPath())), bin.getPath());
+         if (res.mRegular != regular)
+            throw new IOException(bin.getPath() + " is not a " + (regular ? "regular" : "nonuniform") + " interpolation table.");
+         return res;
+      }
+      try (final InputStream is = new FileInputStream(file)) {
+         return readText(is, regular);
+      }
+   }
+
+   /**
+    * Reads the table in the named resource relative to the specified class.
+    * The binary resource (with BINARY_EXTENSION appended to the name) is used
+    * in place of the text resource when present.
+    *
+    * @param cls
+    * @param name
+    * @param regular
+    *           true for the RegularTableInterpolation format, false for the
+    *           NUTableInterpolation format
+    * @return Table
+    * @throws IOException
+    */
+   static Table readResource(Class<?> cls, String name, boolean regular) throws IOException {
+      try (final InputStream bis = cls.getResourceAsStream(name + BINARY_EXTENSION)) {
+         if (bis != null) {
+            final String binName = name + BINARY_EXTENSION;
+            final Table res = readBinary(ByteBuffer.wrap(bis.readAllBytes()), binName);
+            if (res.mRegular != regular)
+               throw new IOException(binName + " is not a " + (regular ? "regular" : "nonuniform") + " interpolation table.");
+            return res;
+         }
+      }
+      try (final InputStream is = cls.getResourceAsStream(name)) {
+         if (is == null)
+            throw new FileNotFoundException("Could not locate " + name);
+         return readText(is, regular);
+      }
+   }
+
+   /**
+    * Writes the table in binary format. The file is first written to a
+    * temporary file in the same directory and then moved into place.
+    *
+    * @param table
+    * @param file
+    * @throws IOException
+    */
+   static void writeBinary(Table table, File file) throws IOException {
+      final int nValues = valueCount(table.mNPoints);
+      final int size;
+      try {
+         size = Math.toIntExact(HEADER_SIZE + (((long) table.gridSize() + nValues) * Double.BYTES));
+      } catch (final ArithmeticException e) {
+         throw new IOException("The table is too large to write in binary format.");
+      }
+      final ByteBuffer bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      bb.putInt(MAGIC);
+      bb.putInt(VERSION);
+      bb.putInt(table.mRegular ? 1 : 0);
+      bb.putInt(table.mDim);
+      for (int i = 0; i < MAX_DIM; i++)
+         bb.putInt(i < table.mDim ? table.mNPoints[i] : 0);
+      for (final double[] xx : table.mX)
+         for (final double v : xx)
+            bb.putDouble(v);
+      for (int i = 0; i < nValues; i++)
+         bb.putDouble(table.mValues.get(i));
+      bb.flip();
+      final File tmp = File.createTempFile("jmt", ".tmp", file.getAbsoluteFile().getParentFile());
+      try {
+         try (final RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); final FileChannel fc = raf.getChannel()) {
+            while (bb.hasRemaining())
+               fc.write(bb);
+            fc.force(true);
+         }
+         Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+         tmp.delete();
+      }
+   }
+
+   /**
+    * Converts the named text table into a binary table with the same name plus
+    * BINARY_EXTENSION.
+    *
+    * @param textFileName
+    *           The name of the text table
+    * @param regular
+    *           true for a RegularTableInterpolation table, false for a
+    *           NUTableInterpolation table
+    * @return File The binary table
+    * @throws IOException
+    */
+   public static File convert(String textFileName, boolean regular) throws IOException {
+      final Table table;
+      try (final InputStream is = new FileInputStream(textFileName)) {
+         table = readText(is, regular);
+      }
+      final File res = new File(textFileName + BINARY_EXTENSION);
+      writeBinary(table, res);
+      return res;
+   }
+
+   /**
+    * Converts each of the text tables named on the command line into binary
+    * tables. The tables are assumed to be NUTableInterpolation tables unless
+    * preceded by the argument "-regular".
+    *
+    * @param args
+    * @throws IOException
+    */
+   public static void main(String[] args) throws IOException {
+      boolean regular = false;
+      for (final String arg : args)
+         if (arg.equals("-regular"))
+            regular = true;
+         else {
+            final long start = System.currentTimeMillis();
+            final File bin = convert(arg, regular);
+            System.out.println(arg + " -> " + bin.getPath() + " in " + (System.currentTimeMillis() - start) + " ms");
+         }
+   }
+}
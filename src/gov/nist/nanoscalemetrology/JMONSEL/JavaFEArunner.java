@@ -0,0 +1,718 @@
+package gov.nist.nanoscalemetrology.JMONSEL;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.Material;
+import gov.nist.microanalysis.EPQLibrary.PhysicalConstants;
+import gov.nist.microanalysis.NISTMonte.IMaterialScatterModel;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.DirichletConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.FloatingConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.IConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.NeumannConstraint;
+
+/**
+ * <p>
+ * Runs finite element analysis (FEA) in this process without an external
+ * solver. The problem solved is the one GetDPspec specifies for GetDP: first
+ * order (4-node tetrahedral) Galerkin elements with the relative dielectric
+ * constant of each volume's SEmaterial, each element's trapped charge spread
+ * uniformly over the element, Dirichlet, Neumann and floating (fixed total
+ * charge) constraints. The resulting symmetric positive definite system is
+ * assembled in compressed sparse row form and solved by the conjugate gradient
+ * method with an incomplete Cholesky preconditioner. Potentials are written
+ * directly to the mesh, so there are no scratch files.
+ * </p>
+ * <p>
+ * During a charging simulation successive solutions differ only in the trapped
+ * charges. The assembled matrix and its preconditioner are therefore kept (for
+ * each MeshedRegion) and reused as long as the mesh revision, the constraint
+ * list (other than Dirichlet potentials, which may change) and the dielectric
+ * constants of the materials are unchanged. Otherwise the system is
+ * reassembled. Each solution starts from the potentials already in the mesh,
+ * which are those of the previous solution, so few iterations are needed when
+ * the charge has changed little.
+ * </p>
+ * <p>
+ * Convergence: The iteration stops when Norm(b-A x) &lt; stoppingTest*Norm(b),
+ * where A x = b is the system of equations and Norm is the l2-norm. The
+ * residual is recomputed from x before the test is accepted, since the
+ * residual updated by the iteration can drift from the true one (e.g. for a
+ * region with no Dirichlet or floating constraint, which has no solution when
+ * it is charged). An EPQFatalException is thrown if this is not achieved in
+ * maxIterations iterations.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class JavaFEArunner implements IFEArunner {
+
+   /**
+    * A sparse matrix in compressed sparse row form. Column indices within each
+    * row are in ascending order.
+    */
+   private static final class CSRMatrix {
+      private final int nRows;
+      private final int[] rowPtr;
+      private final int[] cols;
+      private final double[] vals;
+
+      private CSRMatrix(int nRows, int[] rowPtr, int[] cols, double[] vals) {
+         this.nRows = nRows;
+         this.rowPtr = rowPtr;
+         this.cols = cols;
+         this.vals = vals;
+      }
+
+      /**
+       * dest = this*x
+       */
+      private void multiply(double[] x, double[] dest) {
+         for (int i = 0; i < nRows; i++) {
+            double s = 0.;
+            for (int p = rowPtr[i], end = rowPtr[i + 1]; p < end; p++)
+               s += vals[p] * x[cols[p]];
+            dest[i] = s;
+         }
+      }
+   }
+
+   /**
+    * Accumulates (row, column, value) triplets, repeats allowed, for
+    * conversion to a CSRMatrix.
+    */
+   private static final class Triplets {
+      private int[] rows = new int[1024];
+      private int[] cols = new int[1024];
+      private double[] vals = new double[1024];
+      private int size = 0;
+
+      private void add(int row, int col, double val) {
+         if (size == rows.length) {
+            rows = Arrays.copyOf(rows, 2 * size);
+            cols = Arrays.copyOf(cols, 2 * size);
+            vals = Arrays.copyOf(vals, 2 * size);
+         }
+         rows[size] = row;
+         cols[size] = col;
+         vals[size] = val;
+         size++;
+      }
+
+      /**
+       * Sums repeated entries and returns the result as a CSRMatrix with
+       * nRows rows.
+       */
+      private CSRMatrix toCSR(int nRows) {
+         final int[] rowPtr = new int[nRows + 1];
+         for (int k = 0; k < size; k++)
+            rowPtr[rows[k] + 1]++;
+         for (int i = 0; i < nRows; i++)
+            rowPtr[i + 1] += rowPtr[i];
+         final int[] next = Arrays.copyOf(rowPtr, nRows);
+         final int[] c = new int[size];
+         final double[] v = new double[size];
+         for (int k = 0; k < size; k++) {
+            final int p = next[rows[k]]++;
+            c[p] = cols[k];
+            v[p] = vals[k];
+         }
+         /* Sort each row by column and combine repeats */
+         final int[] resPtr = new int[nRows + 1];
+         int nnz = 0;
+         for (int i = 0; i < nRows; i++) {
+            final int start = rowPtr[i], end = rowPtr[i + 1];
+            for (int p = start + 1; p < end; p++) {
+               final int cp = c[p];
+               final double vp = v[p];
+               int q = p - 1;
+               for (; (q >= start) && (c[q] > cp); q--) {
+                  c[q + 1] = c[q];
+                  v[q + 1] = v[q];
+               }
+               c[q + 1] = cp;
+               v[q + 1] = vp;
+            }
+            for (int p = start; p < end; p++)
+               if ((nnz > resPtr[i]) && (c[nnz - 1] == c[p]))
+                  v[nnz - 1] += v[p];
+               else {
+                  c[nnz] = c[p];
+                  v[nnz] = v[p];
+                  nnz++;
+               }
+            resPtr[i + 1] = nnz;
+         }
+         return new CSRMatrix(nRows, resPtr, Arrays.copyOf(c, nnz), Arrays.copyOf(v, nnz));
+      }
+   }
+
+   /**
+    * The assembled system of equations for one MeshedRegion and the
+    * information needed to decide whether it may be reused, to compute the
+    * right hand side and to store the solution.
+    */
+   private static final class FEASystem {
+      /* What the system was built from */
+      private final int meshRevision;
+      private final IConstraint[] constraints;
+      private final HashMap<Long, Double> epsrByTag = new HashMap<Long, Double>();
+
+      /*
+       * Unknowns 0 to nFree-1 are potentials of unconstrained nodes. The
+       * remainder are potentials of floating regions.
+       */
+      private int nUnknowns;
+      private int[] nodeOfUnknown; // a representative node for floats
+      private int[] floatConstraint; // constraint list index of each float
+      private int[] dirichletNodes;
+      private int[] dirichletConstraint; // constraint list index of each
+      private int[] writeNodes; // nodes that take the value of an unknown
+      private int[] writeUnknowns; // and the corresponding unknown
+
+      /* Unconstrained volume elements and their unknowns (or -1) */
+      private int[] domainElements;
+      private int[] domainUnknowns;
+
+      private CSRMatrix a; // Unknowns x unknowns
+      private CSRMatrix b; // Unknowns x Dirichlet nodes
+      private double[] neumannLoad;
+
+      /* Incomplete Cholesky factor (lower triangle, diagonal last in row) */
+      private CSRMatrix l;
+
+      /* Work space */
+      private double[] x, rhs, r, z, p, q, vD;
+
+      private FEASystem(int meshRevision, IConstraint[] constraints) {
+         this.meshRevision = meshRevision;
+         this.constraints = constraints;
+      }
+   }
+
+   private double chargeMultiplier = 1.;
+   private double stoppingTest = 1.e-10;
+   private int maxIterations = 4000;
+   private int iterations = 0;
+
+   private final Map<MeshedRegion, FEASystem> systems = new WeakHashMap<MeshedRegion, FEASystem>();
+
+   /**
+    * Constructs a JavaFEArunner
+    */
+   public JavaFEArunner() {
+      super();
+   }
+
+   /**
+    * @param meshReg
+    * @see gov.nist.nanoscalemetrology.JMONSEL.IFEArunner#runFEA(gov.nist.microanalysis.NISTMonte.MeshedRegion)
+    */
+   @Override
+   public void runFEA(MeshedRegion meshReg) {
+      FEASystem sys = systems.get(meshReg);
+      if ((sys == null) || !isCurrent(sys, meshReg)) {
+         sys = assemble(meshReg);
+         systems.put(meshReg, sys);
+      }
+      solve(sys, meshReg);
+   }
+
+   /**
+    * Discards the assembled systems of equations so that the next call to
+    * runFEA reassembles them. This is not ordinarily necessary, since changes
+    * to the mesh, constraints or materials are detected.
+    */
+   public void reset() {
+      systems.clear();
+   }
+
+   /**
+    * Returns true if sys is still the right system of equations for meshReg.
+    */
+   private static boolean isCurrent(FEASystem sys, MeshedRegion meshReg) {
+      if (meshReg.getMesh().getMeshRevision() != sys.meshRevision)
+         return false;
+      final IConstraint[] constraintList = meshReg.getConstraintList();
+      if (constraintList.length != sys.constraints.length)
+         return false;
+      for (int i = 0; i < constraintList.length; i++) {
+         final IConstraint c = constraintList[i];
+         final IConstraint old = sys.constraints[i];
+         if ((c.getClass() != old.getClass()) || (c.getAssociatedRegionTag() != old.getAssociatedRegionTag()))
+            return false;
+         if ((c instanceof FloatingConstraint) && (((FloatingConstraint) c).getVolumeTag() != ((FloatingConstraint) old).getVolumeTag()))
+            return false;
+         if ((c instanceof NeumannConstraint) && (((NeumannConstraint) c).getNormalE() != ((NeumannConstraint) old).getNormalE()))
+            return false;
+      }
+      final HashMap<Long, IMaterialScatterModel> msmMap = meshReg.getMSMMap();
+      for (final Map.Entry<Long, Double> e : sys.epsrByTag.entrySet()) {
+         final IMaterialScatterModel msm = msmMap.get(e.getKey());
+         if ((msm == null) || !(msm.getMaterial() instanceof SEmaterial) || (((SEmaterial) msm.getMaterial()).getEpsr() != e.getValue()))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Builds the system of equations for meshReg.
+    */
+   private FEASystem assemble(MeshedRegion meshReg) {
+      final Mesh mesh = meshReg.getMesh();
+      final IConstraint[] constraintList = meshReg.getConstraintList();
+      final HashMap<Long, IMaterialScatterModel> msmMap = meshReg.getMSMMap();
+      final FEASystem sys = new FEASystem(mesh.getMeshRevision(), constraintList.clone());
+      final int nNodes = mesh.getNumberOfNodes();
+      final int nElements = mesh.getNumberOfElements();
+
+      final HashMap<Long, Integer> constraintIndex = new HashMap<Long, Integer>();
+      final HashSet<Long> floatingVolumeTags = new HashSet<Long>();
+      for (int i = 0; i < constraintList.length; i++) {
+         constraintIndex.put(constraintList[i].getAssociatedRegionTag(), i);
+         if (constraintList[i] instanceof FloatingConstraint)
+            floatingVolumeTags.add(((FloatingConstraint) constraintList[i]).getVolumeTag());
+      }
+
+      /*
+       * Classify the nodes. Nodes of Dirichlet regions have fixed potentials.
+       * Nodes of a floating region's surface share one unknown potential.
+       * Other nodes of unconstrained volume elements each have their own
+       * unknown potential. Other nodes (e.g., inside floating volumes) are not
+       * part of the system.
+       */
+      final int[] nodeDirichlet = new int[nNodes + 1];
+      final int[] nodeFloat = new int[nNodes + 1];
+      final boolean[] inDomain = new boolean[nNodes + 1];
+      Arrays.fill(nodeDirichlet, -1);
+      Arrays.fill(nodeFloat, -1);
+      final int[] domain = new int[nElements];
+      final double[] domainEpsr = new double[nElements];
+      int nDomain = 0;
+      for (int j = 1; j <= nElements; j++) {
+         final long tag = mesh.getTags(j)[0];
+         final Integer ci = constraintIndex.get(tag);
+         if (ci != null) {
+            final IConstraint c = constraintList[ci];
+            if (c instanceof DirichletConstraint)
+               for (final int node : mesh.getNodeIndices(j))
+                  nodeDirichlet[node] = ci;
+            else if (c instanceof FloatingConstraint)
+               for (final int node : mesh.getNodeIndices(j))
+                  nodeFloat[node] = ci;
+         } else if (mesh.isVolumeType(j) && !floatingVolumeTags.contains(tag)) {
+            if (mesh.getElementType(j) != 4)
+               throw new EPQFatalException("Mesh element " + j + " is not a first order tetrahedron.");
+            final IMaterialScatterModel msm = msmMap.get(tag);
+            final Material mat = msm == null ? null : msm.getMaterial();
+            if (!(mat instanceof SEmaterial))
+               throw new EPQFatalException("Mesh element " + j + " does not contain an SEmaterial.");
+            final double epsr = ((SEmaterial) mat).getEpsr();
+            sys.epsrByTag.put(tag, epsr);
+            domain[nDomain] = j;
+            domainEpsr[nDomain] = epsr;
+            nDomain++;
+            for (final int node : mesh.getNodeIndices(j))
+               inDomain[node] = true;
+         }
+      }
+
+      /* Number the unknowns and the Dirichlet nodes */
+      final int[] unknownOfNode = new int[nNodes + 1];
+      final int[] dirichletOfNode = new int[nNodes + 1];
+      Arrays.fill(unknownOfNode, -1);
+      Arrays.fill(dirichletOfNode, -1);
+      int nFree = 0, nDirichlet = 0;
+      for (int n = 1; n <= nNodes; n++)
+         if (nodeDirichlet[n] >= 0)
+            dirichletOfNode[n] = nDirichlet++;
+         else if (inDomain[n] && (nodeFloat[n] < 0))
+            unknownOfNode[n] = nFree++;
+      final int[] floatOfConstraint = new int[constraintList.length];
+      int nFloat = 0;
+      for (int i = 0; i < constraintList.length; i++)
+         floatOfConstraint[i] = constraintList[i] instanceof FloatingConstraint ? nFloat++ : -1;
+      sys.nUnknowns = nFree + nFloat;
+      sys.nodeOfUnknown = new int[sys.nUnknowns];
+      sys.floatConstraint = new int[nFloat];
+      for (int i = 0; i < constraintList.length; i++)
+         if (floatOfConstraint[i] >= 0)
+            sys.floatConstraint[floatOfConstraint[i]] = i;
+      sys.dirichletNodes = new int[nDirichlet];
+      sys.dirichletConstraint = new int[nDirichlet];
+      int nWrite = 0;
+      for (int n = 1; n <= nNodes; n++) {
+         if (dirichletOfNode[n] >= 0) {
+            sys.dirichletNodes[dirichletOfNode[n]] = n;
+            sys.dirichletConstraint[dirichletOfNode[n]] = nodeDirichlet[n];
+            continue;
+         }
+         if (nodeFloat[n] >= 0)
+            unknownOfNode[n] = nFree + floatOfConstraint[nodeFloat[n]];
+         if (unknownOfNode[n] >= 0) {
+            sys.nodeOfUnknown[unknownOfNode[n]] = n;
+            nWrite++;
+         }
+      }
+      sys.writeNodes = new int[nWrite];
+      sys.writeUnknowns = new int[nWrite];
+      for (int n = 1, k = 0; n <= nNodes; n++)
+         if ((dirichletOfNode[n] < 0) && (unknownOfNode[n] >= 0)) {
+            sys.writeNodes[k] = n;
+            sys.writeUnknowns[k] = unknownOfNode[n];
+            k++;
+         }
+
+      /* Element stiffness matrices */
+      final Triplets aT = new Triplets();
+      final Triplets bT = new Triplets();
+      sys.domainElements = Arrays.copyOf(domain, nDomain);
+      sys.domainUnknowns = new int[4 * nDomain];
+      final double[][] grad = new double[4][3];
+      for (int k = 0; k < nDomain; k++) {
+         final int[] nodes = mesh.getNodeIndices(domain[k]);
+         final double volume = gradients(mesh, nodes, grad);
+         for (int i = 0; i < 4; i++) {
+            final int ui = unknownOfNode[nodes[i]];
+            sys.domainUnknowns[(4 * k) + i] = ui;
+            if (ui < 0)
+               continue;
+            for (int j = 0; j < 4; j++) {
+               final double kij = domainEpsr[k] * volume * ((grad[i][0] * grad[j][0]) + (grad[i][1] * grad[j][1]) + (grad[i][2] * grad[j][2]));
+               final int uj = unknownOfNode[nodes[j]];
+               if (uj >= 0)
+                  aT.add(ui, uj, kij);
+               else
+                  bT.add(ui, dirichletOfNode[nodes[j]], kij);
+            }
+         }
+      }
+      sys.a = aT.toCSR(sys.nUnknowns);
+      sys.b = bT.toCSR(sys.nUnknowns);
+
+      /* Neumann constraints: normalE times the integral of each basis function */
+      sys.neumannLoad = new double[sys.nUnknowns];
+      for (int j = 1; j <= nElements; j++) {
+         final Integer ci = constraintIndex.get(mesh.getTags(j)[0]);
+         if ((ci == null) || !(constraintList[ci] instanceof NeumannConstraint) || (mesh.getElementType(j) != 2))
+            continue;
+         final int[] nodes = mesh.getNodeIndices(j);
+         final double w = (((NeumannConstraint) constraintList[ci]).getNormalE() * triangleArea(mesh, nodes)) / 3.;
+         for (final int node : nodes)
+            if ((dirichletOfNode[node] < 0) && (unknownOfNode[node] >= 0))
+               sys.neumannLoad[unknownOfNode[node]] += w;
+      }
+
+      factor(sys);
+      final int n = sys.nUnknowns;
+      sys.x = new double[n];
+      sys.rhs = new double[n];
+      sys.r = new double[n];
+      sys.z = new double[n];
+      sys.p = new double[n];
+      sys.q = new double[n];
+      sys.vD = new double[nDirichlet];
+      return sys;
+   }
+
+   /**
+    * Computes the gradients of the 4 linear basis functions of a tetrahedron
+    * and returns its volume.
+    */
+   private static double gradients(Mesh mesh, int[] nodes, double[][] grad) {
+      final double[] p0 = mesh.getNodeCoordinates(nodes[0]);
+      final double[][] e = new double[3][3];
+      for (int i = 0; i < 3; i++) {
+         final double[] pi = mesh.getNodeCoordinates(nodes[i + 1]);
+         for (int j = 0; j < 3; j++)
+            e[i][j] = pi[j] - p0[j];
+      }
+      for (int i = 0; i < 3; i++) {
+         final double[] u = e[(i + 1) % 3], v = e[(i + 2) % 3];
+         grad[i + 1][0] = (u[1] * v[2]) - (u[2] * v[1]);
+         grad[i + 1][1] = (u[2] * v[0]) - (u[0] * v[2]);
+         grad[i + 1][2] = (u[0] * v[1]) - (u[1] * v[0]);
+      }
+      final double det = (e[0][0] * grad[1][0]) + (e[0][1] * grad[1][1]) + (e[0][2] * grad[1][2]);
+      for (int j = 0; j < 3; j++) {
+         grad[1][j] /= det;
+         grad[2][j] /= det;
+         grad[3][j] /= det;
+         grad[0][j] = -(grad[1][j] + grad[2][j] + grad[3][j]);
+      }
+      return Math.abs(det) / 6.;
+   }
+
+   private static double triangleArea(Mesh mesh, int[] nodes) {
+      final double[] p0 = mesh.getNodeCoordinates(nodes[0]);
+      final double[] p1 = mesh.getNodeCoordinates(nodes[1]);
+      final double[] p2 = mesh.getNodeCoordinates(nodes[2]);
+      final double ux = p1[0] - p0[0], uy = p1[1] - p0[1], uz = p1[2] - p0[2];
+      final double vx = p2[0] - p0[0], vy = p2[1] - p0[1], vz = p2[2] - p0[2];
+      final double cx = (uy * vz) - (uz * vy), cy = (uz * vx) - (ux * vz), cz = (ux * vy) - (uy * vx);
+      return 0.5 * Math.sqrt((cx * cx) + (cy * cy) + (cz * cz));
+   }
+
+   /**
+    * Computes the incomplete Cholesky factorization with no fill, IC(0), of
+    * sys.a. If a pivot is not positive (possible when the mesh has obtuse
+    * tetrahedra) the factorization is repeated with the diagonal increased by
+    * a growing fraction of itself.
+    */
+   private static void factor(FEASystem sys) {
+      final CSRMatrix a = sys.a;
+      final int n = a.nRows;
+      final int[] rowPtr = new int[n + 1];
+      for (int i = 0; i < n; i++) {
+         int cnt = 0;
+         for (int p = a.rowPtr[i]; (p < a.rowPtr[i + 1]) && (a.cols[p] <= i); p++)
+            cnt++;
+         rowPtr[i + 1] = rowPtr[i] + cnt;
+      }
+      final int[] cols = new int[rowPtr[n]];
+      final double[] lower = new double[rowPtr[n]];
+      for (int i = 0; i < n; i++) {
+         System.arraycopy(a.cols, a.rowPtr[i], cols, rowPtr[i], rowPtr[i + 1] - rowPtr[i]);
+         System.arraycopy(a.vals, a.rowPtr[i], lower, rowPtr[i], rowPtr[i + 1] - rowPtr[i]);
+         if ((rowPtr[i + 1] == rowPtr[i]) || (cols[rowPtr[i + 1] - 1] != i))
+            throw new EPQFatalException("The FEA system has no diagonal element for unknown " + i + ". Is a floating region isolated?");
+      }
+      final double[] vals = new double[rowPtr[n]];
+      for (double shift = 0.; !incompleteCholesky(rowPtr, cols, lower, shift, vals); shift = shift == 0. ? 1.e-3 : 2. * shift)
+         if (shift > 1.)
+            throw new EPQFatalException("Unable to compute a preconditioner for the FEA system.");
+      sys.l = new CSRMatrix(n, rowPtr, cols, vals);
+   }
+
+   private static boolean incompleteCholesky(int[] rowPtr, int[] cols, double[] lower, double shift, double[] vals) {
+      final int n = rowPtr.length - 1;
+      for (int i = 0; i < n; i++) {
+         final int start = rowPtr[i];
+         for (int p = start; p < rowPtr[i + 1]; p++) {
+            final int k = cols[p];
+            // s = sum over j < k of L[i][j]*L[k][j]
+            double s = 0.;
+            for (int pi = start, pk = rowPtr[k], endK = rowPtr[k + 1] - 1; (pi < p) && (pk < endK);)
+               if (cols[pi] == cols[pk])
+                  s += vals[pi++] * vals[pk++];
+               else if (cols[pi] < cols[pk])
+                  pi++;
+               else
+                  pk++;
+            if (k < i)
+               vals[p] = (lower[p] - s) / vals[rowPtr[k + 1] - 1];
+            else {
+               final double d = ((1. + shift) * lower[p]) - s;
+               if (!(d > 0.))
+                  return false;
+               vals[p] = Math.sqrt(d);
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * z = (L L^T)^-1 r
+    */
+   private static void precondition(CSRMatrix l, double[] r, double[] z) {
+      final int n = l.nRows;
+      for (int i = 0; i < n; i++) {
+         double s = r[i];
+         final int diag = l.rowPtr[i + 1] - 1;
+         for (int p = l.rowPtr[i]; p < diag; p++)
+            s -= l.vals[p] * z[l.cols[p]];
+         z[i] = s / l.vals[diag];
+      }
+      for (int i = n - 1; i >= 0; i--) {
+         final int diag = l.rowPtr[i + 1] - 1;
+         final double zi = z[i] / l.vals[diag];
+         z[i] = zi;
+         for (int p = l.rowPtr[i]; p < diag; p++)
+            z[l.cols[p]] -= l.vals[p] * zi;
+      }
+   }
+
+   private static double dot(double[] u, double[] v) {
+      double s = 0.;
+      for (int i = 0; i < u.length; i++)
+         s += u[i] * v[i];
+      return s;
+   }
+
+   /**
+    * Computes the right hand side for the present charges and constraint
+    * values, solves, and stores the resulting potentials in the mesh.
+    */
+   private void solve(FEASystem sys, MeshedRegion meshReg) {
+      final Mesh mesh = meshReg.getMesh();
+      final IConstraint[] constraintList = meshReg.getConstraintList();
+      final int n = sys.nUnknowns;
+      // The charge of one unit of the mesh's charge number divided by eps0
+      final double qUnit = (chargeMultiplier * PhysicalConstants.ElectronCharge) / PhysicalConstants.PermittivityOfFreeSpace;
+
+      /* Right hand side */
+      final double[] rhs = sys.rhs;
+      System.arraycopy(sys.neumannLoad, 0, rhs, 0, n);
+      for (int k = 0; k < sys.domainElements.length; k++) {
+         final int nq = mesh.getChargeNumber(sys.domainElements[k]);
+         if (nq != 0) {
+            final double w = (nq * qUnit) / 4.;
+            for (int i = 4 * k; i < ((4 * k) + 4); i++)
+               if (sys.domainUnknowns[i] >= 0)
+                  rhs[sys.domainUnknowns[i]] += w;
+         }
+      }
+      final int nFree = n - sys.floatConstraint.length;
+      for (int f = 0; f < sys.floatConstraint.length; f++)
+         rhs[nFree + f] += ((FloatingConstraint) constraintList[sys.floatConstraint[f]]).getCharge() * qUnit;
+      for (int d = 0; d < sys.vD.length; d++)
+         sys.vD[d] = ((DirichletConstraint) constraintList[sys.dirichletConstraint[d]]).getPotential();
+      sys.b.multiply(sys.vD, sys.r);
+      for (int i = 0; i < n; i++)
+         rhs[i] -= sys.r[i];
+
+      /* Start from the potentials in the mesh */
+      final double[] x = sys.x;
+      for (int i = 0; i < n; i++) {
+         final double v = mesh.getNodePotential(sys.nodeOfUnknown[i]);
+         x[i] = Double.isInfinite(v) || Double.isNaN(v) ? 0. : v;
+      }
+      iterations = conjugateGradient(sys);
+
+      /* Store the results */
+      for (int k = 0; k < sys.writeNodes.length; k++)
+         mesh.setNodePotential(sys.writeNodes[k], x[sys.writeUnknowns[k]]);
+      for (int d = 0; d < sys.dirichletNodes.length; d++)
+         mesh.setNodePotential(sys.dirichletNodes[d], sys.vD[d]);
+      /* Make interior of any floating regions consistent with the surface. */
+      for (final IConstraint con : constraintList)
+         if (con instanceof FloatingConstraint)
+            ((FloatingConstraint) con).setVolumePotential();
+      mesh.clearElementsCache();
+   }
+
+   /**
+    * Preconditioned conjugate gradient solution of sys.a sys.x = sys.rhs
+    * starting from the supplied sys.x. Returns the number of iterations.
+    */
+   private int conjugateGradient(FEASystem sys) {
+      final double[] x = sys.x, r = sys.r, z = sys.z, p = sys.p, q = sys.q;
+      final int n = sys.nUnknowns;
+      final double bNorm = Math.sqrt(dot(sys.rhs, sys.rhs));
+      if (bNorm == 0.) {
+         Arrays.fill(x, 0.);
+         return 0;
+      }
+      final double target = stoppingTest * bNorm;
+      sys.a.multiply(x, r);
+      for (int i = 0; i < n; i++)
+         r[i] = sys.rhs[i] - r[i];
+      if (Math.sqrt(dot(r, r)) < target)
+         return 0;
+      precondition(sys.l, r, z);
+      System.arraycopy(z, 0, p, 0, n);
+      double rz = dot(r, z);
+      for (int it = 1; it <= maxIterations; it++) {
+         sys.a.multiply(p, q);
+         final double alpha = rz / dot(p, q);
+         for (int i = 0; i < n; i++) {
+            x[i] += alpha * p[i];
+            r[i] -= alpha * q[i];
+         }
+         if (Math.sqrt(dot(r, r)) < target) {
+            sys.a.multiply(x, r);
+            for (int i = 0; i < n; i++)
+               r[i] = sys.rhs[i] - r[i];
+            if (Math.sqrt(dot(r, r)) < target)
+               return it;
+            // Restart from the true residual
+            precondition(sys.l, r, z);
+            System.arraycopy(z, 0, p, 0, n);
+            rz = dot(r, z);
+            continue;
+         }
+         precondition(sys.l, r, z);
+         final double rzNew = dot(r, z);
+         final double beta = rzNew / rz;
+         rz = rzNew;
+         for (int i = 0; i < n; i++)
+            p[i] = z[i] + (beta * p[i]);
+      }
+      throw new EPQFatalException("FEA did not converge in " + maxIterations + " iterations.");
+   }
+
+   /**
+    * Returns the number of conjugate gradient iterations used by the most
+    * recent call to runFEA. This is 0 if the potentials already in the mesh
+    * satisfied the stopping test.
+    *
+    * @return int
+    */
+   public int getIterations() {
+      return iterations;
+   }
+
+   /**
+    * Gets the current value assigned to stoppingTest
+    *
+    * @return Returns the stoppingTest.
+    */
+   public double getStoppingTest() {
+      return stoppingTest;
+   }
+
+   /**
+    * Sets the value assigned to stoppingTest, the target residual relative to
+    * the norm of the right hand side. The default is 1e-10.
+    *
+    * @param stoppingTest
+    *           The value to which to set stoppingTest.
+    */
+   public void setStoppingTest(double stoppingTest) {
+      this.stoppingTest = stoppingTest;
+   }
+
+   /**
+    * Gets the current value assigned to maxIterations
+    *
+    * @return Returns the maxIterations.
+    */
+   public int getMaxIterations() {
+      return maxIterations;
+   }
+
+   /**
+    * Sets the value assigned to maxIterations, the maximum number of conjugate
+    * gradient iterations. The default is 4000.
+    *
+    * @param maxIterations
+    *           The value to which to set maxIterations.
+    */
+   public void setMaxIterations(int maxIterations) {
+      this.maxIterations = maxIterations;
+   }
+
+   @Override
+   public void setChargeMultiplier(double chargeMultiplier) {
+      this.chargeMultiplier = chargeMultiplier;
+   }
+
+   @Override
+   public double getChargeMultiplier() {
+      return chargeMultiplier;
+   }
+}
@@ -4,14 +4,12 @@
 
 package gov.nist.nanoscalemetrology.JMONSEL;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.Locale;
-import java.util.Scanner;
-import java.util.TreeMap;
+import java.io.IOException;
 
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolation;
+import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolator;
 
 /**
  * <p>
@@ -37,6 +35,15 @@ import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolation;
  * each file that stores a table. This avoids storing duplicates of the same
  * table in memory. Use the static RegularTableInterpolation.getInstance()
  * method rather than the constructor to obtain an interpolation table.
+ * getInstance() may be called from multiple threads. Tables which are no
+ * longer referenced may be garbage collected.
+ * </p>
+ * <p>
+ * The table may also be stored in the binary format defined by
+ * InterpolationTableFile which loads much faster than the text format. A
+ * binary table stored alongside the text table (named as the text table plus
+ * InterpolationTableFile.BINARY_EXTENSION) is used in place of the text table
+ * when it is at least as new as the text table.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -59,12 +66,7 @@ public class NUTableInterpolation {
     *           stores the table to be interpolated.
     */
    public static NUTableInterpolation getInstance(String tableFileName) throws FileNotFoundException {
-      NUTableInterpolation uniqueInstance = instanceMap.get(tableFileName);
-      if (uniqueInstance == null) {
-         uniqueInstance = new NUTableInterpolation(tableFileName);
-         instanceMap.put(tableFileName, uniqueInstance);
-      }
-      return uniqueInstance;
+      return instanceMap.get(tableFileName);
    }
 
    private double[] table1d;
@@ -80,7 +82,13 @@ public class NUTableInterpolation {
    // double[] xmin; // Array of minimum x values
    private final String tableFileName;
 
-   private static TreeMap<String, NUTableInterpolation> instanceMap = new TreeMap<String, NUTableInterpolation>();
+   private static final InterpolationTableFile.Registry<NUTableInterpolation> instanceMap = new InterpolationTableFile.Registry<NUTableInterpolation>(
+         new InterpolationTableFile.Registry.Loader<NUTableInterpolation>() {
+            @Override
+            public NUTableInterpolation load(String name) throws FileNotFoundException {
+               return new NUTableInterpolation(name);
+            }
+         });
 
    /**
     * RegularTableInterpolation - Create an interpolation table from the named
@@ -166,98 +174,78 @@ public class NUTableInterpolation {
       }
    }
 
-   private void ReadTable(String tableFileName) throws FileNotFoundException {
-      final FileReader fr = new FileReader(tableFileName);
-
-      final BufferedReader br = new BufferedReader(fr);
-      final Scanner s = new Scanner(br);
-      s.useLocale(Locale.US);
-      try {
-         dim = s.nextInt();
-         if ((dim < 1) || (dim > 4))
+   /**
+    * Creates an interpolator for this object's table. The interpolator returns
+    * the same values as interpolate(xval, order) but does not allocate memory
+    * and remembers where in the table the previous input lay, so it is
+    * considerably faster when called repeatedly. The table is shared, not
+    * copied. Since the interpolator keeps working state, each thread (or
+    * each object that interpolates the table) should create its own.
+    *
+    * @param order
+    *           - int The interpolation order, 1 for linear, 3 for cubic, etc.
+    * @return NULagrangeInterpolator
+    * @throws IllegalArgumentException
+    *            If order &lt; 1 or an axis of the table has order or fewer
+    *            values
+    */
+   public NULagrangeInterpolator createInterpolator(int order) {
+      switch (dim) {
+         case 1 :
+            return new NULagrangeInterpolator(table1d, x, order);
+         case 2 :
+            return new NULagrangeInterpolator(table2d, x, order);
+         case 3 :
+            return new NULagrangeInterpolator(table3d, x, order);
+         case 4 :
+            return new NULagrangeInterpolator(table4d, x, order);
+         default :
             throw new IllegalArgumentException("Table dimensions must be 1<=dim<=4");
-         /*
-          * Note: I think I could write a general N-dimension interpolation
-          * using techniques similar to Mick Flanagan's PolyCubicSpline
-          * algorithm.
-          */
-         final int[] nPoints = new int[dim];
-         x = new double[dim][];
-
-         domain = new double[dim][2];
-
-         for (int i = 0; i < dim; i++) {
-            nPoints[i] = s.nextInt();
-            x[i] = new double[nPoints[i]];
-
-            for (int j = 0; j < nPoints[i]; j++)
-               /*
-                * TODO The try/catch below was added to debug a problem that
-                * seems unique to Georg Frase's computer. After the problem is
-                * solved, I can remove it.
-                */
-               x[i][j] = s.nextDouble();
-
-            if (x[i][0] < x[i][nPoints[i] - 1]) {
-               domain[i][0] = x[i][0];
-               domain[i][1] = x[i][nPoints[i] - 1];
-            } else {
-               domain[i][1] = x[i][0];
-               domain[i][0] = x[i][nPoints[i] - 1];
-            }
-         }
+      }
+   }
 
-         switch (dim) {
-            case 1 :
-               table1d = new double[nPoints[0]];
-               for (int i = 0; i < nPoints[0]; i++) {
-                  table1d[i] = s.nextDouble();
-                  if (table1d[i] < range[0])
-                     range[0] = table1d[i];
-                  else if (table1d[i] > range[1])
-                     range[1] = table1d[i];
-               }
-               break;
-            case 2 :
-               table2d = new double[nPoints[0]][nPoints[1]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++) {
-                     table2d[i][j] = s.nextDouble();
-                     if (table2d[i][j] < range[0])
-                        range[0] = table2d[i][j];
-                     else if (table2d[i][j] > range[1])
-                        range[1] = table2d[i][j];
-                  }
-               break;
-            case 3 :
-               table3d = new double[nPoints[0]][nPoints[1]][nPoints[2]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++)
-                     for (int k = 0; k < nPoints[2]; k++) {
-                        table3d[i][j][k] = s.nextDouble();
-                        if (table3d[i][j][k] < range[0])
-                           range[0] = table3d[i][j][k];
-                        else if (table3d[i][j][k] > range[1])
-                           range[1] = table3d[i][j][k];
-                     }
-               break;
-            case 4 :
-               table4d = new double[nPoints[0]][nPoints[1]][nPoints[2]][nPoints[3]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++)
-                     for (int k = 0; k < nPoints[2]; k++)
-                        for (int m = 0; m < nPoints[3]; m++) {
-                           table4d[i][j][k][m] = s.nextDouble();
-                           if (table4d[i][j][k][m] < range[0])
-                              range[0] = table4d[i][j][k][m];
-                           else if (table4d[i][j][k][m] > range[1])
-                              range[1] = table4d[i][j][k][m];
-                        }
-               break;
+   private void ReadTable(String tableFileName) throws FileNotFoundException {
+      final InterpolationTableFile.Table t;
+      try {
+         t = InterpolationTableFile.readFile(tableFileName, false);
+      } catch (final FileNotFoundException e) {
+         throw e;
+      } catch (final IOException e) {
+         throw new EPQFatalException("Error reading " + tableFileName + ": " + e.getMessage(), e);
+      }
+      dim = t.mDim;
+      final int[] nPoints = t.mNPoints;
+      x = t.mX;
+      domain = new double[dim][2];
+      for (int i = 0; i < dim; i++)
+         if (x[i][0] < x[i][nPoints[i] - 1]) {
+            domain[i][0] = x[i][0];
+            domain[i][1] = x[i][nPoints[i] - 1];
+         } else {
+            domain[i][1] = x[i][0];
+            domain[i][0] = x[i][nPoints[i] - 1];
          }
-      } finally {
-         if (s != null)
-            s.close();
+      switch (dim) {
+         case 1 :
+            table1d = t.values1d();
+            break;
+         case 2 :
+            table2d = t.values2d();
+            break;
+         case 3 :
+            table3d = t.values3d();
+            break;
+         case 4 :
+            table4d = t.values4d();
+            break;
+      }
+      // The values in the order in which they were tabulated
+      for (int i = 0, n = t.mValues.limit(); i < n; i++) {
+         final double v = t.mValues.get(i);
+         if (v < range[0])
+            range[0] = v;
+         else if (v > range[1])
+            range[1] = v;
       }
    }
 }
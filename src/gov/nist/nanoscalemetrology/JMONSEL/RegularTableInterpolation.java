@@ -4,11 +4,9 @@
 package gov.nist.nanoscalemetrology.JMONSEL;
 
 import java.io.FileNotFoundException;
-import java.io.InputStream;
-import java.util.Locale;
-import java.util.Scanner;
-import java.util.TreeMap;
+import java.io.IOException;
 
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.nanoscalemetrology.JMONSELutils.ULagrangeInterpolation;
 
 /*
@@ -39,7 +37,14 @@ import gov.nist.nanoscalemetrology.JMONSELutils.ULagrangeInterpolation;
  * for each resource (file) that stores a table. This avoids storing duplicates
  * of the same table in memory. Use the static
  * RegularTableInterpolation.getInstance() method rather than the constructor to
- * obtain an interpolation table.
+ * obtain an interpolation table. getInstance() may be called from multiple
+ * threads. Tables which are no longer referenced may be garbage collected.
+ * </p>
+ * <p>
+ * The table may also be stored in the binary format defined by
+ * InterpolationTableFile. A binary resource named as the text resource plus
+ * InterpolationTableFile.BINARY_EXTENSION is used in place of the text
+ * resource when present.
  * </p>
  * <p>
  * Copyright: Pursuant to title 17 Section 105 of the United States Code this
@@ -62,12 +67,7 @@ public class RegularTableInterpolation {
     *           stores the table to be interpolated.
     */
    public static RegularTableInterpolation getInstance(String tableFileName) throws FileNotFoundException {
-      RegularTableInterpolation uniqueInstance = instanceMap.get(tableFileName);
-      if (uniqueInstance == null) {
-         uniqueInstance = new RegularTableInterpolation(tableFileName);
-         instanceMap.put(tableFileName, uniqueInstance);
-      }
-      return uniqueInstance;
+      return instanceMap.get(tableFileName);
    }
 
    private double[] table1d;
@@ -80,7 +80,13 @@ public class RegularTableInterpolation {
    double[] xmin; // Array of minimum x values
    private final String tableFileName;
 
-   private static TreeMap<String, RegularTableInterpolation> instanceMap = new TreeMap<String, RegularTableInterpolation>();
+   private static final InterpolationTableFile.Registry<RegularTableInterpolation> instanceMap = new InterpolationTableFile.Registry<RegularTableInterpolation>(
+         new InterpolationTableFile.Registry.Loader<RegularTableInterpolation>() {
+            @Override
+            public RegularTableInterpolation load(String name) throws FileNotFoundException {
+               return new RegularTableInterpolation(name);
+            }
+         });
 
    /**
     * RegularTableInterpolation - Create an interpolation table from the named
@@ -133,63 +139,31 @@ public class RegularTableInterpolation {
    }
 
    private void ReadTable(String tableFileName) throws FileNotFoundException {
-      final InputStream is = RegularTableInterpolation.class.getResourceAsStream(tableFileName);
-      if (is == null)
-         throw new FileNotFoundException("Could not locate " + tableFileName);
-      final Scanner s = new Scanner(is);
-      s.useLocale(Locale.US);
+      final InterpolationTableFile.Table t;
       try {
-         dim = s.nextInt();
-         if ((dim < 1) || (dim > 4))
-            throw new IllegalArgumentException("Table dimensions must be 1<=dim<=4");
-         /*
-          * Note: I think I could write a general N-dimension interpolation
-          * using techniques similar to Mick Flanagan's PolyCubicSpline
-          * algorithm.
-          */
-         nPoints = new int[dim];
-         xinc = new double[dim];
-         final double[][] x = new double[dim][];
-         xmin = new double[dim];
-
-         for (int i = 0; i < dim; i++) {
-            nPoints[i] = s.nextInt();
-            xmin[i] = s.nextDouble();
-            xinc[i] = s.nextDouble();
-            x[i] = new double[nPoints[i]];
-            for (int j = 0; j < nPoints[i]; j++)
-               x[i][j] = xmin[i] + (j * xinc[i]);
-         }
-         switch (dim) {
-            case 1 :
-               table1d = new double[nPoints[0]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  table1d[i] = s.nextDouble();
-               break;
-            case 2 :
-               table2d = new double[nPoints[0]][nPoints[1]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++)
-                     table2d[i][j] = s.nextDouble();
-               break;
-            case 3 :
-               table3d = new double[nPoints[0]][nPoints[1]][nPoints[2]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++)
-                     for (int k = 0; k < nPoints[2]; k++)
-                        table3d[i][j][k] = s.nextDouble();
-               break;
-            case 4 :
-               table4d = new double[nPoints[0]][nPoints[1]][nPoints[2]][nPoints[3]];
-               for (int i = 0; i < nPoints[0]; i++)
-                  for (int j = 0; j < nPoints[1]; j++)
-                     for (int k = 0; k < nPoints[2]; k++)
-                        for (int m = 0; m < nPoints[3]; m++)
-                           table4d[i][j][k][m] = s.nextDouble();
-               break;
-         }
-      } finally {
-         s.close();
+         t = InterpolationTableFile.readResource(RegularTableInterpolation.class, tableFileName, true);
+      } catch (final FileNotFoundException e) {
+         throw e;
+      } catch (final IOException e) {
+         throw new EPQFatalException("Error reading " + tableFileName + ": " + e.getMessage(), e);
+      }
+      dim = t.mDim;
+      nPoints = t.mNPoints;
+      xmin = t.mX[0];
+      xinc = t.mX[1];
+      switch (dim) {
+         case 1 :
+            table1d = t.values1d();
+            break;
+         case 2 :
+            table2d = t.values2d();
+            break;
+         case 3 :
+            table3d = t.values3d();
+            break;
+         case 4 :
+            table4d = t.values4d();
+            break;
       }
    }
 }
@@ -10,6 +10,7 @@ import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
 import gov.nist.microanalysis.EPQLibrary.Material;
 import gov.nist.microanalysis.NISTMonte.Electron;
 import gov.nist.microanalysis.Utility.Math2;
+import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolator;
 
 /**
  * <p>
@@ -180,6 +181,15 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
    private NUTableInterpolation tableReducedDeltaE;
    private NUTableInterpolation tableTheta;
    private NUTableInterpolation tableSEE0;
+   /*
+    * Interpolators for the above tables. These remember their most recent
+    * position in the tables and keep their own working storage, so (like
+    * interpInput below) they belong to this instance.
+    */
+   private NULagrangeInterpolator interpIIMFP;
+   private NULagrangeInterpolator interpReducedDeltaE;
+   private NULagrangeInterpolator interpTheta;
+   private NULagrangeInterpolator interpSEE0;
    /*
     * The Fermi energy is defined for SEmaterials as the position of the highest
     * occupied state relative to the bottom of the conduction band. This makes
@@ -279,22 +289,26 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
       /* Read interpolation tables into memory */
       try {
          tableIIMFP = NUTableInterpolation.getInstance(tables[0]);
+         interpIIMFP = tableIIMFP.createInterpolator(1);
       } catch (final FileNotFoundException e1) {
          throw new EPQFatalException("File " + tables[0] + " not found.");
       }
       try {
          tableReducedDeltaE = NUTableInterpolation.getInstance(tables[1]);
+         interpReducedDeltaE = tableReducedDeltaE.createInterpolator(3);
       } catch (final FileNotFoundException e1) {
          throw new EPQFatalException("File " + tables[1] + " not found.");
       }
       try {
          tableTheta = NUTableInterpolation.getInstance(tables[2]);
+         interpTheta = tableTheta.createInterpolator(3);
       } catch (final FileNotFoundException e1) {
          throw new EPQFatalException("File " + tables[2] + " not found.");
       }
       if ((methodSE == 2) || (methodSE == 3))
          try {
             tableSEE0 = NUTableInterpolation.getInstance(tables[3]);
+            interpSEE0 = tableSEE0.createInterpolator(3);
             energyRangeSE0 = tableSEE0.getRange();
          } catch (final FileNotFoundException e1) {
             throw new EPQFatalException("File " + tables[3] + " not found.");
@@ -336,7 +350,7 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
       interpInput[0] = kE;
       interpInput[1] = randoms[0];
       // Energy loss by PE
-      double deltaE = kE * tableReducedDeltaE.interpolate(interpInput, 3);
+      double deltaE = kE * interpReducedDeltaE.interpolate(interpInput);
       /*
        * Cubic interpolation of the table can undershoot. Treat deltaE close to
        * but below the energyGap as such undershoot and correct it.
@@ -374,7 +388,7 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
          else if (interpInput[1] < 0.)
             interpInput[1] = 0.;
          interpInput[2] = randoms[1];
-         theta = tableTheta.interpolate(interpInput, 3);
+         theta = interpTheta.interpolate(interpInput);
          phi = 2. * Math.PI * randoms[2];
          /*
           * Update PE trajectory. Note that the energy of the PE is decremented
@@ -431,7 +445,7 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
             else {
                interpInput[0] = deltaE;
                interpInput[1] = randoms[3];
-               double energy0SE = tableSEE0.interpolate(interpInput, 3);
+               double energy0SE = interpSEE0.interpolate(interpInput);
                /*
                 * The values in the SEE0 table should range from 0 to EFermi,
                 * which represents the range of allowed values. If the
@@ -494,7 +508,7 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
                } else { // plasmon scattering
                   interpInput[0] = deltaE;
                   interpInput[1] = randoms[3];
-                  double energy0SE = tableSEE0.interpolate(interpInput, 3);
+                  double energy0SE = interpSEE0.interpolate(interpInput);
                   /*
                    * The values in the SEE0 table should range from 0 to EFermi,
                    * which represents the range of allowed values. If the
@@ -735,7 +749,7 @@ public class TabulatedInelasticCBRefSM extends ScatterMechanism {
        * Clipping to 0 seems a bad choice here, because it results in an
        * infinite inelastic free path.
        */
-      final double result = rateMult * tableIIMFP.interpolate(kEa, 1);
+      final double result = rateMult * interpIIMFP.interpolate(kEa);
       return result;
    }
 
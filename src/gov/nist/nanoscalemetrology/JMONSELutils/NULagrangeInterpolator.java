@@ -0,0 +1,408 @@
+package gov.nist.nanoscalemetrology.JMONSELutils;
+
+/**
+ * <p>
+ * Performs the same Lagrange (polynomial) interpolation of a nonuniform table
+ * as the static d1, d2, d3 and d4 methods in NULagrangeInterpolation and
+ * returns identical results. The static methods allocate their results and
+ * working arrays and bisect each axis of the table on every call (and for
+ * multidimensional tables, repeatedly for the inner axes). An
+ * NULagrangeInterpolator is constructed for a table and an interpolation order
+ * and allocates its working arrays once. Each axis is located once per call.
+ * The location on each axis is remembered so successive interpolations at
+ * nearby points (for example, an electron's energy between scattering events)
+ * find their place in the table in a step or two. On axes with equally spaced
+ * values the location is computed directly.
+ * </p>
+ * <p>
+ * An NULagrangeInterpolator holds working state so it must not be shared
+ * between threads. The table is not copied so many interpolators may share a
+ * table.
+ * </p>
+ * <p>
+ * The order must be at least 1 and each axis of the table must have at least
+ * order+1 values. This is checked once, when the interpolator is constructed,
+ * and an IllegalArgumentException is thrown otherwise. (The
+ * NULagrangeInterpolation methods throw the same exception on every call.) The
+ * order is never silently reduced, so use a lower order for tables with short
+ * axes. Inputs beyond either end of an axis are extrapolated from the order+1
+ * values at that end of the axis and a NaN input produces a NaN result, both
+ * exactly as for the NULagrangeInterpolation methods.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain
+ * </p>
+ * <p>
+ * Company: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class NULagrangeInterpolator {
+
+   /**
+    * The tolerance (relative to the spacing) used to decide whether an axis is
+    * equally spaced. This only affects the speed, not the result.
+    */
+   private static final double UNIFORM_TOLERANCE = 1.0e-9;
+   /**
+    * The number of steps to take from the remembered location before resorting
+    * to bisection.
+    */
+   private static final int MAX_STEPS = 2;
+
+   private final int dim;
+   private final int order;
+   private final double[] table1d;
+   private final double[][] table2d;
+   private final double[][][] table3d;
+   private final double[][][][] table4d;
+   private final double[][] xsamp;
+   private final boolean[] ascending;
+   // Inverse grid spacing on equally spaced axes and NaN otherwise
+   private final double[] invInc;
+   // The lower bracketing index from the previous call on each axis
+   private final int[] lastLow;
+   // The results of locating the current x on each axis
+   private final int[] first;
+   private final int[] nearest;
+   // Neville's algorithm work arrays
+   private final double[] c;
+   private final double[] d;
+   // Partial results for each dimension
+   private final double[][] y;
+   // The error estimate from the most recent call to neville(...)
+   private double lastError;
+
+   private NULagrangeInterpolator(int dim, double[] f1, double[][] f2, double[][][] f3, double[][][][] f4, double[][] xsamp, int order) {
+      if (order < 1)
+         throw new IllegalArgumentException("0 < order <= table.length-1 is required.");
+      if (xsamp.length < dim)
+         throw new IllegalArgumentException("The table has " + dim + " dimensions but only " + xsamp.length + " axes were provided.");
+      this.dim = dim;
+      this.order = order;
+      table1d = f1;
+      table2d = f2;
+      table3d = f3;
+      table4d = f4;
+      this.xsamp = new double[dim][];
+      ascending = new boolean[dim];
+      invInc = new double[dim];
+      for (int i = 0; i < dim; i++) {
+         final double[] xs = xsamp[i];
+         if (xs.length < (order + 1))
+            throw new IllegalArgumentException("0 < order <= table.length-1 is required but axis " + i + " has " + xs.length + " values for order "
+                  + order + ".");
+         this.xsamp[i] = xs;
+         ascending[i] = xs[xs.length - 1] > xs[0];
+         final double inc = (xs[xs.length - 1] - xs[0]) / (xs.length - 1);
+         boolean uniform = inc != 0.0;
+         for (int j = 1; uniform && (j < xs.length); j++)
+            uniform = Math.abs(xs[j] - (xs[0] + (j * inc))) <= (UNIFORM_TOLERANCE * Math.abs(inc));
+         invInc[i] = uniform ? 1.0 / inc : Double.NaN;
+      }
+      lastLow = new int[dim];
+      first = new int[dim];
+      nearest = new int[dim];
+      c = new double[order + 1];
+      d = new double[order + 1];
+      y = new double[dim][order + 1];
+   }
+
+   /**
+    * Constructs an interpolator for the 1-d table f sampled at xsamp[0].
+    *
+    * @param f
+    *           - double[] 1D array of function values at the grid points
+    * @param xsamp
+    *           - double[][] 1 x ? array of x values at the grid points
+    * @param order
+    *           - int The order of the interpolation (1 for linear, 3 for cubic,
+    *           etc.).
+    * @throws IllegalArgumentException
+    *            If order &lt; 1 or an axis has order or fewer values
+    */
+   public NULagrangeInterpolator(double[] f, double[][] xsamp, int order) {
+      this(1, f, null, null, null, xsamp, order);
+   }
+
+   /**
+    * Constructs an interpolator for the 2-d table f sampled at xsamp[0] x
+    * xsamp[1].
+    *
+    * @param f
+    *           - double[][] 2D array of function values at the grid points
+    * @param xsamp
+    *           - double[][] 2 x ? (ragged) array of x values at the grid points
+    * @param order
+    *           - int The order of the interpolation.
+    * @throws IllegalArgumentException
+    *            If order &lt; 1 or an axis has order or fewer values
+    */
+   public NULagrangeInterpolator(double[][] f, double[][] xsamp, int order) {
+      this(2, null, f, null, null, xsamp, order);
+   }
+
+   /**
+    * Constructs an interpolator for the 3-d table f sampled at xsamp[0] x
+    * xsamp[1] x xsamp[2].
+    *
+    * @param f
+    *           - double[][][] 3D array of function values at the grid points
+    * @param xsamp
+    *           - double[][] 3 x ? (ragged) array of x values at the grid points
+    * @param order
+    *           - int The order of the interpolation.
+    * @throws IllegalArgumentException
+    *            If order &lt; 1 or an axis has order or fewer values
+    */
+   public NULagrangeInterpolator(double[][][] f, double[][] xsamp, int order) {
+      this(3, null, null, f, null, xsamp, order);
+   }
+
+   /**
+    * Constructs an interpolator for the 4-d table f sampled at xsamp[0] x
+    * xsamp[1] x xsamp[2] x xsamp[3].
+    *
+    * @param f
+    *           - double[][][][] 4D array of function values at the grid points
+    * @param xsamp
+    *           - double[][] 4 x ? (ragged) array of x values at the grid points
+    * @param order
+    *           - int The order of the interpolation.
+    * @throws IllegalArgumentException
+    *            If order &lt; 1 or an axis has order or fewer values
+    */
+   public NULagrangeInterpolator(double[][][][] f, double[][] xsamp, int order) {
+      this(4, null, null, null, f, xsamp, order);
+   }
+
+   public int getDimension() {
+      return dim;
+   }
+
+   public int getOrder() {
+      return order;
+   }
+
+   /**
+    * Returns the estimate of f at x. This is the same as the first element
+    * returned by the corresponding NULagrangeInterpolation method.
+    *
+    * @param x
+    *           - double[] The coordinates of the point at which the function
+    *           is to be estimated. Elements beyond the dimension of the table
+    *           are ignored.
+    * @return double
+    */
+   public double interpolate(double[] x) {
+      if (x.length < dim)
+         throw new IllegalArgumentException("Input array is too short.)");
+      for (int i = 0; i < dim; i++)
+         locate(i, x[i]);
+      switch (dim) {
+         case 1 :
+            return neville(table1d, first[0], 0, x[0]);
+         case 2 :
+            return interpolate2(table2d, 0, x);
+         case 3 :
+            return interpolate3(table3d, 0, x);
+         default :
+            return interpolate4(x);
+      }
+   }
+
+   /**
+    * Estimates f at x and writes the estimate and an error estimate into
+    * result[0] and result[1] respectively. These are the values returned by
+    * the corresponding NULagrangeInterpolation method. The error estimate is
+    * based only upon the interpolation in the x[0] direction.
+    *
+    * @param x
+    *           - double[] The coordinates of the point at which the function
+    *           is to be estimated.
+    * @param result
+    *           - double[] of length 2 or more
+    */
+   public void interpolate(double[] x, double[] result) {
+      result[0] = interpolate(x);
+      result[1] = lastError;
+   }
+
+   private double interpolate2(double[][] f, int axis, double[] x) {
+      final double[] yy = y[axis];
+      final int f0 = first[axis];
+      for (int i = 0; i <= order; i++)
+         yy[i] = neville(f[f0 + i], first[axis + 1], axis + 1, x[axis + 1]);
+      return neville(yy, 0, axis, x[axis]);
+   }
+
+   private double interpolate3(double[][][] f, int axis, double[] x) {
+      final double[] yy = y[axis];
+      final int f0 = first[axis];
+      for (int i = 0; i <= order; i++)
+         yy[i] = interpolate2(f[f0 + i], axis + 1, x);
+      return neville(yy, 0, axis, x[axis]);
+   }
+
+   private double interpolate4(double[] x) {
+      final double[] yy = y[0];
+      final int f0 = first[0];
+      for (int i = 0; i <= order; i++)
+         yy[i] = interpolate3(table4d[f0 + i], 1, x);
+      return neville(yy, 0, 0, x[0]);
+   }
+
+   /**
+    * Is x beyond xsamp[axis][i] in the direction of increasing index?
+    */
+   private boolean beyond(int axis, int i, double x) {
+      return (x > xsamp[axis][i]) == ascending[axis];
+   }
+
+   /**
+    * Finds the largest index i for which beyond(axis,i,x) is true (or -1).
+    * This is the lower limit found by the bisection in
+    * NULagrangeInterpolation.locate(...).
+    */
+   private int lowerLimit(int axis, double x) {
+      final double[] xs = xsamp[axis];
+      final int n = xs.length;
+      int low;
+      if (Double.isNaN(invInc[axis]))
+         low = lastLow[axis];
+      else {
+         // Equally spaced so compute the position directly
+         final double r = (x - xs[0]) * invInc[axis];
+         low = r >= 0.0 ? (r < n ? (int) r : n - 1) : -1;
+      }
+      int steps = 0;
+      if ((low >= 0) && !beyond(axis, low, x)) {
+         do
+            --low;
+         while ((low >= 0) && (++steps <= MAX_STEPS) && !beyond(axis, low, x));
+         if ((low >= 0) && !beyond(axis, low, x))
+            low = bisect(axis, -1, low, x);
+      } else {
+         while (((low + 1) < n) && (steps++ < MAX_STEPS) && beyond(axis, low + 1, x))
+            ++low;
+         if (((low + 1) < n) && beyond(axis, low + 1, x))
+            low = bisect(axis, low + 1, n, x);
+      }
+      lastLow[axis] = low;
+      return low;
+   }
+
+   /**
+    * Bisection given that beyond(axis,lowlim,x) is true (or lowlim=-1) and
+    * beyond(axis,uplim,x) is false (or uplim=length).
+    */
+   private int bisect(int axis, int lowlim, int uplim, double x) {
+      while ((uplim - lowlim) > 1) {
+         final int midpoint = (uplim + lowlim) >> 1;
+         if (beyond(axis, midpoint, x))
+            lowlim = midpoint;
+         else
+            uplim = midpoint;
+      }
+      return lowlim;
+   }
+
+   /**
+    * Sets first[axis] and nearest[axis] exactly as
+    * NULagrangeInterpolation.locate(...) would.
+    */
+   private void locate(int axis, double x) {
+      final double[] xs = xsamp[axis];
+      final boolean asc = ascending[axis];
+      final int maxindex = xs.length - 1;
+      final int lowlim = lowerLimit(axis, x);
+      final int uplim = lowlim + 1;
+      if (lowlim < 0) {
+         first[axis] = 0;
+         nearest[axis] = 0;
+         return;
+      } else if (uplim > maxindex) {
+         first[axis] = maxindex - order;
+         nearest[axis] = maxindex;
+         return;
+      }
+      int nindex;
+      if (asc) {
+         if ((x - xs[lowlim]) <= (xs[uplim] - x))
+            nindex = lowlim;
+         else
+            nindex = uplim;
+      } else if ((xs[lowlim] - x) <= (x - xs[uplim]))
+         nindex = lowlim;
+      else
+         nindex = uplim;
+      int firstInd = lowlim;
+      int lastInd = uplim;
+      while (((lastInd - firstInd) < order) && (firstInd > 0) && (lastInd < maxindex))
+         if (((((xs[lowlim] - xs[firstInd - 1]) + xs[uplim]) - xs[lastInd + 1]) >= 0) == asc)
+            lastInd += 1;
+         else
+            firstInd -= 1;
+      if (lastInd >= maxindex)
+         firstInd = maxindex - order;
+      else if (firstInd <= 0)
+         firstInd = 0;
+      first[axis] = firstInd;
+      nearest[axis] = nindex;
+   }
+
+   /**
+    * Neville's algorithm as in NULagrangeInterpolation.neville(...) applied to
+    * f[offset] to f[offset+order] on the specified axis. The error estimate is
+    * saved in lastError.
+    */
+   private double neville(double[] f, int offset, int axis, double x) {
+      final double[] xs = xsamp[axis];
+      final int x0 = first[axis];
+      int ns = nearest[axis] - x0;
+      if (order == 1) {
+         final double ho = xs[x0] - x;
+         final double hp = xs[x0 + 1] - x;
+         double den = ho - hp;
+         if (den == 0.)
+            throw identical(xs, x0, 1);
+         den = (f[offset + 1] - f[offset]) / den;
+         if (ns == 0) {
+            lastError = ho * den;
+            return f[offset] + lastError;
+         } else {
+            lastError = hp * den;
+            return f[offset + 1] + lastError;
+         }
+      }
+      for (int i = 0; i <= order; i++)
+         c[i] = d[i] = f[offset + i];
+      double res = c[ns--];
+      double dy = 0;
+      for (int m = 1; m <= order; m++) {
+         for (int i = 0; i <= (order - m); i++) {
+            final double ho = xs[i + x0] - x;
+            final double hp = xs[i + m + x0] - x;
+            final double w = c[i + 1] - d[i];
+            double den = ho - hp;
+            if (den == 0.)
+               throw identical(xs, i + x0, m);
+            den = w / den;
+            d[i] = hp * den;
+            c[i] = ho * den;
+         }
+         dy = ((2 * ns) < (order - 1 - m)) ? c[ns + 1] : d[ns--];
+         res += dy;
+      }
+      lastError = dy;
+      return res;
+   }
+
+   private static IllegalArgumentException identical(double[] xs, int i, int m) {
+      return new IllegalArgumentException("neville: Identical x values (x = " + Double.toString(xs[i]) + " in interpolation table at indices "
+            + Integer.toString(i) + " and " + Integer.toString(i + m) + ".");
+   }
+}
@@ -0,0 +1,218 @@
+package gov.nist.nanoscalemetrology.MONSELtests;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicReference;
+
+import gov.nist.nanoscalemetrology.JMONSEL.InterpolationTableFile;
+import gov.nist.nanoscalemetrology.JMONSEL.NUTableInterpolation;
+import gov.nist.nanoscalemetrology.JMONSEL.RegularTableInterpolation;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests the text and binary interpolation table formats read and written by
+ * InterpolationTableFile and the sharing of the NUTableInterpolation and
+ * RegularTableInterpolation instances.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain.
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ */
+public class InterpolationTableFileTest extends TestCase {
+
+   /**
+    * A regular table tabulating f(x,y) at x = 0.0, 0.5, ..., 3.0 and y = 1.0,
+    * 1.25, ..., 2.0.
+    */
+   private static final String REGULAR = "/gov/nist/nanoscalemetrology/MONSELtests/RegularTable.tab";
+
+   private File mDir;
+
+   public InterpolationTableFileTest(String test) {
+      super(test);
+   }
+
+   private static double f(double x, double y) {
+      return (Math.sin(x) * Math.exp(-y)) + (x * y);
+   }
+
+   private static double[] xValues() {
+      final double[] res = new double[7];
+      for (int i = 0; i < res.length; ++i)
+         res[i] = 0.5 * i;
+      return res;
+   }
+
+   private static double[] yValues() {
+      final double[] res = new double[5];
+      for (int j = 0; j < res.length; ++j)
+         res[j] = 1.0 + (0.25 * j);
+      return res;
+   }
+
+   /**
+    * Writes f(x,y) + offset as a nonuniform text table.
+    */
+   private File writeText(String name, double offset) throws IOException {
+      final File res = new File(mDir, name);
+      final double[] xs = xValues(), ys = yValues();
+      try (final PrintWriter pw = new PrintWriter(res, "US-ASCII")) {
+         pw.println(2);
+         pw.print(xs.length);
+         for (final double x : xs)
+            pw.print(" " + x);
+         pw.println();
+         pw.print(ys.length);
+         for (final double y : ys)
+            pw.print(" " + y);
+         pw.println();
+         for (final double x : xs) {
+            for (final double y : ys)
+               pw.print(" " + (f(x, y) + offset));
+            pw.println();
+         }
+      }
+      return res;
+   }
+
+   @Override
+   protected void setUp() throws IOException {
+      mDir = File.createTempFile("InterpolationTable", "");
+      mDir.delete();
+      mDir.mkdirs();
+   }
+
+   @Override
+   protected void tearDown() {
+      final File[] files = mDir.listFiles();
+      if (files != null)
+         for (final File file : files)
+            file.delete();
+      mDir.delete();
+   }
+
+   private static void assertSameTable(NUTableInterpolation expected, NUTableInterpolation actual) {
+      for (int i = 0; i < 2; ++i)
+         for (int j = 0; j < 2; ++j)
+            assertEquals(expected.getDomain()[i][j], actual.getDomain()[i][j], 0.0);
+      assertEquals(expected.getRange()[0], actual.getRange()[0], 0.0);
+      assertEquals(expected.getRange()[1], actual.getRange()[1], 0.0);
+      for (double x = -0.2; x < 3.2; x += 0.13)
+         for (double y = 0.9; y < 2.1; y += 0.07) {
+            final double[] xy = new double[]{x, y};
+            assertEquals(expected.interpolate(xy, 3), actual.interpolate(xy, 3), 0.0);
+         }
+   }
+
+   /**
+    * text -&gt; binary -&gt; read gives the same table
+    */
+   public void testRoundTrip() throws IOException {
+      final File text = writeText("roundtrip.txt", 0.0);
+      final NUTableInterpolation fromText = NUTableInterpolation.getInstance(text.getPath());
+      final File bin = InterpolationTableFile.convert(text.getPath(), false);
+      assertEquals(text.getPath() + InterpolationTableFile.BINARY_EXTENSION, bin.getPath());
+      // The binary table may be read directly
+      final NUTableInterpolation fromBinary = NUTableInterpolation.getInstance(bin.getPath());
+      assertNotSame(fromText, fromBinary);
+      assertSameTable(fromText, fromBinary);
+      assertEquals(f(1.5, 1.25), fromBinary.interpolate(new double[]{1.5, 1.25}, 3), 1.0e-12);
+      // Converting again replaces the existing binary table
+      assertEquals(bin, InterpolationTableFile.convert(text.getPath(), false));
+   }
+
+   /**
+    * The binary table is used in place of the text table only when it is at
+    * least as new as the text table.
+    */
+   public void testBinaryPreferred() throws IOException {
+      final File text = writeText("preferred.txt", 0.0);
+      final File bin = InterpolationTableFile.convert(text.getPath(), false);
+      // Make the text table differ but leave the binary table newer
+      writeText("preferred.txt", 1.0);
+      assertTrue(text.setLastModified(bin.lastModified() - 10000));
+      final double[] xy = new double[]{1.0, 1.5};
+      assertEquals(f(1.0, 1.5), NUTableInterpolation.getInstance(text.getPath()).interpolate(xy, 3), 1.0e-4);
+      // A newer text table is used in preference to the stale binary table
+      final File stale = writeText("stale.txt", 1.0);
+      final File staleBin = new File(stale.getPath() + InterpolationTableFile.BINARY_EXTENSION);
+      assertTrue(InterpolationTableFile.convert(writeText("base.txt", 0.0).getPath(), false).renameTo(staleBin));
+      assertTrue(staleBin.setLastModified(stale.lastModified() - 10000));
+      assertEquals(f(1.0, 1.5) + 1.0, NUTableInterpolation.getInstance(stale.getPath()).interpolate(xy, 3), 1.0e-4);
+   }
+
+   /**
+    * Each name maps to one shared instance, even when requested concurrently.
+    */
+   public void testRegistry() throws Exception {
+      final String name = writeText("registry.txt", 0.0).getPath();
+      final NUTableInterpolation[] results = new NUTableInterpolation[8];
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final Thread[] threads = new Thread[results.length];
+      for (int i = 0; i < threads.length; ++i) {
+         final int idx = i;
+         threads[i] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  results[idx] = NUTableInterpolation.getInstance(name);
+               } catch (final Throwable th) {
+                  failure.compareAndSet(null, th);
+               }
+            }
+         });
+         threads[i].start();
+      }
+      for (final Thread th : threads)
+         th.join();
+      if (failure.get() != null)
+         throw new Exception(failure.get());
+      for (final NUTableInterpolation nu : results)
+         assertSame(results[0], nu);
+      assertSame(results[0], NUTableInterpolation.getInstance(name));
+      assertSame(RegularTableInterpolation.getInstance(REGULAR), RegularTableInterpolation.getInstance(REGULAR));
+      // A failure to load isn't remembered
+      final String missing = new File(mDir, "missing.txt").getPath();
+      for (int i = 0; i < 2; ++i)
+         try {
+            NUTableInterpolation.getInstance(missing);
+            fail();
+         } catch (final FileNotFoundException e) {
+            // Expected
+         }
+      writeText("missing.txt", 0.0);
+      assertNotNull(NUTableInterpolation.getInstance(missing));
+   }
+
+   /**
+    * A regular table and the equivalent nonuniform table interpolate to the
+    * same values.
+    */
+   public void testRegularMatchesNU() throws IOException {
+      final RegularTableInterpolation regular = RegularTableInterpolation.getInstance(REGULAR);
+      final NUTableInterpolation nu = NUTableInterpolation.getInstance(writeText("regular.txt", 0.0).getPath());
+      for (final int order : new int[]{1, 3})
+         for (double x = 0.05; x < 3.0; x += 0.11)
+            for (double y = 1.01; y < 2.0; y += 0.07) {
+               final double[] xy = new double[]{x, y};
+               final double expected = nu.interpolate(xy, order);
+               assertEquals(expected, regular.interpolate(xy, order), 1.0e-12 * Math.abs(expected));
+            }
+      // At the grid points both reproduce the tabulated values
+      for (final double x : xValues())
+         for (final double y : yValues()) {
+            final double[] xy = new double[]{x, y};
+            assertEquals(f(x, y), regular.interpolate(xy, 3), 1.0e-12);
+            assertEquals(f(x, y), nu.interpolate(xy, 3), 1.0e-12);
+         }
+   }
+}
@@ -0,0 +1,324 @@
+package gov.nist.nanoscalemetrology.MONSELtests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import gov.nist.microanalysis.EPQLibrary.EPQFatalException;
+import gov.nist.microanalysis.EPQLibrary.PhysicalConstants;
+import gov.nist.microanalysis.NISTMonte.IMaterialScatterModel;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.DirichletConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.FloatingConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.IConstraint;
+import gov.nist.microanalysis.NISTMonte.MeshedRegion.NeumannConstraint;
+import gov.nist.nanoscalemetrology.JMONSEL.JavaFEArunner;
+import gov.nist.nanoscalemetrology.JMONSEL.MONSEL_MaterialScatterModel;
+import gov.nist.nanoscalemetrology.JMONSEL.Mesh;
+import gov.nist.nanoscalemetrology.JMONSEL.SEmaterial;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares the potentials computed by JavaFEArunner with closed form
+ * solutions. The meshes are structured tetrahedral meshes of a box which is N
+ * cubes wide in x and y and NZ cubes tall in z. Each cube is split into 6
+ * tetrahedra of equal volume. The boundary conditions only depend upon z so
+ * the exact solutions are functions of z alone and, for these meshes, the
+ * finite element solution is exact at the nodes.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain.
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ */
+public class JavaFEArunnerTest extends TestCase {
+
+   private static final int N = 3;
+   private static final int NZ = 8;
+   private static final double H = 1.0e-8;
+   private static final double L = NZ * H;
+   private static final double TOLERANCE = 1.0e-8;
+
+   /* Physical tags */
+   private static final long LOWER = 1, UPPER = 2, SLAB = 3;
+   private static final long BOTTOM = 11, TOP = 12, SLAB_SURFACE = 13;
+
+   private final List<File> mFiles = new ArrayList<File>();
+
+   public JavaFEArunnerTest(String test) {
+      super(test);
+   }
+
+   @Override
+   protected void tearDown() {
+      for (final File f : mFiles)
+         f.delete();
+   }
+
+   private interface LayerTags {
+      /**
+       * The tag of the volume elements in layer k (0 &lt;= k &lt; NZ).
+       */
+      long volume(int k);
+
+      /**
+       * The tag of the surface elements in the plane z = k*H or 0 for none.
+       */
+      long surface(int k);
+   }
+
+   private static int node(int i, int j, int k) {
+      return 1 + i + ((N + 1) * (j + ((N + 1) * k)));
+   }
+
+   /**
+    * Writes a structured mesh in Gmsh 2.2 format and reads it.
+    */
+   private Mesh mesh(LayerTags tags) throws IOException {
+      final File file = File.createTempFile("JavaFEArunner", ".msh");
+      mFiles.add(file);
+      final List<String> elements = new ArrayList<String>();
+      final int[][] steps = new int[][]{{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+      for (int k = 0; k <= NZ; k++) {
+         final long st = tags.surface(k);
+         if (st != 0)
+            for (int i = 0; i < N; i++)
+               for (int j = 0; j < N; j++) {
+                  elements.add("2 2 " + st + " " + st + " " + node(i, j, k) + " " + node(i + 1, j, k) + " " + node(i + 1, j + 1, k));
+                  elements.add("2 2 " + st + " " + st + " " + node(i, j, k) + " " + node(i, j + 1, k) + " " + node(i + 1, j + 1, k));
+               }
+      }
+      for (int k = 0; k < NZ; k++)
+         for (int i = 0; i < N; i++)
+            for (int j = 0; j < N; j++)
+               for (final int[] step : steps) {
+                  // A path along the cube's edges from (i,j,k) to (i+1,j+1,k+1)
+                  final int[] v = new int[]{i, j, k};
+                  final StringBuilder sb = new StringBuilder();
+                  sb.append("4 2 " + tags.volume(k) + " " + tags.volume(k) + " " + node(v[0], v[1], v[2]));
+                  for (final int s : step) {
+                     ++v[s];
+                     sb.append(" " + node(v[0], v[1], v[2]));
+                  }
+                  elements.add(sb.toString());
+               }
+      try (final PrintWriter pw = new PrintWriter(file, "US-ASCII")) {
+         pw.println("$MeshFormat");
+         pw.println("2.2 0 8");
+         pw.println("$EndMeshFormat");
+         pw.println("$Nodes");
+         pw.println((N + 1) * (N + 1) * (NZ + 1));
+         for (int k = 0; k <= NZ; k++)
+            for (int j = 0; j <= N; j++)
+               for (int i = 0; i <= N; i++)
+                  pw.println(node(i, j, k) + " " + (i * H) + " " + (j * H) + " " + (k * H));
+         pw.println("$EndNodes");
+         pw.println("$Elements");
+         pw.println(elements.size());
+         for (int e = 0; e < elements.size(); e++)
+            pw.println((e + 1) + " " + elements.get(e));
+         pw.println("$EndElements");
+      }
+      return new Mesh(file.getPath());
+   }
+
+   private static SEmaterial material(double epsr) {
+      final SEmaterial res = new SEmaterial();
+      res.setEpsr(epsr);
+      return res;
+   }
+
+   private static MeshedRegion region(Mesh mesh, HashMap<Long, SEmaterial> mats, IConstraint[] constraints) {
+      final HashMap<Long, IMaterialScatterModel> msmMap = new HashMap<Long, IMaterialScatterModel>();
+      for (final Long tag : mats.keySet())
+         msmMap.put(tag, new MONSEL_MaterialScatterModel(mats.get(tag)));
+      return new MeshedRegion(null, mesh, msmMap, constraints);
+   }
+
+   private interface Potential {
+      double compute(double z);
+   }
+
+   private static void assertPotentials(Mesh mesh, Potential expected, double scale) {
+      for (int n = 1; n <= mesh.getNumberOfNodes(); n++) {
+         final double z = mesh.getNodeCoordinates(n)[2];
+         assertEquals("z = " + z, expected.compute(z), mesh.getNodePotential(n), TOLERANCE * scale);
+      }
+   }
+
+   /**
+    * The tags of a box with the planes z=0 and z=L tagged BOTTOM and TOP and
+    * lower and upper halves tagged LOWER and UPPER.
+    */
+   private static LayerTags plates() {
+      return new LayerTags() {
+         @Override
+         public long volume(int k) {
+            return k < (NZ / 2) ? LOWER : UPPER;
+         }
+
+         @Override
+         public long surface(int k) {
+            return k == 0 ? BOTTOM : (k == NZ ? TOP : 0);
+         }
+      };
+   }
+
+   /**
+    * A parallel plate capacitor with two dielectric layers.
+    */
+   public void testCapacitor() throws IOException {
+      final Mesh mesh = mesh(plates());
+      final double v1 = 3.0, eps1 = 2.0, eps2 = 5.0;
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(eps1));
+      mats.put(UPPER, material(eps2));
+      final MeshedRegion mr = region(mesh, mats,
+            new IConstraint[]{new DirichletConstraint(mesh, BOTTOM, 0.0), new DirichletConstraint(mesh, TOP, v1)});
+      final JavaFEArunner runner = new JavaFEArunner();
+      runner.runFEA(mr);
+      // D is continuous so eps1*e1 = eps2*e2 and (e1 + e2)*L/2 = v1
+      final double e1 = v1 / ((0.5 * L) * (1.0 + (eps1 / eps2)));
+      final double e2 = (eps1 * e1) / eps2;
+      assertPotentials(mesh, z -> z <= (0.5 * L) ? e1 * z : (e1 * 0.5 * L) + (e2 * (z - (0.5 * L))), v1);
+      assertTrue(runner.getIterations() > 0);
+      // Solving again starts from the solution
+      runner.runFEA(mr);
+      assertEquals(0, runner.getIterations());
+   }
+
+   /**
+    * A uniform space charge between the plates of a capacitor.
+    */
+   public void testSpaceCharge() throws IOException {
+      final Mesh mesh = mesh(plates());
+      final double v1 = -2.0, eps = 4.0;
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(eps));
+      mats.put(UPPER, material(eps));
+      final MeshedRegion mr = region(mesh, mats,
+            new IConstraint[]{new DirichletConstraint(mesh, BOTTOM, 0.0), new DirichletConstraint(mesh, TOP, v1)});
+      final JavaFEArunner runner = new JavaFEArunner();
+      runner.runFEA(mr);
+      assertPotentials(mesh, z -> (v1 * z) / L, Math.abs(v1));
+      // One electron in each tetrahedron is a uniform charge density
+      for (int e = 1; e <= mesh.getNumberOfElements(); e++)
+         if (mesh.isVolumeType(e))
+            mesh.setChargeNumber(e, 1);
+      runner.runFEA(mr);
+      final double rho = PhysicalConstants.ElectronCharge / ((H * H * H) / 6.0);
+      final double k = rho / (2.0 * PhysicalConstants.PermittivityOfFreeSpace * eps);
+      assertPotentials(mesh, z -> ((v1 * z) / L) + (k * z * (L - z)), k * L * L);
+   }
+
+   /**
+    * A grounded plate below and a Neumann constraint on the top face. As in
+    * the GetDP formulation written by GetDPspec, the Neumann constraint
+    * specifies epsr times the outward normal derivative of the potential.
+    */
+   public void testNeumann() throws IOException {
+      final Mesh mesh = mesh(plates());
+      final double eps = 2.0, normalE = 1.0e7;
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(eps));
+      mats.put(UPPER, material(eps));
+      final MeshedRegion mr = region(mesh, mats,
+            new IConstraint[]{new DirichletConstraint(mesh, BOTTOM, 0.0), new NeumannConstraint(mesh, TOP, normalE)});
+      new JavaFEArunner().runFEA(mr);
+      assertPotentials(mesh, z -> (normalE * z) / eps, (normalE * L) / eps);
+   }
+
+   /**
+    * A charged conducting slab floating between two grounded plates.
+    */
+   public void testFloatingSlab() throws IOException {
+      final int lo = 3, hi = 5;
+      final Mesh mesh = mesh(new LayerTags() {
+         @Override
+         public long volume(int k) {
+            return (k >= lo) && (k < hi) ? SLAB : LOWER;
+         }
+
+         @Override
+         public long surface(int k) {
+            if (k == 0)
+               return BOTTOM;
+            if (k == NZ)
+               return TOP;
+            return (k == lo) || (k == hi) ? SLAB_SURFACE : 0;
+         }
+      });
+      final double eps = 3.0;
+      final int charge = -50;
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(eps));
+      mats.put(SLAB, material(1.0));
+      final FloatingConstraint slab = new FloatingConstraint(mesh, SLAB_SURFACE, SLAB);
+      final MeshedRegion mr = region(mesh, mats,
+            new IConstraint[]{new DirichletConstraint(mesh, BOTTOM, 0.0), new DirichletConstraint(mesh, TOP, 0.0), slab});
+      slab.setCharge(charge);
+      new JavaFEArunner().runFEA(mr);
+      // Gauss's law: eps*(vf/a + vf/b)*area = Q/eps0
+      final double a = lo * H, b = L - (hi * H), area = (N * H) * (N * H);
+      final double vf = (charge * PhysicalConstants.ElectronCharge) / (PhysicalConstants.PermittivityOfFreeSpace * eps * area * ((1.0 / a) + (1.0 / b)));
+      assertTrue(vf < 0.0);
+      assertPotentials(mesh, z -> z <= a ? (vf * z) / a : (z >= (L - b) ? (vf * (L - z)) / b : vf), Math.abs(vf));
+   }
+
+   /**
+    * The iteration limit is reported as an EPQFatalException.
+    */
+   public void testIterationLimit() throws IOException {
+      final Mesh mesh = mesh(plates());
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(2.0));
+      mats.put(UPPER, material(5.0));
+      final MeshedRegion mr = region(mesh, mats,
+            new IConstraint[]{new DirichletConstraint(mesh, BOTTOM, 0.0), new DirichletConstraint(mesh, TOP, 1.0)});
+      final JavaFEArunner runner = new JavaFEArunner();
+      runner.setMaxIterations(1);
+      try {
+         runner.runFEA(mr);
+         fail();
+      } catch (final EPQFatalException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("did not converge"));
+      }
+      // The same runner succeeds once it is allowed more iterations
+      runner.setMaxIterations(4000);
+      runner.runFEA(mr);
+      assertTrue(runner.getIterations() > 1);
+   }
+
+   /**
+    * Without any Dirichlet or floating constraint the potential is only
+    * defined up to a constant and a net charge has no solution, so the
+    * iteration can't converge.
+    */
+   public void testNonConverging() throws IOException {
+      final Mesh mesh = mesh(plates());
+      final HashMap<Long, SEmaterial> mats = new HashMap<Long, SEmaterial>();
+      mats.put(LOWER, material(2.0));
+      mats.put(UPPER, material(2.0));
+      final MeshedRegion mr = region(mesh, mats, new IConstraint[0]);
+      for (int e = 1; e <= mesh.getNumberOfElements(); e++)
+         if (mesh.isVolumeType(e))
+            mesh.setChargeNumber(e, 1);
+      final JavaFEArunner runner = new JavaFEArunner();
+      runner.setMaxIterations(200);
+      try {
+         runner.runFEA(mr);
+         fail();
+      } catch (final EPQFatalException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("did not converge"));
+      }
+   }
+}
@@ -0,0 +1,313 @@
+package gov.nist.nanoscalemetrology.MONSELtests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import gov.nist.microanalysis.EPQLibrary.ToSI;
+import gov.nist.microanalysis.NISTMonte.Electron;
+import gov.nist.nanoscalemetrology.JMONSEL.NUTableInterpolation;
+import gov.nist.nanoscalemetrology.JMONSEL.SEmaterial;
+import gov.nist.nanoscalemetrology.JMONSEL.ScatterMechanism;
+import gov.nist.nanoscalemetrology.JMONSEL.TabulatedInelasticCBRefSM;
+import gov.nist.nanoscalemetrology.JMONSEL.TabulatedInelasticSM;
+import gov.nist.nanoscalemetrology.JMONSEL.TabulatedInelasticWAugerOrigSM;
+import gov.nist.nanoscalemetrology.JMONSEL.TabulatedInelasticWAugerSM;
+import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolation;
+import gov.nist.nanoscalemetrology.JMONSELutils.NULagrangeInterpolator;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Compares NULagrangeInterpolator with the NULagrangeInterpolation d1, d2, d3
+ * and d4 methods and checks the interpolators used by the TabulatedInelastic
+ * scatter mechanisms.
+ * </p>
+ * <p>
+ * Copyright: Pursuant to title 17 Section 105 of the United States Code this
+ * software is not subject to copyright protection and is in the public domain.
+ * </p>
+ * <p>
+ * Institution: National Institute of Standards and Technology
+ * </p>
+ *
+ * @author agent
+ */
+public class NULagrangeInterpolatorTest extends TestCase {
+
+   private final Random mRandom = new Random(0x4E554C);
+
+   public NULagrangeInterpolatorTest(String test) {
+      super(test);
+   }
+
+   /**
+    * A nonuniform axis of n values which may be ascending or descending.
+    */
+   private double[] axis(int n, boolean ascending) {
+      final double[] res = new double[n];
+      double x = 10.0 * (mRandom.nextDouble() - 0.5);
+      for (int i = 0; i < n; ++i) {
+         res[ascending ? i : n - 1 - i] = x;
+         x += 0.1 + mRandom.nextDouble();
+      }
+      return res;
+   }
+
+   private double[][] axes(int dim, int minLength) {
+      final double[][] res = new double[dim][];
+      for (int i = 0; i < dim; ++i)
+         res[i] = axis(minLength + mRandom.nextInt(6), mRandom.nextBoolean());
+      return res;
+   }
+
+   private double[] values(int n) {
+      final double[] res = new double[n];
+      for (int i = 0; i < n; ++i)
+         res[i] = mRandom.nextDouble() - 0.5;
+      return res;
+   }
+
+   /**
+    * A coordinate on the axis which may lie beyond either end, exactly on a
+    * grid point or (occasionally) be NaN.
+    */
+   private double coordinate(double[] xs) {
+      final double lo = Math.min(xs[0], xs[xs.length - 1]);
+      final double hi = Math.max(xs[0], xs[xs.length - 1]);
+      switch (mRandom.nextInt(10)) {
+         case 0 :
+            return lo - (0.5 * (hi - lo) * mRandom.nextDouble());
+         case 1 :
+            return hi + (0.5 * (hi - lo) * mRandom.nextDouble());
+         case 2 :
+            return xs[mRandom.nextInt(xs.length)];
+         case 3 :
+            return mRandom.nextInt(4) == 0 ? Double.NaN : lo;
+         default :
+            return lo + ((hi - lo) * mRandom.nextDouble());
+      }
+   }
+
+   private double[] point(double[][] xs, double[] prev) {
+      final double[] res = new double[xs.length];
+      for (int i = 0; i < res.length; ++i)
+         // Sometimes step a little from the previous point
+         if ((prev != null) && !Double.isNaN(prev[i]) && mRandom.nextBoolean())
+            res[i] = prev[i] + (0.3 * (mRandom.nextDouble() - 0.5));
+         else
+            res[i] = coordinate(xs[i]);
+      return res;
+   }
+
+   private static void assertIdentical(double[] expected, NULagrangeInterpolator interp, double[] x) {
+      final double[] result = new double[2];
+      interp.interpolate(x, result);
+      // Double.compare(...) also matches NaN with NaN
+      assertEquals(Double.toString(expected[0]) + " != " + result[0], 0, Double.compare(expected[0], result[0]));
+      assertEquals(0, Double.compare(expected[1], result[1]));
+      assertEquals(0, Double.compare(expected[0], interp.interpolate(x)));
+   }
+
+   public void testD1() {
+      for (int order = 1; order <= 4; ++order)
+         for (int trial = 0; trial < 10; ++trial) {
+            final double[][] xs = axes(1, order + 1);
+            final double[] f = values(xs[0].length);
+            final NULagrangeInterpolator interp = new NULagrangeInterpolator(f, xs, order);
+            double[] x = null;
+            for (int i = 0; i < 200; ++i) {
+               x = point(xs, x);
+               assertIdentical(NULagrangeInterpolation.d1(f, xs[0], order, x[0]), interp, x);
+            }
+         }
+   }
+
+   public void testD2() {
+      for (int order = 1; order <= 4; ++order)
+         for (int trial = 0; trial < 10; ++trial) {
+            final double[][] xs = axes(2, order + 1);
+            final double[][] f = new double[xs[0].length][];
+            for (int i = 0; i < f.length; ++i)
+               f[i] = values(xs[1].length);
+            final NULagrangeInterpolator interp = new NULagrangeInterpolator(f, xs, order);
+            double[] x = null;
+            for (int i = 0; i < 200; ++i) {
+               x = point(xs, x);
+               assertIdentical(NULagrangeInterpolation.d2(f, xs, order, x), interp, x);
+            }
+         }
+   }
+
+   public void testD3() {
+      for (int order = 1; order <= 3; ++order)
+         for (int trial = 0; trial < 5; ++trial) {
+            final double[][] xs = axes(3, order + 1);
+            final double[][][] f = new double[xs[0].length][xs[1].length][];
+            for (final double[][] plane : f)
+               for (int j = 0; j < plane.length; ++j)
+                  plane[j] = values(xs[2].length);
+            final NULagrangeInterpolator interp = new NULagrangeInterpolator(f, xs, order);
+            double[] x = null;
+            for (int i = 0; i < 200; ++i) {
+               x = point(xs, x);
+               assertIdentical(NULagrangeInterpolation.d3(f, xs, order, x), interp, x);
+            }
+         }
+   }
+
+   public void testD4() {
+      for (int order = 1; order <= 3; ++order)
+         for (int trial = 0; trial < 3; ++trial) {
+            final double[][] xs = axes(4, order + 1);
+            final double[][][][] f = new double[xs[0].length][xs[1].length][xs[2].length][];
+            for (final double[][][] cube : f)
+               for (final double[][] plane : cube)
+                  for (int j = 0; j < plane.length; ++j)
+                     plane[j] = values(xs[3].length);
+            final NULagrangeInterpolator interp = new NULagrangeInterpolator(f, xs, order);
+            double[] x = null;
+            for (int i = 0; i < 200; ++i) {
+               x = point(xs, x);
+               assertIdentical(NULagrangeInterpolation.d4(f, xs, order, x), interp, x);
+            }
+         }
+   }
+
+   /**
+    * An axis with order or fewer values is rejected when the interpolator is
+    * constructed just as the static methods reject it on each call.
+    */
+   public void testOrderTooHigh() {
+      final double[][] xs = new double[][]{{1.0, 2.0, 4.0}, {0.0, -1.0, -3.0, -4.0}};
+      final double[][] f = new double[][]{values(4), values(4), values(4)};
+      // Order 2 is the highest the first axis supports
+      final NULagrangeInterpolator interp = new NULagrangeInterpolator(f, xs, 2);
+      assertIdentical(NULagrangeInterpolation.d2(f, xs, 2, new double[]{7.0, 1.0}), interp, new double[]{7.0, 1.0});
+      for (final int order : new int[]{0, 3, 4})
+         try {
+            new NULagrangeInterpolator(f, xs, order);
+            fail("Order " + order);
+         } catch (final IllegalArgumentException e) {
+            // Expected
+         }
+      try {
+         NULagrangeInterpolation.d2(f, xs, 3, new double[]{2.0, -2.0});
+         fail();
+      } catch (final IllegalArgumentException e) {
+         // Expected
+      }
+      try {
+         new NULagrangeInterpolator(new double[][]{values(3)}, new double[][]{{1.0}, {1.0, 2.0, 3.0}}, 1);
+         fail();
+      } catch (final IllegalArgumentException e) {
+         // Expected
+      }
+   }
+
+   private interface Function {
+      double compute(double[] x);
+   }
+
+   /**
+    * Writes a table in the NUTableInterpolation text format.
+    */
+   private static String writeTable(File dir, String name, double[][] xs, Function f) throws IOException {
+      final File file = new File(dir, name);
+      try (final PrintWriter pw = new PrintWriter(file, "US-ASCII")) {
+         pw.println(xs.length);
+         for (final double[] axis : xs) {
+            pw.print(axis.length);
+            for (final double x : axis)
+               pw.print(" " + x);
+            pw.println();
+         }
+         final int[] idx = new int[xs.length];
+         final double[] x = new double[xs.length];
+         while (idx[0] < xs[0].length) {
+            for (int i = 0; i < x.length; ++i)
+               x[i] = xs[i][idx[i]];
+            pw.println(f.compute(x));
+            // The last index varies most rapidly
+            int i = idx.length - 1;
+            ++idx[i];
+            while ((i > 0) && (idx[i] == xs[i].length)) {
+               idx[i] = 0;
+               ++idx[--i];
+            }
+         }
+      }
+      return file.getPath();
+   }
+
+   private static double[] grid(double min, double max, int n) {
+      final double[] res = new double[n];
+      for (int i = 0; i < n; ++i)
+         res[i] = min + (((max - min) * i * i) / ((n - 1) * (n - 1)));
+      return res;
+   }
+
+   private static Object field(Object obj, String name) throws ReflectiveOperationException {
+      final Field f = obj.getClass().getDeclaredField(name);
+      f.setAccessible(true);
+      return f.get(obj);
+   }
+
+   private void checkInterpolator(ScatterMechanism sm, String suffix, int order) throws ReflectiveOperationException {
+      final NULagrangeInterpolator interp = (NULagrangeInterpolator) field(sm, "interp" + suffix);
+      final NUTableInterpolation table = (NUTableInterpolation) field(sm, "table" + suffix);
+      assertNotNull(suffix, interp);
+      assertEquals(suffix, order, interp.getOrder());
+      final double[][] domain = table.getDomain();
+      assertEquals(suffix, domain.length, interp.getDimension());
+      final double[] x = new double[domain.length];
+      for (int i = 0; i < 100; ++i) {
+         for (int j = 0; j < x.length; ++j)
+            x[j] = domain[j][0] + ((domain[j][1] - domain[j][0]) * mRandom.nextDouble());
+         assertEquals(suffix, 0, Double.compare(table.interpolate(x, order), interp.interpolate(x)));
+      }
+   }
+
+   /**
+    * Each of the TabulatedInelastic scatter mechanisms builds an interpolator
+    * for each of its tables at the order at which it previously interpolated
+    * the table.
+    */
+   public void testTabulatedInelasticSM() throws Exception {
+      final File dir = File.createTempFile("NULagrange", "");
+      dir.delete();
+      dir.mkdirs();
+      try {
+         final double eMin = ToSI.eV(1.0), eMax = ToSI.eV(1000.0);
+         final double[] e0 = grid(eMin, eMax, 20);
+         final double[] r = grid(0.0, 1.0, 11);
+         final String[] tables = new String[]{
+            writeTable(dir, "iimfp.tab", new double[][]{e0}, x -> 1.0e8 * Math.sqrt(x[0] / eMax)),
+            writeTable(dir, "reducedDeltaE.tab", new double[][]{e0, r}, x -> 0.5 * x[1]),
+            writeTable(dir, "theta.tab", new double[][]{e0, r, r}, x -> 0.1 * (x[1] + x[2])),
+            writeTable(dir, "see0.tab", new double[][]{grid(0.0, eMax, 15), r}, x -> ToSI.eV(5.0) * x[1])};
+         final SEmaterial mat = new SEmaterial();
+         final ScatterMechanism[] sms = new ScatterMechanism[]{new TabulatedInelasticSM(mat, 3, tables), new TabulatedInelasticCBRefSM(mat, 3, tables),
+               new TabulatedInelasticWAugerSM(mat, 3, tables), new TabulatedInelasticWAugerOrigSM(mat, 3, tables)};
+         final NUTableInterpolation iimfp = NUTableInterpolation.getInstance(tables[0]);
+         for (final ScatterMechanism sm : sms) {
+            checkInterpolator(sm, "IIMFP", 1);
+            checkInterpolator(sm, "ReducedDeltaE", 3);
+            checkInterpolator(sm, "Theta", 3);
+            checkInterpolator(sm, "SEE0", 3);
+            for (double e = 1.5 * eMin; e < eMax; e *= 1.3) {
+               final double expected = iimfp.interpolate(new double[]{e}, 1);
+               assertEquals(expected, sm.scatterRate(new Electron(new double[]{0.0, 0.0, 0.0}, e)), 0.0);
+            }
+         }
+         // The SE initial energy table isn't used by methodSE = 1
+         assertNull(field(new TabulatedInelasticSM(mat, 1, tables), "interpSEE0"));
+      } finally {
+         for (final File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+}